@@ -14,7 +14,6 @@ import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Vector;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
@@ -26,11 +25,15 @@ import de.unistuttgart.vis.wearable.os.activityRecognition.NeuralNetworkManager.
 import de.unistuttgart.vis.wearable.os.api.ActivityChangedCallback;
 import de.unistuttgart.vis.wearable.os.api.CallbackFlags;
 import de.unistuttgart.vis.wearable.os.properties.Properties;
-import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataCursor;
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataResampler;
 import de.unistuttgart.vis.wearable.os.sensors.SensorManager;
 import de.unistuttgart.vis.wearable.os.sensors.SensorType;
 import de.unistuttgart.vis.wearable.os.service.GarmentOSService;
 import de.unistuttgart.vis.wearable.os.storage.ActivityLoad;
+import de.unistuttgart.vis.wearable.os.storage.ActivityTimeline;
+import de.unistuttgart.vis.wearable.os.storage.StorageExecutor;
+import de.unistuttgart.vis.wearable.os.utils.StartupTimeline;
 
 /**
  * @author Tobias
@@ -41,8 +44,8 @@ public class ActivityRecognitionModule {
 	private static final ActivityRecognitionModule instance;
 	
 	/**
-	 * Create a singleton of the module, initialize the neural network manager and set the 
-	 * current activity to no activity.
+	 * Create a singleton of the module and set the current activity to no activity. The neural
+	 * network manager and the activity history are loaded lazily once they are needed.
 	 */
 	static {
 		try {
@@ -50,11 +53,11 @@ public class ActivityRecognitionModule {
 		} catch(Exception e) {
 			throw new RuntimeException("Exception occured in creating singleton instance!");
 		}
-		instance.neuralNetworkManager = new NeuralNetworkManager(Properties.storageDirectory);
 		instance.loadActivities();
 	}
 
     private List<Activity> activities = new ArrayList<Activity>();
+	private Future<?> activityLoad;
 	private NeuralNetworkManager neuralNetworkManager;	
 	private Activity currentActivity;
 	
@@ -86,9 +89,45 @@ public class ActivityRecognitionModule {
 				currentActivity = activity;
 			}
 		}
-		ActivityLoad activityLoad = new ActivityLoad(activities);
-		activityLoad.work();
-		
+	}
+
+	/**
+	 * Returns the neural network manager. The network is loaded from disk the first time
+	 * this function is called.
+	 * @return
+	 * 		the neural network manager
+	 */
+	private synchronized NeuralNetworkManager getNeuralNetworkManager() {
+		if(neuralNetworkManager == null) {
+			StartupTimeline.Phase phase = StartupTimeline.begin("neural network");
+			try {
+				neuralNetworkManager = new NeuralNetworkManager(Properties.storageDirectory);
+			} finally {
+				phase.end();
+			}
+		}
+		return neuralNetworkManager;
+	}
+
+	/**
+	 * Reads the periods of all activities from the activity file the first time this function
+	 * is called and waits until they have been read.
+	 */
+	private void awaitActivityHistory() {
+		Future<?> load;
+		synchronized(this) {
+			if(activityLoad == null) {
+				final StartupTimeline.Phase phase = StartupTimeline.begin("activity history");
+				activityLoad = StorageExecutor.submit(new ActivityLoad(activities), new StorageExecutor.Callback() {
+					@Override
+					public void finished() {
+						phase.end();
+					}
+				});
+			}
+			load = activityLoad;
+		}
+		StorageExecutor.await(load);
 	}
 	
 	/**
@@ -105,36 +144,39 @@ public class ActivityRecognitionModule {
 	 */
 	public TimeWindow createTimeWindow(String activity, Date begin, Date end) {
 		TimeWindow timeWindow = new TimeWindow(activity, begin, end);
-		
-		for(String sid : neuralNetworkManager.getSensors()) {
+		List<String> sensors = getNeuralNetworkManager().getSensors();
+
+		// put all sensors onto the same grid, so the windows have the same size
+		// independent of the sample rates of the sensors
+		long step = Properties.activityResampleStep;
+		int points = (int) ((end.getTime() - begin.getTime()) / step) + 1;
+		SensorDataResampler resampler = new SensorDataResampler(sensors.size(), points,
+				SensorDataResampler.LINEAR, true);
+
+		for(int s = 0; s < sensors.size(); s++) {
+			String sid = sensors.get(s);
 
             if(!SensorManager.getSensorByID(Integer.valueOf(sid)).isEnabled()) {
                 timeWindow.setActivityLabel("dead (sensor disabled)");
                 return timeWindow;
             }
 
-			int sensorDimension = SensorManager.getSensorByID(
-					Integer.valueOf(sid)).getRawData().get(0).getDimension();
-			if(sensorDimension < 1) {
-				timeWindow.setActivityLabel("dead (sensor dimension is smaller than 1)");
-				return timeWindow;
+			SensorDataCursor cursor = SensorManager.getSensorByID(
+					Integer.valueOf(sid)).openCursor(begin, end);
+			float[][] values;
+			try {
+				if(cursor.getDimension() < 1) {
+					timeWindow.setActivityLabel("dead (sensor dimension is smaller than 1)");
+					return timeWindow;
+				}
+				values = resampler.resample(s, begin.getTime(), step, cursor);
+			} finally {
+				cursor.close();
 			}
-			Vector<SensorData> vector = SensorManager.getSensorByID(
-					Integer.valueOf(sid)).getRawData(begin, end);
-			if(vector.size() < 1) {
+			if(resampler.getSampleCount(s) < 1) {
 				timeWindow.setActivityLabel("dead (sensor data is smaller than 1)");
 				return timeWindow;
 			}
-			float[][] values = new float[sensorDimension][vector.size()];
-			int counter = 0;
-			for (SensorData sensorData : vector) {
-
-				for (int dimension = 0; dimension < sensorDimension; dimension++) {
-
-					values[dimension][counter] = sensorData.getData()[dimension];
-				}
-				counter++;
-			}
 			timeWindow.addSensorDataByID(sid
 					+ "_"
 					+ SensorManager.getSensorByID(Integer.valueOf(sid))
@@ -192,7 +234,7 @@ public class ActivityRecognitionModule {
                     }
 					if(!timeWindow.getActivityLabel().substring(0, 4).equals("dead")) {
 						try {
-							recognizedActivity = neuralNetworkManager.recognise(timeWindow);
+							recognizedActivity = getNeuralNetworkManager().recognise(timeWindow);
 						} catch (NullPointerException e) {
 							Log.e("har", "NullPointerException in recognize: " +
                                     e.getLocalizedMessage());
@@ -214,6 +256,8 @@ public class ActivityRecognitionModule {
 						setCurrentActivity(closestActivity);
 						setEndActivity(new Date());
 						if (!firstActivity) {
+							// read the history before adding the new period so it is not read twice
+							awaitActivityHistory();
 							getCurrentActivity().addPeriod(beginActivity,
 									endActivity);
 							getCurrentActivity().saveActivity();
@@ -270,10 +314,10 @@ public class ActivityRecognitionModule {
 	 * 			The closest sting to the hash
 	 */
 	private String closestActivity(double find) {
-		String closest = neuralNetworkManager.getActivities().get(0);
+		String closest = getNeuralNetworkManager().getActivities().get(0);
         double LONG_MAX = 4294967296.0;
         double distance = Math.abs(closest.hashCode() / LONG_MAX - find);
-		for(String s : neuralNetworkManager.getActivities()) {
+		for(String s : getNeuralNetworkManager().getActivities()) {
 			double tempDistance = Math.abs(s.hashCode() / LONG_MAX - find);
 			if(distance >= tempDistance) {
 				closest = s;
@@ -338,7 +382,7 @@ public class ActivityRecognitionModule {
                     }
                     if (!timeWindow.getActivityLabel().substring(0, 4).equals("dead")) {
                         try {
-                            neuralNetworkManager.train(timeWindow);
+                            getNeuralNetworkManager().train(timeWindow);
                             errorCount = 0;
                         } catch (NullPointerException e) {
                             Log.e("har", "NullPointerException in train: " +
@@ -444,7 +488,7 @@ public class ActivityRecognitionModule {
 						if (!timeWindow.getActivityLabel().substring(0, 4)
 								.equals("dead")) {
 							try {
-								neuralNetworkManager.train(timeWindow);
+								getNeuralNetworkManager().train(timeWindow);
                                 errorCount = 0;
                             } catch (NullPointerException e) {
                                 Log.e("har", "NullPointerException in train: " +
@@ -496,6 +540,7 @@ public class ActivityRecognitionModule {
 	 * @return the activities
 	 */
 	public List<Activity> getActivities() {
+		awaitActivityHistory();
 		return activities;
 	}
 	
@@ -520,10 +565,12 @@ public class ActivityRecognitionModule {
 	 * 		Activity object with the performed activity or NOACTIVITY
 	 */
 	public Activity getActivityAtTime(Date date) {
-		for(Activity activity : activities) {
-			for(Date[] dateArr : activity.getActivityTimes()) {
-				if(date.getTime() >= dateArr[0].getTime() &&
-						date.getTime() <= dateArr[1].getTime()) {
+		// Look the time up in the indexed activity file so the history does not have to be loaded
+		int ordinal = ActivityTimeline.getInstance().getActivityAtTime(date.getTime());
+		if(ordinal != ActivityTimeline.NO_ACTIVITY && ordinal < ActivityEnum.values().length) {
+			ActivityEnum activityEnum = ActivityEnum.values()[ordinal];
+			for(Activity activity : activities) {
+				if(activity.getActivityEnum() == activityEnum) {
 					return activity;
 				}
 			}
@@ -557,19 +604,19 @@ public class ActivityRecognitionModule {
 	 * @throws FileNotFoundException 
 	 */
 	public void loadNeuralNetwork() throws FileNotFoundException {
-		neuralNetworkManager.load();
+		getNeuralNetworkManager().load();
 	}
 	
 	public void saveNeuralNetwork() throws FileNotFoundException {
-		neuralNetworkManager.save();
+		getNeuralNetworkManager().save();
 	}
 	
 	public void closeNeuralNetwork() {
-		neuralNetworkManager.close();
+		getNeuralNetworkManager().close();
 	}
 	
 	public void deleteNeuralNetwork() throws FileNotFoundException {
-		neuralNetworkManager.delete();
+		getNeuralNetworkManager().delete();
 	}
 	
 	/**
@@ -605,7 +652,7 @@ public class ActivityRecognitionModule {
 			}
 		}
 		try {
-			return neuralNetworkManager.create(inputNeurons);
+			return getNeuralNetworkManager().create(inputNeurons);
 		} catch (IllegalArgumentException e) {
 			Log.e("har", "IllegalArgumentException in createNeuralNetwork: " +
                     e.getLocalizedMessage());
@@ -615,31 +662,31 @@ public class ActivityRecognitionModule {
 	}
 	
 	public Status getNeuralNetworkStatus() {
-		return neuralNetworkManager.getStatus();
+		return getNeuralNetworkManager().getStatus();
 	}
 	
 	public List<String> getSensors() {
-		return neuralNetworkManager.getSensors();
+		return getNeuralNetworkManager().getSensors();
 	}
 	
 	public void addSensor(String sensor) {
-		neuralNetworkManager.addSensor(sensor);
+		getNeuralNetworkManager().addSensor(sensor);
 	}
 	
 	public void removeSensor(String sensor) {
-		neuralNetworkManager.removeSensor(sensor);
+		getNeuralNetworkManager().removeSensor(sensor);
 	}
 	
 	public List<String> getSupportedActivities() {
-		return neuralNetworkManager.getActivities();
+		return getNeuralNetworkManager().getActivities();
 	}
 	
 	public void addActivity(String activity) {
-		neuralNetworkManager.addActivity(activity);
+		getNeuralNetworkManager().addActivity(activity);
 	}
 	
 	public void removeActivity(String activity) {
-		neuralNetworkManager.removeActivity(activity);
+		getNeuralNetworkManager().removeActivity(activity);
 	}
 
 	/**
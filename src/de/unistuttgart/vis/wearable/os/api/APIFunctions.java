@@ -102,6 +102,24 @@ public class APIFunctions {
         throw new RuntimeException("Connection failed");
     }
 
+    /**
+     * Get the activities performed in the given time range
+     *
+     * @param begin the begin of the time range
+     * @param end   the end of the time range
+     * @return the activity transitions, starting with the one to the activity performed at the
+     *         begin of the range, or null if the app is lacking rights
+     */
+    public static PActivityTransitions getActivityTransitions(java.util.Date begin, java.util.Date end) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().getActivityTransitions(APIHandle.getAppPackageID(), begin.getTime(), end.getTime());
+            } catch (android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
     /**
      * Register for the given callback
      *
@@ -140,6 +158,51 @@ public class APIFunctions {
         throw new RuntimeException("Connection failed");
     }
 
+    /**
+     * Change the queue of the callbacks waiting to be sent to the given callback handle. If
+     * the callback handle does not take its callbacks fast enough and more than capacity
+     * callbacks are waiting, the given policy decides which callbacks are dropped. The queue
+     * exists as long as the callback handle is registered or subscribed to a sensor.
+     *
+     * @param callback
+     *            the callback handle
+     * @param capacity
+     *            the maximum number of waiting callbacks
+     * @param policy
+     *            what happens to further callbacks if the queue is full
+     * @return true if the queue has been changed, false if the callback handle is neither
+     *         registered nor subscribed to a sensor
+     */
+    public static boolean setCallbackQueue(IGarmentCallback callback, int capacity, DropPolicy policy) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().setCallbackQueue(APIHandle.getAppPackageID(), callback, capacity, policy.ordinal());
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * Get the metrics of the queue of the given callback handle
+     *
+     * @param callback
+     *            the callback handle
+     * @return an array holding the number of waiting callbacks, the maximum number of waiting
+     *         callbacks so far, the number of sent, dropped and failed callbacks and the
+     *         average and the maximum latency in microseconds or null if the callback handle
+     *         is neither registered nor subscribed to a sensor
+     */
+    public static long[] getCallbackQueueStats(IGarmentCallback callback) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().getCallbackQueueStats(APIHandle.getAppPackageID(), callback);
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
     // =============================================================================
     //
     // Public SDK Functions
@@ -882,4 +945,225 @@ public class APIFunctions {
         }
         throw new RuntimeException("Connection failed");
     }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * To keep the object orientated approach by using AIDL we need to make an external function
+     * for the class method
+     *
+     * {@link PSensor#getRollupData(java.util.Date, java.util.Date, int)}
+     */
+    public static PRollupData SENSORS_SENSOR_getRollupData(int sid, long start, long end, int maxPoints) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_getRollupData(APIHandle.getAppPackageID(), sid, start, end, maxPoints);
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * To keep the object orientated approach by using AIDL we need to make an external function
+     * for the class method
+     *
+     * {@link PSensor#getAggregateData(java.util.Date, java.util.Date, long, int, float[])}
+     */
+    public static PAggregateData SENSORS_SENSOR_getAggregateData(int sid, long start, long end, long bucketWidth, int stats, float[] percentiles) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_getAggregateData(APIHandle.getAppPackageID(), sid, start, end, bucketWidth, stats, percentiles);
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * Open a paged query on the raw data recorded between start and end. The pages are fetched
+     * lazily while iterating over the returned object.
+     *
+     * {@link PSensor#getRawDataPaged(java.util.Date, java.util.Date)}
+     */
+    public static PagedSensorData SENSORS_SENSOR_getRawDataPaged(int sid, long start, long end) {
+        int query = SENSORS_SENSOR_openQuery(sid, start, end);
+        return query < 0 ? null : new PagedSensorData(query);
+    }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * {@link #SENSORS_SENSOR_getRawDataPaged(int, long, long)}
+     */
+    public static int SENSORS_SENSOR_openQuery(int sid, long start, long end) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_openQuery(APIHandle.getAppPackageID(), sid, start, end);
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * {@link PagedSensorData#hasNext()}
+     */
+    public static PSensorDataPage SENSORS_SENSOR_fetchPage(int query, long token) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_fetchPage(APIHandle.getAppPackageID(), query, token);
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * {@link PagedSensorData#close()}
+     */
+    public static void SENSORS_SENSOR_closeQuery(int query) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_closeQuery(APIHandle.getAppPackageID(), query);
+                return;
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    //
+    // Token of this process handed to the service with every channel, so the
+    // service can close the channels when the process dies
+    //
+    private static final android.os.IBinder CHANNEL_TOKEN = new android.os.Binder();
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * {@link PSensor#openChannel()}
+     */
+    public static SensorChannel SENSORS_SENSOR_openChannel(int sid) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                android.os.ParcelFileDescriptor fd = APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_openChannel(APIHandle.getAppPackageID(), sid, CHANNEL_TOKEN);
+                return fd == null ? null : new SensorChannel(sid, fd);
+            } catch(android.os.RemoteException e) {
+            } catch(java.io.IOException e) {
+                return null;
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * {@link SensorChannel#close()}
+     */
+    public static void SENSORS_SENSOR_closeChannel(int sid) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_closeChannel(APIHandle.getAppPackageID(), sid);
+                return;
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * {@link PSensor#registerValueCallback(IGarmentCallback, long, float)}
+     */
+    public static boolean SENSORS_SENSOR_registerValueCallback(int sid, IGarmentCallback callback, long minInterval, float minDelta) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_registerValueCallback(APIHandle.getAppPackageID(), sid, callback, minInterval, minDelta);
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * {@link PSensor#registerBatchCallback(IGarmentCallback, long, float, int, long)}
+     */
+    public static boolean SENSORS_SENSOR_registerBatchCallback(int sid, IGarmentCallback callback, long minInterval,
+                                                               float minDelta, int batchSize, long maxLatency) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_registerBatchCallback(APIHandle.getAppPackageID(), sid, callback,
+                        minInterval, minDelta, batchSize, maxLatency);
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * {@link PSensor#unregisterValueCallback(IGarmentCallback)}
+     */
+    public static void SENSORS_SENSOR_unregisterValueCallback(int sid, IGarmentCallback callback) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_unregisterValueCallback(APIHandle.getAppPackageID(), sid, callback);
+                return;
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * THIS FUNCTION SHALL NOT BE CALLED DIRECTLY
+     *
+     * {@link PSensor#getValueCallbackStats(IGarmentCallback)}
+     */
+    public static long[] SENSORS_SENSOR_getValueCallbackStats(int sid, IGarmentCallback callback) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().SENSORS_SENSOR_getValueCallbackStats(APIHandle.getAppPackageID(), sid, callback);
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
+
+    /**
+     * Get the raw data of several sensors recorded between start and end with a single call,
+     * aligned to a common time axis. If step is greater than 0 the values are sampled on a grid
+     * of this step width, holding the latest value of every sensor. Otherwise the time axis is
+     * the union of the time stamps of all sensors and sensors without a record at a time stamp
+     * have {@link Float#NaN} values there.
+     *
+     * @param sids  the ids of the sensors
+     * @param start the start time stamp
+     * @param end   the end time stamp
+     * @param step  the step width of the grid in milliseconds or 0
+     * @return the aligned data, sensors the app is lacking permissions for are left out
+     */
+    public static PMultiSensorData getRawDataMulti(int[] sids, long start, long end, long step) {
+        if(APIHandle.isServiceBound()) {
+            try {
+                return APIHandle.getGarmentAPIHandle().SENSORS_getRawDataMulti(APIHandle.getAppPackageID(), sids, start, end, step);
+            } catch(android.os.RemoteException e) {
+            }
+        }
+        throw new RuntimeException("Connection failed");
+    }
 }
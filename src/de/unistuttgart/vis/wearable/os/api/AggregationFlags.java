@@ -0,0 +1,51 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+/**
+ * <p>
+ * Flags selecting the statistics computed by an aggregation query, see
+ * {@link PSensor#getAggregateData(java.util.Date, java.util.Date, long, int, float[])}.
+ * Multiple flags can be put together using the binary or operator.
+ * </p>
+ * <p>
+ * <ul>
+ * <li>{@link AggregationFlags#COUNT} - the number of records per bucket, this
+ * is always computed</li>
+ * <li>{@link AggregationFlags#MIN} - the minimum per bucket and dimension</li>
+ * <li>{@link AggregationFlags#MAX} - the maximum per bucket and dimension</li>
+ * <li>{@link AggregationFlags#MEAN} - the mean per bucket and dimension</li>
+ * <li>{@link AggregationFlags#VARIANCE} - the variance per bucket and
+ * dimension</li>
+ * <li>{@link AggregationFlags#PERCENTILES} - the requested percentiles per
+ * bucket and dimension</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Queries for count, minimum, maximum and mean only are answered from the
+ * precomputed rollups where possible and are therefore a lot cheaper than
+ * queries for the variance or percentiles, which need all records.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public final class AggregationFlags {
+    /**
+     * There shall be no object of this class
+     */
+    private AggregationFlags() {
+    }
+
+    public static final int COUNT = 0x1;
+    public static final int MIN = 0x2;
+    public static final int MAX = 0x4;
+    public static final int MEAN = 0x8;
+    public static final int VARIANCE = 0x10;
+    public static final int PERCENTILES = 0x20;
+    public static final int ALL = 0x3F;
+}
@@ -34,6 +34,9 @@ public class BaseCallbackObject implements android.os.Parcelable {
                 break;
             case 2:
                 ret = new ActivityChangedCallback(source);
+                break;
+            case 3:
+                ret = new ValueBatchCallback(source);
                 break;
 			default:
 				break;
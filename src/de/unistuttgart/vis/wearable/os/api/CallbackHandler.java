@@ -7,24 +7,55 @@
  */
 package de.unistuttgart.vis.wearable.os.api;
 
+import de.unistuttgart.vis.wearable.os.service.CallbackIndex;
 import de.unistuttgart.vis.wearable.os.service.CallbackNode;
+import de.unistuttgart.vis.wearable.os.service.CallbackQueue;
+import de.unistuttgart.vis.wearable.os.service.ValueEventRing;
+import de.unistuttgart.vis.wearable.os.service.ValueSubscription;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
 import de.unistuttgart.vis.wearable.os.utils.Constants;
 import android.os.Message;
+import android.os.SystemClock;
 
 /**
  * This class is being used as callback Handler for the Garment OS Service.
+ * The callbacks are dispatched on a dedicated thread, so they do not compete
+ * with the user interface for the main looper. The dispatching thread does
+ * not call the applications itself but adds the callbacks to the
+ * {@link de.unistuttgart.vis.wearable.os.service.CallbackQueue} of every
+ * application, so a slow application can not delay the others.
  * 
  * @author roehrdor
  */
 public class CallbackHandler extends android.os.Handler {
 	//
-	// Reference to the list of call back nodes
+	// Reference to the index of the call back nodes
 	//
-	private final android.os.RemoteCallbackList<CallbackNode> mCallbacks;
-	private int mValue = 0;
+	private final CallbackIndex mCallbacks;
+
+	//
+	// Ring of the new sensor values and the event the values are taken into,
+	// both are reused for every value
+	//
+	private final ValueEventRing mValueEvents;
+	private final ValueEventRing.Event mEvent;
 	
-	public CallbackHandler(android.os.RemoteCallbackList<CallbackNode> callbackList) {
-		this.mCallbacks = callbackList;
+	/**
+	 * Create a new callback handler dispatching the callbacks on the given
+	 * looper
+	 * 
+	 * @param looper
+	 *            the looper of the dispatching thread
+	 * @param callbacks
+	 *            the index of the registered callback nodes
+	 * @param valueEvents
+	 *            the ring of the new sensor values
+	 */
+	public CallbackHandler(android.os.Looper looper, CallbackIndex callbacks, ValueEventRing valueEvents) {
+		super(looper);
+		this.mCallbacks = callbacks;
+		this.mValueEvents = valueEvents;
+		this.mEvent = new ValueEventRing.Event(valueEvents);
 	}
 	
 	@Override
@@ -48,38 +79,129 @@ public class CallbackHandler extends android.os.Handler {
 			// 		a newly created {@link CallbackObject} object.
 			//
 			case Constants.CALLBACK: {
-				// start the broadcast
-				final int N = mCallbacks.beginBroadcast();
-				CallbackNode cachedNode = null;
+				// only the nodes that registered for the flag are visited
+				final CallbackNode[] nodes = mCallbacks.get(msg.arg1);
+				if (nodes.length == 0)
+					break;
 
-				// Iterate over all elements in the callback list
-				for (int i = 0; i != N; ++i) {
-					try {
-						// Check whether the application wants to receive this
-						// callback
-						if ((cachedNode = mCallbacks.getBroadcastItem(i)).isFlagSet(msg.arg1)) {
+				// if instance of BaseCallbackObject send directly else sent it
+				// as part of a new instance of the CallbackObject class
+				final BaseCallbackObject bco = msg.obj instanceof BaseCallbackObject ? (BaseCallbackObject) msg.obj
+						: new CallBackObject(msg.obj);
 
-							// if instance of BaseCallbackObject send directly
-							if (msg.obj instanceof BaseCallbackObject)cachedNode.getCallbackHandle().callback((BaseCallbackObject) msg.obj);
+				for (CallbackNode node : nodes)
+					send(node, bco);
+				break;
+			}
 
-							// else sent it as part of a new instance of the
-							// CallbackObject class
-							else
-								cachedNode.getCallbackHandle().callback(new CallBackObject(msg.obj));
-						}
-					} catch (android.os.RemoteException e) {
-						// do not handle this exception, this one will be
-						// thrown e.g. if an application can no longer receive
-						// a broadcast (closing without unregistering)
-					}
+			//
+			// New sensor values have been published to the value ring. At
+			// most the capacity of the ring is taken at once, so the batch
+			// deadlines and other callbacks are not delayed by a sensor
+			// that keeps publishing
+			//
+			case Constants.CALLBACK_VALUES: {
+				for (int i = Properties.valueEventRingSize; i != 0; --i) {
+					if (!mValueEvents.poll(mEvent))
+						return;
+					dispatchValue(mEvent);
 				}
-
-				// finish broadcasts
-				mCallbacks.finishBroadcast();
+				sendEmptyMessage(Constants.CALLBACK_VALUES);
 				break;
 			}
 			default:
 				super.handleMessage(msg);
 		}
 	}
+
+	/**
+	 * Dispatch the given sensor value to the nodes that registered for
+	 * {@link CallbackFlags#VALUE_CHANGED} and to the subscriptions to the
+	 * sensor. A callback object is only created if the value is sent on its
+	 * own.
+	 * 
+	 * @param event
+	 *            the value taken from the ring
+	 */
+	private void dispatchValue(ValueEventRing.Event event) {
+		ValueChangedCallback vcc = null;
+		for (CallbackNode node : mCallbacks.get(CallbackFlags.VALUE_CHANGED)) {
+			if (vcc == null)
+				vcc = newValueChangedCallback(event);
+			send(node, vcc);
+		}
+
+		// the subscriptions to the sensor only get the values passing their
+		// rate and delta filter, batched subscriptions collect them until the
+		// batch is full or its deadline has come
+		for (ValueSubscription subscription : mCallbacks.getSubscriptions(event.sensorID)) {
+			if (!subscription.accept(event.time, event.values, event.dimension))
+				continue;
+			if (!subscription.isBatched()) {
+				if (vcc == null)
+					vcc = newValueChangedCallback(event);
+				send(subscription, vcc);
+				continue;
+			}
+			if (subscription.addToBatch(event.time, event.values, event.dimension, SystemClock.uptimeMillis()) == 1)
+				postDelayed(new BatchDeadline(subscription), subscription.getMaxLatency());
+			if (subscription.isBatchFull())
+				send(subscription, subscription.takeBatch());
+		}
+	}
+
+	private static ValueChangedCallback newValueChangedCallback(ValueEventRing.Event event) {
+		return new ValueChangedCallback(event.sensorID, event.time,
+				java.util.Arrays.copyOf(event.values, event.dimension));
+	}
+
+	/**
+	 * Sends the batch of a subscription once its deadline has come. If the
+	 * batch has been sent in the meantime because it was full, the deadline
+	 * belongs to the next batch and nothing is done.
+	 */
+	private static final class BatchDeadline implements Runnable {
+		private final ValueSubscription subscription;
+
+		BatchDeadline(ValueSubscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void run() {
+			if (SystemClock.uptimeMillis() < subscription.getBatchDeadline())
+				return;
+			ValueBatchCallback batch = subscription.takeBatch();
+			if (batch != null)
+				send(subscription, batch);
+		}
+	}
+
+	/**
+	 * Send the given object to the application of the given subscription
+	 * 
+	 * @param subscription
+	 *            the subscription to call back
+	 * @param bco
+	 *            the object to send
+	 */
+	private static void send(ValueSubscription subscription, BaseCallbackObject bco) {
+		subscription.called();
+		send(subscription.getNode(), bco);
+	}
+
+	/**
+	 * Add the given object to the queue of the given node
+	 * 
+	 * @param node
+	 *            the node to call back
+	 * @param bco
+	 *            the object to send
+	 */
+	private static void send(CallbackNode node, BaseCallbackObject bco) {
+		final CallbackQueue queue = node.getQueue();
+		// the node has been removed in the meantime
+		if (queue != null)
+			queue.offer(bco);
+	}
 }
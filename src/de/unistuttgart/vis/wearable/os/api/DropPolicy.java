@@ -0,0 +1,33 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+/**
+ * What happens to a new callback if the queue of the callbacks waiting to be
+ * sent to an application is full, see
+ * {@link APIFunctions#setCallbackQueue(IGarmentCallback, int, DropPolicy)}
+ *
+ * @author roehrdor
+ */
+public enum DropPolicy {
+    /**
+     * Drop the oldest waiting callback to make room for the new one
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the new callback
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drop all waiting callbacks and remove the callback handle together with
+     * all its subscriptions
+     */
+    DISCONNECT;
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+import de.unistuttgart.vis.wearable.os.activityRecognition.ActivityEnum;
+import de.unistuttgart.vis.wearable.os.storage.ActivityTimeline;
+
+/**
+ * Parcelable object holding the activity transitions of a time range. Every
+ * transition holds the time an activity has been started at, the activity is
+ * performed until the time of the next transition. The first transition is
+ * the one to the activity performed at the begin of the requested range and
+ * may therefore be older than the range.
+ *
+ * The object is created in the {@link de.unistuttgart.vis.wearable.os.service.APIBinder}
+ * class from the data of the {@link ActivityTimeline} and sent to the client.
+ *
+ * @author roehrdor
+ */
+public class PActivityTransitions implements android.os.Parcelable {
+    private long time[] = new long[0];
+    private int activity[] = new int[0];
+
+    /**
+     * Create a new PActivityTransitions object from the given transitions
+     *
+     * @param transitions the transitions to be converted
+     */
+    public PActivityTransitions(ActivityTimeline.Transitions transitions) {
+        if(transitions == null)
+            return;
+        this.time = transitions.times;
+        this.activity = transitions.activities;
+    }
+
+    /**
+     * Private constructor to create a new object from parcel
+     */
+    private PActivityTransitions() {
+    }
+
+    /**
+     * @return the number of transitions
+     */
+    public int size() {
+        return this.time.length;
+    }
+
+    /**
+     * Get the time the activity of the given transition has been started at
+     *
+     * @param i the transition
+     * @return the time stamp
+     */
+    public long getTime(int i) {
+        return this.time[i];
+    }
+
+    /**
+     * Get the activity of the given transition
+     *
+     * @param i the transition
+     * @return the activity or null if the activity is not known to this version
+     */
+    public ActivityEnum getActivity(int i) {
+        int ordinal = this.activity[i];
+        return ordinal >= 0 && ordinal < ActivityEnum.values().length ? ActivityEnum.values()[ordinal] : null;
+    }
+
+    //
+    // Creator Object that is used to transmit objects
+    //
+    public static final android.os.Parcelable.Creator<PActivityTransitions> CREATOR = new android.os.Parcelable.Creator<PActivityTransitions>() {
+        @Override
+        public PActivityTransitions createFromParcel(android.os.Parcel source) {
+            PActivityTransitions ret = new PActivityTransitions();
+            ret.time = source.createLongArray();
+            ret.activity = source.createIntArray();
+            return ret;
+        }
+
+        @Override
+        public PActivityTransitions[] newArray(int size) {
+            return new PActivityTransitions[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(android.os.Parcel dest, int flags) {
+        dest.writeLongArray(this.time);
+        dest.writeIntArray(this.activity);
+    }
+}
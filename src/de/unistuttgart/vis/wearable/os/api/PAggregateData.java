@@ -0,0 +1,221 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataAggregation;
+
+/**
+ * Parcelable object holding statistics of sensor data. Each entry represents a
+ * bucket of {@link #getBucketWidth()} milliseconds and holds the number of
+ * records as well as the requested statistics of every dimension of the
+ * records in this bucket, see {@link AggregationFlags}. Statistics of empty
+ * buckets are {@link Float#NaN}.
+ *
+ * The object is created in the {@link de.unistuttgart.vis.wearable.os.service.APIBinder}
+ * class from a {@link SensorDataAggregation} and sent to the client.
+ *
+ * @author roehrdor
+ */
+public class PAggregateData implements android.os.Parcelable {
+    private long bucketWidth = 0;
+    private int dimension = 0;
+    private int stats = 0;
+    private float percentiles[] = new float[0];
+    private long time[] = new long[0];
+    private int count[] = new int[0];
+    private float min[] = new float[0];
+    private float max[] = new float[0];
+    private float mean[] = new float[0];
+    private float variance[] = new float[0];
+    private float percentileValues[] = new float[0];
+
+    /**
+     * Create a new PAggregateData object from the given aggregation
+     *
+     * @param aggregation the aggregation to be converted
+     */
+    public PAggregateData(SensorDataAggregation aggregation) {
+        if(aggregation == null)
+            return;
+        this.bucketWidth = aggregation.bucketWidth;
+        this.dimension = aggregation.dimension;
+        this.stats = aggregation.stats;
+        this.percentiles = aggregation.percentiles;
+        this.time = aggregation.times;
+        this.count = aggregation.counts;
+        this.min = aggregation.min;
+        this.max = aggregation.max;
+        this.mean = aggregation.mean;
+        this.variance = aggregation.variance;
+        this.percentileValues = aggregation.percentileValues;
+    }
+
+    /**
+     * Private constructor to create a new object from parcel
+     */
+    private PAggregateData() {
+    }
+
+    /**
+     * @return the width of a single bucket in milliseconds
+     */
+    public long getBucketWidth() {
+        return this.bucketWidth;
+    }
+
+    /**
+     * @return the dimension of the aggregated data
+     */
+    public int getDimension() {
+        return this.dimension;
+    }
+
+    /**
+     * @return the computed statistics, see {@link AggregationFlags}
+     */
+    public int getStats() {
+        return this.stats;
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    public int size() {
+        return this.time.length;
+    }
+
+    /**
+     * Get the start time stamp of the given bucket
+     *
+     * @param bucket the bucket
+     * @return the time stamp of the begin of the bucket
+     */
+    public long getTime(int bucket) {
+        return this.time[bucket];
+    }
+
+    /**
+     * Get the number of records aggregated in the given bucket
+     *
+     * @param bucket the bucket
+     * @return the number of records
+     */
+    public int getCount(int bucket) {
+        return this.count[bucket];
+    }
+
+    /**
+     * Get the minimum of the given dimension in the given bucket
+     *
+     * @param bucket the bucket
+     * @param d      the dimension
+     * @return the minimum value
+     */
+    public float getMin(int bucket, int d) {
+        return this.min[bucket * this.dimension + d];
+    }
+
+    /**
+     * Get the maximum of the given dimension in the given bucket
+     *
+     * @param bucket the bucket
+     * @param d      the dimension
+     * @return the maximum value
+     */
+    public float getMax(int bucket, int d) {
+        return this.max[bucket * this.dimension + d];
+    }
+
+    /**
+     * Get the mean of the given dimension in the given bucket
+     *
+     * @param bucket the bucket
+     * @param d      the dimension
+     * @return the mean value
+     */
+    public float getMean(int bucket, int d) {
+        return this.mean[bucket * this.dimension + d];
+    }
+
+    /**
+     * Get the variance of the given dimension in the given bucket
+     *
+     * @param bucket the bucket
+     * @param d      the dimension
+     * @return the variance
+     */
+    public float getVariance(int bucket, int d) {
+        return this.variance[bucket * this.dimension + d];
+    }
+
+    /**
+     * Get a percentile of the given dimension in the given bucket
+     *
+     * @param bucket the bucket
+     * @param d      the dimension
+     * @param p      the position of the percentile in the requested percentiles
+     * @return the percentile value
+     */
+    public float getPercentile(int bucket, int d, int p) {
+        return this.percentileValues[(bucket * this.dimension + d) * this.percentiles.length + p];
+    }
+
+    /**
+     * @return the requested percentiles
+     */
+    public float[] getPercentiles() {
+        return this.percentiles;
+    }
+
+    //
+    // Creator Object that is used to transmit objects
+    //
+    public static final android.os.Parcelable.Creator<PAggregateData> CREATOR = new android.os.Parcelable.Creator<PAggregateData>() {
+        @Override
+        public PAggregateData createFromParcel(android.os.Parcel source) {
+            PAggregateData ret = new PAggregateData();
+            ret.bucketWidth = source.readLong();
+            ret.dimension = source.readInt();
+            ret.stats = source.readInt();
+            ret.percentiles = source.createFloatArray();
+            ret.time = source.createLongArray();
+            ret.count = source.createIntArray();
+            ret.min = source.createFloatArray();
+            ret.max = source.createFloatArray();
+            ret.mean = source.createFloatArray();
+            ret.variance = source.createFloatArray();
+            ret.percentileValues = source.createFloatArray();
+            return ret;
+        }
+
+        @Override
+        public PAggregateData[] newArray(int size) {
+            return new PAggregateData[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(android.os.Parcel dest, int flags) {
+        dest.writeLong(this.bucketWidth);
+        dest.writeInt(this.dimension);
+        dest.writeInt(this.stats);
+        dest.writeFloatArray(this.percentiles);
+        dest.writeLongArray(this.time);
+        dest.writeIntArray(this.count);
+        dest.writeFloatArray(this.min);
+        dest.writeFloatArray(this.max);
+        dest.writeFloatArray(this.mean);
+        dest.writeFloatArray(this.variance);
+        dest.writeFloatArray(this.percentileValues);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+
+/**
+ * Parcelable object holding the data of several sensors aligned to a common
+ * time axis. Every row holds a time stamp followed by the values of all
+ * sensors at this time, so the values of the row i are stored at
+ * data[i * width + offset(sensor) + d]. Values a sensor does not have at a
+ * time stamp are set to {@link Float#NaN}.
+ *
+ * The object is created in the {@link de.unistuttgart.vis.wearable.os.service.APIBinder}
+ * class and sent to the client.
+ *
+ * @author roehrdor
+ */
+public class PMultiSensorData implements android.os.Parcelable {
+    private long step = 0;
+    private int sensorIDs[] = new int[0];
+    private int dimensions[] = new int[0];
+    private long time[] = new long[0];
+    private float data[] = new float[0];
+
+    //
+    // Derived from the dimensions
+    //
+    private int offsets[] = new int[0];
+    private int width = 0;
+
+    /**
+     * Create a new object holding the given aligned data
+     *
+     * @param step       the distance of the time stamps or 0 if the time stamps are the union
+     *                   of the time stamps of all sensors
+     * @param sensorIDs  the ids of the sensors
+     * @param dimensions the dimensions of the sensors
+     * @param time       the time stamps
+     * @param data       the values of all sensors in row order
+     */
+    public PMultiSensorData(long step, int[] sensorIDs, int[] dimensions, long[] time, float[] data) {
+        this.step = step;
+        this.sensorIDs = sensorIDs;
+        this.dimensions = dimensions;
+        this.time = time;
+        this.data = data;
+        computeOffsets();
+    }
+
+    /**
+     * Private constructor to create a new object from parcel
+     */
+    private PMultiSensorData() {
+    }
+
+    private void computeOffsets() {
+        this.offsets = new int[this.dimensions.length];
+        this.width = 0;
+        for(int s = 0; s != this.dimensions.length; ++s) {
+            this.offsets[s] = this.width;
+            this.width += this.dimensions[s];
+        }
+    }
+
+    /**
+     * @return the distance of the time stamps in milliseconds or 0 if the time stamps are the
+     *         union of the time stamps of all sensors
+     */
+    public long getStep() {
+        return this.step;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return this.time.length;
+    }
+
+    /**
+     * @return the number of sensors
+     */
+    public int getSensorCount() {
+        return this.sensorIDs.length;
+    }
+
+    /**
+     * Get the id of the given sensor
+     *
+     * @param s the position of the sensor
+     * @return the sensor id
+     */
+    public int getSensorID(int s) {
+        return this.sensorIDs[s];
+    }
+
+    /**
+     * Get the position of the sensor with the given id
+     *
+     * @param sensorID the sensor id
+     * @return the position of the sensor or -1 if the sensor is not included, e.g. since the
+     *         app is lacking permissions
+     */
+    public int indexOf(int sensorID) {
+        for(int s = 0; s != this.sensorIDs.length; ++s)
+            if(this.sensorIDs[s] == sensorID)
+                return s;
+        return -1;
+    }
+
+    /**
+     * Get the dimension of the given sensor
+     *
+     * @param s the position of the sensor
+     * @return the dimension
+     */
+    public int getDimension(int s) {
+        return this.dimensions[s];
+    }
+
+    /**
+     * Get the time stamp of the given row
+     *
+     * @param i the row
+     * @return the time stamp
+     */
+    public long getTime(int i) {
+        return this.time[i];
+    }
+
+    /**
+     * Get a value of a sensor in the given row
+     *
+     * @param i the row
+     * @param s the position of the sensor
+     * @param d the dimension
+     * @return the value or {@link Float#NaN} if the sensor has no value at this time
+     */
+    public float getValue(int i, int s, int d) {
+        return this.data[i * this.width + this.offsets[s] + d];
+    }
+
+    /**
+     * Convert the rows of the given sensor into a list of sensor data objects,
+     * rows without a value of the sensor are left out
+     *
+     * @param s the position of the sensor
+     * @return the list of sensor data objects
+     */
+    public java.util.Vector<SensorData> toSensorDataList(int s) {
+        java.util.Vector<SensorData> ret = new java.util.Vector<SensorData>();
+        int dim = this.dimensions[s];
+        for(int i = 0; i != this.time.length; ++i) {
+            int pos = i * this.width + this.offsets[s];
+            if(dim == 0 || Float.isNaN(this.data[pos]))
+                continue;
+            float[] f = new float[dim];
+            System.arraycopy(this.data, pos, f, 0, dim);
+            ret.add(new SensorData(f, this.time[i]));
+        }
+        return ret;
+    }
+
+    //
+    // Creator Object that is used to transmit objects
+    //
+    public static final android.os.Parcelable.Creator<PMultiSensorData> CREATOR = new android.os.Parcelable.Creator<PMultiSensorData>() {
+        @Override
+        public PMultiSensorData createFromParcel(android.os.Parcel source) {
+            PMultiSensorData ret = new PMultiSensorData();
+            ret.step = source.readLong();
+            ret.sensorIDs = source.createIntArray();
+            ret.dimensions = source.createIntArray();
+            ret.time = source.createLongArray();
+            ret.data = source.createFloatArray();
+            ret.computeOffsets();
+            return ret;
+        }
+
+        @Override
+        public PMultiSensorData[] newArray(int size) {
+            return new PMultiSensorData[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(android.os.Parcel dest, int flags) {
+        dest.writeLong(this.step);
+        dest.writeIntArray(this.sensorIDs);
+        dest.writeIntArray(this.dimensions);
+        dest.writeLongArray(this.time);
+        dest.writeFloatArray(this.data);
+    }
+}
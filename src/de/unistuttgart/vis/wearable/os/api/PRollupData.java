@@ -0,0 +1,185 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+import de.unistuttgart.vis.wearable.os.storage.RollupStore;
+
+/**
+ * Parcelable object holding aggregated sensor data. Each entry represents a
+ * bucket of {@link #getBucketWidth()} milliseconds and holds the number of
+ * records as well as the minimum, maximum and mean of every dimension of the
+ * records in this bucket.
+ *
+ * The object is created in the {@link de.unistuttgart.vis.wearable.os.service.APIBinder}
+ * class from the data of the {@link de.unistuttgart.vis.wearable.os.storage.RollupStore}
+ * and sent to the client.
+ *
+ * @author roehrdor
+ */
+public class PRollupData implements android.os.Parcelable {
+    private long bucketWidth = 0;
+    private int dimension = 0;
+    private long time[] = new long[0];
+    private int count[] = new int[0];
+    private float min[] = new float[0];
+    private float max[] = new float[0];
+    private float mean[] = new float[0];
+
+    /**
+     * Create a new PRollupData object from the given rollup
+     *
+     * @param rollup the rollup to be converted
+     */
+    public PRollupData(RollupStore.Rollup rollup) {
+        if(rollup == null)
+            return;
+        this.bucketWidth = rollup.bucketWidth;
+        this.dimension = rollup.dimension;
+        this.time = rollup.times;
+        this.count = rollup.counts;
+        this.min = rollup.min;
+        this.max = rollup.max;
+        this.mean = rollup.mean;
+    }
+
+    /**
+     * Private constructor to create a new object from parcel
+     */
+    private PRollupData() {
+    }
+
+    /**
+     * @return the width of a single bucket in milliseconds
+     */
+    public long getBucketWidth() {
+        return this.bucketWidth;
+    }
+
+    /**
+     * @return the dimension of the aggregated data
+     */
+    public int getDimension() {
+        return this.dimension;
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    public int size() {
+        return this.time.length;
+    }
+
+    /**
+     * Get the start time stamp of the given bucket
+     *
+     * @param bucket the bucket
+     * @return the time stamp of the begin of the bucket
+     */
+    public long getTime(int bucket) {
+        return this.time[bucket];
+    }
+
+    /**
+     * Get the number of records aggregated in the given bucket
+     *
+     * @param bucket the bucket
+     * @return the number of records
+     */
+    public int getCount(int bucket) {
+        return this.count[bucket];
+    }
+
+    /**
+     * Get the minimum of the given dimension in the given bucket
+     *
+     * @param bucket the bucket
+     * @param d      the dimension
+     * @return the minimum value
+     */
+    public float getMin(int bucket, int d) {
+        return this.min[bucket * this.dimension + d];
+    }
+
+    /**
+     * Get the maximum of the given dimension in the given bucket
+     *
+     * @param bucket the bucket
+     * @param d      the dimension
+     * @return the maximum value
+     */
+    public float getMax(int bucket, int d) {
+        return this.max[bucket * this.dimension + d];
+    }
+
+    /**
+     * Get the mean of the given dimension in the given bucket
+     *
+     * @param bucket the bucket
+     * @param d      the dimension
+     * @return the mean value
+     */
+    public float getMean(int bucket, int d) {
+        return this.mean[bucket * this.dimension + d];
+    }
+
+    /**
+     * Convert the means of all buckets into a list of sensor data objects, e.g.
+     * to draw them as a graph
+     *
+     * @return the list of sensor data objects
+     */
+    public java.util.Vector<SensorData> toSensorDataList() {
+        java.util.Vector<SensorData> ret = new java.util.Vector<SensorData>(this.time.length);
+        for(int i = 0; i != this.time.length; ++i) {
+            float[] f = new float[this.dimension];
+            System.arraycopy(this.mean, i * this.dimension, f, 0, this.dimension);
+            ret.add(new SensorData(f, this.time[i]));
+        }
+        return ret;
+    }
+
+    //
+    // Creator Object that is used to transmit objects
+    //
+    public static final android.os.Parcelable.Creator<PRollupData> CREATOR = new android.os.Parcelable.Creator<PRollupData>() {
+        @Override
+        public PRollupData createFromParcel(android.os.Parcel source) {
+            PRollupData ret = new PRollupData();
+            ret.bucketWidth = source.readLong();
+            ret.dimension = source.readInt();
+            ret.time = source.createLongArray();
+            ret.count = source.createIntArray();
+            ret.min = source.createFloatArray();
+            ret.max = source.createFloatArray();
+            ret.mean = source.createFloatArray();
+            return ret;
+        }
+
+        @Override
+        public PRollupData[] newArray(int size) {
+            return new PRollupData[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(android.os.Parcel dest, int flags) {
+        dest.writeLong(this.bucketWidth);
+        dest.writeInt(this.dimension);
+        dest.writeLongArray(this.time);
+        dest.writeIntArray(this.count);
+        dest.writeFloatArray(this.min);
+        dest.writeFloatArray(this.max);
+        dest.writeFloatArray(this.mean);
+    }
+}
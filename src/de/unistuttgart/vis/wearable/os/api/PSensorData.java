@@ -8,6 +8,8 @@
 package de.unistuttgart.vis.wearable.os.api;
 
 import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataCursor;
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataRing;
 
 /**
  * Parcelable Sensor Data object. This class represents a list of
@@ -37,6 +39,24 @@ public class PSensorData extends de.unistuttgart.vis.wearable.os.parcel.PSensorD
         super(sensorData);
     }
 
+    /**
+     * Create a new PSensorData object from the given snapshot of a sensor ring buffer
+     *
+     * @param snapshot the snapshot to be converted
+     */
+    public PSensorData(SensorDataRing.Snapshot snapshot) {
+        super(snapshot);
+    }
+
+    /**
+     * Create a new PSensorData object from the records of the given cursor
+     *
+     * @param cursor the cursor to read the data from
+     */
+    public PSensorData(SensorDataCursor cursor) {
+        super(cursor);
+    }
+
     /**
      * Private constructor to create a new object from parcel
      */
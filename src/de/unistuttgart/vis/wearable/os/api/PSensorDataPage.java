@@ -0,0 +1,116 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+
+/**
+ * A single page of the result of a paged sensor data query. Besides the data
+ * the page carries the continuation token that has to be passed to fetch the
+ * next page, or {@link #NO_MORE_PAGES} if this is the last page.
+ *
+ * Pages are created by the service for an open query and read by the
+ * {@link PagedSensorData} class on the client side.
+ *
+ * @author roehrdor
+ */
+public class PSensorDataPage extends PSensorData implements android.os.Parcelable {
+    public static final long NO_MORE_PAGES = -1;
+
+    private long nextToken = NO_MORE_PAGES;
+
+    /**
+     * Create a new page holding the first count records of the given arrays
+     *
+     * @param time      the time stamps
+     * @param data      the values in row order
+     * @param dimension the dimension of the data
+     * @param count     the number of records
+     * @param nextToken the token of the next page or {@link #NO_MORE_PAGES}
+     */
+    public PSensorDataPage(long[] time, float[] data, int dimension, int count, long nextToken) {
+        this.dimension = dimension;
+        this.time = time.length == count ? time : java.util.Arrays.copyOf(time, count);
+        this.data = data.length == count * dimension ? data : java.util.Arrays.copyOf(data, count * dimension);
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * Private constructor to create a new object from parcel
+     */
+    private PSensorDataPage() {
+    }
+
+    /**
+     * @return the token to fetch the next page with or {@link #NO_MORE_PAGES}
+     */
+    public long getNextToken() {
+        return this.nextToken;
+    }
+
+    /**
+     * @return the number of records in this page
+     */
+    public int size() {
+        return this.time == null ? 0 : this.time.length;
+    }
+
+    /**
+     * Get the time stamp of the given record of the page
+     *
+     * @param i the record
+     * @return the time stamp
+     */
+    public long getTime(int i) {
+        return this.time[i];
+    }
+
+    /**
+     * Create a sensor data object for the given record of the page
+     *
+     * @param i the record
+     * @return the sensor data object
+     */
+    public SensorData getSensorData(int i) {
+        float[] f = new float[this.dimension];
+        System.arraycopy(this.data, i * this.dimension, f, 0, this.dimension);
+        return new SensorData(f, this.time[i]);
+    }
+
+    //
+    // Creator Object that is used to transmit objects
+    //
+    public static final android.os.Parcelable.Creator<PSensorDataPage> CREATOR = new android.os.Parcelable.Creator<PSensorDataPage>() {
+        @Override
+        public PSensorDataPage createFromParcel(android.os.Parcel source) {
+            PSensorDataPage ret = new PSensorDataPage();
+            ret.nextToken = source.readLong();
+            // Read the number of data sets, in case this is set to 0 there is no data to be read
+            int size = source.readInt();
+            if(size > 0) {
+                ret.time = new long[size];
+                ret.dimension = source.readInt();
+                ret.data = new float[ret.dimension * ret.time.length];
+                source.readLongArray(ret.time);
+                source.readFloatArray(ret.data);
+            }
+            return ret;
+        }
+
+        @Override
+        public PSensorDataPage[] newArray(int size) {
+            return new PSensorDataPage[size];
+        }
+    };
+
+    @Override
+    public void writeToParcel(android.os.Parcel dest, int flags) {
+        dest.writeLong(this.nextToken);
+        super.writeToParcel(dest, flags);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+
+/**
+ * Client side iterator over the result of a paged sensor data query. The
+ * pages are fetched lazily from the service as the iteration proceeds, so
+ * only a single page is held at a time and results of any size can be
+ * transferred without exceeding the Binder transaction limit.
+ *
+ * The query is closed automatically as soon as the iteration has passed the
+ * last page. If the iteration is stopped earlier {@link #close()} should be
+ * called to release the query in the service.
+ *
+ * @author roehrdor
+ */
+public class PagedSensorData implements java.util.Iterator<SensorData>, java.io.Closeable {
+    private final int query;
+    private long token = 0;
+    private PSensorDataPage page = null;
+    private int position = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a new iterator for the given query handle
+     *
+     * @param query the query handle returned by the service
+     */
+    PagedSensorData(int query) {
+        this.query = query;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while((page == null || position == page.size()) && token != PSensorDataPage.NO_MORE_PAGES) {
+            page = APIFunctions.SENSORS_SENSOR_fetchPage(query, token);
+            position = 0;
+            token = page == null ? PSensorDataPage.NO_MORE_PAGES : page.getNextToken();
+        }
+        boolean hasNext = page != null && position < page.size();
+        if(!hasNext)
+            close();
+        return hasNext;
+    }
+
+    @Override
+    public SensorData next() {
+        if(!hasNext())
+            throw new java.util.NoSuchElementException();
+        return page.getSensorData(position++);
+    }
+
+    /**
+     * @return the current page, the iteration continues with the next page
+     *         afterwards, or null if all pages have been read
+     */
+    public PSensorDataPage nextPage() {
+        if(!hasNext())
+            return null;
+        PSensorDataPage current = page;
+        position = page.size();
+        return current;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if(closed)
+            return;
+        closed = true;
+        APIFunctions.SENSORS_SENSOR_closeQuery(query);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client side of a shared memory channel. The channel maps the memory the
+ * service writes the records of a sensor to, so new records can be read as
+ * often as needed without any Binder call. Records that are not read before
+ * the ring wraps around are lost, see {@link #getLost()}.
+ *
+ * The channel shall be closed once it is not needed any more.
+ *
+ * @author roehrdor
+ */
+public class SensorChannel implements java.io.Closeable {
+    private final int sensorID;
+    private final SharedSensorRing ring;
+    private boolean closed = false;
+
+    /**
+     * Map the channel file behind the given descriptor
+     *
+     * @param sensorID the sensor id
+     * @param fd       the descriptor of the channel file
+     * @throws IOException if the file can not be mapped
+     */
+    SensorChannel(int sensorID, android.os.ParcelFileDescriptor fd) throws IOException {
+        this.sensorID = sensorID;
+        FileInputStream in = new android.os.ParcelFileDescriptor.AutoCloseInputStream(fd);
+        try {
+            FileChannel fc = in.getChannel();
+            // the mapping stays valid after the descriptor has been closed
+            this.ring = new SharedSensorRing(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+        } finally {
+            in.close();
+        }
+        if (!ring.isValid())
+            throw new IOException("Invalid channel");
+    }
+
+    /**
+     * @return the dimension of the records or 0 if no record has been written yet
+     */
+    public int getDimension() {
+        return ring.getDimension();
+    }
+
+    /**
+     * Read the records written since the last call into the given arrays
+     *
+     * @param times  the array to store the time stamps in
+     * @param values the array to store the values in row order, this needs to
+     *               hold max * {@link #getDimension()} values
+     * @param max    the maximum number of records to read
+     * @return the number of records read
+     */
+    public int read(long[] times, float[] values, int max) {
+        return ring.read(times, values, max);
+    }
+
+    /**
+     * Read all records written since the last call
+     *
+     * @return the list of new records
+     */
+    public List<SensorData> readSensorData() {
+        List<SensorData> ret = new ArrayList<SensorData>();
+        int dim = ring.getDimension();
+        if (dim == 0)
+            return ret;
+        long[] times = new long[64];
+        float[] values = new float[64 * dim];
+        int n;
+        while ((n = ring.read(times, values, times.length)) > 0) {
+            for (int i = 0; i != n; ++i) {
+                float[] f = new float[dim];
+                System.arraycopy(values, i * dim, f, 0, dim);
+                ret.add(new SensorData(f, times[i]));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of records that have been overwritten before they
+     * could be read
+     */
+    public long getLost() {
+        return ring.getLost();
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        APIFunctions.SENSORS_SENSOR_closeChannel(sensorID);
+    }
+}
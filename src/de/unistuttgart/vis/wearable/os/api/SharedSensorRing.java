@@ -0,0 +1,250 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Ring of sensor records stored in a {@link ByteBuffer}, usually a buffer
+ * mapped from a file that is shared between the service and an app. The
+ * service writes the records and the app reads them directly from the mapped
+ * memory, so no data has to be copied through the Binder.
+ * </p>
+ * <p>
+ * The buffer has the following layout:
+ * <pre>
+ * [int magic][int dimension][int capacity][int reserved][long published]
+ * [long sequence][long time][float * dimension] * capacity
+ * </pre>
+ * The dimension and the capacity are set by the first record written. The
+ * published field holds the sequence number of the next record. Every slot
+ * holds the sequence number of its record, which is set to -1 while the slot
+ * is written. Readers check the sequence number of a slot before and after
+ * copying the record, so records that are overwritten while reading are
+ * detected and skipped. There must only be a single writer, which is checked
+ * without locking, readers never block the writer.
+ * </p>
+ * <p>
+ * Since the buffer is shared with another process, the order of the plain
+ * buffer accesses is enforced by accesses to a volatile field in between,
+ * which act as memory barriers: the payload of a slot is written before its
+ * sequence number and the published field, and the reader reads the sequence
+ * number of a slot before and after its payload.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class SharedSensorRing {
+    public static final int MAGIC = 0x474F5352;
+    private static final int DIMENSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int PUBLISHED_OFFSET = 16;
+    private static final int HEADER_SIZE = 24;
+
+    private final ByteBuffer buffer;
+
+    //
+    // Set while a record is written, to detect a second writer
+    //
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+
+    //
+    // Accessed to order the buffer accesses
+    //
+    private volatile int barrier;
+
+    //
+    // Sequence number of the next record to be read by this reader and the
+    // number of records that have been overwritten before they could be read
+    //
+    private long position = 0;
+    private long lost = 0;
+
+    /**
+     * Create a ring on top of the given buffer. The buffer is not initialized,
+     * this has to be done by the writer by calling {@link #initialize()}.
+     *
+     * @param buffer the buffer, usually a mapped file
+     */
+    public SharedSensorRing(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Clear the header of the ring, this has to be called by the writer before
+     * the buffer is handed to any reader
+     */
+    public void initialize() {
+        if (buffer.capacity() < HEADER_SIZE)
+            throw new IllegalArgumentException("Buffer too small");
+        buffer.putInt(DIMENSION_OFFSET, 0);
+        buffer.putInt(CAPACITY_OFFSET, 0);
+        buffer.putLong(PUBLISHED_OFFSET, 0);
+        fence();
+        buffer.putInt(0, MAGIC);
+    }
+
+    /**
+     * Keep the buffer accesses before and after this call from being reordered
+     */
+    private void fence() {
+        barrier = 0;
+    }
+
+    /**
+     * @return true if the buffer holds a valid ring
+     */
+    public boolean isValid() {
+        return buffer.capacity() >= HEADER_SIZE && buffer.getInt(0) == MAGIC;
+    }
+
+    /**
+     * @return the sequence number of the next record to be written
+     */
+    public long getPublished() {
+        return buffer.getLong(PUBLISHED_OFFSET);
+    }
+
+    /**
+     * @return the dimension of the records or 0 if nothing has been written yet
+     */
+    public int getDimension() {
+        return buffer.getInt(DIMENSION_OFFSET);
+    }
+
+    /**
+     * @return the number of records the ring can hold or 0 if nothing has been
+     * written yet
+     */
+    public int getCapacity() {
+        return buffer.getInt(CAPACITY_OFFSET);
+    }
+
+    private static int slotSize(int dimension) {
+        return 16 + 4 * dimension;
+    }
+
+    /**
+     * Write a new record into the ring, overwriting the oldest one if the
+     * ring is full. The dimension of the ring is set by the first record,
+     * values exceeding this dimension are dropped and missing ones are set to 0.
+     *
+     * @param time      the time stamp of the record
+     * @param values    the array holding the values
+     * @param dimension the number of values
+     * @throws IllegalStateException if another thread is writing at the same time
+     */
+    public void write(long time, float[] values, int dimension) {
+        if (!writing.compareAndSet(false, true))
+            throw new IllegalStateException("SharedSensorRing has more than one writer");
+        try {
+            writeRecord(time, values, dimension);
+        } finally {
+            writing.set(false);
+        }
+    }
+
+    private void writeRecord(long time, float[] values, int dimension) {
+        int dim = getDimension();
+        int capacity = getCapacity();
+        if (dim == 0) {
+            dim = dimension;
+            capacity = (buffer.capacity() - HEADER_SIZE) / slotSize(dim);
+            if (dim == 0 || capacity == 0)
+                return;
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putInt(DIMENSION_OFFSET, dim);
+        }
+
+        long sequence = getPublished();
+        int slot = HEADER_SIZE + (int) (sequence % capacity) * slotSize(dim);
+        buffer.putLong(slot, -1);
+        fence();
+        buffer.putLong(slot + 8, time);
+        for (int d = 0; d != dim; ++d)
+            buffer.putFloat(slot + 16 + 4 * d, d < dimension ? values[d] : 0);
+        fence();
+        buffer.putLong(slot, sequence);
+        fence();
+        buffer.putLong(PUBLISHED_OFFSET, sequence + 1);
+    }
+
+    /**
+     * Read the records written since the last call. If the writer has already
+     * overwritten some of them, reading continues with the oldest record
+     * still available and the skipped records are counted as lost.
+     *
+     * @param times  the array to store the time stamps in
+     * @param values the array to store the values in row order
+     * @param max    the maximum number of records to read
+     * @return the number of records read
+     */
+    public int read(long[] times, float[] values, int max) {
+        long published = getPublished();
+        fence();
+        int dim = getDimension();
+        int capacity = getCapacity();
+        if (capacity == 0 || published <= position)
+            return 0;
+
+        if (published - position > capacity) {
+            lost += published - capacity - position;
+            position = published - capacity;
+        }
+
+        int count = 0;
+        int size = slotSize(dim);
+        while (count < max && position < published) {
+            int slot = HEADER_SIZE + (int) (position % capacity) * size;
+            if (buffer.getLong(slot) != position) {
+                // overwritten or being written right now
+                ++lost;
+                ++position;
+                continue;
+            }
+            fence();
+            long time = buffer.getLong(slot + 8);
+            for (int d = 0; d != dim; ++d)
+                values[count * dim + d] = buffer.getFloat(slot + 16 + 4 * d);
+            fence();
+            if (buffer.getLong(slot) != position) {
+                ++lost;
+                ++position;
+                continue;
+            }
+            times[count++] = time;
+            ++position;
+        }
+        return count;
+    }
+
+    /**
+     * Skip all records written so far, so the next read only returns records
+     * written afterwards
+     */
+    public void skipToLatest() {
+        position = getPublished();
+    }
+
+    /**
+     * @return the sequence number of the next record to be read
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of records that have been overwritten before this
+     * reader could read them
+     */
+    public long getLost() {
+        return lost;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+import android.os.Parcel;
+import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+
+/**
+ * Callback object that is returned for a batched subscription to the values of
+ * a sensor. A single object carries many values, the time stamps are stored in
+ * a long array and the values in row order in a flat float array, so the j-th
+ * component of the i-th value is stored at values[i * dimension + j].
+ *
+ * @author roehrdor
+ */
+public class ValueBatchCallback extends BaseCallbackObject {
+    public int sensorID;
+    public int dimension;
+    public long[] times;
+    public float[] values;
+
+    /**
+     * Create a new ValueBatchCallback object
+     *
+     * @param sensorID  the id of the sensor
+     * @param dimension the dimension of the values
+     * @param times     the time stamps
+     * @param values    the values in row order
+     */
+    public ValueBatchCallback(int sensorID, int dimension, long[] times, float[] values) {
+        this.sensorID = sensorID;
+        this.dimension = dimension;
+        this.times = times;
+        this.values = values;
+    }
+
+    /**
+     * Create a new ValueBatchCallback object from the parcel
+     *
+     * @param in the parcel to read the object from
+     */
+    public ValueBatchCallback(Parcel in) {
+        this.sensorID = in.readInt();
+        this.dimension = in.readInt();
+        this.times = in.createLongArray();
+        this.values = in.createFloatArray();
+    }
+
+    /**
+     * @return the number of values in the batch
+     */
+    public int size() {
+        return this.times.length;
+    }
+
+    /**
+     * Create a list of sensor data objects from the values of the batch
+     *
+     * @return the list of sensor data objects
+     */
+    public java.util.Vector<SensorData> toSensorDataList() {
+        java.util.Vector<SensorData> ret = new java.util.Vector<SensorData>(this.times.length);
+        for (int i = 0; i != this.times.length; ++i) {
+            float[] f = new float[this.dimension];
+            System.arraycopy(this.values, i * this.dimension, f, 0, this.dimension);
+            ret.add(new SensorData(f, this.times[i]));
+        }
+        return ret;
+    }
+
+    public static final Creator<ValueBatchCallback> CREATOR = new Creator<ValueBatchCallback>() {
+        @Override
+        public ValueBatchCallback createFromParcel(Parcel source) {
+            return new ValueBatchCallback(source);
+        }
+
+        @Override
+        public ValueBatchCallback[] newArray(int size) {
+            return new ValueBatchCallback[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        // Signal the object being send is type of value batch callback
+        dest.writeInt(3);
+        dest.writeInt(this.sensorID);
+        dest.writeInt(this.dimension);
+        dest.writeLongArray(this.times);
+        dest.writeFloatArray(this.values);
+    }
+}
@@ -18,6 +18,7 @@ import de.unistuttgart.vis.wearable.os.sensors.SensorData;
 public class ValueChangedCallback extends BaseCallbackObject {
     public long date;
     public float[] data;
+    public int sensorID = -1;
 
     /**
      * Create a new ValueChangedCallback object with the given date and data
@@ -30,6 +31,18 @@ public class ValueChangedCallback extends BaseCallbackObject {
         this.data = data;
     }
 
+    /**
+     * Create a new ValueChangedCallback object for the given sensor with the given date and data
+     *
+     * @param sensorID the id of the sensor
+     * @param date     the date of the sensor data
+     * @param data     the data of the sensor data
+     */
+    public ValueChangedCallback(int sensorID, long date, float[] data) {
+        this(date, data);
+        this.sensorID = sensorID;
+    }
+
     /**
      * Create a new Value changed object from the parcel
      *
@@ -38,6 +51,7 @@ public class ValueChangedCallback extends BaseCallbackObject {
     public ValueChangedCallback(Parcel in) {
         this.date = in.readLong();
         this.data = in.createFloatArray();
+        this.sensorID = in.readInt();
     }
 
     /**
@@ -72,5 +86,7 @@ public class ValueChangedCallback extends BaseCallbackObject {
         dest.writeInt(1);
         dest.writeLong(this.date);
         dest.writeFloatArray(this.data);
+        // appended last so clients reading the former format are not affected
+        dest.writeInt(this.sensorID);
     }
 }
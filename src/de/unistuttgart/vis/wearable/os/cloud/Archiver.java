@@ -31,7 +31,12 @@ import de.unistuttgart.vis.wearable.os.privacy.UserApp;
 import de.unistuttgart.vis.wearable.os.properties.Properties;
 import de.unistuttgart.vis.wearable.os.sensors.Sensor;
 import de.unistuttgart.vis.wearable.os.sensors.SensorManager;
+import de.unistuttgart.vis.wearable.os.storage.ActivityTimeline;
+import de.unistuttgart.vis.wearable.os.storage.CompressedSensorFile;
+import de.unistuttgart.vis.wearable.os.storage.RollupStore;
+import de.unistuttgart.vis.wearable.os.storage.SegmentStore;
 import de.unistuttgart.vis.wearable.os.storage.SettingsStorage;
+import de.unistuttgart.vis.wearable.os.storage.TimeIndex;
 import de.unistuttgart.vis.wearable.os.utils.Constants;
 import de.unistuttgart.vis.wearable.os.utils.Utils;
 
@@ -82,9 +87,14 @@ public class Archiver {
             File current = queue.remove(0);
             File[] filesInCurrent = current.listFiles();
             for(File f : filesInCurrent) {
+                // Segment and rollup directories are derived from the sensor files and are not archived
+                if(f.isDirectory() && (f.getName().endsWith(SegmentStore.DIRECTORY_SUFFIX)
+                        || f.getName().endsWith(RollupStore.DIRECTORY_SUFFIX)))
+                    continue;
                 if(f.isDirectory())
                     queue.add(f);
-                else
+                // Time indices are derived from the sensor files as well
+                else if(!f.getName().endsWith(TimeIndex.FILE_SUFFIX))
                     files.add(f);
             }
         }
@@ -103,6 +113,25 @@ public class Archiver {
         return (ret = decryptFile(inputFile, key)) == Constants.UNPACK_NO_ERROR ? unpack(inputFile) : ret;
     }
 
+    /**
+     * Check whether the given file is a compressed sensor data file
+     *
+     * @param file the file to check
+     * @return true if the file is compressed, false otherwise
+     */
+    private static boolean isCompressed(File file) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                return CompressedSensorFile.isCompressed(raf);
+            } finally {
+                raf.close();
+            }
+        } catch(IOException ioe) {
+            return false;
+        }
+    }
+
     /**
      * Merge the two given files
      *
@@ -137,6 +166,13 @@ public class Archiver {
             return false;
         }
 
+        //
+        // Compressed files are merged by decoding both files
+        //
+        if(isCompressed(existent) || isCompressed(dataToMerge)) {
+            return CompressedSensorFile.merge(existent, dataToMerge);
+        }
+
         try {
             //
             // Create a new File containing data from both the files, therefore move the
@@ -390,8 +426,7 @@ public class Archiver {
                 //
                 if(merge) {
                     if(name.equals(SettingsStorage.FILE_NAME_APPS)) {
-                        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(outputFile));
-                        Map<String, UserApp> apps = (Map<String, UserApp>)ois.readObject();
+                        Map<String, UserApp> apps = SettingsStorage.readApps(outputFile);
                         if(apps != null) {
                             //
                             // Insert all apps that are not yet registered
@@ -400,11 +435,12 @@ public class Archiver {
                                 if(PrivacyManager.instance.getApp(s) == null)
                                     PrivacyManager.instance.addApp(apps.get(s));
                             }
+                        } else {
+                            Log.i("GarmentOS", "Archiver:unpackArchiveFile() - invalid app settings");
+                            value = Constants.UNPACK_EXTRACTING_FAILED;
                         }
-                        ois.close();
                     } else if(name.equals(SettingsStorage.FILE_NAME_SENSOR)) {
-                        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(outputFile));
-                        Map<Integer, Sensor> sensors = (Map<Integer, Sensor>)ois.readObject();
+                        Map<Integer, Sensor> sensors = SettingsStorage.readSensors(outputFile);
                         if(sensors != null) {
                             //
                             // Add all sensors that are yet unknown to the system
@@ -413,10 +449,18 @@ public class Archiver {
                                 if(SensorManager.getSensorByID(id) == null)
                                     SensorManager.addNewSensor(sensors.get(id));
                             }
+                        } else {
+                            Log.i("GarmentOS", "Archiver:unpackArchiveFile() - invalid sensor settings");
+                            value = Constants.UNPACK_EXTRACTING_FAILED;
                         }
-                        ois.close();
                     } else {
                         mergeSensorDataFiles(new File(zipEntry.getName()), outputFile);
+                        try {
+                            SegmentStore.drop(Integer.parseInt(name));
+                            TimeIndex.drop(Integer.parseInt(name));
+                            RollupStore.drop(Integer.parseInt(name));
+                        } catch(NumberFormatException nfe) {
+                        }
                     }
 
                     // finally delete the file
@@ -429,11 +473,11 @@ public class Archiver {
         } catch(IOException ioe) {
             Log.i("GarmentOS", "Archiver:unpackArchiveFile() - IOE");
             value = Constants.UNPACK_INVALID_FILE;
-        } catch(ClassNotFoundException cnfe) {
-            Log.i("GarmentOS", "Archiver:unpackArchiveFile() - CNFE");
-            value = Constants.UNPACK_EXTRACTING_FAILED;
         }
 
+        // the activity file may have been replaced
+        ActivityTimeline.getInstance().reset();
+
         Properties.FILE_ARCHIVING.set(false);
         return value;
     }
@@ -391,7 +391,7 @@ public class APIInternalBinder extends IGarmentInternalAPI.Stub {
         sensor = SensorManager.getSensorByID(sid);
         if(sensor == null)
             return null;
-        return new PSensorData((java.util.Vector<SensorData>)sensor.getRawData().clone());
+        return new PSensorData(sensor.getRawDataSnapshot());
     }
 
     @Override
@@ -400,7 +400,12 @@ public class APIInternalBinder extends IGarmentInternalAPI.Stub {
         sensor = SensorManager.getSensorByID(sid);
         if(sensor == null)
             return null;
-        return new PSensorData((java.util.Vector<SensorData>)sensor.getRawData(Utils.longUnixToDate(start), Utils.longUnixToDate(end)).clone());
+        SensorDataCursor cursor = sensor.openCursor(Utils.longUnixToDate(start), Utils.longUnixToDate(end));
+        try {
+            return new PSensorData(cursor);
+        } finally {
+            cursor.close();
+        }
     }
 
 
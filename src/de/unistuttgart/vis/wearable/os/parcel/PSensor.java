@@ -8,7 +8,14 @@
 package de.unistuttgart.vis.wearable.os.parcel;
 
 import de.unistuttgart.vis.wearable.os.api.APIFunctions;
+import de.unistuttgart.vis.wearable.os.api.IGarmentCallback;
+import de.unistuttgart.vis.wearable.os.api.PAggregateData;
+import de.unistuttgart.vis.wearable.os.api.PRollupData;
+import de.unistuttgart.vis.wearable.os.api.PagedSensorData;
 import de.unistuttgart.vis.wearable.os.api.PSensorData;
+import de.unistuttgart.vis.wearable.os.api.SensorChannel;
+import de.unistuttgart.vis.wearable.os.api.ValueBatchCallback;
+import de.unistuttgart.vis.wearable.os.api.ValueChangedCallback;
 import de.unistuttgart.vis.wearable.os.graph.GraphType;
 import de.unistuttgart.vis.wearable.os.sensors.MeasurementSystems;
 import de.unistuttgart.vis.wearable.os.sensors.MeasurementUnits;
@@ -217,14 +224,102 @@ public class PSensor {
      * @return a vector containing the data sets that meet the requirements
      */
     public java.util.Vector<SensorData> getRawData(java.util.Date begin, java.util.Date end) {
-        PSensorData pd = APIFunctions.SENSORS_SENSOR_getRawDataII(this.ID, Utils.dateToLongUnix(begin), Utils.dateToLongUnix(end));
+        PagedSensorData pd = getRawDataPaged(begin, end);
         if(pd != null) {
-            this.rawData = pd.toSensorDataList();
+            java.util.Vector<SensorData> data = new java.util.Vector<SensorData>();
+            while(pd.hasNext())
+                data.add(pd.next());
+            this.rawData = data;
             return this.rawData;
         } else
             return null;
     }
 
+    /**
+     * Get all data that has been recorded from the begin time stamp on but before the end time
+     * stamp. The data is transferred page by page while iterating, so this shall be used for
+     * long time ranges that do not fit into a single transfer. If the iteration is stopped
+     * before all data has been read {@link PagedSensorData#close()} shall be called.
+     *
+     * @param begin the begin time stamp
+     * @param end   the end time stamp
+     * @return an iterator over the data sets that meet the requirements or null if the sensor
+     *         could not be accessed
+     */
+    public PagedSensorData getRawDataPaged(java.util.Date begin, java.util.Date end) {
+        return APIFunctions.SENSORS_SENSOR_getRawDataPaged(this.ID, Utils.dateToLongUnix(begin), Utils.dateToLongUnix(end));
+    }
+
+    /**
+     * Open a shared memory channel the new values of this sensor are written to. Reading from
+     * the channel does not need any call to the service, so this shall be used instead of
+     * repeatedly requesting the latest values at a high rate. The channel shall be closed
+     * after use.
+     *
+     * @return the channel or null if the sensor could not be accessed
+     */
+    public SensorChannel openChannel() {
+        return APIFunctions.SENSORS_SENSOR_openChannel(this.ID);
+    }
+
+    /**
+     * Subscribe to the new values of this sensor. In contrast to registering for
+     * {@link de.unistuttgart.vis.wearable.os.api.CallbackFlags#VALUE_CHANGED} only the values of
+     * this sensor are sent, and the service drops every value that comes less than minInterval
+     * milliseconds after the last sent value or that differs by less than minDelta in every
+     * component. A former subscription of the callback to this sensor is replaced.
+     *
+     * @param callback    the callback the values are sent to as {@link ValueChangedCallback}
+     * @param minInterval the minimum time in ms between two values, 0 to get every value
+     * @param minDelta    the minimum change of a value, 0 to get every value
+     * @return true if the subscription has been added, false if the sensor could not be accessed
+     */
+    public boolean registerValueCallback(IGarmentCallback callback, long minInterval, float minDelta) {
+        return APIFunctions.SENSORS_SENSOR_registerValueCallback(this.ID, callback, minInterval, minDelta);
+    }
+
+    /**
+     * Subscribe to the new values of this sensor like
+     * {@link #registerValueCallback(IGarmentCallback, long, float)} but receive the values in
+     * batches. A batch is sent as soon as it holds batchSize values or its oldest value has
+     * waited for maxLatency milliseconds, so a single call carries many values of a sensor with
+     * a high sample rate while the values of a slow sensor are not delayed for long.
+     *
+     * @param callback    the callback the values are sent to as {@link ValueBatchCallback}
+     * @param minInterval the minimum time in ms between two values, 0 to get every value
+     * @param minDelta    the minimum change of a value, 0 to get every value
+     * @param batchSize   the maximum number of values in a batch
+     * @param maxLatency  the maximum time in ms a value waits for its batch to be sent
+     * @return true if the subscription has been added, false if the sensor could not be accessed
+     */
+    public boolean registerBatchCallback(IGarmentCallback callback, long minInterval, float minDelta,
+                                         int batchSize, long maxLatency) {
+        return APIFunctions.SENSORS_SENSOR_registerBatchCallback(this.ID, callback, minInterval, minDelta, batchSize, maxLatency);
+    }
+
+    /**
+     * Remove the subscription of the given callback to this sensor
+     *
+     * @param callback the subscribed callback
+     */
+    public void unregisterValueCallback(IGarmentCallback callback) {
+        APIFunctions.SENSORS_SENSOR_unregisterValueCallback(this.ID, callback);
+    }
+
+    /**
+     * Get the number of values sent to the given callback and dropped by the service since it
+     * subscribed to this sensor
+     *
+     * @param callback the subscribed callback
+     * @return an array holding the number of sent values, the number of dropped values, the
+     *         number of calls to the callback and the number of values of this sensor the service
+     *         dropped for all callbacks before they could be dispatched, or null if the callback
+     *         is not subscribed to this sensor
+     */
+    public long[] getValueCallbackStats(IGarmentCallback callback) {
+        return APIFunctions.SENSORS_SENSOR_getValueCallbackStats(this.ID, callback);
+    }
+
     /**
      * Get the last numberOfValues Sensor data
      *
@@ -256,6 +351,40 @@ public class PSensor {
             return null;
     }
 
+    /**
+     * Get the aggregated data recorded between the begin and the end time stamp. Instead of
+     * every single record this returns the number of records and the minimum, maximum and mean
+     * values per time bucket. The bucket width is chosen so that at most maxPoints buckets are
+     * returned if possible, which makes this suitable to draw long time ranges.
+     *
+     * @param begin     the begin time stamp
+     * @param end       the end time stamp
+     * @param maxPoints the maximum number of buckets to return
+     * @return the aggregated data or null if the sensor could not be accessed
+     */
+    public PRollupData getRollupData(java.util.Date begin, java.util.Date end, int maxPoints) {
+        return APIFunctions.SENSORS_SENSOR_getRollupData(this.ID, Utils.dateToLongUnix(begin), Utils.dateToLongUnix(end), maxPoints);
+    }
+
+    /**
+     * Get statistics of the data recorded between the begin and the end time stamp in buckets of
+     * the given width. The statistics are computed by the service, so only the results need to
+     * be transferred. Queries for count, minimum, maximum and mean only are answered from the
+     * precomputed rollups where possible.
+     *
+     * @param begin       the begin time stamp
+     * @param end         the end time stamp
+     * @param bucketWidth the width of the buckets in milliseconds or 0 for a single bucket
+     *                    covering the whole range
+     * @param stats       the statistics to compute, see
+     *                    {@link de.unistuttgart.vis.wearable.os.api.AggregationFlags}
+     * @param percentiles the percentiles to compute in [0, 100] or null
+     * @return the statistics or null if the sensor could not be accessed
+     */
+    public PAggregateData getAggregateData(java.util.Date begin, java.util.Date end, long bucketWidth, int stats, float[] percentiles) {
+        return APIFunctions.SENSORS_SENSOR_getAggregateData(this.ID, Utils.dateToLongUnix(begin), Utils.dateToLongUnix(end), bucketWidth, stats, percentiles);
+    }
+
 
     // =====================================================================
     //
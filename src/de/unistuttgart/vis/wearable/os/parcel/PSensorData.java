@@ -8,6 +8,8 @@
 package de.unistuttgart.vis.wearable.os.parcel;
 
 import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataCursor;
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataRing;
 
 /**
  * Parcelable Sensor Data object. This class represents a list of
@@ -83,6 +85,63 @@ public class PSensorData {
         }
     }
 
+    /**
+     * Create a new PSensorData object from the given snapshot of a sensor ring
+     * buffer. The data is copied from the ring directly into the arrays.
+     *
+     * @param snapshot the snapshot to be converted
+     */
+    protected PSensorData(SensorDataRing.Snapshot snapshot) {
+        // In case we have no data we can skip constructing anything
+        if(snapshot == null || snapshot.size() < 1)
+            return;
+
+        int dim = snapshot.getDimension();
+        int n = snapshot.size();
+        long[] t = new long[n];
+        float[] v = new float[n * dim];
+        n = snapshot.read(t, v, 0, n);
+        if(n < 1)
+            return;
+
+        this.dimension = dim;
+        this.time = t.length == n ? t : java.util.Arrays.copyOf(t, n);
+        this.data = v.length == n * dim ? v : java.util.Arrays.copyOf(v, n * dim);
+    }
+
+    /**
+     * Create a new PSensorData object from the records of the given cursor. The
+     * batches are copied from the cursor directly into the arrays. The cursor
+     * is read completely but not closed.
+     *
+     * @param cursor the cursor to read the data from
+     */
+    protected PSensorData(SensorDataCursor cursor) {
+        int n = 0;
+        int dim = cursor.getDimension();
+        long[] t = new long[0];
+        float[] v = new float[0];
+        while(cursor.next()) {
+            int size = cursor.size();
+            if(n + size > t.length) {
+                int capacity = Math.max(n + size, t.length * 2);
+                t = java.util.Arrays.copyOf(t, capacity);
+                v = java.util.Arrays.copyOf(v, capacity * dim);
+            }
+            System.arraycopy(cursor.getTimes(), 0, t, n, size);
+            System.arraycopy(cursor.getValues(), 0, v, n * dim, size * dim);
+            n += size;
+        }
+
+        // In case we have no data we can skip constructing anything
+        if(n < 1)
+            return;
+
+        this.dimension = dim;
+        this.time = t.length == n ? t : java.util.Arrays.copyOf(t, n);
+        this.data = v.length == n * dim ? v : java.util.Arrays.copyOf(v, n * dim);
+    }
+
     /**
      * Private constructor to create a new object from parcel
      */
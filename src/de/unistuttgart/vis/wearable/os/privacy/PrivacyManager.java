@@ -7,10 +7,20 @@
  */
 package de.unistuttgart.vis.wearable.os.privacy;
 
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.storage.SettingsCodec;
 import de.unistuttgart.vis.wearable.os.storage.SettingsStorage;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 /**
  * The Privacy Manager manages the user application and the permissions granted.
+ * Changes are not written immediately, they are collected and written by a
+ * background writer, see {@link PrivacyManager#appChanged(UserApp)}.
  * 
  * @author roehrdor
  */
@@ -26,14 +36,42 @@ public class PrivacyManager {
 	private java.util.Map<String, UserApp> apps = null;	
 	private android.util.SparseArray<UserApp> spapps = new android.util.SparseArray<UserApp>();
 
+	//
+	// Names of the applications changed since the settings have been written
+	// the last time and the writer saving them in the background
+	//
+	private final java.util.Set<String> dirtyApps = new java.util.HashSet<String>();
+
+	//
+	// The encoded settings of every application written the last time, only
+	// the records of changed applications are encoded again. Guarded by the
+	// lock of the manager that serialises the saves.
+	//
+	private final java.util.Map<String, byte[]> records = new java.util.HashMap<String, byte[]>();
+	private boolean flushScheduled = false;
+	private long lastFlush = 0;
+	private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread th = new Thread(r, "GarmentOS-PrivacyWriter");
+			th.setDaemon(true);
+			return th;
+		}
+	});
+	private final Runnable flushJob = new Runnable() {
+		@Override
+		public void run() {
+			save();
+		}
+	};
+
 	/**
 	 * Create a new Privacy manager object, since this is a singleton based
 	 * class the constructor needs to be private
 	 */
 	private PrivacyManager() {
-		this.apps = SettingsStorage.readApps();
-		if(this.apps == null)
-			 this.apps = new java.util.HashMap<String, UserApp>();
+		java.util.Map<String, UserApp> read = SettingsStorage.readApps();
+		this.apps = read == null ? new ConcurrentHashMap<String, UserApp>() : new ConcurrentHashMap<String, UserApp>(read);
 		for(UserApp ua : this.apps.values())
 			this.spapps.put(ua.getID(), ua);
 	}
@@ -49,8 +87,8 @@ public class PrivacyManager {
 			UserApp ua = new UserApp(name, name.hashCode());
 			this.apps.put(name, ua);
 			this.spapps.put(name.hashCode(), ua);
+			this.appChanged(ua);
 		}
-		this.save();
 	}
 
     /**
@@ -61,15 +99,67 @@ public class PrivacyManager {
     public void addApp(UserApp app) {
         if (!this.apps.containsKey(app.getName())) {
             this.apps.put(app.getName(), app);
+            this.appChanged(app);
         }
-        this.save();
     }
 
 	/**
-	 * Save the current settings to file
+	 * Mark the given application as changed. The settings are written by the
+	 * background writer at most once per {@link Properties#privacySaveInterval},
+	 * so all changes made in the meantime are written at once.
+	 *
+	 * @param app
+	 *            the changed application
 	 */
-	public void save() {
-		SettingsStorage.saveSensorAndPrivacy(null, this.apps);
+	void appChanged(UserApp app) {
+		synchronized (this.dirtyApps) {
+			this.dirtyApps.add(app.getName());
+			if (this.flushScheduled)
+				return;
+			this.flushScheduled = true;
+			long delay = Math.max(0, this.lastFlush + Properties.privacySaveInterval - System.currentTimeMillis());
+			this.writer.schedule(this.flushJob, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Save the current settings to file if any application has changed since
+	 * the last time. This is done by the background writer and shall be called
+	 * directly only if the changes must not be delayed, e.g. when the service
+	 * is shut down. Concurrent calls are serialised, only the applications
+	 * changed since the last save are encoded again.
+	 */
+	public synchronized void save() {
+		java.util.Set<String> changed;
+		synchronized (this.dirtyApps) {
+			this.flushScheduled = false;
+			if (this.dirtyApps.isEmpty())
+				return;
+			changed = new java.util.HashSet<String>(this.dirtyApps);
+			this.dirtyApps.clear();
+			this.lastFlush = System.currentTimeMillis();
+		}
+
+		boolean saved;
+		try {
+			for (UserApp ua : this.apps.values())
+				if (changed.contains(ua.getName()) || !this.records.containsKey(ua.getName()))
+					this.records.put(ua.getName(), SettingsCodec.encodeApp(ua));
+			this.records.keySet().retainAll(this.apps.keySet());
+			saved = SettingsStorage.saveAppRecords(this.records.values());
+		} catch (java.io.IOException ioe) {
+			saved = false;
+		}
+
+		//
+		// Keep the applications marked as changed if they could not be written,
+		// so the next change tries again
+		//
+		if (!saved) {
+			synchronized (this.dirtyApps) {
+				this.dirtyApps.addAll(changed);
+			}
+		}
 	}
 
 	/**
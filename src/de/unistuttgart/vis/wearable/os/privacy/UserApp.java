@@ -11,8 +11,12 @@ import de.unistuttgart.vis.wearable.os.internalapi.PUserApp;
 import de.unistuttgart.vis.wearable.os.sensors.Sensor;
 import de.unistuttgart.vis.wearable.os.sensors.SensorManager;
 import de.unistuttgart.vis.wearable.os.sensors.SensorType;
+import de.unistuttgart.vis.wearable.os.storage.SettingsCodec;
 import de.unistuttgart.vis.wearable.os.utils.Constants;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collection;
 
  /**
@@ -23,6 +27,7 @@ import java.util.Collection;
  * @author roehrdor
  */
 public class UserApp implements java.io.Serializable  {
+	private static final long serialVersionUID = 1018715665861114083L;
 	private static final int BASE_PERMISSION_CHECK_FLAG = 0xFF800000;
 
 	private final int ID;
@@ -70,12 +75,76 @@ public class UserApp implements java.io.Serializable  {
 		}
 	}
 
+	/**
+	 * Create a user application object with the given ID, the remaining
+	 * fields are set by {@link UserApp#readSettings(DataInput, int)}
+	 *
+	 * @param ID
+	 *            the id of the application
+	 */
+	private UserApp(int ID) {
+		this.ID = ID;
+	}
+
+	/**
+	 * Read a user application written by {@link UserApp#writeSettings(DataOutput)}
+	 *
+	 * @param input
+	 *            the input to read the settings from
+	 * @param version
+	 *            the version of the settings file
+	 * @return the user application
+	 * @throws IOException
+	 *             if an error occurs attempting to read from the input
+	 */
+	public static UserApp readSettings(DataInput input, int version) throws IOException {
+		UserApp ua = new UserApp(input.readInt());
+		ua.name = input.readUTF();
+		ua.permissionFlags = input.readInt();
+		ua.activityRecognitionGranted = input.readBoolean();
+		for (int i = input.readInt(); i > 0; --i)
+			ua.prohibitedSensors.add(input.readInt());
+		for (int i = input.readInt(); i > 0; --i) {
+			SensorType sensorType = SettingsCodec.readEnum(input, SensorType.class);
+			int sensorID = input.readInt();
+			if (sensorType != null)
+				ua.defaultSensors.put(sensorType, sensorID);
+		}
+		ua.updateChangedID();
+		return ua;
+	}
+
+	/**
+	 * Write the settings of the user application to the given output, this is
+	 * the record format used by the {@link SettingsCodec}. New fields shall
+	 * only be appended.
+	 *
+	 * @param output
+	 *            the output to write the settings to
+	 * @throws IOException
+	 *             if an error occurs attempting to write to the output
+	 */
+	public synchronized void writeSettings(DataOutput output) throws IOException {
+		output.writeInt(this.ID);
+		output.writeUTF(this.name);
+		output.writeInt(this.permissionFlags);
+		output.writeBoolean(this.activityRecognitionGranted);
+		output.writeInt(this.prohibitedSensors.size());
+		for (int id : this.prohibitedSensors)
+			output.writeInt(id);
+		output.writeInt(this.defaultSensors.size());
+		for (java.util.Map.Entry<SensorType, Integer> entry : this.defaultSensors.entrySet()) {
+			SettingsCodec.writeEnum(output, entry.getKey());
+			output.writeInt(entry.getValue());
+		}
+	}
+
 	/**
 	 * returns the sensorID of the standard sensor for the given SensorType
 	 * @param sensorType the SensorType you want the default sensorID from
 	 * @return the sensorID of the default sensor for the given sensorType
 	 */
-	public int getDefaultSensor(SensorType sensorType) {
+	public synchronized int getDefaultSensor(SensorType sensorType) {
         Integer ret;
 
         //
@@ -94,9 +163,10 @@ public class UserApp implements java.io.Serializable  {
 	 * sets the default sensor of the given SensorType to the given sensorID
 	 * @param sensorType the sensorType to set
 	 */
-	public void setDefaultSensor(SensorType sensorType, int sensorID) {
+	public synchronized void setDefaultSensor(SensorType sensorType, int sensorID) {
         this.updateChangedID();
 		defaultSensors.put(sensorType, sensorID);
+		PrivacyManager.instance.appChanged(this);
 	}
 
 	/**
@@ -126,7 +196,7 @@ public class UserApp implements java.io.Serializable  {
 	 * @return true if the application is not allowed to use data from the given
 	 *         sensor
 	 */
-	public boolean sensorProhibited(int id) {
+	public synchronized boolean sensorProhibited(int id) {
 		return prohibitedSensors.contains(id);
 	}
 
@@ -143,10 +213,10 @@ public class UserApp implements java.io.Serializable  {
 	 * @return true if the permission has not been granted yet and the
 	 *         permission has been changed
 	 */
-	public boolean grantPermission(int id) {
+	public synchronized boolean grantPermission(int id) {
         this.updateChangedID();
 		boolean ret = prohibitedSensors.remove(id);
-		PrivacyManager.instance.save();
+		PrivacyManager.instance.appChanged(this);
 		return ret;
 	}
 
@@ -161,10 +231,10 @@ public class UserApp implements java.io.Serializable  {
 	 * @param id the app id
 	 * @return true if the update has been done successfully
 	 */
-	public boolean revokePermission(int id) {
+	public synchronized boolean revokePermission(int id) {
         this.updateChangedID();
 		boolean ret = prohibitedSensors.add(id);
-		PrivacyManager.instance.save();
+		PrivacyManager.instance.appChanged(this);
 		return ret;
 	}
 
@@ -187,7 +257,7 @@ public class UserApp implements java.io.Serializable  {
 			return false;
         this.updateChangedID();
 		this.permissionFlags |= flag;
-		PrivacyManager.instance.save();
+		PrivacyManager.instance.appChanged(this);
 		return true;
 	}
 
@@ -208,7 +278,7 @@ public class UserApp implements java.io.Serializable  {
 			return false;
         this.updateChangedID();
 		this.permissionFlags ^= (flag ^ Constants.BASE_PERMISSION);
-		PrivacyManager.instance.save();
+		PrivacyManager.instance.appChanged(this);
 		return true;
 	}
 
@@ -233,7 +303,7 @@ public class UserApp implements java.io.Serializable  {
 	public void grantActivityRecognition() {
 		this.activityRecognitionGranted = true;
         this.updateChangedID();
-		PrivacyManager.instance.save();
+		PrivacyManager.instance.appChanged(this);
 	}
 
 	/**
@@ -243,7 +313,7 @@ public class UserApp implements java.io.Serializable  {
 	public void denyActivityRecognition() {
 		this.activityRecognitionGranted = false;
         this.updateChangedID();
-		PrivacyManager.instance.save();
+		PrivacyManager.instance.appChanged(this);
 	}
 
 	/**
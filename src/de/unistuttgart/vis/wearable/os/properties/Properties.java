@@ -22,6 +22,148 @@ public class Properties {
     public static java.io.File storageDirectory = new java.io.File("/data/data/de.unistuttgart.vis.wearable.os/files");
     public static java.io.File exportDirectory = new java.io.File("/data/data/de.unistuttgart.vis.wearable.os");
 
+    //
+    // Number of records of a sensor held in memory
+    //
+    public static int liveDataCapacity = 4096;
+
+    //
+    // Whether new sensor data files are written compressed and the number of
+    // records per compressed block. While set, the compactor also converts
+    // the uncompressed files it rewrites to the compressed format.
+    //
+    public static boolean compressedSensorFiles = true;
+    public static int compressedBlockRecords = 1024;
+
+    //
+    // Number of records a single segment of the segment store can hold
+    //
+    public static int segmentCapacity = 0x10000;
+
+    //
+    // Maximum size in bytes of the segments kept per sensor, only the most
+    // recent history is kept in the segment store
+    //
+    public static long segmentStoreMaxBytes = 8L * 1024 * 1024;
+
+    //
+    // Bucket widths in milliseconds of the rollup tiers, from the finest to
+    // the coarsest one
+    //
+    public static long[] rollupTiers = {1000L, 60000L, 3600000L};
+
+    //
+    // Default retention of the raw sensor data and of the rollups in ms and
+    // size limit of a sensor file together with its segments and rollups in
+    // bytes, 0 to keep everything. By default nothing is dropped, only
+    // sensors given a policy by SensorDataCompactor.setPolicy are compacted.
+    // The interval in ms in which the sensor files are compacted.
+    //
+    public static long rawDataRetention = 0;
+    public static long rollupRetention = 0;
+    public static long maxSensorFileBytes = 0;
+    public static long compactionInterval = 60L * 60 * 1000;
+
+    //
+    // Number of records a sensor data cursor reads at once
+    //
+    public static int cursorBatchSize = 1024;
+
+    //
+    // Paged sensor data queries: the approximate size of a single page in
+    // bytes, the number of pages kept per query to answer retried requests,
+    // the time in milliseconds after which an idle query is closed and the
+    // number of queries that may be open at the same time
+    //
+    public static int queryPageBytes = 256 * 1024;
+    public static int queryPageCacheSize = 2;
+    public static long queryTimeout = 60L * 1000;
+    public static int maxOpenQueries = 16;
+
+    //
+    // Maximum number of rows returned by a single multi sensor query
+    //
+    public static int multiSensorMaxRows = 16384;
+
+    //
+    // Maximum number of buckets returned by a single aggregation query
+    //
+    public static int maxAggregationBuckets = 4096;
+
+    //
+    // Distance in milliseconds of the points the sensor data of a time window
+    // of the activity recognition is resampled to
+    //
+    public static long activityResampleStep = 20;
+
+    //
+    // Number of the latest activity transitions held in memory and the
+    // maximum number of transitions returned by a single range query
+    //
+    public static int activityTailCacheSize = 256;
+    public static int maxActivityTransitions = 16384;
+
+    //
+    // Minimum time in ms between two writes of the privacy settings, changes
+    // made in the meantime are written together
+    //
+    public static long privacySaveInterval = 2000;
+
+    //
+    // Maximum number of values sent to an app at once by a batched value
+    // subscription
+    //
+    public static int maxCallbackBatchSize = 1024;
+
+    //
+    // Number of callbacks that may wait to be sent to an app by default and
+    // at most, what happens to further callbacks by default as ordinal of the
+    // api.DropPolicy (0 drop oldest, 1 drop newest, 2 disconnect), the number
+    // of threads sending the callbacks and the number of callbacks sent to an
+    // app before the other apps get their turn
+    //
+    public static int callbackQueueCapacity = 256;
+    public static int maxCallbackQueueCapacity = 8192;
+    public static int callbackDropPolicy = 0;
+    public static int callbackSenderThreads = 2;
+    public static int callbackSendBurst = 32;
+
+    //
+    // Number of new sensor values that may wait to be dispatched and the
+    // maximum number of components of a single value
+    //
+    public static int valueEventRingSize = 4096;
+    public static int valueEventMaxDimension = 16;
+
+    //
+    // Directory of the files shared with apps reading sensor data through a
+    // shared memory channel and the size of a single channel in bytes
+    //
+    public static java.io.File channelDirectory = new java.io.File("/data/data/de.unistuttgart.vis.wearable.os/cache/channels");
+    public static int channelBytes = 64 * 1024;
+
+    //
+    // Every n-th record of a sensor data file is added to its time index
+    //
+    public static int timeIndexStride = 1024;
+
+    //
+    // Number of threads reading from the storage and number of read jobs that
+    // may wait for a thread before the caller has to execute the job itself
+    //
+    public static int storageReadThreads = 2;
+    public static int storageReadQueueSize = 32;
+
+    //
+    // When the sensor data files are synchronized with the storage device, one
+    // of the SensorDataSerializer.FSYNC_* values (0 every batch, 1 interval,
+    // 2 never), the interval in ms used by the interval policy and the time in
+    // ms after which data that could not be written is retried
+    //
+    public static int serializerFsyncPolicy = 1;
+    public static long serializerFsyncInterval = 5000;
+    public static long serializerRetryDelay = 1000;
+
     //
     // This lock is used to synchronize concurrent access to the below data fields
     //
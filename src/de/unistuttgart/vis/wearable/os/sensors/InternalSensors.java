@@ -413,10 +413,7 @@ public class InternalSensors implements SensorEventListener {
         int dimensions = sensor.getSensorType().getDimension();
 
         if (sensor.isEnabled()) {
-            float[] data = new float[dimensions];
-            System.arraycopy(sensorEvent.values, 0, data, 0, dimensions);
-            sensor.addRawData(new SensorData(Utils.getCurrentLongUnixTimeStamp(),
-                    dimensions, data));
+            sensor.addRawData(Utils.getCurrentLongUnixTimeStamp(), sensorEvent.values, dimensions);
         }
     }
 
@@ -7,21 +7,28 @@
  */
 package de.unistuttgart.vis.wearable.os.sensors;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.Date;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
-import de.unistuttgart.vis.wearable.os.api.CallbackFlags;
 import de.unistuttgart.vis.wearable.os.api.IGarmentDriver;
-import de.unistuttgart.vis.wearable.os.api.ValueChangedCallback;
+import de.unistuttgart.vis.wearable.os.api.SharedSensorRing;
 import de.unistuttgart.vis.wearable.os.graph.GraphType;
 import de.unistuttgart.vis.wearable.os.internalapi.PSensor;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
 import de.unistuttgart.vis.wearable.os.service.GarmentOSService;
+import de.unistuttgart.vis.wearable.os.storage.RollupStore;
+import de.unistuttgart.vis.wearable.os.storage.SegmentStore;
 import de.unistuttgart.vis.wearable.os.storage.SensorDataDeSerializer;
 import de.unistuttgart.vis.wearable.os.storage.SensorDataSerializer;
+import de.unistuttgart.vis.wearable.os.storage.SettingsCodec;
+import de.unistuttgart.vis.wearable.os.storage.StorageExecutor;
 import de.unistuttgart.vis.wearable.os.utils.Utils;
 
 /**
@@ -35,13 +42,27 @@ public class Sensor implements Externalizable {
 
     private static final long serialVersionUID = 8052438921578259544L;
 
-    private transient Vector<SensorData> rawData = new Vector<SensorData>();
+    private transient SensorDataRing rawData = new SensorDataRing(Properties.liveDataCapacity);
+
+    //
+    // Sequence number of the first record in the ring that has not yet been
+    // handed over to the storage and the lock taken while handing over data
+    //
+    private transient AtomicLong firstUnsaved = new AtomicLong(0);
+    private transient Object saveLock = new Object();
+
+    //
+    // Shared memory channels every new record is written to. The array is
+    // replaced on every change, so adding a record does not need an iterator
+    //
+    private static final SharedSensorRing[] NO_CHANNELS = new SharedSensorRing[0];
+    private transient volatile SharedSensorRing[] channels = NO_CHANNELS;
 
     private boolean isInternalSensor = false;
     String sensorDriverName = "";
     IGarmentDriver sensorDriver = null;
 
-    private boolean isEnabled = false;
+    private volatile boolean isEnabled = false;
 
     private int sensorID = -1;
     private String bluetoothID = "";
@@ -66,7 +87,18 @@ public class Sensor implements Externalizable {
      */
     public Sensor() {
         if(this.rawData == null)
-            this.rawData = new Vector<SensorData>();
+            this.rawData = new SensorDataRing(Properties.liveDataCapacity);
+    }
+
+    /**
+     * creates the ring buffer for the rawData. The ring holds at least twice
+     * the save period, so the unsaved data is never overwritten before it has
+     * been handed over to the storage.
+     */
+    private void createRawData() {
+        this.rawData = new SensorDataRing(Math.max(Properties.liveDataCapacity, 2 * (savePeriod + 1)));
+        this.firstUnsaved = new AtomicLong(0);
+        this.saveLock = new Object();
     }
 
     /**
@@ -105,6 +137,7 @@ public class Sensor implements Externalizable {
         this.displayedMeasurementUnit = displayedMeasurementUnit;
         this.graphType = GraphType.LINE;
         this.isEnabled = true;
+        createRawData();
 
         SensorManager.addNewSensor(this);
     }
@@ -134,6 +167,7 @@ public class Sensor implements Externalizable {
         this.rawDataMeasurementUnit = rawDataMeasurementUnit;
         this.displayedMeasurementUnit = rawDataMeasurementUnit;
         this.graphType = GraphType.LINE;
+        createRawData();
 
         SensorManager.addNewSensor(this);
     }
@@ -160,6 +194,7 @@ public class Sensor implements Externalizable {
         this.rawDataMeasurementUnit = rawDataMeasurementUnit;
         this.displayedMeasurementUnit = rawDataMeasurementUnit;
         this.graphType = GraphType.LINE;
+        createRawData();
 
         SensorManager.addNewSensor(this);
     }
@@ -184,6 +219,7 @@ public class Sensor implements Externalizable {
      */
     public void setEnabled(boolean newValue) {
         this.isEnabled = newValue;
+        SensorManager.settingsChanged();
         if (newValue) {
             if (isInternalSensor) {
                 InternalSensors.getInstance().enableInternalSensor(this);
@@ -202,44 +238,95 @@ public class Sensor implements Externalizable {
 
     /**
      * adds tje given sensorData to rawData.
-     * If rawData > savePeriod the data will be saved to the Storage
-     * and rawData will be cleared.
+     * If rawData > savePeriod the data will be saved to the Storage.
      */
-    public synchronized void addRawData (SensorData sensorData) {
+    public void addRawData (SensorData sensorData) {
+        addRawData(sensorData.getLongUnixDate(), sensorData.getData(), sensorData.getData().length);
+    }
+
+    /**
+     * adds the given values to rawData without creating a SensorData object.
+     * If rawData > savePeriod the data will be saved to the Storage.
+     *
+     * @param time      the time stamp of the values
+     * @param values    the array holding the values, only the first dimension values are used
+     * @param dimension the number of values
+     */
+    public void addRawData (long time, float[] values, int dimension) {
         if (!isEnabled) {
             return;
         }
 
-        rawData.add(sensorData);
+        long sequence = rawData.add(time, values, 0, dimension);
+        SharedSensorRing[] current = channels;
+        for (int i = 0; i != current.length; ++i)
+            current[i].write(time, values, dimension);
 
-        GarmentOSService.callback(CallbackFlags.VALUE_CHANGED, new ValueChangedCallback(sensorData.getLongUnixDate(), sensorData.getData()));
+        GarmentOSService.valueChanged(sensorID, time, values, dimension);
 
-        if (rawData.size() > savePeriod) {
+        // save before unsaved data would be overwritten in the ring
+        long unsaved = sequence + 1 - firstUnsaved.get();
+        if (unsaved > savePeriod || unsaved >= rawData.getCapacity() / 2) {
             saveSensor();
         }
     }
 
     /**
-     * saves the sensorData to the Storage
+     * saves the sensorData to the Storage. Only the thread handing over data
+     * takes the lock, adding and reading data does not.
      */
     private void saveSensor() {
-        new SensorDataSerializer(sensorID, rawData);
-        rawData.clear();
+        synchronized (saveLock) {
+            SensorDataRing.Snapshot unsaved = rawData.since(firstUnsaved.get());
+            int size = unsaved.size();
+            if (size > 0) {
+                int dimension = unsaved.getDimension();
+                long[] times = new long[size];
+                float[] values = new float[size * dimension];
+                size = unsaved.read(times, values, 0, size);
+                if (size > 0)
+                    new SensorDataSerializer(sensorID, times, values, dimension, 0, size);
+                firstUnsaved.set(unsaved.getEndSequence());
+            }
+        }
     }
 
     /**
      * returns the actual rawData of the Sensor,
      * which is not saved to the storage yet.
      */
-    public synchronized Vector<SensorData> getRawData() {
-        return rawData;
+    public Vector<SensorData> getRawData() {
+        return getRawDataSnapshot().toSensorDataList();
+    }
+
+    /**
+     * returns a snapshot of the actual rawData of the Sensor,
+     * which is not saved to the storage yet.
+     */
+    public SensorDataRing.Snapshot getRawDataSnapshot() {
+        return rawData.since(firstUnsaved.get());
+    }
+
+    /**
+     * returns a snapshot of the newest numberOfValues values held in memory.
+     */
+    public SensorDataRing.Snapshot getRawDataSnapshot(int numberOfValues) {
+        return rawData.latest(numberOfValues);
+    }
+
+    /**
+     * returns a snapshot of the values held in memory between the two given
+     * timestamps including the given times themselves.
+     */
+    public SensorDataRing.Snapshot getRawDataSnapshot(long begin, long end) {
+        return rawData.range(begin, end);
     }
 
     /**
      * returns the rawData from the given timestamp to the millisecond exact.
      * Or, if plusMinusOneSecond = true the rawData from the given timestamp plus minus 1 second.
      */
-    public synchronized Vector<SensorData> getRawData(Date time, boolean plusMinusOneSecond) {
+    public Vector<SensorData> getRawData(Date time, boolean plusMinusOneSecond) {
         if (!plusMinusOneSecond) {
             return getRawData(time, time);
         } else {
@@ -252,73 +339,150 @@ public class Sensor implements Externalizable {
      * either from the database or from the actual rawData or both.
      * Depending of the given timestamps.
      */
-    public synchronized Vector<SensorData> getRawData(Date begin, Date end) {
-        Date firstLocallyHoldDate;
+    public Vector<SensorData> getRawData(Date begin, Date end) {
+        long beginTime = Utils.dateToLongUnix(begin);
+        long endTime = Utils.dateToLongUnix(end);
+        long firstLocallyHoldTime = rawData.getFirstTime();
         Vector<SensorData> data = new Vector<SensorData>();
-        if (rawData.size() == 0) {
-            firstLocallyHoldDate = new Date();
-        } else {
-            firstLocallyHoldDate = rawData.get(0).getDate();
-        }
-        if (begin.after(firstLocallyHoldDate) || begin.equals(firstLocallyHoldDate)) {
-            getRawData(begin, end, data);
-        } else {
-            SensorDataDeSerializer deSerializer =
-                    new SensorDataDeSerializer(sensorID, data,
-                            Utils.dateToLongUnix(begin), Utils.dateToLongUnix(end), 0);
-            deSerializer.work();
-            if (!end.before(firstLocallyHoldDate)) {
-                getRawData(begin, end, data);
+        if (beginTime < firstLocallyHoldTime) {
+            // read everything older than the locally hold data from the storage
+            long storageEnd = Math.min(endTime, firstLocallyHoldTime - 1);
+            SegmentStore segments = SegmentStore.getStore(sensorID);
+            if (segments.getFirstTime() <= beginTime) {
+                // the segment store covers the requested range, so read it from there
+                // and only create the sensor data objects for the result
+                int dim = segments.getDimension();
+                int n = segments.count(beginTime, storageEnd);
+                long[] t = new long[n];
+                float[] v = new float[n * dim];
+                n = segments.read(beginTime, storageEnd, t, v, 0, n);
+                data.ensureCapacity(n);
+                for (int i = 0; i != n; ++i) {
+                    float[] f = new float[dim];
+                    System.arraycopy(v, i * dim, f, 0, dim);
+                    data.add(new SensorData(f, t[i]));
+                }
+            } else {
+                SensorDataDeSerializer deSerializer =
+                        new SensorDataDeSerializer(sensorID, data, beginTime, storageEnd, 0);
+                StorageExecutor.await(deSerializer.work());
             }
         }
+        if (endTime >= firstLocallyHoldTime) {
+            data.addAll(rawData.range(beginTime, endTime).toSensorDataList());
+        }
         return data;
     }
 
     /**
-     * Get the sensor driver for the given sensor
+     * Open a cursor over the data between the two given timestamps including the given times
+     * themselves. Unlike {@link #getRawData(Date, Date)} the data is not read at once but in
+     * batches of {@link Properties#cursorBatchSize} records, so arbitrarily large ranges can be
+     * processed. The cursor has to be closed after use.
      *
-     * @return the sensor driver or null if not set
+     * @param begin the begin time stamp
+     * @param end   the end time stamp
+     * @return the cursor
      */
-    public IGarmentDriver getSensorDriver() {
-        return sensorDriver;
+    public SensorDataCursor openCursor(Date begin, Date end) {
+        return new SensorDataCursor(sensorID, rawData, Utils.dateToLongUnix(begin), Utils.dateToLongUnix(end),
+                Properties.cursorBatchSize);
     }
 
     /**
-     * only an internal helper method to prevent multiple code.
+     * Add a shared memory channel every new record of this sensor is written to
+     *
+     * @param channel the channel
      */
-    private synchronized void getRawData (Date begin, Date end, Vector<SensorData> data) {
-        for (SensorData sensorData : rawData) {
-            if ((sensorData.getDate().before(end) || sensorData.getDate()
-                    .equals(end))
-                    && (sensorData.getDate().after(begin) || sensorData
-                    .getDate().equals(begin))) {
-                data.add(sensorData);
+    public synchronized void addChannel(SharedSensorRing channel) {
+        SharedSensorRing[] added = new SharedSensorRing[channels.length + 1];
+        System.arraycopy(channels, 0, added, 0, channels.length);
+        added[channels.length] = channel;
+        channels = added;
+    }
+
+    /**
+     * Remove a shared memory channel from this sensor
+     *
+     * @param channel the channel
+     */
+    public synchronized void removeChannel(SharedSensorRing channel) {
+        for (int i = 0; i != channels.length; ++i) {
+            if (channels[i].equals(channel)) {
+                SharedSensorRing[] removed = new SharedSensorRing[channels.length - 1];
+                System.arraycopy(channels, 0, removed, 0, i);
+                System.arraycopy(channels, i + 1, removed, i, removed.length - i);
+                channels = removed;
+                return;
             }
         }
     }
 
+    /**
+     * Returns the aggregated data between the two given timestamps. The rollup tier is chosen so
+     * that at most maxPoints buckets are returned if possible. Only data that has already been
+     * handed over to the storage is included.
+     *
+     * @param begin     the begin time stamp
+     * @param end       the end time stamp
+     * @param maxPoints the maximum number of buckets to return
+     * @return the aggregated data or null if it could not be read
+     */
+    public RollupStore.Rollup getRollupData(long begin, long end, int maxPoints) {
+        return RollupStore.getStore(sensorID).query(begin, end, maxPoints);
+    }
+
+    /**
+     * Returns statistics of the data between the two given timestamps in buckets of the given
+     * width. Count, minimum, maximum and mean are taken from the rollups where possible, all
+     * other statistics are computed from the raw data.
+     *
+     * @param begin       the begin time stamp
+     * @param end         the end time stamp
+     * @param bucketWidth the width of the buckets in milliseconds or 0 for a single bucket
+     * @param stats       the statistics to compute, see
+     *                    {@link de.unistuttgart.vis.wearable.os.api.AggregationFlags}
+     * @param percentiles the percentiles to compute in [0, 100]
+     * @return the statistics or null if the range is empty
+     */
+    public SensorDataAggregation getAggregation(long begin, long end, long bucketWidth, int stats, float[] percentiles) {
+        return SensorDataAggregation.compute(this, begin, end, bucketWidth, stats, percentiles);
+    }
+
+    /**
+     * Get the sensor driver for the given sensor
+     *
+     * @return the sensor driver or null if not set
+     */
+    public IGarmentDriver getSensorDriver() {
+        return sensorDriver;
+    }
+
     /**
      * Returns the given number of the newest SensorData of the Sensor.
      * @param numberOfValues    the number of SensorData to be returned
      * @param loadFromStorage   true if the Data can also be from the storage and hasnt to be "live"
      * @return  the newest SensorData of the Sensor
      */
-    public synchronized Vector<SensorData> getRawData(int numberOfValues, boolean loadFromStorage) {
+    public Vector<SensorData> getRawData(int numberOfValues, boolean loadFromStorage) {
         Vector<SensorData> returnData = new Vector<SensorData>();
-        if (loadFromStorage && rawData.size() < numberOfValues) {
+        int locallyHold = rawData.size();
+        if (loadFromStorage && locallyHold < numberOfValues) {
+            // read the newest values of the storage and drop those that are
+            // still held locally
+            long firstLocallyHoldTime = rawData.getFirstTime();
+            int missing = numberOfValues - locallyHold;
             SensorDataDeSerializer deSerializer =
-                    new SensorDataDeSerializer(sensorID, returnData, numberOfValues - rawData.size());
-            long id = deSerializer.work();
-            while (!SensorDataDeSerializer.jobFinsihed(id)) {}
-            returnData.addAll(rawData);
-        } else {
-            if (rawData.size() <= numberOfValues) {
-                return rawData;
+                    new SensorDataDeSerializer(sensorID, returnData, numberOfValues);
+            StorageExecutor.await(deSerializer.work());
+            while (!returnData.isEmpty() && returnData.lastElement().getLongUnixDate() >= firstLocallyHoldTime) {
+                returnData.remove(returnData.size() - 1);
             }
-            for (int i = rawData.size() - numberOfValues; i < rawData.size(); i++) {
-                returnData.add(rawData.get(i));
+            if (returnData.size() > missing) {
+                returnData.subList(0, returnData.size() - missing).clear();
             }
         }
+        returnData.addAll(rawData.latest(numberOfValues).toSensorDataList());
         return returnData;
     }
 
@@ -343,6 +507,7 @@ public class Sensor implements Externalizable {
         }
         this.rawDataMeasurementSystem = rawDataMeasurementSystem;
         this.rawDataMeasurementUnit = rawDataMeasurementUnit;
+        SensorManager.settingsChanged();
     }
 
     /**
@@ -382,6 +547,7 @@ public class Sensor implements Externalizable {
 
     public void setSensorType(SensorType sensorType) {
         this.sensorType = sensorType;
+        SensorManager.settingsChanged();
     }
 
     public String getDisplayedSensorName() {
@@ -390,6 +556,7 @@ public class Sensor implements Externalizable {
 
     public void setDisplayedSensorName(String displayedSensorName) {
         this.displayedSensorName = displayedSensorName;
+        SensorManager.settingsChanged();
     }
 
     public int getSampleRate() {
@@ -398,6 +565,7 @@ public class Sensor implements Externalizable {
 
     public void setSampleRate(int sampleRate) {
         this.sampleRate = sampleRate;
+        SensorManager.settingsChanged();
     }
 
     public String getBluetoothID() {
@@ -406,6 +574,7 @@ public class Sensor implements Externalizable {
 
     public void setBluetoothID(String bluetoothID) {
         this.bluetoothID = bluetoothID;
+        SensorManager.settingsChanged();
     }
 
     public float getSmoothness() {
@@ -414,6 +583,7 @@ public class Sensor implements Externalizable {
 
     public void setSmoothness(float smoothness) {
         this.smoothness = smoothness;
+        SensorManager.settingsChanged();
     }
 
     public int getSavePeriod() {
@@ -422,6 +592,7 @@ public class Sensor implements Externalizable {
 
     public void setSavePeriod(int savePeriod) {
         this.savePeriod = savePeriod;
+        SensorManager.settingsChanged();
     }
 
     public GraphType getGraphType() {
@@ -430,6 +601,7 @@ public class Sensor implements Externalizable {
 
     public void setGraphType(GraphType graphType) {
         this.graphType = graphType;
+        SensorManager.settingsChanged();
     }
 
     public MeasurementUnits getDisplayedMeasurementUnit() {
@@ -438,6 +610,7 @@ public class Sensor implements Externalizable {
 
     public void setDisplayedMeasurementUnit(MeasurementUnits displayedMeasurementUnit) {
         this.displayedMeasurementUnit = displayedMeasurementUnit;
+        SensorManager.settingsChanged();
     }
 
     public MeasurementSystems getDisplayedMeasurementSystem() {
@@ -446,8 +619,60 @@ public class Sensor implements Externalizable {
 
     public void setDisplayedMeasurementSystem(MeasurementSystems displayedMeasurementSystem) {
         this.displayedMeasurementSystem = displayedMeasurementSystem;
+        SensorManager.settingsChanged();
+    }
+
+
+    /**
+     * Write the settings of the sensor to the given output, this is the record
+     * format used by the {@link SettingsCodec}. New fields shall only be
+     * appended and be read in {@link #readSettings(DataInput, int)} depending on
+     * the version.
+     *
+     * @param output the output to write the settings to
+     * @throws java.io.IOException if an error occurs attempting to write to {@code output}.
+     */
+    public void writeSettings(DataOutput output) throws IOException {
+        output.writeBoolean(this.isInternalSensor);
+        output.writeBoolean(this.isEnabled);
+        output.writeInt(this.sensorID);
+        output.writeUTF(this.bluetoothID);
+        output.writeInt(this.sampleRate);
+        output.writeFloat(this.smoothness);
+        output.writeInt(this.savePeriod);
+        output.writeUTF(this.displayedSensorName);
+        SettingsCodec.writeEnum(output, this.sensorType);
+        SettingsCodec.writeEnum(output, this.graphType);
+        SettingsCodec.writeEnum(output, this.rawDataMeasurementUnit);
+        SettingsCodec.writeEnum(output, this.rawDataMeasurementSystem);
+        SettingsCodec.writeEnum(output, this.displayedMeasurementUnit);
+        SettingsCodec.writeEnum(output, this.displayedMeasurementSystem);
     }
 
+    /**
+     * Read the settings of the sensor written by {@link #writeSettings(DataOutput)}
+     *
+     * @param input   the input to read the settings from
+     * @param version the version of the settings file
+     * @throws java.io.IOException if an error occurs attempting to read from {@code input}.
+     */
+    public void readSettings(DataInput input, int version) throws IOException {
+        this.isInternalSensor = input.readBoolean();
+        this.isEnabled = input.readBoolean();
+        this.sensorID = input.readInt();
+        this.bluetoothID = input.readUTF();
+        this.sampleRate = input.readInt();
+        this.smoothness = input.readFloat();
+        this.savePeriod = input.readInt();
+        this.displayedSensorName = input.readUTF();
+        this.sensorType = SettingsCodec.readEnum(input, SensorType.class);
+        this.graphType = SettingsCodec.readEnum(input, GraphType.class);
+        this.rawDataMeasurementUnit = SettingsCodec.readEnum(input, MeasurementUnits.class);
+        this.rawDataMeasurementSystem = SettingsCodec.readEnum(input, MeasurementSystems.class);
+        this.displayedMeasurementUnit = SettingsCodec.readEnum(input, MeasurementUnits.class);
+        this.displayedMeasurementSystem = SettingsCodec.readEnum(input, MeasurementSystems.class);
+        createRawData();
+    }
 
     /**
      * Reads the next object from the ObjectInput <code>input</code>.
@@ -472,7 +697,7 @@ public class Sensor implements Externalizable {
         this.rawDataMeasurementSystem = (MeasurementSystems)input.readObject();
         this.displayedMeasurementUnit = (MeasurementUnits)input.readObject();
         this.displayedMeasurementSystem = (MeasurementSystems)input.readObject();
-        this.rawData = new Vector<SensorData>();
+        createRawData();
     }
 
     /**
@@ -0,0 +1,274 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.sensors;
+
+import de.unistuttgart.vis.wearable.os.api.AggregationFlags;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.storage.RollupStore;
+import de.unistuttgart.vis.wearable.os.utils.Utils;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Statistics of the data of a sensor in buckets of a fixed width starting at
+ * the begin of the requested range. The values are stored in row order, so
+ * the minimum of dimension d of bucket i is stored at min[i * dimension + d]
+ * and the p-th requested percentile at
+ * percentileValues[(i * dimension + d) * percentiles.length + p]. Statistics
+ * that have not been requested are left empty, the statistics of empty buckets
+ * are {@link Float#NaN}.
+ * </p>
+ * <p>
+ * Count, minimum, maximum and mean are taken from the {@link RollupStore}
+ * wherever the rollups cover the requested buckets, only the remaining records
+ * are read. Variance and percentiles always need all records, which are
+ * streamed through a {@link SensorDataCursor}. Since the records arrive in
+ * time order only the records of the current bucket are held for the
+ * percentiles.
+ * </p>
+ *
+ * @author pfaehlfd
+ */
+public class SensorDataAggregation {
+    public final long bucketWidth;
+    public final int dimension;
+    public final int stats;
+    public final float[] percentiles;
+    public final long[] times;
+    public final int[] counts;
+    public final float[] min;
+    public final float[] max;
+    public final float[] mean;
+    public final float[] variance;
+    public final float[] percentileValues;
+
+    //
+    // Intermediate sums, the mean and the sum of squared differences from the
+    // mean of the records of every bucket and dimension
+    //
+    private final double[] sum;
+    private final double[] welfordMean;
+    private final double[] welfordM2;
+
+    //
+    // Values of the current bucket per dimension collected for the percentiles
+    //
+    private int currentBucket = -1;
+    private float[][] bucketValues;
+    private int bucketSize = 0;
+
+    private SensorDataAggregation(long bucketWidth, int dimension, int buckets, long begin, int stats, float[] percentiles) {
+        this.bucketWidth = bucketWidth;
+        this.dimension = dimension;
+        this.stats = stats | AggregationFlags.COUNT;
+        this.percentiles = (stats & AggregationFlags.PERCENTILES) != 0 && percentiles != null ? percentiles : new float[0];
+        this.times = new long[buckets];
+        for (int i = 0; i != buckets; ++i)
+            this.times[i] = begin + i * bucketWidth;
+        this.counts = new int[buckets];
+        int values = buckets * dimension;
+        this.min = (stats & AggregationFlags.MIN) != 0 ? nan(values) : new float[0];
+        this.max = (stats & AggregationFlags.MAX) != 0 ? nan(values) : new float[0];
+        this.mean = (stats & AggregationFlags.MEAN) != 0 ? nan(values) : new float[0];
+        this.variance = (stats & AggregationFlags.VARIANCE) != 0 ? nan(values) : new float[0];
+        this.percentileValues = nan(values * this.percentiles.length);
+        this.sum = new double[(stats & AggregationFlags.MEAN) != 0 ? values : 0];
+        this.welfordMean = new double[(stats & AggregationFlags.VARIANCE) != 0 ? values : 0];
+        this.welfordM2 = new double[welfordMean.length];
+        this.bucketValues = new float[this.percentiles.length > 0 ? dimension : 0][16];
+    }
+
+    private static float[] nan(int size) {
+        float[] f = new float[size];
+        Arrays.fill(f, Float.NaN);
+        return f;
+    }
+
+    /**
+     * Compute the statistics of the given sensor in the range [begin, end]
+     *
+     * @param sensor      the sensor
+     * @param begin       the begin time stamp
+     * @param end         the end time stamp
+     * @param bucketWidth the width of the buckets in milliseconds or 0 for a
+     *                    single bucket covering the whole range
+     * @param stats       the statistics to compute, see {@link AggregationFlags}
+     * @param percentiles the percentiles to compute in [0, 100]
+     * @return the statistics or null if the range is empty
+     */
+    static SensorDataAggregation compute(Sensor sensor, long begin, long end, long bucketWidth, int stats, float[] percentiles) {
+        if (end < begin)
+            return null;
+        long range = end - begin + 1;
+        if (bucketWidth <= 0 || bucketWidth > range)
+            bucketWidth = range;
+        if ((range + bucketWidth - 1) / bucketWidth > Properties.maxAggregationBuckets)
+            bucketWidth = (range + Properties.maxAggregationBuckets - 1) / Properties.maxAggregationBuckets;
+        int buckets = (int) ((range + bucketWidth - 1) / bucketWidth);
+
+        //
+        // Take as much as possible from the rollups. Only the buckets starting
+        // at or after the first covered record are complete, and they cover
+        // all records up to the latest aggregated one. The records before and
+        // after this span are read from the sensor file.
+        //
+        RollupStore.Rollup rollup = null;
+        if ((stats & (AggregationFlags.VARIANCE | AggregationFlags.PERCENTILES)) == 0)
+            rollup = RollupStore.getStore(sensor.getSensorID()).queryAligned(begin, end, bucketWidth);
+        long coveredBegin = begin;
+        long coveredEnd = begin - 1;
+        if (rollup != null && rollup.dimension > 0) {
+            long rollupEnd = begin + ((end - begin + 1) / rollup.bucketWidth) * rollup.bucketWidth - 1;
+            coveredEnd = Math.min(rollup.latest, rollupEnd);
+            if (rollup.firstCovered > coveredEnd) {
+                coveredEnd = begin - 1;
+            } else if (rollup.firstCovered > begin) {
+                long width = rollup.bucketWidth;
+                coveredBegin = begin + ((rollup.firstCovered - begin + width - 1) / width) * width;
+            }
+        }
+        if (coveredBegin > coveredEnd) {
+            rollup = null;
+            coveredBegin = end + 1;
+            coveredEnd = end;
+        }
+
+        SensorDataCursor head = null;
+        SensorDataCursor tail = null;
+        try {
+            if (begin < coveredBegin)
+                head = sensor.openCursor(Utils.longUnixToDate(begin), Utils.longUnixToDate(coveredBegin - 1));
+            if (coveredEnd < end)
+                tail = sensor.openCursor(Utils.longUnixToDate(coveredEnd + 1), Utils.longUnixToDate(end));
+            int dimension = rollup != null ? rollup.dimension : head != null ? head.getDimension() : tail.getDimension();
+            SensorDataAggregation aggregation = new SensorDataAggregation(bucketWidth, dimension, buckets, begin, stats, percentiles);
+            aggregation.addCursor(head, begin);
+            if (rollup != null)
+                aggregation.addRollup(rollup, begin, coveredBegin, coveredEnd);
+            aggregation.addCursor(tail, begin);
+            aggregation.finish();
+            return aggregation;
+        } finally {
+            if (head != null)
+                head.close();
+            if (tail != null)
+                tail.close();
+        }
+    }
+
+    /**
+     * Add all records of the given cursor
+     */
+    private void addCursor(SensorDataCursor cursor, long begin) {
+        if (cursor == null || cursor.getDimension() != dimension)
+            return;
+        while (cursor.next()) {
+            for (int i = 0; i != cursor.size(); ++i)
+                add((int) ((cursor.getTime(i) - begin) / bucketWidth), cursor.getValues(), i * dimension);
+        }
+    }
+
+    /**
+     * Combine the rollup buckets starting in [coveredBegin, coveredEnd] into
+     * the buckets of this aggregation
+     */
+    private void addRollup(RollupStore.Rollup rollup, long begin, long coveredBegin, long coveredEnd) {
+        for (int r = 0; r != rollup.times.length; ++r) {
+            int count = rollup.counts[r];
+            if (count == 0 || rollup.times[r] < coveredBegin || rollup.times[r] > coveredEnd)
+                continue;
+            int b = (int) ((rollup.times[r] - begin) / bucketWidth);
+            for (int d = 0; d != dimension; ++d) {
+                int i = b * dimension + d;
+                int ri = r * dimension + d;
+                if (min.length != 0 && !(rollup.min[ri] >= min[i]))
+                    min[i] = rollup.min[ri];
+                if (max.length != 0 && !(rollup.max[ri] <= max[i]))
+                    max[i] = rollup.max[ri];
+                if (sum.length != 0)
+                    sum[i] += (double) rollup.mean[ri] * count;
+            }
+            counts[b] += count;
+        }
+    }
+
+    /**
+     * Add a single record to the given bucket
+     */
+    private void add(int b, float[] values, int offset) {
+        if (b != currentBucket) {
+            finishBucket();
+            currentBucket = b;
+        }
+        int n = ++counts[b];
+        for (int d = 0; d != dimension; ++d) {
+            int i = b * dimension + d;
+            float v = values[offset + d];
+            if (min.length != 0 && !(v >= min[i]))
+                min[i] = v;
+            if (max.length != 0 && !(v <= max[i]))
+                max[i] = v;
+            if (sum.length != 0)
+                sum[i] += v;
+            if (welfordMean.length != 0) {
+                double delta = v - welfordMean[i];
+                welfordMean[i] += delta / n;
+                welfordM2[i] += delta * (v - welfordMean[i]);
+            }
+        }
+        if (percentiles.length != 0) {
+            if (bucketSize == bucketValues[0].length) {
+                for (int d = 0; d != dimension; ++d)
+                    bucketValues[d] = Arrays.copyOf(bucketValues[d], bucketSize * 2);
+            }
+            for (int d = 0; d != dimension; ++d)
+                bucketValues[d][bucketSize] = values[offset + d];
+            ++bucketSize;
+        }
+    }
+
+    /**
+     * Compute the percentiles of the current bucket by linear interpolation
+     * between the closest ranks
+     */
+    private void finishBucket() {
+        if (currentBucket < 0 || bucketSize == 0)
+            return;
+        for (int d = 0; d != dimension; ++d) {
+            float[] v = bucketValues[d];
+            Arrays.sort(v, 0, bucketSize);
+            for (int p = 0; p != percentiles.length; ++p) {
+                double rank = Math.max(0, Math.min(100, percentiles[p])) / 100.0 * (bucketSize - 1);
+                int lo = (int) Math.floor(rank);
+                int hi = Math.min(lo + 1, bucketSize - 1);
+                percentileValues[(currentBucket * dimension + d) * percentiles.length + p] =
+                        (float) (v[lo] + (v[hi] - v[lo]) * (rank - lo));
+            }
+        }
+        bucketSize = 0;
+    }
+
+    /**
+     * Compute the final statistics from the intermediate sums
+     */
+    private void finish() {
+        finishBucket();
+        for (int b = 0; b != counts.length; ++b) {
+            if (counts[b] == 0)
+                continue;
+            for (int d = 0; d != dimension; ++d) {
+                int i = b * dimension + d;
+                if (mean.length != 0)
+                    mean[i] = (float) (sum[i] / counts[b]);
+                if (variance.length != 0)
+                    variance[i] = (float) (welfordM2[i] / counts[b]);
+            }
+        }
+    }
+}
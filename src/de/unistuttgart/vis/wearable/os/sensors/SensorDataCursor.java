@@ -0,0 +1,179 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.sensors;
+
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.storage.SensorFileCursor;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Pull based cursor over the data of a sensor in a time range, covering the
+ * stored data as well as the data held in memory. The data is returned in
+ * batches of a fixed number of records that are copied into primitive arrays
+ * owned by the cursor, so the memory needed does not depend on the size of
+ * the range:
+ * <pre>
+ * SensorDataCursor cursor = sensor.openCursor(begin, end);
+ * try {
+ *     while (cursor.next()) {
+ *         for (int i = 0; i != cursor.size(); ++i)
+ *             use(cursor.getTime(i), cursor.getValue(i, 0));
+ *     }
+ * } finally {
+ *     cursor.close();
+ * }
+ * </pre>
+ * The arrays are reused for every batch, so their content is only valid until
+ * the next call of {@link #next()}.
+ * </p>
+ *
+ * @author pfaehlfd
+ */
+public class SensorDataCursor implements java.io.Closeable {
+    private final int batchSize;
+    private int dimension;
+    private long[] times;
+    private float[] values;
+    private int size = 0;
+
+    //
+    // The stored data is read first, the data held in memory afterwards
+    //
+    private SensorFileCursor stored;
+    private SensorDataRing.Snapshot live;
+
+    /**
+     * Create a new cursor over the data of the given sensor in the range [begin, end]
+     *
+     * @param sensorID  the sensor id
+     * @param ring      the ring holding the data of the sensor in memory
+     * @param begin     the oldest time stamp
+     * @param end       the latest time stamp
+     * @param batchSize the maximum number of records per batch
+     */
+    SensorDataCursor(int sensorID, SensorDataRing ring, long begin, long end, int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        long firstLocallyHoldTime = ring.getFirstTime();
+
+        //
+        // Take the snapshot of the data held in memory right away, so it
+        // continues the stored data without a gap
+        //
+        if (end >= firstLocallyHoldTime) {
+            live = ring.range(begin, end);
+            dimension = live.getDimension();
+        } else {
+            live = null;
+        }
+
+        if (begin < firstLocallyHoldTime) {
+            try {
+                stored = SensorFileCursor.open(sensorID, begin, Math.min(end, firstLocallyHoldTime - 1));
+                if (stored != null)
+                    dimension = stored.getDimension();
+            } catch (IOException ioe) {
+                Log.e("GarmentOS", "SensorDataCursor - opening the data of sensor " + sensorID + " failed");
+            }
+        }
+
+        this.times = new long[this.batchSize];
+        this.values = new float[this.batchSize * dimension];
+    }
+
+    /**
+     * Load the next batch of records
+     *
+     * @return true if a batch has been loaded, false if all records have been read
+     */
+    public boolean next() {
+        size = 0;
+        if (stored != null) {
+            try {
+                size = stored.read(times, values, batchSize);
+            } catch (IOException ioe) {
+                Log.e("GarmentOS", "SensorDataCursor - reading stored data failed");
+            }
+            if (size > 0)
+                return true;
+            closeStored();
+        }
+        if (live != null && live.getDimension() == dimension)
+            size = live.read(times, values, 0, batchSize);
+        return size > 0;
+    }
+
+    /**
+     * @return the dimension of the records or 0 if there is no data at all
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the number of records in the current batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the time stamp of the i-th record of the current batch
+     *
+     * @param i the record
+     * @return the time stamp
+     */
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    /**
+     * Get a value of the i-th record of the current batch
+     *
+     * @param i the record
+     * @param d the dimension
+     * @return the value
+     */
+    public float getValue(int i, int d) {
+        return values[i * dimension + d];
+    }
+
+    /**
+     * @return the time stamps of the current batch, only the first
+     * {@link #size()} entries are valid
+     */
+    public long[] getTimes() {
+        return times;
+    }
+
+    /**
+     * @return the values of the current batch in row order, only the first
+     * {@link #size()} records are valid
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    private void closeStored() {
+        if (stored == null)
+            return;
+        try {
+            stored.close();
+        } catch (IOException ioe) {
+        }
+        stored = null;
+    }
+
+    @Override
+    public void close() {
+        closeStored();
+        live = null;
+        size = 0;
+    }
+}
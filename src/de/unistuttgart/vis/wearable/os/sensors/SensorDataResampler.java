@@ -0,0 +1,194 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.sensors;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Resampler putting the data of several sensors onto a common grid of a fixed
+ * number of points begin + k * step. The records of every sensor are streamed
+ * through the resampler in time order, either from a {@link SensorDataCursor}
+ * or from arrays, and the values at the grid points are interpolated by one
+ * of the following methods:
+ * </p>
+ * <ul>
+ * <li>{@link #HOLD} - the value of the latest record not younger than the point</li>
+ * <li>{@link #NEAREST} - the value of the record closest to the point</li>
+ * <li>{@link #LINEAR} - linear interpolation between the records around the point</li>
+ * </ul>
+ * <p>
+ * Points after the last record get the values of the last record. Points
+ * before the first record get the values of the first record if edges are
+ * filled, {@link Float#NaN} otherwise. If a sensor has no records at all all
+ * of its points are {@link Float#NaN}.
+ * </p>
+ * <p>
+ * The output buffers are allocated once per sensor and dimension and reused
+ * for every call, so the result arrays of a sensor are only valid until the
+ * next call for the same sensor.
+ * </p>
+ *
+ * @author pfaehlfd
+ */
+public class SensorDataResampler {
+    public static final int HOLD = 0;
+    public static final int NEAREST = 1;
+    public static final int LINEAR = 2;
+
+    private final int points;
+    private final int interpolation;
+    private final boolean fillEdges;
+
+    //
+    // Output per sensor as [dimension][point] and the number of records read
+    //
+    private final float[][][] output;
+    private final int[] samples;
+
+    //
+    // State of the sensor currently being resampled
+    //
+    private float[][] current;
+    private int dimension;
+    private long begin;
+    private long step;
+    private int next;
+    private int count;
+    private long previousTime;
+    private float[] previous = new float[0];
+
+    /**
+     * Create a new resampler
+     *
+     * @param sensors       the number of sensors
+     * @param points        the number of grid points
+     * @param interpolation the interpolation method, {@link #HOLD}, {@link #NEAREST} or {@link #LINEAR}
+     * @param fillEdges     whether points before the first record get the values of the first
+     *                      record instead of {@link Float#NaN}
+     */
+    public SensorDataResampler(int sensors, int points, int interpolation, boolean fillEdges) {
+        this.points = Math.max(0, points);
+        this.interpolation = interpolation;
+        this.fillEdges = fillEdges;
+        this.output = new float[sensors][][];
+        this.samples = new int[sensors];
+    }
+
+    /**
+     * @return the number of grid points
+     */
+    public int getPoints() {
+        return points;
+    }
+
+    /**
+     * Get the resampled values of the given sensor
+     *
+     * @param sensor the sensor
+     * @return the values as [dimension][point] or null if the sensor has not been resampled yet
+     */
+    public float[][] getValues(int sensor) {
+        return output[sensor];
+    }
+
+    /**
+     * Get the number of records the resampled values of the given sensor are based on
+     *
+     * @param sensor the sensor
+     * @return the number of records
+     */
+    public int getSampleCount(int sensor) {
+        return samples[sensor];
+    }
+
+    /**
+     * Resample all records of the given cursor
+     *
+     * @param sensor the sensor
+     * @param begin  the time of the first grid point
+     * @param step   the distance of the grid points in milliseconds
+     * @param cursor the cursor, it is read until its end but not closed
+     * @return the values as [dimension][point]
+     */
+    public float[][] resample(int sensor, long begin, long step, SensorDataCursor cursor) {
+        start(sensor, begin, step, cursor.getDimension());
+        while (cursor.next())
+            for (int i = 0; i != cursor.size(); ++i)
+                add(cursor.getTime(i), cursor.getValues(), i * dimension);
+        return finish(sensor);
+    }
+
+    /**
+     * Resample the given records
+     *
+     * @param sensor    the sensor
+     * @param begin     the time of the first grid point
+     * @param step      the distance of the grid points in milliseconds
+     * @param times     the time stamps of the records
+     * @param values    the values of the records in row order
+     * @param dimension the dimension of the records
+     * @param count     the number of records
+     * @return the values as [dimension][point]
+     */
+    public float[][] resample(int sensor, long begin, long step, long[] times, float[] values, int dimension, int count) {
+        start(sensor, begin, step, dimension);
+        for (int i = 0; i != count; ++i)
+            add(times[i], values, i * dimension);
+        return finish(sensor);
+    }
+
+    private void start(int sensor, long begin, long step, int dimension) {
+        if (output[sensor] == null || output[sensor].length != dimension)
+            output[sensor] = new float[dimension][points];
+        if (previous.length < dimension)
+            previous = new float[dimension];
+        this.current = output[sensor];
+        this.dimension = dimension;
+        this.begin = begin;
+        this.step = Math.max(1, step);
+        this.next = 0;
+        this.count = 0;
+    }
+
+    /**
+     * Add the next record and write all grid points before it
+     */
+    private void add(long time, float[] values, int offset) {
+        while (next < points && begin + next * step < time) {
+            long point = begin + next * step;
+            for (int d = 0; d != dimension; ++d) {
+                float v = values[offset + d];
+                if (count == 0) {
+                    current[d][next] = fillEdges ? v : Float.NaN;
+                } else if (interpolation == LINEAR) {
+                    float p = previous[d];
+                    current[d][next] = p + (v - p) * (float) (point - previousTime) / (float) (time - previousTime);
+                } else if (interpolation == NEAREST && time - point < point - previousTime) {
+                    current[d][next] = v;
+                } else {
+                    current[d][next] = previous[d];
+                }
+            }
+            ++next;
+        }
+        previousTime = time;
+        System.arraycopy(values, offset, previous, 0, dimension);
+        ++count;
+    }
+
+    /**
+     * Write the remaining grid points after the last record
+     */
+    private float[][] finish(int sensor) {
+        for (int d = 0; d != dimension; ++d)
+            Arrays.fill(current[d], next, points, count == 0 ? Float.NaN : previous[d]);
+        samples[sensor] = count;
+        return current;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.sensors;
+
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Ring buffer holding the latest values of a sensor. The time stamps are
+ * stored in a long array and the values in a flat float array, so the values
+ * of the record with the sequence number s are stored at
+ * values[(s % capacity) * dimension + d]. Adding a value does not allocate
+ * any objects.
+ * </p>
+ * <p>
+ * The ring does not use any locks. Producers claim a sequence number with a
+ * single atomic increment, write their record into the according slot and
+ * publish it by storing the sequence number in the slot. A producer wrapping
+ * onto a slot whose former record is still being written waits until that
+ * record is published, so two producers never write the same slot at once.
+ * </p>
+ * <p>
+ * Readers take a {@link Snapshot} of a range of sequence numbers. The snapshot
+ * does not copy anything, the records are copied from the ring directly into
+ * the arrays of the reader. Afterwards the reader checks whether a producer
+ * has claimed any of the copied slots in the meantime and drops the according
+ * records, so neither side ever waits for the other.
+ * </p>
+ *
+ * @author pfaehlfd
+ */
+public class SensorDataRing {
+    private final int capacity;
+
+    //
+    // The arrays are created as soon as the dimension is known
+    //
+    private final AtomicReference<Buffers> buffers = new AtomicReference<Buffers>();
+
+    //
+    // Number of records ever claimed by producers, this is the sequence number
+    // of the next record
+    //
+    private final AtomicLong claimed = new AtomicLong(0);
+
+    //
+    // Written by readers between copying the records and checking the claimed
+    // sequence numbers, so the copy can not be reordered after the check
+    //
+    private volatile int barrier;
+
+    /**
+     * The arrays of the ring
+     */
+    private static class Buffers {
+        final int dimension;
+        final long[] times;
+        final float[] values;
+
+        //
+        // Sequence number of the record published in each slot, a slot that
+        // has not been written yet holds the sequence number one lap before
+        // its first record
+        //
+        final AtomicLongArray slots;
+
+        Buffers(int dimension, int capacity) {
+            this.dimension = dimension;
+            this.times = new long[capacity];
+            this.values = new float[capacity * dimension];
+            this.slots = new AtomicLongArray(capacity);
+            for (int i = 0; i != capacity; ++i)
+                slots.set(i, i - capacity);
+        }
+    }
+
+    /**
+     * A view of a range of published records in the ring. The records are
+     * read straight from the arrays of the ring by
+     * {@link #read(long[], float[], int, int)}, which works like a cursor.
+     * Records that are overwritten before they are read are left out.
+     */
+    public static class Snapshot {
+        private final SensorDataRing ring;
+        private final Buffers buffers;
+        private final long first;
+        private final int count;
+        private final long begin;
+        private final long end;
+
+        //
+        // Number of records of the snapshot already read
+        //
+        private int position = 0;
+
+        private Snapshot(SensorDataRing ring, long first, int maxCount, long begin, long end) {
+            this.ring = ring;
+            this.buffers = ring.buffers.get();
+            this.first = first;
+            this.begin = begin;
+            this.end = end;
+
+            // the snapshot ends at the first record that is still being written
+            int c = 0;
+            if (buffers != null)
+                while (c < maxCount && buffers.slots.get(ring.index(first + c)) >= first + c)
+                    ++c;
+            this.count = c;
+        }
+
+        /**
+         * @return the number of records in the snapshot that have not been
+         * read yet, records overwritten or outside of the requested time
+         * range are counted until they are read
+         */
+        public synchronized int size() {
+            return count - position;
+        }
+
+        /**
+         * @return the dimension of the records
+         */
+        public int getDimension() {
+            return buffers == null ? 0 : buffers.dimension;
+        }
+
+        /**
+         * @return the sequence number following the last record of the snapshot
+         */
+        public long getEndSequence() {
+            return first + count;
+        }
+
+        /**
+         * Copy the next records of the snapshot from the ring into the given
+         * arrays. Records that have been overwritten in the meantime or are
+         * outside of the requested time range are skipped.
+         *
+         * @param times  the array to write the time stamps to
+         * @param values the array to write the values to in row order
+         * @param offset the first record in the arrays to write to
+         * @param max    the maximum number of records to read
+         * @return the number of records read, 0 if the snapshot has been read
+         * completely
+         */
+        public synchronized int read(long[] times, float[] values, int offset, int max) {
+            int n = 0;
+            while (n < max && position < count) {
+                int chunk = Math.min(max - n, count - position);
+                long sequence = first + position;
+                copy(sequence, chunk, times, values, offset + n);
+                position += chunk;
+
+                // drop the records whose slots have been claimed for a newer
+                // record while copying them
+                ring.barrier = 0;
+                long overwritten = ring.claimed.get() - ring.capacity - sequence;
+                int skip = (int) Math.max(0, Math.min(chunk, overwritten));
+                n += compact(times, values, offset + n, skip, chunk);
+            }
+            return n;
+        }
+
+        /**
+         * Copy the given number of records in up to two parts if they wrap
+         * around the end of the ring
+         */
+        private void copy(long sequence, int n, long[] times, float[] values, int offset) {
+            int dim = buffers.dimension;
+            int start = ring.index(sequence);
+            int part = Math.min(n, ring.capacity - start);
+            System.arraycopy(buffers.times, start, times, offset, part);
+            System.arraycopy(buffers.times, 0, times, offset + part, n - part);
+            System.arraycopy(buffers.values, start * dim, values, offset * dim, part * dim);
+            System.arraycopy(buffers.values, 0, values, (offset + part) * dim, (n - part) * dim);
+        }
+
+        /**
+         * Move the records [from, to) following the offset within the arrays
+         * to the offset, leaving out those outside of the time range
+         *
+         * @return the number of records kept
+         */
+        private int compact(long[] times, float[] values, int offset, int from, int to) {
+            int dim = buffers.dimension;
+            int c = 0;
+            for (int i = from; i != to; ++i) {
+                long t = times[offset + i];
+                if (t < begin || t > end)
+                    continue;
+                if (c != i) {
+                    times[offset + c] = t;
+                    System.arraycopy(values, (offset + i) * dim, values, (offset + c) * dim, dim);
+                }
+                ++c;
+            }
+            return c;
+        }
+
+        /**
+         * Read the remaining records of the snapshot into a list of sensor
+         * data objects
+         *
+         * @return the list of sensor data objects
+         */
+        public Vector<SensorData> toSensorDataList() {
+            int dim = getDimension();
+            int n = size();
+            long[] t = new long[n];
+            float[] v = new float[n * dim];
+            n = read(t, v, 0, n);
+            Vector<SensorData> ret = new Vector<SensorData>(n);
+            for (int i = 0; i != n; ++i) {
+                float[] f = new float[dim];
+                System.arraycopy(v, i * dim, f, 0, dim);
+                ret.add(new SensorData(f, t[i]));
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Create a new ring buffer
+     *
+     * @param capacity the number of records the ring can hold
+     */
+    public SensorDataRing(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the position of the given sequence number in the arrays
+     */
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    /**
+     * Add a new record to the ring. If the ring is full the oldest record is
+     * overwritten. The dimension of the ring is set by the first record added,
+     * values of later records exceeding this dimension are dropped and missing
+     * ones are set to 0.
+     *
+     * @param time      the time stamp of the record
+     * @param data      the array holding the values
+     * @param offset    the position of the first value in the array
+     * @param dimension the number of values
+     * @return the sequence number of the record
+     */
+    public long add(long time, float[] data, int offset, int dimension) {
+        Buffers b = buffers.get();
+        if (b == null) {
+            buffers.compareAndSet(null, new Buffers(dimension, capacity));
+            b = buffers.get();
+        }
+
+        long sequence = claimed.getAndIncrement();
+        int i = index(sequence);
+        int d = Math.min(dimension, b.dimension);
+
+        // wait for the producer of the record one lap before, this does only
+        // happen if it has been preempted for a whole lap of the ring
+        while (b.slots.get(i) != sequence - capacity)
+            Thread.yield();
+
+        // write the record and publish it, readers check the claimed sequence
+        // numbers after copying so they do not need to see the slot marked
+        b.times[i] = time;
+        System.arraycopy(data, offset, b.values, i * b.dimension, d);
+        for (int j = d; j < b.dimension; ++j)
+            b.values[i * b.dimension + j] = 0;
+        b.slots.lazySet(i, sequence);
+        return sequence;
+    }
+
+    /**
+     * @return the number of records that can be held by the ring
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of records ever added to the ring
+     */
+    public long getWritten() {
+        return claimed.get();
+    }
+
+    /**
+     * @return the number of records currently held by the ring
+     */
+    public int size() {
+        return (int) Math.min(claimed.get(), capacity);
+    }
+
+    /**
+     * @return the dimension of the stored records or 0 if the ring is empty
+     */
+    public int getDimension() {
+        Buffers b = buffers.get();
+        return b == null ? 0 : b.dimension;
+    }
+
+    /**
+     * @return the time stamp of the oldest record in the ring or
+     * {@link Long#MAX_VALUE} if the ring is empty
+     */
+    public long getFirstTime() {
+        Buffers b = buffers.get();
+        long written = claimed.get();
+        if (b == null || written == 0)
+            return Long.MAX_VALUE;
+        // skip the oldest slot if the ring is full since it may be overwritten right now
+        long oldest = written > capacity ? written - capacity + 1 : 0;
+        return b.times[index(Math.min(oldest, written - 1))];
+    }
+
+    /**
+     * Get a snapshot of all records in the sequence range [from, to). Records
+     * that have already been overwritten are left out, the snapshot ends at
+     * the first record that is still being written, so handing over the
+     * records of consecutive snapshots does not leave any gaps.
+     *
+     * @param from the sequence number of the first record
+     * @param to   the sequence number following the last record
+     * @return the snapshot
+     */
+    public Snapshot between(long from, long to) {
+        long first = Math.max(from, claimed.get() - capacity);
+        return new Snapshot(this, first, (int) (to - first), Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get a snapshot of all records starting at the given sequence number. If
+     * the record has already been overwritten the snapshot starts with the
+     * oldest record in the ring.
+     *
+     * @param sequence the sequence number of the first record
+     * @return the snapshot
+     */
+    public Snapshot since(long sequence) {
+        return between(sequence, claimed.get());
+    }
+
+    /**
+     * Get a snapshot of the given number of latest records
+     *
+     * @param n the number of records
+     * @return the snapshot, holding less than n records if the ring does not
+     * hold as many
+     */
+    public Snapshot latest(int n) {
+        // not size(), it reads the claimed sequence again and may count
+        // records added after written has been read
+        long written = claimed.get();
+        return between(written - Math.min(n, Math.min(written, capacity)), written);
+    }
+
+    /**
+     * Get a snapshot of all records with a time stamp in the range [begin, end]
+     *
+     * @param begin the oldest time stamp
+     * @param end   the latest time stamp
+     * @return the snapshot
+     */
+    public Snapshot range(long begin, long end) {
+        Buffers b = buffers.get();
+        long written = claimed.get();
+        long oldest = written - Math.min(written, capacity);
+        if (b == null)
+            return new Snapshot(this, oldest, 0, begin, end);
+
+        // narrow the range by a binary search, records overwritten while
+        // searching are filtered by their time stamp afterwards
+        long lo = search(b, oldest, written, begin, false);
+        long hi = search(b, lo, written, end, true);
+        return new Snapshot(this, lo, (int) (hi - lo), begin, end);
+    }
+
+    /**
+     * @return the first sequence number in [lo, hi) whose time stamp is not
+     * older than the given time, or younger if inclusive is set
+     */
+    private long search(Buffers b, long lo, long hi, long time, boolean inclusive) {
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            long t = b.times[index(mid)];
+            if (t < time || (inclusive && t == time))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
@@ -8,6 +8,7 @@
 package de.unistuttgart.vis.wearable.os.sensors;
 
 import de.unistuttgart.vis.wearable.os.storage.SettingsStorage;
+import de.unistuttgart.vis.wearable.os.utils.StartupTimeline;
 
 import java.util.*;
 
@@ -49,15 +50,37 @@ public final class SensorManager {
     // Map to store the different sensors. The map allows us to get the sensor object
     // by knowing its ID
     //
-    private static java.util.Map<Integer, Sensor> allSensors = null;
+    private static volatile java.util.Map<Integer, Sensor> allSensors = null;
 
     //
-    // Read the saved sensors from the file. If we have not saved any sensors yet create a map
+    // Set whenever a sensor or its settings have changed since the last save
     //
-    static {
-        allSensors = SettingsStorage.readSensors();
-        if(allSensors == null)
-            allSensors = new java.util.LinkedHashMap<Integer, Sensor>();
+    private static final java.util.concurrent.atomic.AtomicBoolean dirty =
+            new java.util.concurrent.atomic.AtomicBoolean(false);
+
+    /**
+     * Get the map of all sensors. The saved sensors are read from the file the first time this
+     * function is called, so the sensor settings are only deserialized once they are needed. If we
+     * have not saved any sensors yet create a map.
+     *
+     * @return the map of all sensors
+     */
+    private static java.util.Map<Integer, Sensor> sensors() {
+        java.util.Map<Integer, Sensor> ret = allSensors;
+        if (ret != null)
+            return ret;
+        synchronized (SensorManager.class) {
+            if (allSensors == null) {
+                StartupTimeline.Phase phase = StartupTimeline.begin("sensor settings");
+                try {
+                    java.util.Map<Integer, Sensor> read = SettingsStorage.readSensors();
+                    allSensors = read != null ? read : new java.util.LinkedHashMap<Integer, Sensor>();
+                } finally {
+                    phase.end();
+                }
+            }
+            return allSensors;
+        }
     }
 
     /**
@@ -76,15 +99,35 @@ public final class SensorManager {
     public static void addNewSensor(Sensor sensor) {
         // Insert the sensor into the map and afterwards sort it
         // this is actually better than sorting the map every time before returning it
-        allSensors.put(sensor.getSensorID(), sensor);
-        allSensors = sortByValues(allSensors);
+        synchronized (SensorManager.class) {
+            java.util.Map<Integer, Sensor> map = sensors();
+            map.put(sensor.getSensorID(), sensor);
+            allSensors = sortByValues(map);
+        }
+        settingsChanged();
+    }
+
+    /**
+     * Mark the sensor settings as changed, so they are written by the next call to
+     * {@link #save()}
+     */
+    public static void settingsChanged() {
+        dirty.set(true);
     }
 
     /**
-     * Save the current settings
+     * Save the current settings if they have changed since the last save. This
+     * is called by the auto update thread and when the service is shut down,
+     * the calls are serialised so the sensors are not written twice at once.
      */
     public static void save() {
-        SettingsStorage.saveSensorAndPrivacy(allSensors, null);
+        synchronized (SensorManager.class) {
+            // Nothing can have changed if the sensors have not been loaded yet
+            if (allSensors == null || !dirty.getAndSet(false))
+                return;
+            if (!SettingsStorage.saveSensorAndPrivacy(allSensors, null))
+                dirty.set(true);
+        }
     }
 
     /**
@@ -95,9 +138,10 @@ public final class SensorManager {
      * @return a String array containing all the sensor names that are known by GarmentOS
      */
     public static String[] getSensorNames() {
-        String[] names = new String[allSensors.size()];
+        java.util.Map<Integer, Sensor> map = sensors();
+        String[] names = new String[map.size()];
         int i = -1;
-        for( Sensor s : allSensors.values() )
+        for( Sensor s : map.values() )
             names[++i] = s.getDisplayedSensorName();
         return names;
     }
@@ -110,7 +154,7 @@ public final class SensorManager {
      * @return the Sensor object for the ID or null if the ID is unknown
      */
     public static Sensor getSensorByID(int id) {
-        return allSensors.get(id);
+        return sensors().get(id);
     }
 
     /**
@@ -119,7 +163,7 @@ public final class SensorManager {
      * @return a collection containing all sensors known by GarmentOS
      */
     public static java.util.Collection<Sensor> getAllSensors () {
-        return allSensors.values();
+        return sensors().values();
     }
 
     /**
@@ -130,7 +174,7 @@ public final class SensorManager {
     public static java.util.Collection<Sensor> getAllSensors (SensorType sensorType) {
         java.util.Map<Integer, Sensor> sensorsToReturn =
                 new java.util.HashMap<Integer, Sensor>();
-        for (Sensor sensor : allSensors.values()) {
+        for (Sensor sensor : sensors().values()) {
             if (sensor.getSensorType() == sensorType) {
                 sensorsToReturn.put(sensor.getSensorID(), sensor);
             }
@@ -143,6 +187,7 @@ public final class SensorManager {
      * @param id the sensor id to be removed
      */
     public static void removeSensor(int id) {
-        allSensors.remove(id);
+        if (sensors().remove(id) != null)
+            settingsChanged();
     }
 }
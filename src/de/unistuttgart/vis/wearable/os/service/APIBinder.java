@@ -16,8 +16,10 @@ import de.unistuttgart.vis.wearable.os.privacy.PrivacyManager;
 import de.unistuttgart.vis.wearable.os.privacy.UserApp;
 import de.unistuttgart.vis.wearable.os.sensors.Sensor;
 import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataCursor;
 import de.unistuttgart.vis.wearable.os.sensors.SensorManager;
 import de.unistuttgart.vis.wearable.os.sensors.SensorType;
+import de.unistuttgart.vis.wearable.os.storage.ActivityTimeline;
 import de.unistuttgart.vis.wearable.os.utils.Constants;
 import de.unistuttgart.vis.wearable.os.utils.Utils;
 
@@ -63,8 +65,25 @@ class APIBinder extends IGarmentAPI.Stub {
      */
     @Override
     public int getActivityAtTime(String app, long time) throws RemoteException {
-        //TODO
-        return Constants.ENUMERATION_NULL;
+        if(activityRecognitionDenied(app))
+            return Constants.ILLEGAL_VALUE;
+        int activity = ActivityTimeline.getInstance().getActivityAtTime(time);
+        return activity == ActivityTimeline.NO_ACTIVITY ? Constants.ENUMERATION_NULL : activity;
+    }
+
+    /**
+     * Return the activity transitions in the given time range
+     * @param app the app requesting the activities
+     * @param begin the begin of the time range
+     * @param end the end of the time range
+     * @return the transitions including the one to the activity performed at the begin of the
+     *         range or null if the app is lacking permissions
+     */
+    @Override
+    public PActivityTransitions getActivityTransitions(String app, long begin, long end) throws RemoteException {
+        if(activityRecognitionDenied(app))
+            return null;
+        return new PActivityTransitions(ActivityTimeline.getInstance().getTransitions(begin, end));
     }
 
     /**
@@ -120,12 +139,46 @@ class APIBinder extends IGarmentAPI.Stub {
 	public void unregisterCallback(String app, IGarmentCallback callback, int flag)
 			throws android.os.RemoteException {
 		if (callback != null) {
-			de.unistuttgart.vis.wearable.os.service.GarmentOSService.mCallbacks.unregister(new CallbackNode(
-					android.os.Binder.getCallingPid(), android.os.Binder
-							.getCallingUid(), callback, flag));
+			de.unistuttgart.vis.wearable.os.service.GarmentOSService.mCallbacks.unregister(callback.asBinder());
 		}
 	}
 
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.APIFunctions} CLASS</b>
+     * Change the capacity and the drop policy of the queue of the given callback handle
+     *
+     * @param app        the app
+     * @param callback   the callback handle
+     * @param capacity   the maximum number of waiting callbacks
+     * @param dropPolicy the ordinal of the {@link de.unistuttgart.vis.wearable.os.api.DropPolicy}
+     * @return true if the queue has been changed, false if the callback handle is neither
+     *         registered nor subscribed to a sensor
+     */
+    @Override
+    public boolean setCallbackQueue(String app, IGarmentCallback callback, int capacity, int dropPolicy) throws RemoteException {
+        CallbackQueue queue = callback == null ? null : GarmentOSService.mCallbacks.getQueue(callback.asBinder());
+        DropPolicy[] policies = DropPolicy.values();
+        if(queue == null || dropPolicy < 0 || dropPolicy >= policies.length)
+            return false;
+        queue.configure(capacity, policies[dropPolicy]);
+        return true;
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.APIFunctions} CLASS</b>
+     * Get the metrics of the queue of the given callback handle
+     *
+     * @param app      the app
+     * @param callback the callback handle
+     * @return the metrics as returned by {@link CallbackQueue#getStats()} or null if the
+     *         callback handle is neither registered nor subscribed to a sensor
+     */
+    @Override
+    public long[] getCallbackQueueStats(String app, IGarmentCallback callback) throws RemoteException {
+        CallbackQueue queue = callback == null ? null : GarmentOSService.mCallbacks.getQueue(callback.asBinder());
+        return queue == null ? null : queue.getStats();
+    }
+
     /**
      * Get all the sensor types for which there was at least once a sensor connected for
      *
@@ -393,7 +446,7 @@ class APIBinder extends IGarmentAPI.Stub {
         if(checkPermissionDenied(app, sensorID))
             return null;
         Sensor sensor = SensorManager.getSensorByID(sensorID);
-        return sensor != null ? new PSensorData((java.util.Vector<SensorData>)(sensor.getRawData(numValues, true)).clone()) : null;
+        return sensor != null ? new PSensorData(sensor.getRawData(numValues, true)) : null;
     }
 
     /**
@@ -777,7 +830,7 @@ class APIBinder extends IGarmentAPI.Stub {
         sensor = SensorManager.getSensorByID(sid);
         if(sensor == null)
             return null;
-        return new PSensorData((java.util.Vector<SensorData>)sensor.getRawData().clone());
+        return new PSensorData(sensor.getRawDataSnapshot());
     }
 
 
@@ -803,7 +856,7 @@ class APIBinder extends IGarmentAPI.Stub {
         sensor = SensorManager.getSensorByID(sid);
         if(sensor == null)
             return null;
-        return new PSensorData((java.util.Vector<SensorData>)sensor.getRawData(Utils.longUnixToDate(time), plusMinusOneSecond).clone());
+        return new PSensorData(sensor.getRawData(Utils.longUnixToDate(time), plusMinusOneSecond));
     }
 
     /**
@@ -826,7 +879,12 @@ class APIBinder extends IGarmentAPI.Stub {
         sensor = SensorManager.getSensorByID(sid);
         if(sensor == null)
             return null;
-        return new PSensorData((java.util.Vector<SensorData>)sensor.getRawData(Utils.longUnixToDate(start), Utils.longUnixToDate(end)).clone());
+        SensorDataCursor cursor = sensor.openCursor(Utils.longUnixToDate(start), Utils.longUnixToDate(end));
+        try {
+            return new PSensorData(cursor);
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -848,7 +906,254 @@ class APIBinder extends IGarmentAPI.Stub {
         sensor = SensorManager.getSensorByID(sid);
         if(sensor == null)
             return null;
-        return new PSensorData((java.util.Vector<SensorData>)sensor.getRawData(numberOfValues, fromStorage).clone());
+        if(!fromStorage)
+            return new PSensorData(sensor.getRawDataSnapshot(numberOfValues));
+        return new PSensorData(sensor.getRawData(numberOfValues, true));
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.PSensor} CLASS</b>
+     * Get the aggregated data of the given time range from the sensor
+     *
+     * @param app       the app checking for the data
+     * @param sid       the sensor id
+     * @param start     the begin time stamp
+     * @param end       the end time stamp
+     * @param maxPoints the maximum number of buckets to return
+     * @return a {@link de.unistuttgart.vis.wearable.os.api.PRollupData} object containing the data or null
+     *         if the app is lacking permissions or the sensor could not be found
+     */
+    @Override
+    public PRollupData SENSORS_SENSOR_getRollupData(String app, int sid, long start, long end, int maxPoints) throws RemoteException {
+        if(checkPermissionDenied(app, sid))
+            return null;
+
+        Sensor sensor = SensorManager.getSensorByID(sid);
+        if(sensor == null)
+            return null;
+        return new PRollupData(sensor.getRollupData(start, end, maxPoints));
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.PSensor} CLASS</b>
+     * Get statistics of the data recorded between the start and the end time stamp
+     *
+     * @param app         the app requesting the statistics
+     * @param sid         the sensor id
+     * @param start       the start time
+     * @param end         the end time
+     * @param bucketWidth the width of the buckets in milliseconds or 0 for a single bucket
+     * @param stats       the statistics to compute, see {@link AggregationFlags}
+     * @param percentiles the percentiles to compute
+     * @return a {@link de.unistuttgart.vis.wearable.os.api.PAggregateData} object containing the
+     *         statistics or null if the app is lacking permissions or the sensor could not be found
+     */
+    @Override
+    public PAggregateData SENSORS_SENSOR_getAggregateData(String app, int sid, long start, long end, long bucketWidth, int stats, float[] percentiles) throws RemoteException {
+        if(checkPermissionDenied(app, sid))
+            return null;
+
+        Sensor sensor = SensorManager.getSensorByID(sid);
+        if(sensor == null)
+            return null;
+        return new PAggregateData(sensor.getAggregation(start, end, bucketWidth, stats, percentiles));
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.APIFunctions} CLASS</b>
+     * Get the raw data of several sensors recorded between the start and the end time stamp,
+     * aligned to a common time axis. Sensors the app is lacking permissions for or that could
+     * not be found are left out.
+     *
+     * @param app   the app requesting the data
+     * @param sids  the sensor ids
+     * @param start the start time
+     * @param end   the end time
+     * @param step  the step width of the common grid or 0 to align on the union of the time
+     *              stamps of all sensors
+     * @return a {@link de.unistuttgart.vis.wearable.os.api.PMultiSensorData} object containing
+     *         the data or null if the app could not be found
+     */
+    @Override
+    public PMultiSensorData SENSORS_getRawDataMulti(String app, int[] sids, long start, long end, long step) throws RemoteException {
+        UserApp userApp = PrivacyManager.instance.getApp(app);
+        if(userApp == null || sids == null)
+            return null;
+
+        java.util.List<Sensor> sensors = new java.util.ArrayList<Sensor>(sids.length);
+        for(int sid : sids) {
+            if(userApp.sensorProhibited(sid))
+                continue;
+            Sensor sensor = SensorManager.getSensorByID(sid);
+            if(sensor != null && !sensors.contains(sensor))
+                sensors.add(sensor);
+        }
+        return MultiSensorQuery.query(sensors, start, end, step);
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.APIFunctions} CLASS</b>
+     * Open a paged query on the raw data recorded between the start and the end time stamp
+     *
+     * @param app   the app opening the query
+     * @param sid   the sensor id
+     * @param start the start time
+     * @param end   the end time
+     * @return the handle of the query or -1 if the app is lacking permissions, the sensor could
+     *         not be found or too many queries are open
+     */
+    @Override
+    public int SENSORS_SENSOR_openQuery(String app, int sid, long start, long end) throws RemoteException {
+        if(checkPermissionDenied(app, sid))
+            return -1;
+
+        Sensor sensor = SensorManager.getSensorByID(sid);
+        if(sensor == null)
+            return -1;
+        return SensorDataQueries.open(app, sensor, Utils.longUnixToDate(start), Utils.longUnixToDate(end));
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.PagedSensorData} CLASS</b>
+     * Fetch a page of an open query
+     *
+     * @param app   the app fetching the page
+     * @param query the query handle
+     * @param token the token of the page, 0 for the first page
+     * @return a {@link de.unistuttgart.vis.wearable.os.api.PSensorDataPage} object containing the
+     *         data or null if the query or the token is not valid
+     */
+    @Override
+    public PSensorDataPage SENSORS_SENSOR_fetchPage(String app, int query, long token) throws RemoteException {
+        return SensorDataQueries.fetch(app, query, token);
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.PagedSensorData} CLASS</b>
+     * Close an open query before all pages have been fetched
+     *
+     * @param app   the app closing the query
+     * @param query the query handle
+     */
+    @Override
+    public void SENSORS_SENSOR_closeQuery(String app, int query) throws RemoteException {
+        SensorDataQueries.close(app, query);
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.APIFunctions} CLASS</b>
+     * Open a shared memory channel the new records of the sensor are written to
+     *
+     * @param app   the app opening the channel
+     * @param sid   the sensor id
+     * @param token binder of the app process, the channel is closed when it dies
+     * @return a read only descriptor of the channel or null if the app is lacking permissions,
+     *         the sensor could not be found or the channel could not be created
+     */
+    @Override
+    public android.os.ParcelFileDescriptor SENSORS_SENSOR_openChannel(String app, int sid, android.os.IBinder token) throws RemoteException {
+        if(checkPermissionDenied(app, sid))
+            return null;
+
+        Sensor sensor = SensorManager.getSensorByID(sid);
+        if(sensor == null)
+            return null;
+        return SensorChannels.open(app, sensor, token);
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.SensorChannel} CLASS</b>
+     * Close the shared memory channel of the app on the sensor
+     *
+     * @param app the app closing the channel
+     * @param sid the sensor id
+     */
+    @Override
+    public void SENSORS_SENSOR_closeChannel(String app, int sid) throws RemoteException {
+        SensorChannels.close(app, sid);
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.APIFunctions} CLASS</b>
+     * Subscribe the callback handle to the new values of the sensor. A subscription of the
+     * same callback handle to the sensor is replaced.
+     *
+     * @param app         the app subscribing
+     * @param sid         the sensor id
+     * @param callback    the callback handle the values are sent to
+     * @param minInterval the minimum time in ms between two delivered values
+     * @param minDelta    the minimum change of a value to be delivered
+     * @return true if the subscription has been added, false if the app is lacking permissions
+     *         or the sensor could not be found
+     */
+    @Override
+    public boolean SENSORS_SENSOR_registerValueCallback(String app, int sid, IGarmentCallback callback,
+                                                        long minInterval, float minDelta) throws RemoteException {
+        if(callback == null || checkPermissionDenied(app, sid) || SensorManager.getSensorByID(sid) == null)
+            return false;
+        CallbackNode node = new CallbackNode(android.os.Binder.getCallingPid(), android.os.Binder.getCallingUid(), callback);
+        GarmentOSService.mCallbacks.subscribe(new ValueSubscription(node, PrivacyManager.instance.getApp(app), sid, minInterval, minDelta));
+        return true;
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.APIFunctions} CLASS</b>
+     * Subscribe the callback handle to the new values of the sensor, the values are sent in
+     * batches of at most batchSize values, each value waits at most maxLatency ms. A subscription
+     * of the same callback handle to the sensor is replaced.
+     *
+     * @param app         the app subscribing
+     * @param sid         the sensor id
+     * @param callback    the callback handle the batches are sent to
+     * @param minInterval the minimum time in ms between two delivered values
+     * @param minDelta    the minimum change of a value to be delivered
+     * @param batchSize   the maximum number of values in a batch
+     * @param maxLatency  the maximum time in ms a value waits for its batch to be sent
+     * @return true if the subscription has been added, false if the app is lacking permissions
+     *         or the sensor could not be found
+     */
+    @Override
+    public boolean SENSORS_SENSOR_registerBatchCallback(String app, int sid, IGarmentCallback callback, long minInterval,
+                                                        float minDelta, int batchSize, long maxLatency) throws RemoteException {
+        if(callback == null || checkPermissionDenied(app, sid) || SensorManager.getSensorByID(sid) == null)
+            return false;
+        CallbackNode node = new CallbackNode(android.os.Binder.getCallingPid(), android.os.Binder.getCallingUid(), callback);
+        GarmentOSService.mCallbacks.subscribe(new ValueSubscription(node, PrivacyManager.instance.getApp(app), sid,
+                minInterval, minDelta, batchSize, maxLatency));
+        return true;
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.APIFunctions} CLASS</b>
+     * Remove the subscription of the callback handle to the sensor
+     *
+     * @param app      the app unsubscribing
+     * @param sid      the sensor id
+     * @param callback the subscribed callback handle
+     */
+    @Override
+    public void SENSORS_SENSOR_unregisterValueCallback(String app, int sid, IGarmentCallback callback) throws RemoteException {
+        if(callback != null)
+            GarmentOSService.mCallbacks.unsubscribe(callback.asBinder(), sid);
+    }
+
+    /**
+     * <b>THIS FUNCTION SHALL NEVER BE CALLED FROM OUTSIDE THE {@link de.unistuttgart.vis.wearable.os.api.APIFunctions} CLASS</b>
+     * Get the number of values delivered to and dropped for the subscription of the callback
+     * handle to the sensor
+     *
+     * @param app      the app
+     * @param sid      the sensor id
+     * @param callback the subscribed callback handle
+     * @return an array holding the number of delivered values, the number of dropped values, the
+     *         number of calls to the app and the number of values of the sensor dropped by the
+     *         service before they could be dispatched or null if there is no such subscription
+     */
+    @Override
+    public long[] SENSORS_SENSOR_getValueCallbackStats(String app, int sid, IGarmentCallback callback) throws RemoteException {
+        ValueSubscription subscription = callback == null ? null : GarmentOSService.mCallbacks.getSubscription(callback.asBinder(), sid);
+        return subscription == null ? null : new long[] { subscription.getDelivered(), subscription.getDropped(),
+                subscription.getCalls(), GarmentOSService.mValueEvents.getDropped(sid) };
     }
 
     /**
@@ -862,4 +1167,15 @@ class APIBinder extends IGarmentAPI.Stub {
         UserApp userApp = PrivacyManager.instance.getApp(app);
         return userApp == null || userApp.sensorProhibited(sensorID);
     }
+
+    /**
+     * Check whether the given app has the permission to use the activity recognition data
+     *
+     * @param app the app
+     * @return true if the permission is denied
+     */
+    protected static boolean activityRecognitionDenied(String app) {
+        UserApp userApp = PrivacyManager.instance.getApp(app);
+        return userApp == null || !userApp.activityRecognitionGranted();
+    }
 }
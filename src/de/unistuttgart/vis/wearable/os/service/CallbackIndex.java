@@ -0,0 +1,366 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.service;
+
+import android.os.IBinder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Index of the registered callback nodes by their callback flags. For each
+ * of the 32 flag bits the index holds an array of all nodes that registered
+ * for it, so a callback only visits the nodes that are interested in it
+ * instead of testing every registered node. In the same way the
+ * {@link ValueSubscription}s are indexed by the id of their sensor.
+ * </p>
+ * <p>
+ * The arrays are replaced on every change and never modified afterwards, so
+ * the dispatching thread can iterate them without taking any lock while
+ * applications register or unregister. The nodes are also registered with a
+ * {@link android.os.RemoteCallbackList} to be removed from the index as soon
+ * as their process dies.
+ * </p>
+ * <p>
+ * All nodes and subscriptions of a callback handle share a single
+ * {@link CallbackQueue} the callbacks are sent through.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public final class CallbackIndex {
+    private static final CallbackNode[] EMPTY = new CallbackNode[0];
+    private static final ValueSubscription[] NO_SUBSCRIPTIONS = new ValueSubscription[0];
+
+    //
+    // Nodes by their binder, every binder is registered at most once
+    //
+    private final Map<IBinder, CallbackNode> nodes = new HashMap<IBinder, CallbackNode>();
+
+    //
+    // Nodes by the flag bits they registered for, nodes[i] holds all nodes
+    // that registered for the flag (1 << i)
+    //
+    private volatile CallbackNode[][] byFlag = new CallbackNode[32][];
+
+    //
+    // Subscriptions by the sensor id, the map is replaced on every change.
+    // The lookup for the sensors holds the same subscriptions sorted by the
+    // sensor id, so it can be searched without boxing the id of every value.
+    //
+    private volatile Map<Integer, ValueSubscription[]> bySensor = new HashMap<Integer, ValueSubscription[]>();
+    private volatile SensorLookup sensorLookup = new SensorLookup(bySensor);
+
+    /**
+     * Immutable copy of the subscriptions by the sensor id
+     */
+    private static final class SensorLookup {
+        final int[] sensorIDs;
+        final ValueSubscription[][] subscriptions;
+
+        SensorLookup(Map<Integer, ValueSubscription[]> map) {
+            sensorIDs = new int[map.size()];
+            int i = 0;
+            for (Integer sensorID : map.keySet())
+                sensorIDs[i++] = sensorID;
+            java.util.Arrays.sort(sensorIDs);
+            subscriptions = new ValueSubscription[sensorIDs.length][];
+            for (i = 0; i != sensorIDs.length; ++i)
+                subscriptions[i] = map.get(sensorIDs[i]);
+        }
+
+        ValueSubscription[] get(int sensorID) {
+            int i = java.util.Arrays.binarySearch(sensorIDs, sensorID);
+            return i < 0 ? null : subscriptions[i];
+        }
+    }
+
+    //
+    // Queues of the binders whose process is watched, every binder is watched
+    // only once and has a single queue as long as it has a node or a
+    // subscription
+    //
+    private final Map<IBinder, CallbackQueue> queues = new HashMap<IBinder, CallbackQueue>();
+
+    private final android.os.RemoteCallbackList<CallbackNode> deathWatch = new android.os.RemoteCallbackList<CallbackNode>() {
+        @Override
+        public void onCallbackDied(CallbackNode node) {
+            removeAll(node.asBinder());
+        }
+    };
+
+    public CallbackIndex() {
+        for (int i = 0; i != 32; ++i)
+            byFlag[i] = EMPTY;
+    }
+
+    /**
+     * Register the given node. A node registered before with the same callback
+     * handle is replaced.
+     *
+     * @param node the node to register
+     */
+    public void register(CallbackNode node) {
+        synchronized (nodes) {
+            if (!watch(node))
+                return;
+            nodes.put(node.asBinder(), node);
+            rebuild();
+        }
+    }
+
+    /**
+     * Unregister the node with the given callback handle, the subscriptions
+     * of the callback handle are kept
+     *
+     * @param binder the binder of the callback handle
+     */
+    public void unregister(IBinder binder) {
+        synchronized (nodes) {
+            CallbackNode node = nodes.remove(binder);
+            if (node != null) {
+                rebuild();
+                unwatch(node);
+            }
+        }
+    }
+
+    /**
+     * Add the given subscription. A subscription of the same callback handle
+     * to the same sensor is replaced.
+     *
+     * @param subscription the subscription to add
+     */
+    public void subscribe(ValueSubscription subscription) {
+        synchronized (nodes) {
+            if (!watch(subscription.getNode()))
+                return;
+            IBinder binder = subscription.getNode().asBinder();
+            ValueSubscription[] old = bySensor.get(subscription.getSensorID());
+            java.util.List<ValueSubscription> list = new java.util.ArrayList<ValueSubscription>();
+            if (old != null)
+                for (ValueSubscription vs : old)
+                    if (vs.getNode().asBinder() != binder)
+                        list.add(vs);
+            list.add(subscription);
+            Map<Integer, ValueSubscription[]> map = new HashMap<Integer, ValueSubscription[]>(bySensor);
+            map.put(subscription.getSensorID(), list.toArray(new ValueSubscription[list.size()]));
+            setBySensor(map);
+        }
+    }
+
+    /**
+     * Remove the subscription of the given callback handle to the given sensor
+     *
+     * @param binder   the binder of the callback handle
+     * @param sensorID the id of the sensor
+     * @return the removed subscription or null if there was none
+     */
+    public ValueSubscription unsubscribe(IBinder binder, int sensorID) {
+        synchronized (nodes) {
+            ValueSubscription removed = getSubscription(binder, sensorID);
+            if (removed == null)
+                return null;
+            Map<Integer, ValueSubscription[]> map = new HashMap<Integer, ValueSubscription[]>(bySensor);
+            ValueSubscription[] old = map.remove(sensorID);
+            if (old.length > 1) {
+                ValueSubscription[] subscriptions = new ValueSubscription[old.length - 1];
+                int i = 0;
+                for (ValueSubscription vs : old)
+                    if (vs != removed)
+                        subscriptions[i++] = vs;
+                map.put(sensorID, subscriptions);
+            }
+            setBySensor(map);
+            unwatch(removed.getNode());
+            return removed;
+        }
+    }
+
+    /**
+     * Get the subscription of the given callback handle to the given sensor
+     *
+     * @param binder   the binder of the callback handle
+     * @param sensorID the id of the sensor
+     * @return the subscription or null if there is none
+     */
+    public ValueSubscription getSubscription(IBinder binder, int sensorID) {
+        ValueSubscription[] subscriptions = sensorLookup.get(sensorID);
+        if (subscriptions != null)
+            for (ValueSubscription vs : subscriptions)
+                if (vs.getNode().asBinder() == binder)
+                    return vs;
+        return null;
+    }
+
+    /**
+     * Get all subscriptions to the given sensor. The returned array must not
+     * be changed.
+     *
+     * @param sensorID the id of the sensor
+     * @return the subscriptions
+     */
+    public ValueSubscription[] getSubscriptions(int sensorID) {
+        ValueSubscription[] subscriptions = sensorLookup.get(sensorID);
+        return subscriptions == null ? NO_SUBSCRIPTIONS : subscriptions;
+    }
+
+    /**
+     * Get the queue of the given callback handle
+     *
+     * @param binder the binder of the callback handle
+     * @return the queue or null if the callback handle has neither a node nor
+     * a subscription
+     */
+    public CallbackQueue getQueue(IBinder binder) {
+        synchronized (nodes) {
+            return queues.get(binder);
+        }
+    }
+
+    /**
+     * Remove the node and all subscriptions of the given callback handle, this
+     * is done if the application does not take its callbacks fast enough
+     *
+     * @param binder the binder of the callback handle
+     */
+    public void disconnect(IBinder binder) {
+        synchronized (nodes) {
+            CallbackQueue queue = queues.get(binder);
+            if (queue == null)
+                return;
+            removeAll(binder);
+            // the death watch identifies the nodes by their binder only
+            deathWatch.unregister(new CallbackNode(0, 0, queue.getCallbackHandle()));
+        }
+    }
+
+    /**
+     * Start watching the process of the given node and assign the queue of
+     * its binder to it. This is called holding the lock of the node map.
+     *
+     * @return false if the process has already died
+     */
+    private boolean watch(CallbackNode node) {
+        IBinder binder = node.asBinder();
+        CallbackQueue queue = queues.get(binder);
+        if (queue == null) {
+            if (!deathWatch.register(node))
+                return false;
+            queue = new CallbackQueue(node.getCallbackHandle(), this);
+            queues.put(binder, queue);
+        }
+        node.setQueue(queue);
+        return true;
+    }
+
+    /**
+     * Stop watching the process of the given node unless the binder of the
+     * node still has a node or a subscription. This is called holding the lock
+     * of the node map.
+     */
+    private void unwatch(CallbackNode node) {
+        IBinder binder = node.asBinder();
+        if (nodes.containsKey(binder))
+            return;
+        for (ValueSubscription[] subscriptions : bySensor.values())
+            for (ValueSubscription vs : subscriptions)
+                if (vs.getNode().asBinder() == binder)
+                    return;
+        CallbackQueue queue = queues.remove(binder);
+        if (queue != null) {
+            queue.close();
+            deathWatch.unregister(node);
+        }
+    }
+
+    /**
+     * Remove the node and all subscriptions of the given binder
+     */
+    private void removeAll(IBinder binder) {
+        synchronized (nodes) {
+            CallbackQueue queue = queues.remove(binder);
+            if (queue != null)
+                queue.close();
+            if (nodes.remove(binder) != null)
+                rebuild();
+            Map<Integer, ValueSubscription[]> map = new HashMap<Integer, ValueSubscription[]>();
+            for (Map.Entry<Integer, ValueSubscription[]> entry : bySensor.entrySet()) {
+                java.util.List<ValueSubscription> list = new java.util.ArrayList<ValueSubscription>();
+                for (ValueSubscription vs : entry.getValue())
+                    if (vs.getNode().asBinder() != binder)
+                        list.add(vs);
+                if (!list.isEmpty())
+                    map.put(entry.getKey(), list.toArray(new ValueSubscription[list.size()]));
+            }
+            setBySensor(map);
+        }
+    }
+
+    /**
+     * Replace the subscriptions by the sensor id, this is called holding the
+     * lock of the node map
+     */
+    private void setBySensor(Map<Integer, ValueSubscription[]> map) {
+        bySensor = map;
+        sensorLookup = new SensorLookup(map);
+    }
+
+    /**
+     * Rebuild the arrays of the flag bits, this is called holding the lock of
+     * the node map
+     */
+    private void rebuild() {
+        int[] count = new int[32];
+        for (CallbackNode node : nodes.values())
+            for (int i = 0; i != 32; ++i)
+                if (node.isFlagSet(1 << i))
+                    ++count[i];
+
+        CallbackNode[][] index = new CallbackNode[32][];
+        for (int i = 0; i != 32; ++i)
+            index[i] = count[i] == 0 ? EMPTY : new CallbackNode[count[i]];
+        for (CallbackNode node : nodes.values())
+            for (int i = 0; i != 32; ++i)
+                if (node.isFlagSet(1 << i))
+                    index[i][--count[i]] = node;
+        byFlag = index;
+    }
+
+    /**
+     * Get all nodes that registered for any of the given flags. The returned
+     * array must not be changed.
+     *
+     * @param flag the callback flags
+     * @return the nodes
+     */
+    public CallbackNode[] get(int flag) {
+        CallbackNode[][] index = byFlag;
+        if (Integer.bitCount(flag) == 1)
+            return index[Integer.numberOfTrailingZeros(flag)];
+
+        //
+        // Several flags, collect every node once
+        //
+        java.util.LinkedHashSet<CallbackNode> ret = new java.util.LinkedHashSet<CallbackNode>();
+        for (int i = 0; i != 32; ++i)
+            if ((flag & (1 << i)) != 0)
+                java.util.Collections.addAll(ret, index[i]);
+        return ret.toArray(new CallbackNode[ret.size()]);
+    }
+
+    /**
+     * @return the number of registered nodes
+     */
+    public int size() {
+        synchronized (nodes) {
+            return nodes.size();
+        }
+    }
+}
@@ -24,6 +24,7 @@ public final class CallbackNode implements IInterface {
 	private int uuid;
 	private int callbackFlag;
 	private IGarmentCallback callbackHandle;
+	private volatile CallbackQueue queue;
 
 	/**
 	 * Create a new CallbackNode with the given processID, the given UUID and
@@ -88,6 +89,20 @@ public final class CallbackNode implements IInterface {
 	public IGarmentCallback getCallbackHandle() {
 		return this.callbackHandle;
 	}
+
+	/**
+	 * Get the queue the callbacks of the node are sent through, the queue is
+	 * shared by all nodes of the same callback handle
+	 * 
+	 * @return the queue or null if the node has not been registered
+	 */
+	public CallbackQueue getQueue() {
+		return this.queue;
+	}
+
+	void setQueue(CallbackQueue queue) {
+		this.queue = queue;
+	}
 	
 	public void addCallbackFlag(int flag) {
 		this.callbackFlag |= flag;
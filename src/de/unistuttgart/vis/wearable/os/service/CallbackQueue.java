@@ -0,0 +1,272 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.service;
+
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.api.BaseCallbackObject;
+import de.unistuttgart.vis.wearable.os.api.DropPolicy;
+import de.unistuttgart.vis.wearable.os.api.IGarmentCallback;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Bounded queue of the callbacks waiting to be sent to a single callback
+ * handle. The dispatching thread only adds the callbacks to the queues of the
+ * applications, the Binder calls are made by a small pool of sender threads.
+ * So an application that is slow to take its callbacks only fills its own
+ * queue and does neither stall the dispatching thread nor the other
+ * applications.
+ * </p>
+ * <p>
+ * A queue is drained by at most one sender at once, so the callbacks of an
+ * application keep their order. A sender sends at most
+ * {@link Properties#callbackSendBurst} callbacks of a queue before the other
+ * queues get their turn. If the queue is full the {@link DropPolicy} of the
+ * queue decides whether the oldest or the new callback is dropped or the
+ * callback handle is disconnected.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public final class CallbackQueue implements Runnable {
+    private static final ExecutorService senders = Executors.newFixedThreadPool(Properties.callbackSenderThreads,
+            new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "GarmentOS-CallbackSender-" + ++count);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final IGarmentCallback handle;
+    private final CallbackIndex index;
+
+    //
+    // Ring of the waiting callbacks and the time they have been added at,
+    // guarded by the queue itself
+    //
+    private BaseCallbackObject[] objects;
+    private long[] times;
+    private int head = 0;
+    private int count = 0;
+    private DropPolicy policy = defaultPolicy();
+    private boolean scheduled = false;
+    private boolean closed = false;
+
+    //
+    // Delivery metrics, the latency is measured from adding a callback to the
+    // queue until its Binder call returned
+    //
+    private volatile int maxDepth = 0;
+    private volatile long sent = 0;
+    private volatile long dropped = 0;
+    private volatile long failed = 0;
+    private volatile long totalLatency = 0;
+    private volatile long maxLatency = 0;
+
+    /**
+     * Create a new queue for the given callback handle
+     *
+     * @param handle the callback handle
+     * @param index  the index to remove the callback handle from if it is
+     *               disconnected
+     */
+    CallbackQueue(IGarmentCallback handle, CallbackIndex index) {
+        this.handle = handle;
+        this.index = index;
+        this.objects = new BaseCallbackObject[clampCapacity(Properties.callbackQueueCapacity)];
+        this.times = new long[this.objects.length];
+    }
+
+    /**
+     * @return the callback handle the callbacks are sent to
+     */
+    IGarmentCallback getCallbackHandle() {
+        return handle;
+    }
+
+    /**
+     * @return the drop policy configured by {@link Properties#callbackDropPolicy}
+     */
+    private static DropPolicy defaultPolicy() {
+        DropPolicy[] policies = DropPolicy.values();
+        int ordinal = Properties.callbackDropPolicy;
+        return ordinal >= 0 && ordinal < policies.length ? policies[ordinal] : DropPolicy.DROP_OLDEST;
+    }
+
+    private static int clampCapacity(int capacity) {
+        return Math.max(1, Math.min(capacity, Properties.maxCallbackQueueCapacity));
+    }
+
+    /**
+     * Add the given callback to the queue
+     *
+     * @param bco the callback object to send
+     * @return true if the callback has been added, false if it has been
+     * dropped
+     */
+    public boolean offer(BaseCallbackObject bco) {
+        synchronized (this) {
+            if (closed) {
+                ++dropped;
+                return false;
+            }
+            if (count == objects.length) {
+                switch (policy) {
+                    case DROP_NEWEST:
+                        ++dropped;
+                        return false;
+                    case DROP_OLDEST:
+                        objects[head] = null;
+                        head = (head + 1) % objects.length;
+                        --count;
+                        ++dropped;
+                        break;
+                    default:
+                        close();
+                        ++dropped;
+                        break;
+                }
+            }
+            if (!closed) {
+                int tail = (head + count) % objects.length;
+                objects[tail] = bco;
+                times[tail] = System.nanoTime();
+                if (++count > maxDepth)
+                    maxDepth = count;
+                if (!scheduled) {
+                    scheduled = true;
+                    senders.execute(this);
+                }
+                return true;
+            }
+        }
+
+        //
+        // The queue has been closed by its drop policy, the index is changed
+        // outside the lock of the queue since the index calls back into it
+        //
+        Log.w("GarmentOS", "CallbackQueue - disconnecting callback, " + objects.length + " callbacks pending");
+        index.disconnect(handle.asBinder());
+        return false;
+    }
+
+    /**
+     * Send the waiting callbacks, this is run by the sender threads only
+     */
+    @Override
+    public void run() {
+        for (int i = 0; i != Properties.callbackSendBurst; ++i) {
+            BaseCallbackObject bco;
+            long time;
+            synchronized (this) {
+                if (count == 0) {
+                    scheduled = false;
+                    return;
+                }
+                bco = objects[head];
+                time = times[head];
+                objects[head] = null;
+                head = (head + 1) % objects.length;
+                --count;
+            }
+            try {
+                handle.callback(bco);
+                ++sent;
+            } catch (android.os.RemoteException e) {
+                // the process of the application died, the callback handle
+                // is removed by the death watch of the index
+                ++failed;
+            } catch (RuntimeException e) {
+                ++failed;
+                Log.e("GarmentOS", "CallbackQueue - callback failed: " + e);
+            }
+            long latency = System.nanoTime() - time;
+            totalLatency += latency;
+            if (latency > maxLatency)
+                maxLatency = latency;
+        }
+
+        //
+        // Give the other queues their turn before sending the rest
+        //
+        synchronized (this) {
+            if (count == 0) {
+                scheduled = false;
+                return;
+            }
+        }
+        senders.execute(this);
+    }
+
+    /**
+     * Change the capacity and the drop policy of the queue. If the new
+     * capacity is less than the number of waiting callbacks the oldest ones
+     * are dropped.
+     *
+     * @param capacity the maximum number of waiting callbacks
+     * @param policy   the drop policy
+     */
+    public synchronized void configure(int capacity, DropPolicy policy) {
+        capacity = clampCapacity(capacity);
+        this.policy = policy == null ? defaultPolicy() : policy;
+        if (capacity == objects.length)
+            return;
+        BaseCallbackObject[] newObjects = new BaseCallbackObject[capacity];
+        long[] newTimes = new long[capacity];
+        int skip = Math.max(0, count - capacity);
+        dropped += skip;
+        count -= skip;
+        for (int i = 0; i != count; ++i) {
+            int j = (head + skip + i) % objects.length;
+            newObjects[i] = objects[j];
+            newTimes[i] = times[j];
+        }
+        objects = newObjects;
+        times = newTimes;
+        head = 0;
+    }
+
+    /**
+     * Close the queue, the waiting callbacks are dropped and no further
+     * callbacks are added
+     */
+    synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        dropped += count;
+        java.util.Arrays.fill(objects, null);
+        count = 0;
+    }
+
+    /**
+     * Get the metrics of the queue
+     *
+     * @return an array holding the number of waiting callbacks, the maximum
+     * number of waiting callbacks so far, the number of sent, dropped and
+     * failed callbacks and the average and the maximum latency in
+     * microseconds
+     */
+    public long[] getStats() {
+        int depth;
+        synchronized (this) {
+            depth = count;
+        }
+        long calls = sent + failed;
+        return new long[] { depth, maxDepth, sent, dropped, failed,
+                calls == 0 ? 0 : totalLatency / calls / 1000L, maxLatency / 1000L };
+    }
+}
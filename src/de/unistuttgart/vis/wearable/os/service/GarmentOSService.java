@@ -8,15 +8,19 @@
 package de.unistuttgart.vis.wearable.os.service;
 
 import android.content.Intent;
-import android.os.Message;
 import de.unistuttgart.vis.wearable.os.activityRecognition.ActivityRecognitionModule;
 import de.unistuttgart.vis.wearable.os.api.BaseCallbackObject;
+import de.unistuttgart.vis.wearable.os.api.CallbackFlags;
 import de.unistuttgart.vis.wearable.os.api.CallbackHandler;
 import de.unistuttgart.vis.wearable.os.api.IGarmentAPI;
 import de.unistuttgart.vis.wearable.os.bluetoothservice.GarmentOSBluetoothService;
 import de.unistuttgart.vis.wearable.os.privacy.PrivacyManager;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
 import de.unistuttgart.vis.wearable.os.sensors.InternalSensors;
+import de.unistuttgart.vis.wearable.os.sensors.SensorManager;
+import de.unistuttgart.vis.wearable.os.storage.SensorDataCompactor;
 import de.unistuttgart.vis.wearable.os.utils.Constants;
+import de.unistuttgart.vis.wearable.os.utils.StartupTimeline;
 
 /**
  * The Garment OS Service
@@ -32,11 +36,23 @@ public class GarmentOSService extends android.app.Service {
 	protected IGarmentAPI.Stub APIBinder = new APIBinder();
 	
 	//
-	// Callback list, this list stores all the handles of applications that have
-	// registered to be called back using the IGarmentServiceCallback
+	// Callback index, this index stores all the handles of applications that have
+	// registered to be called back using the IGarmentServiceCallback. The callbacks
+	// are dispatched by their own thread instead of the main looper
 	//
-	static final android.os.RemoteCallbackList<CallbackNode> mCallbacks = new android.os.RemoteCallbackList<CallbackNode>();
-	static final android.os.Handler mHandler = new CallbackHandler(mCallbacks);
+	static final CallbackIndex mCallbacks = new CallbackIndex();
+	static final android.os.HandlerThread mDispatchThread = new android.os.HandlerThread("GarmentOS-Callbacks");
+	static {
+		mDispatchThread.start();
+	}
+
+	//
+	// New sensor values waiting to be dispatched, the values are copied into
+	// the preallocated ring so no objects are created per value
+	//
+	static final ValueEventRing mValueEvents = new ValueEventRing(Properties.valueEventRingSize,
+			Properties.valueEventMaxDimension);
+	static final android.os.Handler mHandler = new CallbackHandler(mDispatchThread.getLooper(), mCallbacks, mValueEvents);
 	
 	
 	//
@@ -53,12 +69,32 @@ public class GarmentOSService extends android.app.Service {
 	 *            the object to be sent
 	 */
 	public static void callback(int flag, BaseCallbackObject bco) {
-        Message msg = new Message();
-        msg.what = Constants.CALLBACK;
-        msg.arg1 = flag;
-        msg.arg2 = 0x0;
-        msg.obj = bco;
-        mHandler.sendMessage(msg);
+        mHandler.obtainMessage(Constants.CALLBACK, flag, 0x0, bco).sendToTarget();
+	}
+
+	/**
+	 * Dispatch the new value of the given sensor to the applications that
+	 * registered for {@link de.unistuttgart.vis.wearable.os.api.CallbackFlags#VALUE_CHANGED}
+	 * or subscribed to the sensor. The value is copied, so the caller may
+	 * reuse the array. No object is created unless the dispatching thread
+	 * has to be woken up.
+	 *
+	 * @param sensorID
+	 *            the id of the sensor
+	 * @param time
+	 *            the time stamp of the value
+	 * @param values
+	 *            the array holding the value
+	 * @param dimension
+	 *            the number of components of the value
+	 */
+	public static void valueChanged(int sensorID, long time, float[] values, int dimension) {
+		// nobody is interested in the value
+		if (mCallbacks.get(CallbackFlags.VALUE_CHANGED).length == 0
+				&& mCallbacks.getSubscriptions(sensorID).length == 0)
+			return;
+		if (mValueEvents.publish(sensorID, time, values, dimension))
+			mHandler.sendEmptyMessage(Constants.CALLBACK_VALUES);
 	}
 
     /**
@@ -116,18 +152,53 @@ public class GarmentOSService extends android.app.Service {
         super.onRebind(intent);
     }
 
+    @Override
+    public void onDestroy() {
+        // Write all settings changes that are still pending
+        PrivacyManager.instance.save();
+        SensorManager.save();
+        super.onDestroy();
+    }
+
     @Override
 	public void onCreate() {
-		super.onCreate();		
+		super.onCreate();
+		StartupTimeline.start();
+		StartupTimeline.Phase phase = StartupTimeline.begin("onCreate");
 		mHandler.sendEmptyMessage(Constants.CALLBACK_DEBUG_VALUE);
 		if(context == null)
 			context = getApplicationContext();
-        new InternalSensors(context);
+        SensorDataCompactor.start();
+        SensorChannels.clear();
+
+        //
+        // Everything that depends on the amount of stored data is done by the
+        // startup thread so onCreate returns immediately
+        //
         new Thread(new Runnable() {
 			@Override
 			public void run() {
-				ActivityRecognitionModule.getInstance();
+                SensorManager.getAllSensors();
+                // The internal sensors register their listeners from the main thread
+                new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        StartupTimeline.Phase phase = StartupTimeline.begin("internal sensors");
+                        try {
+                            new InternalSensors(context);
+                        } finally {
+                            phase.end();
+                        }
+                    }
+                });
+                StartupTimeline.Phase phase = StartupTimeline.begin("activity recognition");
+                try {
+                    ActivityRecognitionModule.getInstance();
+                } finally {
+                    phase.end();
+                }
 			}
-            }).start();
+            }, "GarmentOS-Startup").start();
+        phase.end();
     }
 }
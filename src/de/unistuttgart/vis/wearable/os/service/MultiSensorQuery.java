@@ -0,0 +1,227 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.service;
+
+import de.unistuttgart.vis.wearable.os.api.PMultiSensorData;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.sensors.Sensor;
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataCursor;
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataResampler;
+import de.unistuttgart.vis.wearable.os.storage.StorageExecutor;
+import de.unistuttgart.vis.wearable.os.utils.Utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Query of the data of several sensors in the same time range. The data of
+ * the sensors is read in parallel by the {@link StorageExecutor} and aligned
+ * to a common time axis afterwards, which is either
+ * </p>
+ * <ul>
+ * <li>the union of the time stamps of all sensors, where a sensor without a
+ * record at a time stamp gets {@link Float#NaN} values, or</li>
+ * <li>a grid of fixed step width starting at the begin of the range, where
+ * every sensor gets the values of its latest record not younger than the grid
+ * point, see {@link SensorDataResampler#HOLD}.</li>
+ * </ul>
+ * <p>
+ * The result holds at most {@link Properties#multiSensorMaxRows} rows. On the
+ * grid the step width is increased if necessary, the union is cut after the
+ * maximum number of rows and can be continued by another query starting after
+ * the last time stamp.
+ * </p>
+ * <p>
+ * On the grid the records are streamed from the cursors through a
+ * {@link SensorDataResampler} without being buffered. For the union at most
+ * the records of the first maximum number of distinct time stamps of every
+ * sensor are buffered, since later records can not be part of the result.
+ * </p>
+ *
+ * @author roehrdor
+ */
+class MultiSensorQuery {
+
+    /**
+     * The records of a single sensor in the range
+     */
+    private static class Series {
+        int dimension = 0;
+        long[] times = new long[0];
+        float[] values = new float[0];
+        int size = 0;
+
+        //
+        // Values on the grid as [dimension][point] if the series has been
+        // resampled
+        //
+        float[][] resampled;
+
+        /**
+         * Read the records of the first given number of distinct time stamps
+         */
+        void read(SensorDataCursor cursor, int maxTimes) {
+            dimension = cursor.getDimension();
+            times = new long[Math.min(Properties.cursorBatchSize, maxTimes)];
+            values = new float[times.length * dimension];
+            int distinct = 0;
+            while (cursor.next()) {
+                int n = cursor.size();
+                for (int i = 0; i != n; ++i) {
+                    long time = cursor.getTime(i);
+                    if (size == 0 || time != times[size - 1]) {
+                        if (distinct == maxTimes)
+                            return;
+                        ++distinct;
+                    }
+                    if (size == times.length) {
+                        times = Arrays.copyOf(times, size * 2);
+                        values = Arrays.copyOf(values, size * 2 * dimension);
+                    }
+                    times[size] = time;
+                    System.arraycopy(cursor.getValues(), i * dimension, values, size * dimension, dimension);
+                    ++size;
+                }
+            }
+        }
+
+        /**
+         * Stream the records through a resampler onto the grid
+         */
+        void resample(SensorDataCursor cursor, long begin, long step, int points) {
+            dimension = cursor.getDimension();
+            resampled = new SensorDataResampler(1, points, SensorDataResampler.HOLD, false)
+                    .resample(0, begin, step, cursor);
+        }
+    }
+
+    private MultiSensorQuery() {
+    }
+
+    /**
+     * Read and align the data of the given sensors in the range [begin, end]
+     *
+     * @param sensors the sensors, the caller has to check the permissions before
+     * @param begin   the begin time stamp
+     * @param end     the end time stamp
+     * @param step    the step width of the grid in milliseconds or 0 to align on the union of
+     *                the time stamps
+     * @return the aligned data
+     */
+    static PMultiSensorData query(List<Sensor> sensors, final long begin, final long end, long step) {
+        int count = sensors.size();
+        final Series[] series = new Series[count];
+        Future<?>[] jobs = new Future<?>[count];
+
+        // the grid does not depend on the data
+        final long[] grid = step > 0 ? grid(begin, end, step) : null;
+        final long gridStep = grid != null && grid.length > 1 ? grid[1] - grid[0] : step;
+
+        // fan out the storage reads
+        for (int s = 0; s != count; ++s) {
+            final Sensor sensor = sensors.get(s);
+            final Series current = series[s] = new Series();
+            jobs[s] = StorageExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    SensorDataCursor cursor = sensor.openCursor(Utils.longUnixToDate(begin), Utils.longUnixToDate(end));
+                    try {
+                        if (grid != null)
+                            current.resample(cursor, begin, gridStep, grid.length);
+                        else
+                            current.read(cursor, Properties.multiSensorMaxRows);
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            });
+        }
+        for (Future<?> job : jobs)
+            StorageExecutor.await(job);
+
+        int[] sensorIDs = new int[count];
+        int[] dimensions = new int[count];
+        int width = 0;
+        for (int s = 0; s != count; ++s) {
+            sensorIDs[s] = sensors.get(s).getSensorID();
+            dimensions[s] = series[s].dimension;
+            width += dimensions[s];
+        }
+
+        long[] times = grid != null ? grid : union(series);
+        float[] data = new float[times.length * width];
+        Arrays.fill(data, Float.NaN);
+
+        int offset = 0;
+        for (int s = 0; s != count; ++s) {
+            Series cur = series[s];
+            int dim = cur.dimension;
+            if (grid != null) {
+                // latest record not younger than the grid point, a sensor
+                // that could not be read keeps its NaN values
+                float[][] values = cur.resampled;
+                for (int i = 0; values != null && i != times.length; ++i)
+                    for (int d = 0; d != dim; ++d)
+                        data[i * width + offset + d] = values[d][i];
+            } else {
+                int j = 0;
+                for (int i = 0; i != times.length; ++i) {
+                    while (j < cur.size && cur.times[j] < times[i])
+                        ++j;
+                    if (j < cur.size && cur.times[j] == times[i])
+                        System.arraycopy(cur.values, j * dim, data, i * width + offset, dim);
+                }
+            }
+            offset += dim;
+        }
+        return new PMultiSensorData(grid != null ? gridStep : 0, sensorIDs, dimensions, times, data);
+    }
+
+    /**
+     * @return the grid points in [begin, end], the step width is increased so
+     * that there are no more than the maximum number of rows
+     */
+    private static long[] grid(long begin, long end, long step) {
+        if (end < begin)
+            return new long[0];
+        long rows = (end - begin) / step + 1;
+        if (rows > Properties.multiSensorMaxRows) {
+            step = (end - begin + Properties.multiSensorMaxRows - 1) / Properties.multiSensorMaxRows + 1;
+            rows = (end - begin) / step + 1;
+        }
+        long[] times = new long[(int) rows];
+        for (int i = 0; i != times.length; ++i)
+            times[i] = begin + i * step;
+        return times;
+    }
+
+    /**
+     * @return the sorted union of the time stamps of all series, cut after
+     * the maximum number of rows
+     */
+    private static long[] union(Series[] series) {
+        int total = 0;
+        for (Series s : series)
+            total += s.size;
+        long[] times = new long[total];
+        int n = 0;
+        for (Series s : series) {
+            System.arraycopy(s.times, 0, times, n, s.size);
+            n += s.size;
+        }
+        Arrays.sort(times);
+
+        int unique = 0;
+        for (int i = 0; i != total && unique < Properties.multiSensorMaxRows; ++i)
+            if (unique == 0 || times[i] != times[unique - 1])
+                times[unique++] = times[i];
+        return Arrays.copyOf(times, unique);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.service;
+
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.api.SharedSensorRing;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.sensors.Sensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Shared memory channels between the service and the apps. Every channel is
+ * a file of {@link Properties#channelBytes} bytes in the
+ * {@link Properties#channelDirectory} that is mapped by the service and holds
+ * a {@link SharedSensorRing}. The sensor writes every new record into the
+ * ring and the app maps the same file read only, so the app can read the
+ * records without a Binder call per request.
+ * </p>
+ * <p>
+ * There is at most one channel per app and sensor, opening it again hands
+ * out another descriptor of the same file. The channels are closed when the
+ * process of the app dies, which is noticed through the binder token the app
+ * hands over when opening a channel.
+ * </p>
+ *
+ * @author roehrdor
+ */
+class SensorChannels {
+    private static final Map<String, Channel> channels = new HashMap<String, Channel>();
+
+    /**
+     * A single open channel
+     */
+    private static class Channel implements IBinder.DeathRecipient {
+        final String app;
+        final Sensor sensor;
+        final File file;
+        final RandomAccessFile raf;
+        final SharedSensorRing ring;
+        IBinder token;
+
+        Channel(String app, Sensor sensor, File file) throws IOException {
+            this.app = app;
+            this.sensor = sensor;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(Properties.channelBytes);
+                this.ring = new SharedSensorRing(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Properties.channelBytes));
+                this.ring.initialize();
+            } catch (IOException ioe) {
+                raf.close();
+                throw ioe;
+            }
+        }
+
+        @Override
+        public void binderDied() {
+            Log.i("GarmentOS", "SensorChannels - closing channel " + file.getName() + " of dead app");
+            SensorChannels.close(app, sensor.getSensorID(), this);
+        }
+
+        void close() {
+            if (token != null)
+                token.unlinkToDeath(this, 0);
+            sensor.removeChannel(ring);
+            try {
+                raf.close();
+            } catch (IOException ioe) {
+            }
+            if (!file.delete())
+                Log.w("GarmentOS", "SensorChannels - can not delete " + file.getName());
+        }
+    }
+
+    private SensorChannels() {
+    }
+
+    private static String key(String app, int sensorID) {
+        return app + "." + sensorID;
+    }
+
+    /**
+     * Delete all channel files left over from a previous run of the service
+     */
+    static synchronized void clear() {
+        File[] files = Properties.channelDirectory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files)
+            if (!file.delete())
+                Log.w("GarmentOS", "SensorChannels - can not delete " + file.getName());
+    }
+
+    /**
+     * Open the channel of the given app on the given sensor
+     *
+     * @param app    the app
+     * @param sensor the sensor
+     * @param token  binder of the app process, the channel is closed when it
+     *               dies, may be null
+     * @return a read only descriptor of the channel file or null if the channel
+     *         could not be created
+     */
+    static synchronized ParcelFileDescriptor open(String app, Sensor sensor, IBinder token) {
+        String key = key(app, sensor.getSensorID());
+        Channel channel = channels.get(key);
+        try {
+            if (channel == null) {
+                if (!Properties.channelDirectory.exists() && !Properties.channelDirectory.mkdirs())
+                    throw new IOException("can not create " + Properties.channelDirectory);
+                channel = new Channel(app, sensor, new File(Properties.channelDirectory, key));
+                channels.put(key, channel);
+                sensor.addChannel(channel.ring);
+            }
+            if (token != null && token != channel.token) {
+                if (channel.token != null)
+                    channel.token.unlinkToDeath(channel, 0);
+                channel.token = null;
+                token.linkToDeath(channel, 0);
+                channel.token = token;
+            }
+            return ParcelFileDescriptor.open(channel.file, ParcelFileDescriptor.MODE_READ_ONLY);
+        } catch (RemoteException re) {
+            // the app died already
+            close(app, sensor.getSensorID());
+            return null;
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "SensorChannels - opening channel " + key + " failed: " + ioe.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Close the channel of the given app on the given sensor
+     *
+     * @param app      the app
+     * @param sensorID the sensor id
+     */
+    static synchronized void close(String app, int sensorID) {
+        Channel channel = channels.remove(key(app, sensorID));
+        if (channel != null)
+            channel.close();
+    }
+
+    /**
+     * Close the given channel if it is still open
+     */
+    private static synchronized void close(String app, int sensorID, Channel channel) {
+        if (channels.get(key(app, sensorID)) == channel)
+            close(app, sensorID);
+    }
+}
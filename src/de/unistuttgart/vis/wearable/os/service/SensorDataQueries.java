@@ -0,0 +1,276 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.service;
+
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.api.PSensorDataPage;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.sensors.Sensor;
+import de.unistuttgart.vis.wearable.os.sensors.SensorDataCursor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Server side state of the paged sensor data queries. Instead of sending the
+ * whole result of a query in a single Binder transaction, which fails as soon
+ * as the result exceeds the transaction buffer, the client opens a query and
+ * fetches the result page by page. Every page carries the token of the next
+ * page, so the client only needs to hold a single page at a time.
+ * </p>
+ * <p>
+ * The result is read from a {@link SensorDataCursor} as the pages are
+ * requested. The latest pages of every query are cached, so a page can be
+ * fetched again if the client retries a failed transaction. As soon as the
+ * last page has been read the cursor is closed and only the last page is kept
+ * to answer a retry of it. Queries are removed on request of the client or
+ * after they have not been accessed for {@link Properties#queryTimeout}
+ * milliseconds, which is checked periodically in the background. Finished
+ * queries are removed earlier if their slots are needed for new queries.
+ * </p>
+ *
+ * @author roehrdor
+ */
+class SensorDataQueries {
+    private static final Map<Integer, Query> queries = new HashMap<Integer, Query>();
+    private static int nextHandle = 1;
+
+    //
+    // Closes the queries that are not accessed any more, e.g. since their
+    // app died without closing them
+    //
+    private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread th = new Thread(r, "GarmentOS-QuerySweeper");
+            th.setDaemon(true);
+            return th;
+        }
+    });
+
+    static {
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, Properties.queryTimeout, Properties.queryTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * State of a single open query
+     */
+    private static class Query {
+        final String app;
+        final SensorDataCursor cursor;
+        final int pageSize;
+        final LinkedHashMap<Long, PSensorDataPage> pages;
+
+        //
+        // Position in the current batch of the cursor, records before this
+        // position have already been sent
+        //
+        int batchOffset = 0;
+        long nextToken = 0;
+        long lastAccess = System.currentTimeMillis();
+        boolean closed = false;
+
+        //
+        // Set as soon as the last page has been read, the query then only
+        // serves retries of its last page
+        //
+        volatile boolean finished = false;
+
+        Query(String app, SensorDataCursor cursor) {
+            this.app = app;
+            this.cursor = cursor;
+            int recordSize = 8 + 4 * cursor.getDimension();
+            this.pageSize = Math.max(1, Properties.queryPageBytes / recordSize);
+            this.pages = new LinkedHashMap<Long, PSensorDataPage>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, PSensorDataPage> eldest) {
+                    return size() > Properties.queryPageCacheSize;
+                }
+            };
+        }
+
+        /**
+         * Read the next page from the cursor
+         *
+         * @return the page
+         */
+        PSensorDataPage readPage() {
+            int dim = cursor.getDimension();
+            long[] times = new long[pageSize];
+            float[] values = new float[pageSize * dim];
+            int count = 0;
+            boolean exhausted = false;
+            while (count < pageSize) {
+                if (batchOffset == cursor.size()) {
+                    batchOffset = 0;
+                    if (!cursor.next()) {
+                        exhausted = true;
+                        break;
+                    }
+                }
+                int n = Math.min(pageSize - count, cursor.size() - batchOffset);
+                System.arraycopy(cursor.getTimes(), batchOffset, times, count, n);
+                System.arraycopy(cursor.getValues(), batchOffset * dim, values, count * dim, n * dim);
+                batchOffset += n;
+                count += n;
+            }
+
+            long token = nextToken;
+            nextToken = exhausted ? PSensorDataPage.NO_MORE_PAGES : token + 1;
+            PSensorDataPage page = new PSensorDataPage(times, values, dim, count, nextToken);
+            if (exhausted) {
+                cursor.close();
+                pages.clear();
+                finished = true;
+            }
+            pages.put(token, page);
+            return page;
+        }
+
+        /**
+         * Close the cursor, waiting for a page being read to be finished
+         */
+        synchronized void close() {
+            closed = true;
+            cursor.close();
+        }
+    }
+
+    private SensorDataQueries() {
+    }
+
+    /**
+     * Open a new query on the data of the given sensor in the range [begin, end]
+     *
+     * @param app    the app opening the query
+     * @param sensor the sensor
+     * @param begin  the oldest time stamp
+     * @param end    the latest time stamp
+     * @return the handle of the query or -1 if too many queries are open
+     */
+    static int open(String app, Sensor sensor, java.util.Date begin, java.util.Date end) {
+        expire();
+        Query query = new Query(app, sensor.openCursor(begin, end));
+        synchronized (queries) {
+            if (queries.size() >= Properties.maxOpenQueries)
+                dropFinished();
+            if (queries.size() < Properties.maxOpenQueries) {
+                int handle = nextHandle++;
+                if (nextHandle < 0)
+                    nextHandle = 1;
+                queries.put(handle, query);
+                return handle;
+            }
+        }
+        Log.w("GarmentOS", "SensorDataQueries - too many open queries, rejecting query of " + app);
+        query.close();
+        return -1;
+    }
+
+    /**
+     * Fetch the page with the given token. The first page has the token 0,
+     * the token of every following page is stored in the previous one. Only
+     * the lookup of the query is done while holding the lock of all queries,
+     * the page is read while holding the lock of the query only.
+     *
+     * @param app    the app fetching the page
+     * @param handle the query handle
+     * @param token  the token of the page
+     * @return the page or null if the query does not exist, belongs to another
+     *         app or the token is not valid. The last page can be fetched
+     *         again until the query is closed or expires.
+     */
+    static PSensorDataPage fetch(String app, int handle, long token) {
+        Query query;
+        synchronized (queries) {
+            query = queries.get(handle);
+            if (query == null || !query.app.equals(app))
+                return null;
+            query.lastAccess = System.currentTimeMillis();
+        }
+
+        synchronized (query) {
+            if (query.closed)
+                return null;
+
+            // answer retried requests from the cache
+            PSensorDataPage page = query.pages.get(token);
+            if (page == null) {
+                if (query.finished || token != query.nextToken)
+                    return null;
+                page = query.readPage();
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Close the query with the given handle
+     *
+     * @param app    the app closing the query
+     * @param handle the query handle
+     */
+    static void close(String app, int handle) {
+        Query query;
+        synchronized (queries) {
+            query = queries.get(handle);
+            if (query == null || !query.app.equals(app))
+                return;
+            queries.remove(handle);
+        }
+        query.close();
+    }
+
+    /**
+     * Remove the queries whose last page has already been read. Their cursor
+     * is closed, so they only hold their last page. The caller has to hold
+     * the lock of all queries.
+     */
+    private static void dropFinished() {
+        Iterator<Query> it = queries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().finished)
+                it.remove();
+        }
+    }
+
+    /**
+     * Close all queries that have not been accessed for the configured time.
+     * This is done periodically by the sweeper and whenever a query is opened.
+     */
+    private static void expire() {
+        long now = System.currentTimeMillis();
+        List<Query> expired = new ArrayList<Query>();
+        synchronized (queries) {
+            Iterator<Query> it = queries.values().iterator();
+            while (it.hasNext()) {
+                Query query = it.next();
+                if (now - query.lastAccess > Properties.queryTimeout) {
+                    it.remove();
+                    expired.add(query);
+                }
+            }
+        }
+        for (Query query : expired)
+            query.close();
+    }
+}
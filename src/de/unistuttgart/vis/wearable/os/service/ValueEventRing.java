@@ -0,0 +1,216 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Preallocated ring of the new sensor values between the sensors and the
+ * dispatching thread. The sensor id, the time stamp and the values of an
+ * event are copied into the arrays of the ring, so neither publishing nor
+ * taking an event allocates any object.
+ * </p>
+ * <p>
+ * Any number of sensor threads may publish events while a single thread
+ * takes them. If the ring is full a new event is dropped, so the sensors are
+ * never blocked by the dispatching thread. The dispatching thread has to be
+ * woken up only if {@link #publish(int, long, float[], int)} returns true,
+ * afterwards it has to take events until {@link #poll(Event)} returns false.
+ * </p>
+ * <p>
+ * The ring does not use any lock. A publisher claims the next slot by a
+ * compare-and-set on the tail sequence and marks the slot as filled by an
+ * ordered store of its sequence number once the values have been copied. The
+ * taking thread marks a slot as free again the same way, so publishers only
+ * contend on the tail sequence.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public final class ValueEventRing {
+    private final int capacity;
+    private final int[] sensorIDs;
+    private final long[] times;
+    private final int[] dimensions;
+    private final float[] values;
+    private final int maxDimension;
+
+    //
+    // Sequence number of every slot. A slot is free for the event with the
+    // sequence number s if it holds s, and filled with this event if it holds
+    // s + 1.
+    //
+    private final AtomicLongArray sequences;
+
+    //
+    // Sequence number of the next event to be published and of the next event
+    // to be taken, which is only accessed by the taking thread. Signalled is
+    // set as soon as the taking thread has been woken up and cleared once it
+    // found the ring empty.
+    //
+    private final AtomicLong tail = new AtomicLong(0);
+    private long head = 0;
+    private final AtomicBoolean signalled = new AtomicBoolean(false);
+
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final ConcurrentHashMap<Integer, AtomicLong> droppedBySensor = new ConcurrentHashMap<Integer, AtomicLong>();
+
+    /**
+     * An event taken from the ring, the object is reused for every event
+     */
+    public static final class Event {
+        public int sensorID;
+        public long time;
+        public int dimension;
+        public final float[] values;
+
+        /**
+         * Create a new event able to hold the events of the given ring
+         *
+         * @param ring the ring the event is taken from
+         */
+        public Event(ValueEventRing ring) {
+            this.values = new float[ring.maxDimension];
+        }
+    }
+
+    /**
+     * Create a new ring
+     *
+     * @param capacity     the maximum number of events in the ring
+     * @param maxDimension the maximum number of values of an event, events
+     *                     with more values are dropped
+     */
+    public ValueEventRing(int capacity, int maxDimension) {
+        this.capacity = capacity;
+        this.sensorIDs = new int[capacity];
+        this.times = new long[capacity];
+        this.dimensions = new int[capacity];
+        this.values = new float[capacity * maxDimension];
+        this.maxDimension = maxDimension;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i != capacity; ++i)
+            sequences.set(i, i);
+    }
+
+    /**
+     * Copy the given values into the ring
+     *
+     * @param sensorID  the id of the sensor
+     * @param time      the time stamp of the values
+     * @param values    the array holding the values
+     * @param dimension the number of values
+     * @return true if the taking thread has to be woken up
+     */
+    public boolean publish(int sensorID, long time, float[] values, int dimension) {
+        if (dimension > maxDimension) {
+            drop(sensorID);
+            return false;
+        }
+
+        //
+        // Claim the slot of the next sequence number, the ring is full if the
+        // slot has not been taken yet
+        //
+        long sequence;
+        int slot;
+        while (true) {
+            sequence = tail.get();
+            slot = (int) (sequence % capacity);
+            long state = sequences.get(slot);
+            if (state == sequence) {
+                if (tail.compareAndSet(sequence, sequence + 1))
+                    break;
+            } else if (state < sequence) {
+                drop(sensorID);
+                return false;
+            }
+        }
+
+        sensorIDs[slot] = sensorID;
+        times[slot] = time;
+        dimensions[slot] = dimension;
+        System.arraycopy(values, 0, this.values, slot * maxDimension, dimension);
+        sequences.lazySet(slot, sequence + 1);
+        return !signalled.get() && signalled.compareAndSet(false, true);
+    }
+
+    /**
+     * Count a dropped event of the given sensor
+     */
+    private void drop(int sensorID) {
+        dropped.incrementAndGet();
+        AtomicLong counter = droppedBySensor.get(sensorID);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong(0);
+            counter = droppedBySensor.putIfAbsent(sensorID, created);
+            if (counter == null)
+                counter = created;
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * Take the oldest event from the ring, this is called by the taking
+     * thread only
+     *
+     * @param event the event to copy the values into
+     * @return false if the ring is empty, the taking thread has to be woken
+     * up again before the next event can be taken
+     */
+    public boolean poll(Event event) {
+        int slot = (int) (head % capacity);
+        if (sequences.get(slot) != head + 1) {
+            signalled.set(false);
+
+            //
+            // An event published before the flag has been cleared did not
+            // wake up the taking thread, so it is taken right away unless a
+            // publisher has set the flag again and will wake the thread up
+            //
+            if (sequences.get(slot) != head + 1 || !signalled.compareAndSet(false, true))
+                return false;
+        }
+        event.sensorID = sensorIDs[slot];
+        event.time = times[slot];
+        event.dimension = dimensions[slot];
+        System.arraycopy(values, slot * maxDimension, event.values, 0, event.dimension);
+        sequences.lazySet(slot, head + capacity);
+        ++head;
+        return true;
+    }
+
+    /**
+     * @return the number of events published so far
+     */
+    public long getPublished() {
+        return tail.get();
+    }
+
+    /**
+     * @return the number of events dropped so far since the ring was full or
+     * the event had too many values
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @param sensorID the id of the sensor
+     * @return the number of events of the given sensor dropped so far since
+     * the ring was full or the event had too many values
+     */
+    public long getDropped(int sensorID) {
+        AtomicLong counter = droppedBySensor.get(sensorID);
+        return counter == null ? 0 : counter.get();
+    }
+}
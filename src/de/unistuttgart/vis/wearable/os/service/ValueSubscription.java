@@ -0,0 +1,258 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.service;
+
+import de.unistuttgart.vis.wearable.os.api.ValueBatchCallback;
+import de.unistuttgart.vis.wearable.os.privacy.UserApp;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+/**
+ * <p>
+ * Subscription of an application to the new values of a single sensor. The
+ * values are decimated before they are sent to the application: a value is
+ * only delivered if at least the minimum interval has passed since the last
+ * delivered value and if any of its components differs by at least the
+ * minimum delta from the last delivered value. All other values are dropped.
+ * </p>
+ * <p>
+ * A batched subscription collects the values passing the filter and sends
+ * them as a single {@link ValueBatchCallback} as soon as the batch is full or
+ * the oldest value of the batch has waited for the maximum latency, whatever
+ * comes first.
+ * </p>
+ * <p>
+ * The values are filtered and batched by the dispatching thread only, the
+ * counters may be read from any thread.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public final class ValueSubscription {
+    private final CallbackNode node;
+    private final UserApp app;
+    private final int sensorID;
+    private final long minInterval;
+    private final float minDelta;
+    private final int batchSize;
+    private final long maxLatency;
+
+    //
+    // The last delivered value
+    //
+    private long lastTime = Long.MIN_VALUE;
+    private float[] lastValues = null;
+
+    //
+    // The values of the current batch and the uptime the batch has to be sent
+    // at the latest
+    //
+    private long[] batchTimes = null;
+    private float[] batchValues = null;
+    private int batchDimension = 0;
+    private int batchCount = 0;
+    private long batchDeadline = 0;
+
+    //
+    // Delivery metrics
+    //
+    private volatile long delivered = 0;
+    private volatile long dropped = 0;
+    private volatile long calls = 0;
+
+    /**
+     * Create a new subscription
+     *
+     * @param node        the node of the subscribing application
+     * @param app         the subscribing application
+     * @param sensorID    the id of the sensor
+     * @param minInterval the minimum time in ms between two delivered values,
+     *                    0 to deliver every value
+     * @param minDelta    the minimum change of a value to be delivered, 0 to
+     *                    deliver every value
+     */
+    public ValueSubscription(CallbackNode node, UserApp app, int sensorID, long minInterval, float minDelta) {
+        this(node, app, sensorID, minInterval, minDelta, 1, 0);
+    }
+
+    /**
+     * Create a new batched subscription
+     *
+     * @param node        the node of the subscribing application
+     * @param app         the subscribing application
+     * @param sensorID    the id of the sensor
+     * @param minInterval the minimum time in ms between two delivered values,
+     *                    0 to deliver every value
+     * @param minDelta    the minimum change of a value to be delivered, 0 to
+     *                    deliver every value
+     * @param batchSize   the maximum number of values sent at once, 1 to send
+     *                    every value on its own
+     * @param maxLatency  the maximum time in ms a value waits in the batch
+     */
+    public ValueSubscription(CallbackNode node, UserApp app, int sensorID, long minInterval, float minDelta,
+                             int batchSize, long maxLatency) {
+        this.node = node;
+        this.app = app;
+        this.sensorID = sensorID;
+        this.minInterval = Math.max(0, minInterval);
+        this.minDelta = Math.max(0, minDelta);
+        this.batchSize = Math.max(1, Math.min(batchSize, Properties.maxCallbackBatchSize));
+        this.maxLatency = Math.max(0, maxLatency);
+    }
+
+    /**
+     * Check whether the given value shall be delivered to the application and
+     * count it as delivered or dropped
+     *
+     * @param time      the time stamp of the value
+     * @param values    the array holding the value, it is copied if needed
+     * @param dimension the number of components of the value
+     * @return true if the value shall be delivered
+     */
+    public boolean accept(long time, float[] values, int dimension) {
+        if (app.sensorProhibited(sensorID) || !changed(time, values, dimension)) {
+            ++dropped;
+            return false;
+        }
+        lastTime = time;
+        if (lastValues == null || lastValues.length != dimension)
+            lastValues = new float[dimension];
+        System.arraycopy(values, 0, lastValues, 0, dimension);
+        ++delivered;
+        return true;
+    }
+
+    /**
+     * @return true if the given value passes the interval and the delta filter
+     */
+    private boolean changed(long time, float[] values, int dimension) {
+        if (lastValues == null)
+            return true;
+        if (time - lastTime < minInterval)
+            return false;
+        if (minDelta == 0 || dimension != lastValues.length)
+            return true;
+        for (int i = 0; i != dimension; ++i)
+            if (Math.abs(values[i] - lastValues[i]) >= minDelta)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return true if the values are sent in batches
+     */
+    public boolean isBatched() {
+        return batchSize > 1;
+    }
+
+    /**
+     * @return the maximum time in ms a value waits in the batch
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * Add an accepted value to the current batch
+     *
+     * @param time      the time stamp of the value
+     * @param values    the array holding the value, it is copied
+     * @param dimension the number of components of the value
+     * @param now       the current uptime
+     * @return the number of values in the batch, if this is 1 a new batch has
+     * been started that has to be sent by {@link #getBatchDeadline()}. A value
+     * of a different dimension than the values in the batch drops the batch.
+     */
+    public int addToBatch(long time, float[] values, int dimension, long now) {
+        if (batchTimes == null || dimension != batchDimension) {
+            dropped += batchCount;
+            delivered -= batchCount;
+            batchDimension = dimension;
+            batchTimes = new long[batchSize];
+            batchValues = new float[batchSize * batchDimension];
+            batchCount = 0;
+        }
+        if (batchCount == 0)
+            batchDeadline = now + maxLatency;
+        batchTimes[batchCount] = time;
+        System.arraycopy(values, 0, batchValues, batchCount * batchDimension, batchDimension);
+        return ++batchCount;
+    }
+
+    /**
+     * @return true if the current batch is full
+     */
+    public boolean isBatchFull() {
+        return batchCount >= batchSize;
+    }
+
+    /**
+     * @return the uptime the current batch has to be sent at
+     */
+    public long getBatchDeadline() {
+        return batchDeadline;
+    }
+
+    /**
+     * Take the values of the current batch, the batch is empty afterwards
+     *
+     * @return the callback object holding the values or null if the batch is
+     * empty
+     */
+    public ValueBatchCallback takeBatch() {
+        if (batchCount == 0)
+            return null;
+        ValueBatchCallback ret = new ValueBatchCallback(sensorID, batchDimension,
+                java.util.Arrays.copyOf(batchTimes, batchCount),
+                java.util.Arrays.copyOf(batchValues, batchCount * batchDimension));
+        batchCount = 0;
+        return ret;
+    }
+
+    /**
+     * Count a call to the application
+     */
+    public void called() {
+        ++calls;
+    }
+
+    /**
+     * @return the node of the subscribing application
+     */
+    public CallbackNode getNode() {
+        return node;
+    }
+
+    /**
+     * @return the id of the sensor
+     */
+    public int getSensorID() {
+        return sensorID;
+    }
+
+    /**
+     * @return the number of values delivered so far
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return the number of values dropped so far
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of calls to the application so far, this equals the
+     * number of delivered values unless the values are sent in batches
+     */
+    public long getCalls() {
+        return calls;
+    }
+}
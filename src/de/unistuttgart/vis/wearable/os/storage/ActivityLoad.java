@@ -17,58 +17,23 @@ public class ActivityLoad implements Runnable {
 	
 	private java.util.List<Activity> activities;
 	
-	private long threadID = 0;
-	
 	java.io.File file = null;
 
-    private static final java.util.Set<Long> activeWorkers = new java.util.HashSet<Long>();
-
 	public ActivityLoad(java.util.List<Activity> activities) {
 		this.activities = activities;
 	}
 	
 	/**
 	 * Start the deserialization process. This procedure will execute
-	 * asynchronously and return a worker ID. By calling
-	 * {@link SensorDataDeSerializer#jobFinsihed(long)} it can be checked
-	 * whether the job has terminated or is still running.
-	 * 
-	 * @return the worker id for the current job
-	 */
-	public long work() {
-		Thread th = new Thread(this);
-		this.threadID = th.getId();		
-		th.start();
-		synchronized (activeWorkers) {
-			activeWorkers.add(this.threadID);
-		}
-		return this.threadID;
-	}
-	
-	/**
-	 * <p>
-	 * Check whether the current job is still running or has already finished
-	 * executing.
-	 * </p>
-	 * <p>
-	 * Note for any random value that is no worker id this function will return
-	 * true. So if this function returns false the job is still running,
-	 * otherwise there is no job with the given id or the job has already been
-	 * finished.
-	 * </p>
+	 * asynchronously on the {@link StorageExecutor}. The returned future can
+	 * be used to wait for the job to finish.
 	 * 
-	 * @param id
-	 *            the id of the worker
-	 * @return false if the job is still running, true otherwise
+	 * @return the future of the current job
 	 */
-	public static boolean jobFinished(long id) {
-		synchronized (activeWorkers) {		
-			return !activeWorkers.contains(id);
-		}
+	public java.util.concurrent.Future<?> work() {
+		return StorageExecutor.submit(this);
 	}
 	
-	
-	
 	@Override
     public void run() {
         try {
@@ -81,7 +46,6 @@ public class ActivityLoad implements Runnable {
             //
             file = new java.io.File(Properties.storageDirectory, String.valueOf(FILE_NAME));
             if(!file.exists()) {
-                workerEnd(threadID);
                 return;
             }
 
@@ -136,20 +100,5 @@ public class ActivityLoad implements Runnable {
             raf.close();
         } catch (java.io.IOException ioe) {
         }
-        workerEnd(threadID);
-
-    }
-	
-	/**
-     * The worker finished, remove from active queue
-     * @param threadID the thread that has finished
-     */
-    private void workerEnd(long threadID) {
-        //
-        // Remove the id to signal the job is finished
-        //
-        synchronized (activeWorkers) {
-            activeWorkers.remove(threadID);
-        }
     }
 }
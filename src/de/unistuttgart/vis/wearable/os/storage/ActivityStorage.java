@@ -83,7 +83,10 @@ public class ActivityStorage {
                 try {
                     file = new File(Properties.storageDirectory, FILE_NAME);
                     raf = new RandomAccessFile(file, "rw");
-                    currentFileLength = file.length();
+                    // drop a partially written record, so the file stays
+                    // readable by the ActivityTimeline
+                    currentFileLength = file.length() - file.length() % 12;
+                    raf.setLength(currentFileLength);
                     raf.seek(currentFileLength);
 
                     //
@@ -144,6 +147,7 @@ public class ActivityStorage {
      * @param activity the activity that has been performed
      */
     public ActivityStorage(long time, ActivityEnum activity) {
+        ActivityTimeline.getInstance().append(time, activity);
         synchronized (activities) {
             ActivityTime activityTime = new ActivityTime(time, activity);
             activities.add(activityTime);
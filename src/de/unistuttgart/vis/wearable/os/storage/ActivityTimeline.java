@@ -0,0 +1,293 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.activityRecognition.ActivityEnum;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Time index over the activity file written by the {@link ActivityStorage}.
+ * The file is a sequence of activity transitions
+ * <pre>
+ * [long time][int activity] * number of transitions
+ * </pre>
+ * in time order, every transition holds the time the activity has been
+ * started at. The activity performed at a time is therefore the activity of
+ * the latest transition not younger than the time, which is found by a binary
+ * search over the file mapped into memory.
+ * </p>
+ * <p>
+ * The latest {@link Properties#activityTailCacheSize} transitions are also
+ * held in memory. They are added as soon as they are queued for writing, so
+ * lookups of recent times neither touch the file nor have to wait for the
+ * writer. The mapping is renewed whenever the file has grown since the last
+ * lookup that needed it.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class ActivityTimeline {
+    private static final int RECORD_SIZE = 12;
+
+    //
+    // No activity known for the requested time
+    //
+    public static final int NO_ACTIVITY = -1;
+
+    private static final ActivityTimeline instance = new ActivityTimeline();
+
+    /**
+     * A range of activity transitions
+     */
+    public static class Transitions {
+        public final long[] times;
+        public final int[] activities;
+
+        Transitions(long[] times, int[] activities) {
+            this.times = times;
+            this.activities = activities;
+        }
+    }
+
+    //
+    // Mapped part of the file
+    //
+    private ByteBuffer mapped = null;
+    private long mappedLength = 0;
+
+    //
+    // Ring of the latest transitions
+    //
+    private final long[] tailTimes = new long[Math.max(1, Properties.activityTailCacheSize)];
+    private final int[] tailActivities = new int[tailTimes.length];
+    private int tailSize = 0;
+    private int tailStart = 0;
+    private boolean tailLoaded = false;
+
+    private ActivityTimeline() {
+    }
+
+    /**
+     * @return the activity timeline
+     */
+    public static ActivityTimeline getInstance() {
+        return instance;
+    }
+
+    /**
+     * Add a transition that has been queued for writing to the tail cache
+     *
+     * @param time     the time the activity has been started at
+     * @param activity the activity
+     */
+    synchronized void append(long time, ActivityEnum activity) {
+        loadTail();
+        addToTail(time, activity.ordinal());
+    }
+
+    private void addToTail(long time, int activity) {
+        int capacity = tailTimes.length;
+        int position = (tailStart + tailSize) % capacity;
+        tailTimes[position] = time;
+        tailActivities[position] = activity;
+        if (tailSize < capacity)
+            ++tailSize;
+        else
+            tailStart = (tailStart + 1) % capacity;
+    }
+
+    private long tailTime(int i) {
+        return tailTimes[(tailStart + i) % tailTimes.length];
+    }
+
+    private int tailActivity(int i) {
+        return tailActivities[(tailStart + i) % tailTimes.length];
+    }
+
+    /**
+     * Fill the tail cache with the latest transitions of the file before the
+     * first transition is added
+     */
+    private void loadTail() {
+        if (tailLoaded)
+            return;
+        tailLoaded = true;
+        if (!map())
+            return;
+        long records = mappedLength / RECORD_SIZE;
+        for (long r = Math.max(0, records - tailTimes.length); r < records; ++r)
+            addToTail(recordTime(r), recordActivity(r));
+    }
+
+    /**
+     * Map the file if it has grown since it has been mapped the last time
+     *
+     * @return true if there is a mapped file
+     */
+    private boolean map() {
+        File file = new File(Properties.storageDirectory, ActivityStorage.FILE_NAME);
+        long length = file.length() - file.length() % RECORD_SIZE;
+        if (mapped != null && length == mappedLength)
+            return true;
+        if (length == 0) {
+            mapped = null;
+            mappedLength = 0;
+            return false;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                mappedLength = length;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "ActivityTimeline - mapping the activity file failed");
+            mapped = null;
+            mappedLength = 0;
+        }
+        return mapped != null;
+    }
+
+    private long recordTime(long record) {
+        return mapped.getLong((int) (record * RECORD_SIZE));
+    }
+
+    private int recordActivity(long record) {
+        return mapped.getInt((int) (record * RECORD_SIZE + 8));
+    }
+
+    /**
+     * @return the number of transitions in the mapped file not younger than
+     * the given time
+     */
+    private long searchFile(long time) {
+        long lo = 0, hi = mappedLength / RECORD_SIZE;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (recordTime(mid) <= time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the number of transitions in the tail cache not younger than
+     * the given time
+     */
+    private int searchTail(long time) {
+        int lo = 0, hi = tailSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tailTime(mid) <= time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Get the activity performed at the given time
+     *
+     * @param time the time
+     * @return the ordinal of the {@link ActivityEnum} or {@link #NO_ACTIVITY}
+     *         if no activity has been recorded before the given time
+     */
+    public synchronized int getActivityAtTime(long time) {
+        loadTail();
+
+        // recent times are answered from the tail cache
+        if (tailSize > 0 && tailTime(0) <= time)
+            return tailActivity(searchTail(time) - 1);
+
+        if (!map())
+            return NO_ACTIVITY;
+        long r = searchFile(time);
+        return r == 0 ? NO_ACTIVITY : recordActivity(r - 1);
+    }
+
+    /**
+     * Get all transitions in the range [begin, end] including the transition
+     * to the activity performed at the begin of the range
+     *
+     * @param begin the begin of the range
+     * @param end   the end of the range
+     * @return the transitions
+     */
+    public synchronized Transitions getTransitions(long begin, long end) {
+        loadTail();
+        if (end < begin)
+            return new Transitions(new long[0], new int[0]);
+
+        if (tailSize > 0 && tailTime(0) <= begin) {
+            int first = Math.max(0, searchTail(begin) - 1);
+            int last = searchTail(end);
+            long[] times = new long[last - first];
+            int[] activities = new int[times.length];
+            for (int i = first; i != last; ++i) {
+                times[i - first] = tailTime(i);
+                activities[i - first] = tailActivity(i);
+            }
+            return new Transitions(times, activities);
+        }
+
+        long first = 0, last = 0;
+        long fileEnd = Long.MIN_VALUE;
+        if (map()) {
+            long records = mappedLength / RECORD_SIZE;
+            first = Math.max(0, searchFile(begin) - 1);
+            last = searchFile(end);
+            fileEnd = recordTime(records - 1);
+        }
+
+        //
+        // Transitions of the tail cache newer than the mapped file have not
+        // been written yet, they are added after the ones read from the file
+        //
+        int tailFirst = searchTail(fileEnd);
+        int tailLast = searchTail(end);
+        long fromFile = Math.max(0, last - first);
+        int count = (int) Math.min(fromFile + Math.max(0, tailLast - tailFirst), Properties.maxActivityTransitions);
+        long[] times = new long[count];
+        int[] activities = new int[count];
+        for (int i = 0; i != count; ++i) {
+            if (i < fromFile) {
+                times[i] = recordTime(first + i);
+                activities[i] = recordActivity(first + i);
+            } else {
+                times[i] = tailTime(tailFirst + i - (int) fromFile);
+                activities[i] = tailActivity(tailFirst + i - (int) fromFile);
+            }
+        }
+        return new Transitions(times, activities);
+    }
+
+    /**
+     * Drop the mapping and the tail cache, this has to be done whenever the
+     * activity file has been replaced, e.g. by restoring an archive
+     */
+    public synchronized void reset() {
+        mapped = null;
+        mappedLength = 0;
+        tailSize = 0;
+        tailStart = 0;
+        tailLoaded = false;
+    }
+}
@@ -0,0 +1,1002 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Compressed version of the sensor data file written by the
+ * {@link SensorDataSerializer}. The time stamps are stored using a delta of
+ * delta encoding and the values using an XOR encoding against the previous
+ * value of the same dimension, as sensor data is mostly recorded in regular
+ * intervals and consecutive values are highly correlated.
+ * </p>
+ * <p>
+ * The file starts with a header that can not be mistaken for the header of an
+ * uncompressed file, followed by independently decodable blocks:
+ * <pre>
+ * [int magic][int version][int dimension][long latest time stamp]
+ * [int payload size][int count][long first time][long last time][payload][int crc][int commit] * blocks
+ * </pre>
+ * Since every block carries its first and last time stamp, range reads only
+ * decode the blocks they need. The first time stamp and the position of every
+ * block are kept in the {@link TimeIndex} of the sensor, so range reads start
+ * at the first block they need instead of walking all block headers.
+ * </p>
+ * <p>
+ * Every block is completed by a CRC-32C checksum over its header and payload
+ * and a commit marker, so blocks that have not been written completely due
+ * to a crash can be detected and are cut off by {@link #recover(RandomAccessFile)}.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class CompressedSensorFile {
+    public static final int MAGIC = 0x474F5343;
+    public static final int VERSION = 3;
+    private static final int COMMIT_MARKER = 0x434D4954;
+    private static final int FILE_HEADER_SIZE = 20;
+    private static final int BLOCK_HEADER_SIZE = 24;
+    private static final int BLOCK_TRAILER_SIZE = 8;
+    private static final int LATEST_OFFSET = 12;
+
+    /**
+     * Position and time range of a single block
+     */
+    private static class Block {
+        long position;
+        int payloadSize;
+        int count;
+        long firstTime;
+        long lastTime;
+
+        /**
+         * @return the size of the whole block in the file
+         */
+        long size() {
+            return BLOCK_HEADER_SIZE + payloadSize + BLOCK_TRAILER_SIZE;
+        }
+    }
+
+    /**
+     * Reads the records of a time range block by block, so that at most a
+     * single decoded block is held in memory no matter how large the range is
+     */
+    static class RangeReader {
+        private final RandomAccessFile raf;
+        private final int dimension;
+        private final long begin;
+        private final long end;
+        private final long length;
+        private long nextPosition;
+        private boolean finished = false;
+
+        //
+        // The currently decoded block and the next record to return from it
+        //
+        private long[] times = new long[0];
+        private float[] values = new float[0];
+        private int count = 0;
+        private int position = 0;
+
+        /**
+         * Create a new reader for the range [begin, end]
+         *
+         * @param raf   the opened compressed file
+         * @param index the block index of the file, null to walk all blocks
+         * @param begin the oldest time stamp to read
+         * @param end   the latest time stamp to read
+         * @throws IOException if reading the file failed
+         */
+        RangeReader(RandomAccessFile raf, TimeIndex index, long begin, long end) throws IOException {
+            checkVersion(raf);
+            this.raf = raf;
+            this.dimension = CompressedSensorFile.getDimension(raf);
+            this.begin = begin;
+            this.end = end;
+            this.length = raf.length();
+            this.nextPosition = startPosition(raf, index, begin, length);
+        }
+
+        int getDimension() {
+            return dimension;
+        }
+
+        /**
+         * Read the next records of the range
+         *
+         * @param t   array to store the time stamps in
+         * @param v   array to store the values in row order in
+         * @param max the maximum number of records to read
+         * @return the number of records read, 0 if the range has been read completely
+         * @throws IOException if reading the file failed
+         */
+        int read(long[] t, float[] v, int max) throws IOException {
+            int n = 0;
+            while (n < max) {
+                if (position == count && !decodeNext())
+                    break;
+                long time = times[position];
+                if (time > end) {
+                    finished = true;
+                    break;
+                }
+                if (time >= begin) {
+                    t[n] = time;
+                    System.arraycopy(values, position * dimension, v, n * dimension, dimension);
+                    ++n;
+                }
+                ++position;
+            }
+            return n;
+        }
+
+        /**
+         * Decode the next block of the range
+         *
+         * @return false if there is no further block
+         */
+        private boolean decodeNext() throws IOException {
+            if (finished)
+                return false;
+            Block block = readBlock(raf, nextPosition, length);
+            while (block != null && block.lastTime < begin)
+                block = readBlock(raf, block.position + block.size(), length);
+            if (block == null) {
+                finished = true;
+                return false;
+            }
+            nextPosition = block.position + block.size();
+            if (block.firstTime > end) {
+                finished = true;
+                return false;
+            }
+            if (times.length < block.count) {
+                times = new long[block.count];
+                values = new float[block.count * dimension];
+            }
+            decode(raf, block, dimension, times, values);
+            count = block.count;
+            position = 0;
+            return true;
+        }
+    }
+
+    /**
+     * Writes single bits to a growing byte array
+     */
+    private static class BitWriter {
+        private byte[] bytes;
+        private int bitPosition = 0;
+
+        BitWriter(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void writeBit(boolean bit) {
+            writeBits(bit ? 1 : 0, 1);
+        }
+
+        void writeBits(long value, int n) {
+            if (((bitPosition + n) >> 3) + 1 >= bytes.length)
+                bytes = java.util.Arrays.copyOf(bytes, Math.max(bytes.length * 2, ((bitPosition + n) >> 3) + 16));
+            for (int i = n - 1; i >= 0; --i) {
+                if (((value >>> i) & 1) != 0)
+                    bytes[bitPosition >> 3] |= (byte) (0x80 >>> (bitPosition & 7));
+                ++bitPosition;
+            }
+        }
+
+        int size() {
+            return (bitPosition + 7) >> 3;
+        }
+    }
+
+    /**
+     * Reads single bits from a byte array
+     */
+    private static class BitReader {
+        private final byte[] bytes;
+        private int bitPosition = 0;
+
+        BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        boolean readBit() {
+            boolean bit = (bytes[bitPosition >> 3] & (0x80 >>> (bitPosition & 7))) != 0;
+            ++bitPosition;
+            return bit;
+        }
+
+        long readBits(int n) {
+            long value = 0;
+            for (int i = 0; i != n; ++i)
+                value = (value << 1) | (readBit() ? 1 : 0);
+            return value;
+        }
+    }
+
+    private CompressedSensorFile() {
+    }
+
+    /**
+     * Check whether the given file is a compressed sensor data file
+     *
+     * @param raf the opened file
+     * @return true if the file is compressed, false otherwise
+     * @throws IOException if reading the file failed
+     */
+    public static boolean isCompressed(RandomAccessFile raf) throws IOException {
+        if (raf.length() < FILE_HEADER_SIZE)
+            return false;
+        raf.seek(0);
+        return raf.readInt() == MAGIC;
+    }
+
+    /**
+     * Write the header of a new compressed file
+     *
+     * @param raf       the opened, empty file
+     * @param dimension the dimension of the data
+     * @throws IOException if writing the file failed
+     */
+    public static void create(RandomAccessFile raf, int dimension) throws IOException {
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(VERSION);
+        raf.writeInt(dimension);
+        raf.writeLong(0);
+    }
+
+    /**
+     * Check that the compressed file has been written in the current format
+     *
+     * @throws IOException if the file has been written in another format
+     */
+    private static void checkVersion(RandomAccessFile raf) throws IOException {
+        raf.seek(4);
+        int version = raf.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported compressed file version " + version);
+    }
+
+    /**
+     * @return the dimension of the data stored in the compressed file
+     */
+    public static int getDimension(RandomAccessFile raf) throws IOException {
+        raf.seek(8);
+        return raf.readInt();
+    }
+
+    /**
+     * Append the given records to the compressed file. Records older than the
+     * latest record in the file are skipped. The values are expected in row
+     * order.
+     *
+     * @param raf       the opened compressed file
+     * @param times     the time stamps
+     * @param values    the values in row order
+     * @param dimension the dimension of the data
+     * @param offset    the first record to append
+     * @param length    the number of records to append
+     * @return the number of bytes written
+     * @throws IOException if writing the file failed
+     */
+    public static long append(RandomAccessFile raf, long[] times, float[] values, int dimension,
+                              int offset, int length) throws IOException {
+        raf.seek(LATEST_OFFSET);
+        long latest = raf.readLong();
+        int end = offset + length;
+        while (offset < end && times[offset] < latest)
+            ++offset;
+        if (offset == end)
+            return 0;
+        checkVersion(raf);
+
+        //
+        // Encode all blocks into one buffer
+        //
+        int blockRecords = Math.max(1, Properties.compressedBlockRecords);
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        List<int[]> ranges = new ArrayList<int[]>();
+        int total = 0;
+        for (int start = offset; start < end; start += blockRecords) {
+            int n = Math.min(blockRecords, end - start);
+            BitWriter writer = new BitWriter(n * (dimension + 1) * 2);
+            encode(writer, times, values, dimension, start, n);
+            byte[] payload = java.util.Arrays.copyOf(writer.bytes, writer.size());
+            payloads.add(payload);
+            ranges.add(new int[]{start, n});
+            total += BLOCK_HEADER_SIZE + payload.length + BLOCK_TRAILER_SIZE;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (int i = 0; i != payloads.size(); ++i) {
+            int start = ranges.get(i)[0];
+            int n = ranges.get(i)[1];
+            int blockStart = buffer.position();
+            buffer.putInt(payloads.get(i).length);
+            buffer.putInt(n);
+            buffer.putLong(times[start]);
+            buffer.putLong(times[start + n - 1]);
+            buffer.put(payloads.get(i));
+            Crc32c crc = new Crc32c();
+            crc.update(buffer.array(), blockStart, buffer.position() - blockStart);
+            buffer.putInt((int) crc.getValue());
+            buffer.putInt(COMMIT_MARKER);
+        }
+        buffer.flip();
+
+        //
+        // Append the blocks and update the latest time stamp in the header.
+        // The blocks are only valid after they have been written completely,
+        // so a crash in between leaves a tail that is cut off on recovery.
+        //
+        FileChannel channel = raf.getChannel();
+        long position = channel.size();
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putLong(0, times[end - 1]);
+        long headerPosition = LATEST_OFFSET;
+        while (header.hasRemaining())
+            headerPosition += channel.write(header, headerPosition);
+        return total;
+    }
+
+    /**
+     * Encode the given records into the bit stream
+     */
+    private static void encode(BitWriter writer, long[] times, float[] values, int dimension, int offset, int n) {
+        long previousTime = times[offset];
+        long previousDelta = 0;
+        int[] previousValue = new int[dimension];
+        int[] previousLeading = new int[dimension];
+        int[] previousTrailing = new int[dimension];
+
+        // the first values are stored uncompressed, the first time is part of
+        // the block header
+        for (int d = 0; d != dimension; ++d) {
+            previousValue[d] = Float.floatToRawIntBits(values[offset * dimension + d]);
+            previousLeading[d] = -1;
+            writer.writeBits(previousValue[d], 32);
+        }
+
+        for (int i = offset + 1; i < offset + n; ++i) {
+            //
+            // Delta of delta encoding for the time stamp
+            //
+            long delta = times[i] - previousTime;
+            long dod = delta - previousDelta;
+            if (dod == 0) {
+                writer.writeBit(false);
+            } else if (dod >= -64 && dod <= 63) {
+                writer.writeBits(0x2, 2);
+                writer.writeBits(dod, 7);
+            } else if (dod >= -256 && dod <= 255) {
+                writer.writeBits(0x6, 3);
+                writer.writeBits(dod, 9);
+            } else if (dod >= -2048 && dod <= 2047) {
+                writer.writeBits(0xE, 4);
+                writer.writeBits(dod, 12);
+            } else {
+                writer.writeBits(0xF, 4);
+                writer.writeBits(dod, 64);
+            }
+            previousDelta = delta;
+            previousTime = times[i];
+
+            //
+            // XOR encoding for the values
+            //
+            for (int d = 0; d != dimension; ++d) {
+                int value = Float.floatToRawIntBits(values[i * dimension + d]);
+                int xor = value ^ previousValue[d];
+                previousValue[d] = value;
+                if (xor == 0) {
+                    writer.writeBit(false);
+                    continue;
+                }
+                writer.writeBit(true);
+                int leading = Math.min(31, Integer.numberOfLeadingZeros(xor));
+                int trailing = Integer.numberOfTrailingZeros(xor);
+                if (previousLeading[d] != -1 && leading >= previousLeading[d] && trailing >= previousTrailing[d]) {
+                    // the meaningful bits fit into the previous window
+                    writer.writeBit(false);
+                    writer.writeBits(xor >>> previousTrailing[d], 32 - previousLeading[d] - previousTrailing[d]);
+                } else {
+                    int significant = 32 - leading - trailing;
+                    writer.writeBit(true);
+                    writer.writeBits(leading, 5);
+                    writer.writeBits(significant - 1, 5);
+                    writer.writeBits(xor >>> trailing, significant);
+                    previousLeading[d] = leading;
+                    previousTrailing[d] = trailing;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode the given block
+     *
+     * @param raf       the opened compressed file
+     * @param block     the block to decode
+     * @param dimension the dimension of the data
+     * @param times     array to store the time stamps in
+     * @param values    array to store the values in row order in
+     */
+    private static void decode(RandomAccessFile raf, Block block, int dimension, long[] times, float[] values) throws IOException {
+        byte[] payload = new byte[block.payloadSize];
+        raf.seek(block.position + BLOCK_HEADER_SIZE);
+        raf.readFully(payload);
+        if (!checksumMatches(raf, block, payload))
+            throw new IOException("Checksum mismatch in block at " + block.position);
+        BitReader reader = new BitReader(payload);
+
+        long previousTime = block.firstTime;
+        long previousDelta = 0;
+        int[] previousValue = new int[dimension];
+        int[] previousLeading = new int[dimension];
+        int[] previousTrailing = new int[dimension];
+
+        times[0] = previousTime;
+        for (int d = 0; d != dimension; ++d) {
+            previousValue[d] = (int) reader.readBits(32);
+            values[d] = Float.intBitsToFloat(previousValue[d]);
+        }
+
+        for (int i = 1; i < block.count; ++i) {
+            long dod;
+            if (!reader.readBit())
+                dod = 0;
+            else if (!reader.readBit())
+                dod = signExtend(reader.readBits(7), 7);
+            else if (!reader.readBit())
+                dod = signExtend(reader.readBits(9), 9);
+            else if (!reader.readBit())
+                dod = signExtend(reader.readBits(12), 12);
+            else
+                dod = reader.readBits(64);
+            previousDelta += dod;
+            previousTime += previousDelta;
+            times[i] = previousTime;
+
+            for (int d = 0; d != dimension; ++d) {
+                if (reader.readBit()) {
+                    int xor;
+                    if (!reader.readBit()) {
+                        xor = (int) reader.readBits(32 - previousLeading[d] - previousTrailing[d]) << previousTrailing[d];
+                    } else {
+                        int leading = (int) reader.readBits(5);
+                        int significant = (int) reader.readBits(5) + 1;
+                        int trailing = 32 - leading - significant;
+                        xor = (int) reader.readBits(significant) << trailing;
+                        previousLeading[d] = leading;
+                        previousTrailing[d] = trailing;
+                    }
+                    previousValue[d] ^= xor;
+                }
+                values[i * dimension + d] = Float.intBitsToFloat(previousValue[d]);
+            }
+        }
+    }
+
+    /**
+     * Check the checksum of the given block. The payload must have been read
+     * and the file pointer must be positioned right after it.
+     *
+     * @return true if the checksum stored in the block matches its content
+     */
+    private static boolean checksumMatches(RandomAccessFile raf, Block block, byte[] payload) throws IOException {
+        int stored = raf.readInt();
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        header.putInt(block.payloadSize);
+        header.putInt(block.count);
+        header.putLong(block.firstTime);
+        header.putLong(block.lastTime);
+        Crc32c crc = new Crc32c();
+        crc.update(header.array(), 0, BLOCK_HEADER_SIZE);
+        crc.update(payload, 0, payload.length);
+        return stored == (int) crc.getValue();
+    }
+
+    /**
+     * Sign extend the given value of n bits
+     */
+    private static long signExtend(long value, int n) {
+        return (value << (64 - n)) >> (64 - n);
+    }
+
+    /**
+     * Read the header of the block at the given position
+     *
+     * @return the block or null if there is no completely written block
+     */
+    private static Block readBlock(RandomAccessFile raf, long position, long length) throws IOException {
+        if (position + BLOCK_HEADER_SIZE > length)
+            return null;
+        raf.seek(position);
+        Block block = new Block();
+        block.position = position;
+        block.payloadSize = raf.readInt();
+        block.count = raf.readInt();
+        block.firstTime = raf.readLong();
+        block.lastTime = raf.readLong();
+        if (block.payloadSize < 0 || block.count < 1 || position + block.size() > length)
+            return null;
+        raf.seek(position + block.size() - 4);
+        return raf.readInt() == COMMIT_MARKER ? block : null;
+    }
+
+    /**
+     * Read the headers of all blocks in the file
+     */
+    private static List<Block> readBlocks(RandomAccessFile raf) throws IOException {
+        return readBlocks(raf, FILE_HEADER_SIZE);
+    }
+
+    /**
+     * Read the headers of all blocks in the file starting at the given position
+     */
+    private static List<Block> readBlocks(RandomAccessFile raf, long position) throws IOException {
+        checkVersion(raf);
+        List<Block> blocks = new ArrayList<Block>();
+        long length = raf.length();
+        Block block = readBlock(raf, Math.max(position, FILE_HEADER_SIZE), length);
+        while (block != null) {
+            blocks.add(block);
+            block = readBlock(raf, block.position + block.size(), length);
+        }
+        return blocks;
+    }
+
+    /**
+     * List the first time stamp and the position of all blocks starting at the
+     * given position, to be added to the {@link TimeIndex}
+     *
+     * @param raf      the opened compressed file
+     * @param position the position of the first block to list, 0 to start with
+     *                 the first block
+     * @return the first time stamp and the position of every block, one pair
+     * after the other
+     * @throws IOException if reading the file failed
+     */
+    static long[] listBlocks(RandomAccessFile raf, long position) throws IOException {
+        List<Block> blocks = readBlocks(raf, position);
+        long[] list = new long[blocks.size() * 2];
+        for (int i = 0; i != blocks.size(); ++i) {
+            list[2 * i] = blocks.get(i).firstTime;
+            list[2 * i + 1] = blocks.get(i).position;
+        }
+        return list;
+    }
+
+    /**
+     * Find the position of the block a range read for records not older than
+     * the given time has to start at
+     *
+     * @param raf    the opened compressed file
+     * @param index  the block index of the file or null
+     * @param begin  the oldest time stamp to read
+     * @param length the length of the file
+     * @return the position of the block to start at
+     */
+    private static long startPosition(RandomAccessFile raf, TimeIndex index, long begin, long length) throws IOException {
+        if (index == null)
+            return FILE_HEADER_SIZE;
+        long position = index.searchBlock(begin, length);
+
+        // an index that does not match the file is ignored
+        Block block = position < FILE_HEADER_SIZE ? null : readBlock(raf, position, length);
+        return block != null && block.firstTime < begin ? position : FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Cut off all blocks at the end of the file that have not been written
+     * completely or whose checksum does not match, and set the latest time
+     * stamp in the header to the one of the last valid block. This has to be
+     * done before the file is written after a crash, since new blocks would be
+     * appended after the broken ones otherwise.
+     *
+     * @param raf the opened compressed file
+     * @return the number of bytes cut off
+     * @throws IOException if reading or writing the file failed
+     */
+    public static long recover(RandomAccessFile raf) throws IOException {
+        long length = raf.length();
+        long valid = FILE_HEADER_SIZE;
+        long latest = 0;
+        for (Block block : readBlocks(raf)) {
+            byte[] payload = new byte[block.payloadSize];
+            raf.seek(block.position + BLOCK_HEADER_SIZE);
+            raf.readFully(payload);
+            if (!checksumMatches(raf, block, payload))
+                break;
+            valid = block.position + block.size();
+            latest = block.lastTime;
+        }
+        if (valid < length)
+            raf.setLength(valid);
+        if (getLatest(raf) != latest) {
+            raf.seek(LATEST_OFFSET);
+            raf.writeLong(latest);
+        }
+        return length - valid;
+    }
+
+    /**
+     * Add the records of the given block within [begin, end] to the list
+     *
+     * @return the number of records added
+     */
+    private static int addBlock(RandomAccessFile raf, Block block, int dimension, long begin, long end,
+                                int limit, List<SensorData> sensorData) throws IOException {
+        long[] times = new long[block.count];
+        float[] values = new float[block.count * dimension];
+        decode(raf, block, dimension, times, values);
+        int added = 0;
+        for (int i = 0; i != block.count && (limit == 0 || added < limit); ++i) {
+            if (times[i] < begin || times[i] > end)
+                continue;
+            float[] f = new float[dimension];
+            System.arraycopy(values, i * dimension, f, 0, dimension);
+            sensorData.add(new SensorData(f, times[i]));
+            ++added;
+        }
+        return added;
+    }
+
+    /**
+     * Read the records in the range [begin, end] from the compressed file
+     *
+     * @param raf        the opened compressed file
+     * @param index      the block index of the file, null to walk all blocks
+     * @param begin      the oldest time stamp to read
+     * @param end        the latest time stamp to read
+     * @param limit      the maximum number of records to read, 0 for no limit
+     * @param sensorData the list to add the data to
+     * @throws IOException if reading the file failed
+     */
+    public static void readRange(RandomAccessFile raf, TimeIndex index, long begin, long end, int limit,
+                                 List<SensorData> sensorData) throws IOException {
+        checkVersion(raf);
+        int dimension = getDimension(raf);
+        long length = raf.length();
+        int read = 0;
+        Block block = readBlock(raf, startPosition(raf, index, begin, length), length);
+        for (; block != null; block = readBlock(raf, block.position + block.size(), length)) {
+            if (block.lastTime < begin)
+                continue;
+            if (block.firstTime > end || (limit != 0 && read >= limit))
+                break;
+            read += addBlock(raf, block, dimension, begin, end, limit == 0 ? 0 : limit - read, sensorData);
+        }
+    }
+
+    /**
+     * Read the given number of latest records from the compressed file
+     *
+     * @param raf        the opened compressed file
+     * @param index      the block index of the file, null to walk all blocks
+     * @param n          the number of records to read
+     * @param sensorData the list to add the data to
+     * @throws IOException if reading the file failed
+     */
+    public static void readLatest(RandomAccessFile raf, TimeIndex index, int n, List<SensorData> sensorData)
+            throws IOException {
+        checkVersion(raf);
+        int dimension = getDimension(raf);
+        long length = raf.length();
+
+        //
+        // Walk the blocks that are not yet indexed and step back through the
+        // indexed ones until they hold enough records
+        //
+        int indexed = index == null ? 0 : index.getBlockCount();
+        while (indexed > 0 && index.getBlockPosition(indexed - 1) >= length)
+            --indexed;
+        List<Block> blocks = readBlocks(raf, indexed == 0 ? FILE_HEADER_SIZE : index.getBlockPosition(indexed - 1));
+        int available = 0;
+        for (Block block : blocks)
+            available += block.count;
+        for (int i = indexed - 2; i >= 0 && available < n; --i) {
+            Block block = readBlock(raf, index.getBlockPosition(i), length);
+            if (block == null) {
+                blocks = readBlocks(raf);
+                break;
+            }
+            blocks.add(0, block);
+            available += block.count;
+        }
+
+        int first = blocks.size();
+        available = 0;
+        while (first > 0 && available < n)
+            available += blocks.get(--first).count;
+
+        // skip the surplus records of the first block
+        int skip = Math.max(0, available - n);
+        List<SensorData> data = new ArrayList<SensorData>();
+        for (int i = first; i < blocks.size(); ++i)
+            addBlock(raf, blocks.get(i), dimension, Long.MIN_VALUE, Long.MAX_VALUE, 0, data);
+        sensorData.addAll(data.subList(Math.min(skip, data.size()), data.size()));
+    }
+
+    /**
+     * @return the time stamp of the latest record written to the compressed file
+     */
+    public static long getLatest(RandomAccessFile raf) throws IOException {
+        raf.seek(LATEST_OFFSET);
+        return raf.readLong();
+    }
+
+    /**
+     * Set the time stamp of the latest record written to the compressed file
+     * if it is later than the current one, so that older records will be
+     * skipped by {@link #append(RandomAccessFile, long[], float[], int, int, int)}
+     *
+     * @param raf    the opened compressed file
+     * @param latest the time stamp of the latest record
+     * @throws IOException if writing the file failed
+     */
+    public static void setLatest(RandomAccessFile raf, long latest) throws IOException {
+        if (getLatest(raf) >= latest)
+            return;
+        raf.seek(LATEST_OFFSET);
+        raf.writeLong(latest);
+    }
+
+    /**
+     * @return the time stamp of the oldest record in the compressed file or
+     * {@link Long#MAX_VALUE} if the file is empty
+     */
+    public static long getFirstTime(RandomAccessFile raf) throws IOException {
+        if (raf.length() < FILE_HEADER_SIZE + BLOCK_HEADER_SIZE)
+            return Long.MAX_VALUE;
+        raf.seek(FILE_HEADER_SIZE + 4);
+        return raf.readInt() < 1 ? Long.MAX_VALUE : raf.readLong();
+    }
+
+    /**
+     * Compute the time stamp from which on the records have to be kept, so
+     * that the file does not exceed the given size. Since blocks are only
+     * dropped as a whole this is the first time stamp of a block.
+     *
+     * @param raf      the opened compressed file
+     * @param maxBytes the maximum size of the file
+     * @return the oldest time stamp to keep or {@link Long#MIN_VALUE} if the
+     * file does not exceed the given size
+     * @throws IOException if reading the file failed
+     */
+    public static long cutoffForSize(RandomAccessFile raf, long maxBytes) throws IOException {
+        if (raf.length() <= maxBytes)
+            return Long.MIN_VALUE;
+        List<Block> blocks = readBlocks(raf);
+        long size = FILE_HEADER_SIZE;
+        for (int i = blocks.size() - 1; i >= 0; --i) {
+            size += blocks.get(i).size();
+            if (size > maxBytes)
+                return i + 1 < blocks.size() ? blocks.get(i + 1).firstTime : Long.MAX_VALUE;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Copy the blocks of the source file starting at the given position to the
+     * end of the target file. Blocks that only hold records not older than the
+     * cutoff are copied as they are, blocks that only hold older records are
+     * skipped and all other blocks are decoded and only the records not older
+     * than the cutoff are appended.
+     *
+     * @param source   the opened compressed source file
+     * @param position the position of the first block to copy, 0 to start with
+     *                 the first block
+     * @param target   the opened compressed target file
+     * @param cutoff   the oldest time stamp to keep
+     * @return the position following the last completely written block of the
+     * source, to continue copying from later on
+     * @throws IOException if reading or writing a file failed
+     */
+    public static long copyBlocks(RandomAccessFile source, long position, RandomAccessFile target, long cutoff)
+            throws IOException {
+        int dimension = getDimension(source);
+        FileChannel from = source.getChannel();
+        FileChannel to = target.getChannel();
+        position = Math.max(position, FILE_HEADER_SIZE);
+        for (Block block : readBlocks(source, position)) {
+            long size = block.size();
+            if (block.firstTime >= cutoff) {
+                long transferred = 0;
+                long targetPosition = to.size();
+                while (transferred < size)
+                    transferred += from.transferTo(block.position + transferred, size - transferred,
+                            to.position(targetPosition + transferred));
+                setLatest(target, block.lastTime);
+            } else if (block.lastTime >= cutoff) {
+                long[] times = new long[block.count];
+                float[] values = new float[block.count * dimension];
+                decode(source, block, dimension, times, values);
+                int first = 0;
+                while (first < block.count && times[first] < cutoff)
+                    ++first;
+                append(target, times, values, dimension, first, block.count - first);
+            }
+            position = block.position + size;
+        }
+        return position;
+    }
+
+    /**
+     * Read all records of a sensor data file, no matter whether it is
+     * compressed or not
+     *
+     * @param file       the sensor data file
+     * @param sensorData the list to add the data to
+     * @return the dimension of the data
+     * @throws IOException if reading the file failed
+     */
+    public static int readAll(File file, List<SensorData> sensorData) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (isCompressed(raf)) {
+                readRange(raf, null, Long.MIN_VALUE, Long.MAX_VALUE, 0, sensorData);
+                return getDimension(raf);
+            }
+        } finally {
+            raf.close();
+        }
+
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            long records;
+            dis.readLong();
+            int dimension = dis.readInt();
+            records = (file.length() - 12) / ((dimension + 2) * 4);
+            for (long i = 0; i != records; ++i) {
+                long time = dis.readLong();
+                float[] f = new float[dimension];
+                for (int d = 0; d != dimension; ++d)
+                    f[d] = dis.readFloat();
+                sensorData.add(new SensorData(f, time));
+            }
+            return dimension;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Merge the records of the given file into the existent file. The result is
+     * written as compressed file, no matter in which format the input files are.
+     * Records with time stamps already contained in the existent file are
+     * skipped. Both files are read batch wise through a {@link SensorFileCursor},
+     * so the memory needed does not depend on their size.
+     *
+     * @param existent    the existent file that will contain the result
+     * @param dataToMerge the file to merge into the existent one
+     * @return true if the files have been merged, false otherwise
+     */
+    public static boolean merge(File existent, File dataToMerge) {
+        File temporary = new File(existent + ".tmp");
+        try {
+            SensorFileCursor a = SensorFileCursor.open(existent);
+            SensorFileCursor b = SensorFileCursor.open(dataToMerge);
+            try {
+                if (a == null || b == null || a.getDimension() != b.getDimension())
+                    return false;
+
+                //
+                // Merge both files batch wise and write a block whenever the
+                // output batch is full
+                //
+                int dimension = a.getDimension();
+                int batch = Math.max(1, Properties.compressedBlockRecords);
+                MergeInput inputA = new MergeInput(a, dimension, batch);
+                MergeInput inputB = new MergeInput(b, dimension, batch);
+                long[] times = new long[batch];
+                float[] values = new float[batch * dimension];
+                int c = 0;
+
+                RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+                try {
+                    raf.setLength(0);
+                    create(raf, dimension);
+                    while (inputA.hasCurrent() || inputB.hasCurrent()) {
+                        MergeInput next;
+                        if (!inputB.hasCurrent() || (inputA.hasCurrent() && inputA.time() <= inputB.time())) {
+                            next = inputA;
+                            // drop a duplicate of the merged file
+                            if (inputB.hasCurrent() && inputB.time() == inputA.time())
+                                inputB.advance();
+                        } else {
+                            next = inputB;
+                        }
+                        times[c] = next.time();
+                        next.copyValues(values, c * dimension);
+                        next.advance();
+                        if (++c == batch) {
+                            append(raf, times, values, dimension, 0, c);
+                            c = 0;
+                        }
+                    }
+                    if (c > 0)
+                        append(raf, times, values, dimension, 0, c);
+                } finally {
+                    raf.close();
+                }
+            } finally {
+                if (a != null)
+                    a.close();
+                if (b != null)
+                    b.close();
+            }
+            return existent.delete() && temporary.renameTo(existent);
+        } catch (IOException ioe) {
+            if (temporary.exists())
+                temporary.delete();
+            return false;
+        }
+    }
+
+    /**
+     * One of the inputs of a merge, read batch wise from a cursor
+     */
+    private static class MergeInput {
+        private final SensorFileCursor cursor;
+        private final int dimension;
+        private final long[] times;
+        private final float[] values;
+        private int size = 0;
+        private int position = 0;
+
+        MergeInput(SensorFileCursor cursor, int dimension, int batch) {
+            this.cursor = cursor;
+            this.dimension = dimension;
+            this.times = new long[batch];
+            this.values = new float[batch * dimension];
+        }
+
+        /**
+         * @return true if there is a current record, the next batch is read if needed
+         */
+        boolean hasCurrent() throws IOException {
+            if (position == size) {
+                size = cursor.read(times, values, times.length);
+                position = 0;
+            }
+            return position < size;
+        }
+
+        long time() {
+            return times[position];
+        }
+
+        void copyValues(float[] dst, int offset) {
+            System.arraycopy(values, position * dimension, dst, offset, dimension);
+        }
+
+        void advance() {
+            ++position;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum as used for the blocks of the
+ * {@link CompressedSensorFile}. The platform only provides the CRC-32
+ * implementation of {@link java.util.zip.CRC32}, so the checksum is computed
+ * using a lookup table.
+ *
+ * @author roehrdor
+ */
+public class Crc32c implements Checksum {
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i != 256; ++i) {
+            int crc = i;
+            for (int j = 0; j != 8; ++j)
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+            TABLE[i] = crc;
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        for (int i = off; i != off + len; ++i)
+            c = (c >>> 8) ^ TABLE[(c ^ b[i]) & 0xFF];
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+/**
+ * Describes how long the data of a sensor is kept by the
+ * {@link SensorDataCompactor}. Raw data and segments older than the raw data
+ * retention time are dropped, rollups older than the rollup retention time,
+ * so the aggregated history may outlive the raw data. The oldest data is
+ * dropped as well as long as the sensor file, the {@link SegmentStore} and
+ * the {@link RollupStore} of the sensor together exceed the byte limit.
+ *
+ * @author roehrdor
+ */
+public class RetentionPolicy {
+    private final long rawRetention;
+    private final long rollupRetention;
+    private final long maxBytes;
+
+    /**
+     * Create a new retention policy
+     *
+     * @param rawRetention    the time in ms the raw data is kept, 0 to keep it forever
+     * @param rollupRetention the time in ms the rollups are kept, 0 to keep them forever
+     * @param maxBytes        the maximum size of the sensor file, its segments and
+     *                        its rollups in bytes, 0 for no limit
+     */
+    public RetentionPolicy(long rawRetention, long rollupRetention, long maxBytes) {
+        if (rawRetention < 0 || rollupRetention < 0 || maxBytes < 0)
+            throw new IllegalArgumentException("Retention and size limit must not be negative");
+        this.rawRetention = rawRetention;
+        this.rollupRetention = rollupRetention;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the default policy as given by {@link Properties#rawDataRetention},
+     * {@link Properties#rollupRetention} and {@link Properties#maxSensorFileBytes}
+     */
+    public static RetentionPolicy getDefault() {
+        return new RetentionPolicy(Properties.rawDataRetention, Properties.rollupRetention,
+                Properties.maxSensorFileBytes);
+    }
+
+    /**
+     * @return the time in ms the raw data is kept, 0 if it is kept forever
+     */
+    public long getRawRetention() {
+        return rawRetention;
+    }
+
+    /**
+     * @return the time in ms the rollups are kept, 0 if they are kept forever
+     */
+    public long getRollupRetention() {
+        return rollupRetention;
+    }
+
+    /**
+     * @return the maximum size of the sensor file, its segments and its
+     * rollups in bytes, 0 if there is no limit
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return true if this policy never drops any data
+     */
+    public boolean isUnlimited() {
+        return rawRetention == 0 && rollupRetention == 0 && maxBytes == 0;
+    }
+}
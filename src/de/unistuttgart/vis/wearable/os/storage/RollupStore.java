@@ -0,0 +1,678 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Pre-aggregated sensor data for long range queries. For every sensor the
+ * data is aggregated into buckets of the widths given by
+ * {@link Properties#rollupTiers}, e.g. one second, one minute and one hour.
+ * Each bucket holds the number of records as well as the minimum, maximum and
+ * mean of every dimension. The tiers are updated incrementally whenever the
+ * {@link SensorDataSerializer} writes data.
+ * </p>
+ * <p>
+ * Each tier is stored in its own file in a directory next to the sensor file:
+ * <pre>
+ * [long latest time stamp][int dimension]
+ * [long bucket start][int count][float min] * dimension [float max] * dimension [float mean] * dimension
+ * </pre>
+ * The last bucket of a tier is still open and is rewritten in place until a
+ * record of a later bucket arrives.
+ * </p>
+ * <p>
+ * The tiers only cover the records appended since the store has been created,
+ * e.g. not the data written before the tiers existed or before the last
+ * archive merge. The time stamp of the first covered record is kept in the
+ * file {@value #COVERAGE_FILE} next to the tiers; buckets starting before it
+ * may be incomplete and have to be computed from the raw data. A record that
+ * arrives out of order can not be added to a closed bucket, so the coverage
+ * then starts after the latest record aggregated so far.
+ * </p>
+ * <p>
+ * The oldest buckets of the tiers are dropped by the {@link SensorDataCompactor}
+ * according to the {@link RetentionPolicy} of the sensor, the buckets of a
+ * tier are then only complete from its first remaining bucket on.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class RollupStore {
+    public static final String DIRECTORY_SUFFIX = ".rollup";
+    public static final String COVERAGE_FILE = "covered";
+    private static final int HEADER_SIZE = 12;
+
+    //
+    // All opened stores assigned to their sensor ID
+    //
+    private static final Map<Integer, RollupStore> stores = new HashMap<Integer, RollupStore>();
+
+    /**
+     * The result of a rollup query. The values are stored in row order, so
+     * the minimum of dimension d of bucket i is stored at min[i * dimension + d].
+     */
+    public static class Rollup {
+        public final long bucketWidth;
+        public final int dimension;
+        public final long[] times;
+        public final int[] counts;
+        public final float[] min;
+        public final float[] max;
+        public final float[] mean;
+
+        //
+        // Time stamp of the latest record aggregated into the tier, all
+        // records up to this time stamp are covered by the buckets
+        //
+        public long latest = Long.MIN_VALUE;
+
+        //
+        // Time stamp of the first record the buckets are complete for, the
+        // buckets starting before it may lack records or have been dropped
+        //
+        public long firstCovered = Long.MAX_VALUE;
+
+        Rollup(long bucketWidth, int dimension, int size) {
+            this.bucketWidth = bucketWidth;
+            this.dimension = dimension;
+            this.times = new long[size];
+            this.counts = new int[size];
+            this.min = new float[size * dimension];
+            this.max = new float[size * dimension];
+            this.mean = new float[size * dimension];
+        }
+    }
+
+    /**
+     * A single aggregation tier
+     */
+    private static class Tier {
+        final long width;
+        final File file;
+        int dimension = 0;
+        long latest = Long.MIN_VALUE;
+
+        //
+        // The open bucket and its position in the file, -1 if it has not been
+        // written yet
+        //
+        long openStart = Long.MIN_VALUE;
+        int openCount = 0;
+        float[] openMin;
+        float[] openMax;
+        double[] openSum;
+        long openPosition = -1;
+
+        Tier(File file, long width) {
+            this.file = file;
+            this.width = width;
+        }
+
+        int recordSize() {
+            return 12 + 12 * dimension;
+        }
+
+        /**
+         * Read the header and the open bucket from the file
+         */
+        void load() throws IOException {
+            if (!file.exists() || file.length() < HEADER_SIZE)
+                return;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                latest = raf.readLong();
+                dimension = raf.readInt();
+                long records = (raf.length() - HEADER_SIZE) / recordSize();
+                if (records > 0) {
+                    openPosition = HEADER_SIZE + (records - 1) * recordSize();
+                    raf.seek(openPosition);
+                    openStart = raf.readLong();
+                    openCount = raf.readInt();
+                    openMin = new float[dimension];
+                    openMax = new float[dimension];
+                    openSum = new double[dimension];
+                    for (int d = 0; d != dimension; ++d)
+                        openMin[d] = raf.readFloat();
+                    for (int d = 0; d != dimension; ++d)
+                        openMax[d] = raf.readFloat();
+                    for (int d = 0; d != dimension; ++d)
+                        openSum[d] = (double) raf.readFloat() * openCount;
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        /**
+         * Encode the open bucket into the given buffer
+         */
+        void putOpen(ByteBuffer buffer) {
+            buffer.putLong(openStart);
+            buffer.putInt(openCount);
+            for (int d = 0; d != dimension; ++d)
+                buffer.putFloat(openMin[d]);
+            for (int d = 0; d != dimension; ++d)
+                buffer.putFloat(openMax[d]);
+            for (int d = 0; d != dimension; ++d)
+                buffer.putFloat((float) (openSum[d] / openCount));
+        }
+
+        /**
+         * Aggregate the given records and write all changed buckets with one
+         * call. Leading records older than the latest aggregated record have
+         * already been aggregated and are skipped.
+         *
+         * @return the latest aggregated time stamp before a record that had to
+         * be skipped since it arrived out of order, {@link Long#MIN_VALUE} if
+         * no record has been skipped
+         */
+        long append(long[] times, float[] values, int dim, int offset, int length) throws IOException {
+            if (dimension == 0) {
+                dimension = dim;
+            } else if (dimension != dim) {
+                return Long.MIN_VALUE;
+            }
+            long skipped = Long.MIN_VALUE;
+            int end = offset + length;
+            while (offset < end && times[offset] < latest)
+                ++offset;
+
+            // the buckets that will be closed by this batch and the open one
+            int buckets = 1;
+            long current = openStart;
+            for (int i = offset; i < end; ++i) {
+                long bucket = bucketStart(times[i]);
+                if (times[i] >= latest && bucket != current) {
+                    ++buckets;
+                    current = bucket;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(buckets * recordSize());
+            int closed = 0;
+
+            for (int i = offset; i < end; ++i) {
+                long time = times[i];
+                if (time < latest) {
+                    skipped = latest;
+                    continue;
+                }
+                latest = time;
+                long bucket = bucketStart(time);
+                if (bucket != openStart) {
+                    if (openCount > 0) {
+                        putOpen(buffer);
+                        ++closed;
+                    }
+                    openStart = bucket;
+                    openCount = 0;
+                    openMin = new float[dimension];
+                    openMax = new float[dimension];
+                    openSum = new double[dimension];
+                }
+                for (int d = 0; d != dimension; ++d) {
+                    float v = values[i * dim + d];
+                    if (openCount == 0 || v < openMin[d])
+                        openMin[d] = v;
+                    if (openCount == 0 || v > openMax[d])
+                        openMax[d] = v;
+                    openSum[d] += v;
+                }
+                ++openCount;
+            }
+            if (openCount == 0 || offset == end)
+                return skipped;
+            putOpen(buffer);
+            buffer.flip();
+
+            //
+            // The first closed bucket replaces the open bucket on disk, if any,
+            // the new open bucket is written after the closed ones
+            //
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (raf.length() < HEADER_SIZE) {
+                    raf.setLength(HEADER_SIZE);
+                    openPosition = -1;
+                }
+                long position = openPosition != -1 ? openPosition : raf.length();
+                raf.seek(position);
+                raf.write(buffer.array(), 0, buffer.limit());
+                openPosition = position + (long) closed * recordSize();
+                raf.seek(0);
+                raf.writeLong(latest);
+                raf.writeInt(dimension);
+            } finally {
+                raf.close();
+            }
+            return skipped;
+        }
+
+        long bucketStart(long time) {
+            return time - (((time % width) + width) % width);
+        }
+
+        /**
+         * Read all buckets overlapping [begin, end]
+         */
+        Rollup read(long begin, long end) throws IOException {
+            if (dimension == 0 || !file.exists())
+                return new Rollup(width, dimension, 0);
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                int recordSize = recordSize();
+                long records = (raf.length() - HEADER_SIZE) / recordSize;
+                long lo = search(raf, records, bucketStart(begin));
+                long hi = search(raf, records, bucketStart(end) + 1);
+                int n = (int) (hi - lo);
+                Rollup rollup = new Rollup(width, dimension, Math.max(0, n));
+                rollup.latest = latest;
+                if (records > 0) {
+                    raf.seek(HEADER_SIZE);
+                    rollup.firstCovered = raf.readLong();
+                }
+                if (n <= 0)
+                    return rollup;
+
+                byte[] bytes = new byte[n * recordSize];
+                raf.seek(HEADER_SIZE + lo * recordSize);
+                raf.readFully(bytes);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                for (int i = 0; i != n; ++i) {
+                    rollup.times[i] = buffer.getLong();
+                    rollup.counts[i] = buffer.getInt();
+                    for (int d = 0; d != dimension; ++d)
+                        rollup.min[i * dimension + d] = buffer.getFloat();
+                    for (int d = 0; d != dimension; ++d)
+                        rollup.max[i * dimension + d] = buffer.getFloat();
+                    for (int d = 0; d != dimension; ++d)
+                        rollup.mean[i * dimension + d] = buffer.getFloat();
+                }
+                return rollup;
+            } finally {
+                raf.close();
+            }
+        }
+
+        /**
+         * Drop the given number of the oldest buckets by rewriting the file.
+         * The open bucket is always kept.
+         *
+         * @return the number of bytes freed
+         */
+        long dropFirst(long n) throws IOException {
+            if (dimension == 0 || !file.exists())
+                return 0;
+            int recordSize = recordSize();
+            long records = (file.length() - HEADER_SIZE) / recordSize;
+            n = Math.min(n, records - 1);
+            if (n <= 0)
+                return 0;
+
+            File temporary = new File(file.getPath() + ".tmp");
+            RandomAccessFile source = new RandomAccessFile(file, "r");
+            try {
+                RandomAccessFile target = new RandomAccessFile(temporary, "rw");
+                try {
+                    target.setLength(0);
+                    target.writeLong(latest);
+                    target.writeInt(dimension);
+                    FileChannel from = source.getChannel();
+                    FileChannel to = target.getChannel();
+                    long position = HEADER_SIZE + n * recordSize;
+                    long count = from.size() - position;
+                    long transferred = 0;
+                    to.position(HEADER_SIZE);
+                    while (transferred < count)
+                        transferred += from.transferTo(position + transferred, count - transferred, to);
+                } finally {
+                    target.close();
+                }
+            } finally {
+                source.close();
+            }
+            if (!temporary.renameTo(file))
+                throw new IOException("Can not replace " + file);
+            if (openPosition != -1)
+                openPosition -= n * recordSize;
+            return n * recordSize;
+        }
+
+        /**
+         * Drop all buckets that end before the given time
+         *
+         * @return the number of bytes freed
+         */
+        long dropBefore(long time) throws IOException {
+            if (dimension == 0 || !file.exists())
+                return 0;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            long n;
+            try {
+                n = search(raf, (raf.length() - HEADER_SIZE) / recordSize(), bucketStart(time));
+            } finally {
+                raf.close();
+            }
+            return dropFirst(n);
+        }
+
+        /**
+         * @return the first bucket that does not start before the given time
+         */
+        private long search(RandomAccessFile raf, long records, long time) throws IOException {
+            long lo = 0, hi = records;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                raf.seek(HEADER_SIZE + mid * recordSize());
+                if (raf.readLong() < time)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    private final int sensorID;
+    private final Tier[] tiers;
+    private final File coverageFile;
+    private long firstCovered = Long.MAX_VALUE;
+
+    /**
+     * Open the rollup store of the given sensor
+     *
+     * @param sensorID the sensor id
+     */
+    private RollupStore(int sensorID) {
+        this.sensorID = sensorID;
+        File directory = new File(Properties.storageDirectory, sensorID + DIRECTORY_SUFFIX);
+        long[] widths = Properties.rollupTiers;
+        this.tiers = new Tier[widths.length];
+        for (int i = 0; i != widths.length; ++i) {
+            tiers[i] = new Tier(new File(directory, String.valueOf(widths[i])), widths[i]);
+            try {
+                tiers[i].load();
+            } catch (IOException ioe) {
+                Log.e("GarmentOS", "RollupStore - reading tier " + widths[i] + " of sensor " + sensorID + " failed");
+            }
+        }
+        this.coverageFile = new File(directory, COVERAGE_FILE);
+        loadCoverage();
+    }
+
+    /**
+     * Read the time stamp of the first covered record. Tiers written without
+     * a coverage file are only trusted after their latest record.
+     */
+    private void loadCoverage() {
+        if (coverageFile.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new FileInputStream(coverageFile));
+                try {
+                    firstCovered = in.readLong();
+                    return;
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ioe) {
+                Log.e("GarmentOS", "RollupStore - reading the coverage of sensor " + sensorID + " failed");
+            }
+        }
+        long latest = Long.MIN_VALUE;
+        for (Tier tier : tiers)
+            if (tier.dimension != 0)
+                latest = Math.max(latest, tier.latest);
+        if (latest != Long.MIN_VALUE)
+            setFirstCovered(latest + 1);
+    }
+
+    /**
+     * Change the time stamp of the first covered record and write it
+     */
+    private void setFirstCovered(long time) {
+        firstCovered = time;
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(coverageFile));
+            try {
+                out.writeLong(time);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "RollupStore - writing the coverage of sensor " + sensorID + " failed");
+        }
+    }
+
+    /**
+     * @return the time stamp of the first record the buckets are complete for,
+     * {@link Long#MAX_VALUE} if no record has been aggregated yet
+     */
+    public synchronized long getFirstCovered() {
+        return firstCovered;
+    }
+
+    /**
+     * Get the rollup store for the given sensor. The store will be opened if
+     * this has not been done yet.
+     *
+     * @param sensorID the sensor id
+     * @return the rollup store of the sensor
+     */
+    public static RollupStore getStore(int sensorID) {
+        synchronized (stores) {
+            RollupStore store = stores.get(sensorID);
+            if (store == null) {
+                store = new RollupStore(sensorID);
+                stores.put(sensorID, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Drop the rollups of the given sensor. This has to be done whenever the
+     * sensor file has been changed from outside, e.g. by merging an archive.
+     *
+     * @param sensorID the sensor id
+     */
+    public static void drop(int sensorID) {
+        synchronized (stores) {
+            stores.remove(sensorID);
+        }
+        File directory = new File(Properties.storageDirectory, sensorID + DIRECTORY_SUFFIX);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.delete())
+                    Log.w("GarmentOS", "RollupStore - can not delete " + f);
+            }
+        }
+        if (directory.exists() && !directory.delete())
+            Log.w("GarmentOS", "RollupStore - can not delete " + directory);
+    }
+
+    /**
+     * Aggregate the given records into all tiers. Records older than the
+     * latest aggregated record are skipped. The values are expected in row
+     * order.
+     *
+     * @param times     the time stamps
+     * @param values    the values in row order
+     * @param dimension the dimension of the data
+     * @param offset    the first record
+     * @param length    the number of records
+     */
+    public synchronized void append(long[] times, float[] values, int dimension, int offset, int length) {
+        if (length < 1)
+            return;
+        File directory = new File(Properties.storageDirectory, sensorID + DIRECTORY_SUFFIX);
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e("GarmentOS", "RollupStore - can not create " + directory);
+            return;
+        }
+        if (firstCovered == Long.MAX_VALUE)
+            setFirstCovered(times[offset]);
+        long skipped = Long.MIN_VALUE;
+        for (Tier tier : tiers) {
+            try {
+                skipped = Math.max(skipped, tier.append(times, values, dimension, offset, length));
+            } catch (IOException ioe) {
+                //
+                // The buckets are incomplete up to this batch
+                //
+                skipped = Math.max(skipped, tier.latest);
+                Log.e("GarmentOS", "RollupStore - writing tier " + tier.width + " of sensor " + sensorID + " failed");
+            }
+        }
+        if (skipped != Long.MIN_VALUE && skipped >= firstCovered)
+            setFirstCovered(skipped + 1);
+    }
+
+    /**
+     * @return the size of all tiers in bytes
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for (Tier tier : tiers)
+            size += tier.file.length();
+        return size;
+    }
+
+    /**
+     * Drop the buckets of all tiers that only hold records older than the
+     * given time. The open buckets are always kept.
+     *
+     * @param time the oldest time stamp to keep
+     * @return the number of bytes freed
+     */
+    public synchronized long dropBefore(long time) {
+        long freed = 0;
+        if (time == Long.MIN_VALUE)
+            return freed;
+        for (Tier tier : tiers) {
+            try {
+                freed += tier.dropBefore(time);
+            } catch (IOException ioe) {
+                Log.e("GarmentOS", "RollupStore - trimming tier " + tier.width + " of sensor " + sensorID + " failed");
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Drop the oldest buckets until the store is not larger than the given
+     * number of bytes. The buckets of the finest tier are dropped first, since
+     * it is the largest one and the coarser tiers still cover its range. The
+     * open buckets are always kept.
+     *
+     * @param maxBytes the maximum size of the store
+     * @return the number of bytes freed
+     */
+    public synchronized long trimToSize(long maxBytes) {
+        long freed = 0;
+        long size = getSize();
+        for (int i = 0; i != tiers.length && size > maxBytes; ++i) {
+            Tier tier = tiers[i];
+            try {
+                long n = tier.dropFirst((size - maxBytes + tier.recordSize() - 1) / tier.recordSize());
+                size -= n;
+                freed += n;
+            } catch (IOException ioe) {
+                Log.e("GarmentOS", "RollupStore - trimming tier " + tier.width + " of sensor " + sensorID + " failed");
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Choose the tier for the given time range and point budget. This is the
+     * finest tier that does not exceed the budget, or the coarsest tier if all
+     * of them do.
+     *
+     * @param begin     the begin of the time range
+     * @param end       the end of the time range
+     * @param maxPoints the maximum number of buckets to return
+     * @return the index of the chosen tier
+     */
+    private int chooseTier(long begin, long end, int maxPoints) {
+        for (int i = 0; i != tiers.length; ++i) {
+            if ((end - begin) / tiers[i].width + 1 <= maxPoints)
+                return i;
+        }
+        return tiers.length - 1;
+    }
+
+    /**
+     * Query the aggregated data of the time range [begin, end] from the tier
+     * that best fits the given point budget
+     *
+     * @param begin     the begin of the time range
+     * @param end       the end of the time range
+     * @param maxPoints the maximum number of buckets to return
+     * @return the aggregated data or null if there are no tiers or reading failed
+     */
+    public synchronized Rollup query(long begin, long end, int maxPoints) {
+        if (tiers.length == 0 || end < begin)
+            return null;
+        Tier tier = tiers[chooseTier(begin, end, Math.max(1, maxPoints))];
+        try {
+            Rollup rollup = tier.read(begin, end);
+            rollup.firstCovered = Math.max(rollup.firstCovered, firstCovered);
+            return rollup;
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "RollupStore - reading tier " + tier.width + " of sensor " + sensorID + " failed");
+            return null;
+        }
+    }
+
+    /**
+     * Query the buckets of the coarsest tier that can be combined into buckets
+     * of the given width starting at the begin of the range. This is the case
+     * if the begin of the range and the given width are multiples of the
+     * width of the tier. Only the buckets that lie completely inside of
+     * [begin, end] are returned.
+     *
+     * @param begin       the begin of the time range
+     * @param end         the end of the time range
+     * @param bucketWidth the width of the buckets to combine into
+     * @return the aggregated data or null if there is no such tier or reading failed
+     */
+    public synchronized Rollup queryAligned(long begin, long end, long bucketWidth) {
+        for (int i = tiers.length - 1; i >= 0; --i) {
+            Tier tier = tiers[i];
+            if (bucketWidth % tier.width != 0 || tier.bucketStart(begin) != begin)
+                continue;
+            long last = begin + ((end - begin + 1) / tier.width) * tier.width - 1;
+            if (last < begin)
+                continue;
+            try {
+                Rollup rollup = tier.read(begin, last);
+                rollup.firstCovered = Math.max(rollup.firstCovered, firstCovered);
+                return rollup;
+            } catch (IOException ioe) {
+                Log.e("GarmentOS", "RollupStore - reading tier " + tier.width + " of sensor " + sensorID + " failed");
+                return null;
+            }
+        }
+        return null;
+    }
+}
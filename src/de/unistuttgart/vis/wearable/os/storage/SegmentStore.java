@@ -0,0 +1,624 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Column oriented sensor data store. The data of every sensor is split up into
+ * fixed size segment files that are stored in a directory next to the flat
+ * sensor file written by the {@link SensorDataSerializer}. Each segment holds
+ * a time stamp column followed by one float column per data dimension and is
+ * accessed through {@link FileChannel#map(FileChannel.MapMode, long, long)},
+ * so reading a time range is a binary search on the time column followed by
+ * bulk copies of the columns instead of single reads per value.
+ * </p>
+ * <p>
+ * The layout of a segment file is
+ * <pre>
+ * [int magic][int dimension][int capacity][int count]
+ * [long time] * capacity
+ * [float value] * capacity   (once for every dimension)
+ * </pre>
+ * As soon as a segment is full a new one is rolled and written to.
+ * </p>
+ * <p>
+ * The sensor file stays the complete history of a sensor, the segments only
+ * hold its most recent part. Whenever a new segment is rolled the oldest
+ * segments are deleted until the store fits into
+ * {@link Properties#segmentStoreMaxBytes}, ranges older than the first segment
+ * are read from the sensor file.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class SegmentStore {
+    //
+    // Directory suffix and file format constants
+    //
+    public static final String DIRECTORY_SUFFIX = ".seg";
+    private static final int SEGMENT_MAGIC = 0x47534547;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 12;
+
+    //
+    // Keep at most this many read only segments mapped per sensor
+    //
+    private static final int MAX_MAPPED_SEGMENTS = 8;
+
+    //
+    // All opened stores assigned to their sensor ID
+    //
+    private static final Map<Integer, SegmentStore> stores = new HashMap<Integer, SegmentStore>();
+
+    /**
+     * A single segment file
+     */
+    private static class Segment {
+        final File file;
+        final int index;
+        int dimension;
+        int capacity;
+        int count;
+        long firstTime;
+        long lastTime;
+
+        MappedByteBuffer buffer;
+        boolean writable;
+        LongBuffer times;
+        FloatBuffer[] columns;
+
+        Segment(File file, int index) {
+            this.file = file;
+            this.index = index;
+        }
+
+        /**
+         * Map the segment into memory and create the column views
+         *
+         * @param writable true if the segment shall be mapped for writing
+         * @throws IOException if mapping the file failed
+         */
+        void map(boolean writable) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long size = segmentSize(dimension, capacity);
+                buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+                this.writable = writable;
+            } finally {
+                raf.close();
+            }
+            times = column(HEADER_SIZE, capacity * 8).asLongBuffer();
+            columns = new FloatBuffer[dimension];
+            for (int d = 0; d != dimension; ++d)
+                columns[d] = column(HEADER_SIZE + capacity * 8 + d * capacity * 4, capacity * 4).asFloatBuffer();
+        }
+
+        /**
+         * Create a view of the mapped buffer for the given region
+         */
+        private ByteBuffer column(int offset, int length) {
+            ByteBuffer bb = buffer.duplicate();
+            bb.position(offset);
+            bb.limit(offset + length);
+            return bb.slice();
+        }
+
+        void unmap() {
+            buffer = null;
+            writable = false;
+            times = null;
+            columns = null;
+        }
+
+        boolean isMapped() {
+            return buffer != null;
+        }
+
+        /**
+         * Search the index of the first record that is not older than the given time
+         */
+        int lowerBound(long time) {
+            int lo = 0, hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (times.get(mid) < time)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        /**
+         * Search the index of the first record that is younger than the given time
+         */
+        int upperBound(long time) {
+            int lo = 0, hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (times.get(mid) <= time)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    private final int sensorID;
+    private final File directory;
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    //
+    // Access ordered map of the currently mapped read only segments
+    //
+    private final LinkedHashMap<Integer, Segment> mapped = new LinkedHashMap<Integer, Segment>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Segment> eldest) {
+            if (size() > MAX_MAPPED_SEGMENTS) {
+                eldest.getValue().unmap();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Open the store for the given sensor and read the headers of all existing
+     * segments
+     *
+     * @param sensorID the sensor id
+     */
+    private SegmentStore(int sensorID) {
+        this.sensorID = sensorID;
+        this.directory = new File(Properties.storageDirectory, sensorID + DIRECTORY_SUFFIX);
+
+        String[] names = directory.list();
+        if (names == null)
+            return;
+        Arrays.sort(names);
+        for (String name : names) {
+            int index;
+            try {
+                index = Integer.parseInt(name);
+            } catch (NumberFormatException nfe) {
+                continue;
+            }
+            Segment segment = new Segment(new File(directory, name), index);
+            try {
+                readHeader(segment);
+                if (segment.count > 0)
+                    segments.add(segment);
+            } catch (IOException ioe) {
+                Log.e("GarmentOS", "SegmentStore - skipping unreadable segment " + segment.file);
+            }
+        }
+    }
+
+    /**
+     * Get the store for the given sensor. The store will be opened if this has
+     * not been done yet.
+     *
+     * @param sensorID the sensor id
+     * @return the segment store for the sensor
+     */
+    public static SegmentStore getStore(int sensorID) {
+        synchronized (stores) {
+            SegmentStore store = stores.get(sensorID);
+            if (store == null) {
+                store = new SegmentStore(sensorID);
+                stores.put(sensorID, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Drop the store of the given sensor and delete all its segments. This has
+     * to be done whenever the flat sensor file has been changed from outside,
+     * e.g. by merging an imported archive, since the segments would not
+     * reflect the changes otherwise. The store starts over empty.
+     *
+     * @param sensorID the sensor id
+     */
+    public static void drop(int sensorID) {
+        SegmentStore store;
+        synchronized (stores) {
+            store = stores.remove(sensorID);
+        }
+        File directory = new File(Properties.storageDirectory, sensorID + DIRECTORY_SUFFIX);
+        if (store != null) {
+            synchronized (store) {
+                for (Segment segment : store.segments)
+                    segment.unmap();
+                store.segments.clear();
+                store.mapped.clear();
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.delete())
+                    Log.w("GarmentOS", "SegmentStore - can not delete segment " + f);
+            }
+        }
+        if (directory.exists() && !directory.delete())
+            Log.w("GarmentOS", "SegmentStore - can not delete segment directory " + directory);
+    }
+
+    /**
+     * Compute the size in bytes of a segment
+     *
+     * @param dimension the data dimension
+     * @param capacity  the number of records in the segment
+     * @return the size of the segment file
+     */
+    private static long segmentSize(int dimension, int capacity) {
+        return HEADER_SIZE + (long) capacity * (8 + 4 * dimension);
+    }
+
+    /**
+     * Read the header, the first and the last time stamp of the given segment
+     * without mapping it
+     */
+    private static void readHeader(Segment segment) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segment.file, "r");
+        try {
+            if (raf.readInt() != SEGMENT_MAGIC)
+                throw new IOException("Not a segment file");
+            segment.dimension = raf.readInt();
+            segment.capacity = raf.readInt();
+            segment.count = raf.readInt();
+            if (segment.count > 0) {
+                segment.firstTime = raf.readLong();
+                raf.seek(HEADER_SIZE + (segment.count - 1) * 8L);
+                segment.lastTime = raf.readLong();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Make sure the given segment is mapped into memory. The latest segment is
+     * always mapped writable and kept out of the mapped read only segments,
+     * since it is appended to.
+     */
+    private void ensureMapped(Segment segment) throws IOException {
+        if (segment == tail()) {
+            ensureWritable(segment);
+            return;
+        }
+        if (segment.isMapped()) {
+            if (segment != tail())
+                mapped.get(segment.index);
+            return;
+        }
+        segment.map(false);
+        mapped.put(segment.index, segment);
+    }
+
+    /**
+     * Make sure the given segment is mapped writable, a read only mapping is
+     * replaced
+     */
+    private void ensureWritable(Segment segment) throws IOException {
+        if (segment.isMapped() && segment.writable)
+            return;
+        if (segment.isMapped()) {
+            mapped.remove(segment.index);
+            segment.unmap();
+        }
+        segment.map(true);
+    }
+
+    /**
+     * @return the latest segment or null if there is none
+     */
+    private Segment tail() {
+        return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Create and map a new empty segment
+     */
+    private Segment roll(int dimension) throws IOException {
+        Segment last = tail();
+        if (last != null && last.isMapped()) {
+            if (last.writable)
+                last.buffer.force();
+            last.unmap();
+        }
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Can not create segment directory");
+
+        int index = last == null ? 0 : last.index + 1;
+        Segment segment = new Segment(new File(directory, String.format("%08d", index)), index);
+        segment.dimension = dimension;
+        segment.capacity = Properties.segmentCapacity;
+        segment.map(true);
+        segment.buffer.putInt(0, SEGMENT_MAGIC);
+        segment.buffer.putInt(4, dimension);
+        segment.buffer.putInt(8, segment.capacity);
+        segment.buffer.putInt(COUNT_OFFSET, 0);
+        segments.add(segment);
+        trimToSize(Properties.segmentStoreMaxBytes);
+        return segment;
+    }
+
+    /**
+     * @return the size of all segments in bytes
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for (Segment segment : segments)
+            size += segmentSize(segment.dimension, segment.capacity);
+        return size;
+    }
+
+    /**
+     * Delete the oldest segments until the store is not larger than the given
+     * number of bytes. The latest segment is always kept since it is still
+     * being written.
+     *
+     * @param maxBytes the maximum size of the store
+     * @return the number of bytes freed
+     */
+    public synchronized long trimToSize(long maxBytes) {
+        long freed = 0;
+        long size = getSize();
+        while (segments.size() > 1 && size > maxBytes) {
+            Segment segment = segments.get(0);
+            size -= segmentSize(segment.dimension, segment.capacity);
+            freed += delete(segment);
+        }
+        return freed;
+    }
+
+    /**
+     * Remove the oldest segment and delete its file
+     *
+     * @return the number of bytes freed
+     */
+    private long delete(Segment segment) {
+        segments.remove(segment);
+        segment.unmap();
+        mapped.remove(segment.index);
+        long size = segment.file.length();
+        if (segment.file.delete())
+            return size;
+        Log.w("GarmentOS", "SegmentStore - can not delete segment " + segment.file);
+        return 0;
+    }
+
+    /**
+     * Get the time stamp of the oldest record in the store
+     *
+     * @return the oldest time stamp or {@link Long#MAX_VALUE} if the store is empty
+     */
+    public synchronized long getFirstTime() {
+        return segments.isEmpty() ? Long.MAX_VALUE : segments.get(0).firstTime;
+    }
+
+    /**
+     * Get the time stamp of the latest record in the store
+     *
+     * @return the latest time stamp or {@link Long#MIN_VALUE} if the store is empty
+     */
+    public synchronized long getLastTime() {
+        return segments.isEmpty() ? Long.MIN_VALUE : tail().lastTime;
+    }
+
+    /**
+     * Append the given sensor data to the store. Data that is not younger than
+     * the latest record in the store is skipped.
+     *
+     * @param sensorData the data to append
+     */
+    public void append(List<SensorData> sensorData) {
+        int n = sensorData.size();
+        if (n == 0)
+            return;
+        int dimension = sensorData.get(0).getData().length;
+        long[] times = new long[n];
+        float[] values = new float[n * dimension];
+        for (int i = 0; i != n; ++i) {
+            SensorData sd = sensorData.get(i);
+            times[i] = sd.getLongUnixDate();
+            System.arraycopy(sd.getData(), 0, values, i * dimension, dimension);
+        }
+        append(times, values, dimension, 0, n);
+    }
+
+    /**
+     * Append records to the store. The values are expected in row order, so
+     * the values of record i are stored at values[i * dimension + d]. Records
+     * not younger than the latest record in the store are skipped.
+     *
+     * @param times     the time stamps
+     * @param values    the values in row order
+     * @param dimension the dimension of the data
+     * @param offset    the first record to append
+     * @param length    the number of records to append
+     */
+    public synchronized void append(long[] times, float[] values, int dimension, int offset, int length) {
+        long latest = getLastTime();
+        int end = offset + length;
+
+        // skip everything that has already been written
+        while (offset < end && times[offset] <= latest)
+            ++offset;
+        if (offset == end)
+            return;
+
+        try {
+            float[] column = new float[Math.min(end - offset, Properties.segmentCapacity)];
+            while (offset < end) {
+                Segment segment = tail();
+                if (segment == null || segment.count == segment.capacity || segment.dimension != dimension)
+                    segment = roll(dimension);
+                else
+                    ensureWritable(segment);
+
+                int n = Math.min(end - offset, segment.capacity - segment.count);
+
+                // bulk copy the time stamps
+                segment.times.position(segment.count);
+                segment.times.put(times, offset, n);
+
+                // split the rows into the columns and bulk copy them
+                for (int d = 0; d != dimension; ++d) {
+                    for (int i = 0; i != n; ++i)
+                        column[i] = values[(offset + i) * dimension + d];
+                    segment.columns[d].position(segment.count);
+                    segment.columns[d].put(column, 0, n);
+                }
+
+                // publish the new records by updating the count last
+                if (segment.count == 0)
+                    segment.firstTime = times[offset];
+                segment.count += n;
+                segment.lastTime = times[offset + n - 1];
+                segment.buffer.putInt(COUNT_OFFSET, segment.count);
+                offset += n;
+            }
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "SegmentStore - appending to sensor " + sensorID + " failed");
+        }
+    }
+
+    /**
+     * Get the dimension of the records currently written to the store. Only
+     * segments of this dimension are read by
+     * {@link #read(long, long, long[], float[], int, int)}.
+     *
+     * @return the dimension or 0 if the store is empty
+     */
+    public synchronized int getDimension() {
+        return segments.isEmpty() ? 0 : tail().dimension;
+    }
+
+    /**
+     * Count the records in the range [begin, end]
+     *
+     * @param begin the oldest time stamp
+     * @param end   the latest time stamp
+     * @return the number of records in the range
+     */
+    public synchronized int count(long begin, long end) {
+        int count = 0;
+        int dimension = getDimension();
+        try {
+            for (Segment segment : segments) {
+                if (segment.lastTime < begin || segment.dimension != dimension)
+                    continue;
+                if (segment.firstTime > end)
+                    break;
+                ensureMapped(segment);
+                count += Math.max(0, segment.upperBound(end) - segment.lowerBound(begin));
+            }
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "SegmentStore - reading sensor " + sensorID + " failed");
+        }
+        return count;
+    }
+
+    /**
+     * Read the records in the range [begin, end] into the given arrays. The
+     * values are stored in row order, so the values of record i are stored at
+     * values[i * dimension + d] with the dimension of {@link #getDimension()}.
+     * If the range holds more than max records only the oldest ones are read,
+     * the remaining ones can be read by continuing after the last time stamp.
+     *
+     * @param begin  the oldest time stamp to read
+     * @param end    the latest time stamp to read
+     * @param times  the array to write the time stamps to
+     * @param values the array to write the values to
+     * @param offset the first record in the arrays to write to
+     * @param max    the maximum number of records to read
+     * @return the number of records read
+     */
+    public synchronized int read(long begin, long end, long[] times, float[] values, int offset, int max) {
+        int read = 0;
+        int dimension = getDimension();
+        try {
+            for (Segment segment : segments) {
+                if (read == max)
+                    break;
+                if (segment.lastTime < begin || segment.dimension != dimension)
+                    continue;
+                if (segment.firstTime > end)
+                    break;
+
+                ensureMapped(segment);
+                int lo = segment.lowerBound(begin);
+                int n = Math.min(segment.upperBound(end) - lo, max - read);
+                if (n <= 0)
+                    continue;
+
+                // bulk copy the time column, then interleave the value columns
+                // into the rows of the caller
+                int row = offset + read;
+                segment.times.position(lo);
+                segment.times.get(times, row, n);
+                for (int d = 0; d != dimension; ++d) {
+                    FloatBuffer column = segment.columns[d];
+                    for (int i = 0; i != n; ++i)
+                        values[(row + i) * dimension + d] = column.get(lo + i);
+                }
+                read += n;
+            }
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "SegmentStore - reading sensor " + sensorID + " failed");
+        }
+        return read;
+    }
+
+    /**
+     * Delete all segments that only hold records older than the given time.
+     * The latest segment is always kept since it is still being written.
+     *
+     * @param time the oldest time stamp to keep
+     * @return the number of bytes freed
+     */
+    public synchronized long dropBefore(long time) {
+        long freed = 0;
+        while (segments.size() > 1 && segments.get(0).lastTime < time)
+            freed += delete(segments.get(0));
+        return freed;
+    }
+
+    /**
+     * Flush all changes of the writable segment to the storage
+     */
+    public synchronized void force() {
+        Segment segment = tail();
+        if (segment != null && segment.isMapped())
+            segment.buffer.force();
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.utils.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Background compaction of the sensor data files. In the interval given by
+ * {@link Properties#compactionInterval} every sensor file is checked against
+ * the {@link RetentionPolicy} of its sensor and all raw data that is not to
+ * be kept any more is dropped, together with the according segments of the
+ * {@link SegmentStore}. Buckets of the {@link RollupStore} are only dropped
+ * after the rollup retention time of the policy, so the aggregated history
+ * can outlive the raw data. The default policy keeps everything, so only
+ * sensors that have been given a policy by {@link #setPolicy(int, RetentionPolicy)}
+ * are compacted unless the defaults in {@link Properties} are changed.
+ * </p>
+ * <p>
+ * The byte limit of the policy covers the sensor file, the segments and the
+ * rollups. The segments and rollups are trimmed to at most half of it first,
+ * the sensor file may use the rest.
+ * </p>
+ * <p>
+ * The file is rewritten block by block into a temporary file while the
+ * {@link SensorDataSerializer} keeps appending to the original file. Only
+ * the blocks appended in the meantime are copied while holding the file lock
+ * of the serializer, and then the temporary file replaces the original one.
+ * Uncompressed files are converted to the compressed format on the way while
+ * {@link Properties#compressedSensorFiles} is set and are kept uncompressed
+ * otherwise.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class SensorDataCompactor {
+    static final String TEMPORARY_SUFFIX = ".compact";
+
+    //
+    // Retention policies assigned to the sensor ID, sensors without a policy
+    // use the default one
+    //
+    private static final Map<Integer, RetentionPolicy> policies = new HashMap<Integer, RetentionPolicy>();
+
+    //
+    // Compaction metrics
+    //
+    private static final AtomicLong reclaimedBytes = new AtomicLong(0);
+    private static final AtomicLong compactionRuns = new AtomicLong(0);
+    private static volatile long lastReclaimedBytes = 0;
+
+    protected static final Thread runner = new Thread("GarmentOS-Compactor") {
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(Properties.compactionInterval);
+                } catch (InterruptedException ie) {
+                }
+                compactAll();
+            }
+        }
+    };
+
+    static {
+        runner.setDaemon(true);
+        runner.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    private SensorDataCompactor() {
+    }
+
+    /**
+     * Start the background compaction if it is not running yet
+     */
+    public static synchronized void start() {
+        if (!runner.isAlive())
+            runner.start();
+    }
+
+    /**
+     * Set the retention policy of the given sensor
+     *
+     * @param sensorID the sensor id
+     * @param policy   the policy, null to use the default policy
+     */
+    public static void setPolicy(int sensorID, RetentionPolicy policy) {
+        synchronized (policies) {
+            if (policy == null)
+                policies.remove(sensorID);
+            else
+                policies.put(sensorID, policy);
+        }
+    }
+
+    /**
+     * Get the retention policy of the given sensor
+     *
+     * @param sensorID the sensor id
+     * @return the policy of the sensor or the default policy if none has been set
+     */
+    public static RetentionPolicy getPolicy(int sensorID) {
+        synchronized (policies) {
+            RetentionPolicy policy = policies.get(sensorID);
+            return policy != null ? policy : RetentionPolicy.getDefault();
+        }
+    }
+
+    /**
+     * Compact the files of all sensors. This waits until a running archiver
+     * process has finished and keeps it from starting until the compaction is
+     * done.
+     *
+     * @return the number of bytes reclaimed
+     */
+    public static synchronized long compactAll() {
+        //
+        // Wait until the archiver process has terminated and then
+        // tell the files are being used
+        //
+        Properties.FILE_STATUS_FIELDS_LOCK.lock();
+        while (Properties.FILE_ARCHIVING.get()) {
+            Utils.sleepUninterrupted(200);
+        }
+        Properties.FILES_IN_USE.incrementAndGet();
+        Properties.FILE_STATUS_FIELDS_LOCK.unlock();
+
+        long reclaimed = 0;
+        try {
+            File[] files = Properties.storageDirectory.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    int id;
+                    try {
+                        id = Integer.parseInt(f.getName());
+                    } catch (NumberFormatException nfe) {
+                        continue;
+                    }
+                    if (f.isFile())
+                        reclaimed += compact(id, f);
+                }
+            }
+        } finally {
+            Properties.FILES_IN_USE.decrementAndGet();
+        }
+
+        lastReclaimedBytes = reclaimed;
+        reclaimedBytes.addAndGet(reclaimed);
+        compactionRuns.incrementAndGet();
+        if (reclaimed > 0)
+            Log.i("GarmentOS", "SensorDataCompactor - reclaimed " + reclaimed + " bytes");
+        return reclaimed;
+    }
+
+    /**
+     * Compact the file of the given sensor according to its policy
+     *
+     * @param id   the sensor id
+     * @param file the sensor file
+     * @return the number of bytes reclaimed
+     */
+    private static long compact(int id, File file) {
+        RetentionPolicy policy = getPolicy(id);
+        if (policy.isUnlimited())
+            return 0;
+
+        long now = System.currentTimeMillis();
+        long cutoff = policy.getRawRetention() > 0 ? now - policy.getRawRetention() : Long.MIN_VALUE;
+        long rollupCutoff = policy.getRollupRetention() > 0 ? now - policy.getRollupRetention() : Long.MIN_VALUE;
+
+        //
+        // Trim the segments and rollups first, the sensor file gets the part
+        // of the byte limit they do not use. The rollups are only trimmed by
+        // their own retention and the byte limit, never by the raw cutoff.
+        //
+        SegmentStore segments = SegmentStore.getStore(id);
+        RollupStore rollups = RollupStore.getStore(id);
+        long reclaimed = segments.dropBefore(cutoff) + rollups.dropBefore(rollupCutoff);
+        long maxBytes = policy.getMaxBytes();
+        if (maxBytes > 0) {
+            reclaimed += rollups.trimToSize(maxBytes / 2);
+            reclaimed += segments.trimToSize(Math.max(0, maxBytes / 2 - rollups.getSize()));
+            maxBytes = Math.max(maxBytes / 2, maxBytes - rollups.getSize() - segments.getSize());
+        }
+
+        long sizeBefore = file.length();
+        File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+        boolean compressed;
+        boolean convert;
+        try {
+            RandomAccessFile source = new RandomAccessFile(file, "r");
+            try {
+                compressed = CompressedSensorFile.isCompressed(source);
+                convert = !compressed && Properties.compressedSensorFiles;
+                if (compressed && maxBytes > 0)
+                    cutoff = Math.max(cutoff, CompressedSensorFile.cutoffForSize(source, maxBytes));
+                else if (!convert && maxBytes > 0)
+                    cutoff = Math.max(cutoff, cutoffForSize(source, maxBytes));
+
+                //
+                // Skip the file if there is nothing to be dropped
+                //
+                long first = compressed ? CompressedSensorFile.getFirstTime(source) : getFirstTime(source);
+                boolean oversized = maxBytes > 0 && sizeBefore > maxBytes;
+                if (first >= cutoff && (!convert || !oversized))
+                    return reclaimed;
+
+                RandomAccessFile target = new RandomAccessFile(temporary, "rw");
+                try {
+                    target.setLength(0);
+                    if (compressed || convert) {
+                        CompressedSensorFile.create(target, compressed
+                                ? CompressedSensorFile.getDimension(source) : getDimension(source));
+                    } else {
+                        target.writeLong(0);
+                        target.writeInt(getDimension(source));
+                    }
+
+                    //
+                    // Copy everything without blocking the serializer and afterwards
+                    // only the data that has been appended in the meantime while
+                    // holding the file lock
+                    //
+                    long position = copy(source, 0, target, cutoff, compressed, convert);
+                    synchronized (SensorDataSerializer.getFileLock(id)) {
+                        copy(source, position, target, cutoff, compressed, convert);
+                        if (compressed || convert) {
+                            CompressedSensorFile.setLatest(target, compressed
+                                    ? CompressedSensorFile.getLatest(source) : getLatest(source));
+                        } else {
+                            target.seek(0);
+                            target.writeLong(getLatest(source));
+                        }
+                        target.close();
+                        source.close();
+                        if (!temporary.renameTo(file))
+                            throw new IOException("Can not replace " + file);
+                        TimeIndex.drop(id);
+                    }
+                } finally {
+                    target.close();
+                }
+            } finally {
+                source.close();
+            }
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "SensorDataCompactor - compacting sensor " + id + " failed");
+            if (temporary.exists() && !temporary.delete())
+                Log.w("GarmentOS", "SensorDataCompactor - can not delete " + temporary);
+            return reclaimed;
+        }
+
+        reclaimed += sizeBefore - file.length() + segments.dropBefore(cutoff);
+
+        //
+        // The size limit of converted files is checked again in the
+        // compressed format
+        //
+        if (convert)
+            reclaimed += compact(id, file);
+        return reclaimed;
+    }
+
+    /**
+     * Copy the records not older than the cutoff starting at the given
+     * position of the source file to the target file, which is compressed
+     * unless an uncompressed source file is not to be converted
+     *
+     * @return the position following the last record copied
+     */
+    private static long copy(RandomAccessFile source, long position, RandomAccessFile target,
+                             long cutoff, boolean compressed, boolean convert) throws IOException {
+        if (compressed)
+            return CompressedSensorFile.copyBlocks(source, position, target, cutoff);
+        if (!convert)
+            return copyRecords(source, position, target, cutoff);
+
+        //
+        // Uncompressed files are read in chunks of records that are appended
+        // to the target as compressed blocks
+        //
+        int dimension = getDimension(source);
+        int chunkSize = (dimension + 2) * 4;
+        long end = 12 + (source.length() - 12) / chunkSize * chunkSize;
+        position = Math.max(position, 12);
+        int records = Math.max(1, Properties.compressedBlockRecords);
+        long[] times = new long[records];
+        float[] values = new float[records * dimension];
+        byte[] bytes = new byte[records * chunkSize];
+        while (position < end) {
+            int n = (int) Math.min(records, (end - position) / chunkSize);
+            source.seek(position);
+            source.readFully(bytes, 0, n * chunkSize);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, n * chunkSize);
+            int c = 0;
+            for (int i = 0; i != n; ++i) {
+                long time = buffer.getLong();
+                for (int d = 0; d != dimension; ++d)
+                    values[c * dimension + d] = buffer.getFloat();
+                if (time >= cutoff)
+                    times[c++] = time;
+            }
+            if (c > 0)
+                CompressedSensorFile.append(target, times, values, dimension, 0, c);
+            position += n * chunkSize;
+        }
+        return end;
+    }
+
+    /**
+     * Copy the records not older than the cutoff starting at the given
+     * position of the uncompressed source file to the end of the uncompressed
+     * target file. The records are ordered by time, so the first record to
+     * copy is searched and all following records are copied as they are.
+     *
+     * @return the position following the last record copied
+     */
+    private static long copyRecords(RandomAccessFile source, long position, RandomAccessFile target,
+                                    long cutoff) throws IOException {
+        int chunkSize = (getDimension(source) + 2) * 4;
+        long end = 12 + (source.length() - 12) / chunkSize * chunkSize;
+        long lo = (Math.max(position, 12) - 12) / chunkSize;
+        long hi = (end - 12) / chunkSize;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            source.seek(12 + mid * chunkSize);
+            if (source.readLong() < cutoff)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        FileChannel from = source.getChannel();
+        FileChannel to = target.getChannel();
+        long start = 12 + lo * chunkSize;
+        long targetPosition = to.size();
+        long transferred = 0;
+        while (transferred < end - start)
+            transferred += from.transferTo(start + transferred, end - start - transferred,
+                    to.position(targetPosition + transferred));
+        return end;
+    }
+
+    /**
+     * Compute the time stamp from which on the records of the uncompressed
+     * file have to be kept, so that the file does not exceed the given size
+     *
+     * @return the oldest time stamp to keep or {@link Long#MIN_VALUE} if the
+     * file does not exceed the given size
+     */
+    private static long cutoffForSize(RandomAccessFile raf, long maxBytes) throws IOException {
+        if (raf.length() <= maxBytes)
+            return Long.MIN_VALUE;
+        int chunkSize = (getDimension(raf) + 2) * 4;
+        long records = (raf.length() - 12) / chunkSize;
+        long keep = Math.max(0, (maxBytes - 12) / chunkSize);
+        if (keep >= records)
+            return Long.MIN_VALUE;
+        if (keep == 0)
+            return Long.MAX_VALUE;
+        raf.seek(12 + (records - keep) * chunkSize);
+        return raf.readLong();
+    }
+
+    /**
+     * @return the latest time stamp of the uncompressed file
+     */
+    private static long getLatest(RandomAccessFile raf) throws IOException {
+        raf.seek(0);
+        return raf.readLong();
+    }
+
+    /**
+     * @return the dimension of the uncompressed file
+     */
+    private static int getDimension(RandomAccessFile raf) throws IOException {
+        raf.seek(8);
+        return raf.readInt();
+    }
+
+    /**
+     * @return the time stamp of the oldest record of the uncompressed file or
+     * {@link Long#MAX_VALUE} if the file is empty
+     */
+    private static long getFirstTime(RandomAccessFile raf) throws IOException {
+        if (raf.length() < 12 + (getDimension(raf) + 2) * 4)
+            return Long.MAX_VALUE;
+        raf.seek(12);
+        return raf.readLong();
+    }
+
+    /**
+     * @return the number of bytes reclaimed by all compactions so far
+     */
+    public static long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * @return the number of bytes reclaimed by the last compaction
+     */
+    public static long getLastReclaimedBytes() {
+        return lastReclaimedBytes;
+    }
+
+    /**
+     * @return the number of compactions done so far
+     */
+    public static long getCompactionRuns() {
+        return compactionRuns.get();
+    }
+}
@@ -26,8 +26,6 @@ public class SensorDataDeSerializer implements Runnable {
 	private int sensorID = 0;
 	private java.util.List<SensorData> sensorData;
 	
-	private long threadID = 0;
-	
 	private java.io.File file = null;
 	private java.io.RandomAccessFile raf = null;
 	
@@ -41,10 +39,12 @@ public class SensorDataDeSerializer implements Runnable {
 	private static final int START_END_UNLIMITED = 0x2;
 	private static final int START_END_LIMIT = 0x3;
 	
-	private static final java.util.Set<Long> activeWorkers = new java.util.HashSet<Long>();
-	
-	
+	//
+	// Size of the buffer uncompressed records are read into
+	//
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
 	
+
 	/**
 	 * Create a new deserialized object that reads the given number of data sets
 	 * from the file and inserts them into the given sensor Data list. If the
@@ -139,45 +139,27 @@ public class SensorDataDeSerializer implements Runnable {
 	
 	/**
 	 * Start the deserialization process. This procedure will execute
-	 * asynchronously and return a worker ID. By calling
-	 * {@link SensorDataDeSerializer#jobFinsihed(long)} it can be checked
-	 * whether the job has terminated or is still running.
+	 * asynchronously on the {@link StorageExecutor}. The returned future can
+	 * be used to wait for the job to finish.
 	 * 
-	 * @return the worker id for the current job
+	 * @return the future of the current job
 	 */
-	public long work() {
-		Thread th = new Thread(this);
-		this.threadID = th.getId();		
-		th.start();
-		synchronized (activeWorkers) {
-			activeWorkers.add(this.threadID);
-		}
-		return this.threadID;
+	public java.util.concurrent.Future<?> work() {
+		return StorageExecutor.submit(this);
 	}
-	
+
 	/**
-	 * <p>
-	 * Check whether the current job is still running or has already finished
-	 * executing.
-	 * </p>
-	 * <p>
-	 * Note for any random value that is no worker id this function will return
-	 * true. So if this function returns false the job is still running,
-	 * otherwise there is no job with the given id or the job has already been
-	 * finished.
-	 * </p>
+	 * Start the deserialization process asynchronously and call the given
+	 * callback as soon as all data has been inserted into the list.
 	 * 
-	 * @param id
-	 *            the id of the worker
-	 * @return false if the job is still running, true otherwise
+	 * @param callback
+	 *            the callback to be called after the job has finished
+	 * @return the future of the current job
 	 */
-	public static boolean jobFinsihed(long id) {
-		synchronized (activeWorkers) {		
-			return !activeWorkers.contains(id);
-		}
+	public java.util.concurrent.Future<?> work(StorageExecutor.Callback callback) {
+		return StorageExecutor.submit(this, callback);
 	}
 
-
     @Override
     public void run() {
         try {
@@ -192,7 +174,6 @@ public class SensorDataDeSerializer implements Runnable {
             //
             file = new java.io.File(Properties.storageDirectory, String.valueOf(sensorID));
             if(!file.exists()) {
-                workerEnd(threadID);
                 return;
             }
 
@@ -201,13 +182,22 @@ public class SensorDataDeSerializer implements Runnable {
             //
             raf = new java.io.RandomAccessFile(file, "rw");
 
+            //
+            // Compressed files are read block wise by the compressed file reader
+            //
+            if(CompressedSensorFile.isCompressed(raf)) {
+                readCompressed();
+                raf.close();
+                return;
+            }
+
             //
             // Based on the file size compute the number of entries in the file
             //
             currentFileLength = (int)file.length();
             raf.seek(8);
             dataDimension = raf.readInt();
-            numberOfDataSetsInFile = (currentFileLength - 12) / ((dataDimension + 1) * 4);
+            numberOfDataSetsInFile = (currentFileLength - 12) / ((dataDimension + 2) * 4);
 
             //
             // If not data fields are available, skip
@@ -251,7 +241,7 @@ public class SensorDataDeSerializer implements Runnable {
                         int chunkSize = (dataDimension + 2) * 4;
 
                         // Get the position of the start time
-                        int timePos = searchNotOlder(this.raf, this.startTime, 12, currentFileLength, chunkSize);
+                        int timePos = (int) TimeIndex.load(sensorID).searchNotOlder(this.raf, this.startTime, currentFileLength, chunkSize);
 
                         // timePos as 0 indicates an error, since the first 8 byte shall never
                         // be searched by this procedure
@@ -278,13 +268,14 @@ public class SensorDataDeSerializer implements Runnable {
                         int chunkSize = (dataDimension + 2) * 4;
 
                         // Get the position of the start time and check for illegal return value
-                        int timePos = searchNotOlder(this.raf, this.startTime, 12, currentFileLength, chunkSize);
+                        TimeIndex index = TimeIndex.load(sensorID);
+                        int timePos = (int) index.searchNotOlder(this.raf, this.startTime, currentFileLength, chunkSize);
                         if (timePos == 0)
                             break;
 
                         // Now search for the latest data that is older than the end
                         // time and check for illegal return
-                        int upperTimePos = searchNotYounger(this.raf, this.endTime, 12, currentFileLength, chunkSize);
+                        int upperTimePos = (int) index.searchNotYounger(this.raf, this.endTime, currentFileLength, chunkSize);
                         if (upperTimePos == 0)
                             break;
 
@@ -307,15 +298,25 @@ public class SensorDataDeSerializer implements Runnable {
 
                 //
                 // Now that we have set the random access file pointer and the
-                // number of reading iterations we can read the data from the file
+                // number of reading iterations we can read the data from the file.
+                // The records are read in chunks instead of value by value
                 //
-                while (--numberOfReadingIterations >= 0) {
-                    float f[] = new float[dataDimension];
-                    long date = raf.readLong();
-                    for (int i = 0; i != dataDimension; ++i) {
-                        f[i] = raf.readFloat();
+                int chunkSize = (dataDimension + 2) * 4;
+                int chunkRecords = Math.max(1, Math.min(numberOfReadingIterations, READ_BUFFER_SIZE / chunkSize));
+                byte[] buffer = new byte[chunkRecords * chunkSize];
+                while (numberOfReadingIterations > 0) {
+                    int records = Math.min(numberOfReadingIterations, chunkRecords);
+                    raf.readFully(buffer, 0, records * chunkSize);
+                    java.nio.ByteBuffer bb = java.nio.ByteBuffer.wrap(buffer, 0, records * chunkSize);
+                    for (int r = 0; r != records; ++r) {
+                        long date = bb.getLong();
+                        float f[] = new float[dataDimension];
+                        for (int i = 0; i != dataDimension; ++i) {
+                            f[i] = bb.getFloat();
+                        }
+                        sensorData.add(new SensorData(f, date));
                     }
-                    sensorData.add(new SensorData(f, date));
+                    numberOfReadingIterations -= records;
                 }
 
             }
@@ -325,93 +326,26 @@ public class SensorDataDeSerializer implements Runnable {
             raf.close();
         } catch (java.io.IOException ioe) {
         }
-        workerEnd(threadID);
-
     }
 
-    /**
-     * The worker finished, remove from active queue
-     * @param threadID the thread that has finished
-     */
-    private void workerEnd(long threadID) {
-        //
-        // Remove the id to signal the job is finished
-        //
-        synchronized (activeWorkers) {
-            activeWorkers.remove(threadID);
-        }
-    }
-
-
-    /**
-     * Search in the given file for the latest time stamp that is not older than
-     * the given one
-     *
-     * @param raf
-     *            the file to search the time stamp in
-     * @param value
-     *            the time to search for
-     * @param offset
-     *            the offset from the beginning of the file
-     * @param fileSize
-     *            the total file size
-     * @param chunkSize
-     *            the chunk size
-     * @return the file pointer
-     * @throws java.io.IOException
-     */
-    private static int searchNotOlder(java.io.RandomAccessFile raf, long value, int offset, int fileSize, int chunkSize) throws java.io.IOException {
-        int currentPos = offset - chunkSize;
-        long currentValue = 0;
-        long max;
-
-        raf.seek(fileSize-chunkSize);
-        max = raf.readLong();
-
-        // There is no data not older than the given value
-        if(max < value)
-            return 0;
-
-        while(currentValue < value) {
-            raf.seek(currentPos += chunkSize);
-            currentValue = raf.readLong();
-        }
-
-        return currentPos;
-    }
 
     /**
-     * Search in the given file for the newest time stamp that is older than the
-     * given one
+     * Read the data from a compressed file according to the job flag
      *
-     * @param raf
-     *            the file to search the time stamp in
-     * @param value
-     *            the time to search for
-     * @param offset
-     *            the offset from the beginning of the file
-     * @param fileSize
-     *            the total file size
-     * @param chunkSize
-     *            the chunk size
-     * @return the file pointer
-     * @throws java.io.IOException
+     * @throws java.io.IOException if reading the file failed
      */
-    private static int searchNotYounger(java.io.RandomAccessFile raf, long value, int offset, int fileSize, int chunkSize) throws java.io.IOException {
-        int currentPos = fileSize - chunkSize;
-        long currentValue;
-
-        raf.seek(offset);
-
-        // There is no data not younger than the given one
-        if((currentValue = raf.readLong()) > value)
-            return 0;
-
-        while(currentValue > value) {
-            raf.seek(currentPos -= chunkSize);
-            currentValue = raf.readLong();
+    private void readCompressed() throws java.io.IOException {
+        switch (jobFlag) {
+            case LATEST_DATA:
+                CompressedSensorFile.readLatest(raf, TimeIndex.load(sensorID), noDatasetsToRead, sensorData);
+                break;
+            case START_NUMBER:
+                CompressedSensorFile.readRange(raf, TimeIndex.load(sensorID), startTime, Long.MAX_VALUE, noDatasetsToRead, sensorData);
+                break;
+            case START_END_LIMIT:
+            case START_END_UNLIMITED:
+                CompressedSensorFile.readRange(raf, TimeIndex.load(sensorID), startTime, endTime, noDatasetsToRead, sensorData);
+                break;
         }
-
-        return currentPos;
     }
 }
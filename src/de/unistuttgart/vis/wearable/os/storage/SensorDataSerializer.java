@@ -14,29 +14,127 @@ import de.unistuttgart.vis.wearable.os.utils.Utils;
 
 import java.io.File;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Serialize sensor Data and save them to a file. Note that no duplicates will
  * be saved. Duplicated data sets are recognized by their time stamp the data
  * has been recorded on. This values will be skipped.
+ * <p>
+ * Pending data of all sensors is collected and written as one batch. Each
+ * sensor file is written with a single call per batch and synchronized with
+ * the storage device according to {@link Properties#serializerFsyncPolicy}.
+ * </p>
  * 
  * @author roehrdor
  */
 public class SensorDataSerializer {
 
     //
-    // Map that assigns a File Data Tuple object to a sensor ID
+    // Map that assigns the data waiting to be written to a sensor ID
     //
-    protected static final Map<Integer, Vector<SensorData>> mSensorData = new HashMap<Integer, Vector<SensorData>>();
+    protected static final Map<Integer, PendingData> mSensorData = new HashMap<Integer, PendingData>();
     protected static final Vector<Integer> jobIDS = new Vector<Integer>();
 
-    protected static final Thread runner = new Thread() {
+    /**
+     * Data of a single sensor waiting to be written. The time stamps and values
+     * are stored in primitive arrays, the values in row order.
+     */
+    protected static class PendingData {
+        long[] times;
+        float[] values;
+        int dimension;
+        int count = 0;
+
+        //
+        // Older data of the same sensor with a different dimension, it is
+        // written before this data
+        //
+        PendingData previous;
+
+        PendingData(int dimension, int capacity) {
+            this.dimension = dimension;
+            this.times = new long[capacity];
+            this.values = new float[capacity * dimension];
+        }
+
+        /**
+         * Make sure the arrays can hold at least the given number of records
+         */
+        void ensureCapacity(int capacity) {
+            if (capacity <= times.length)
+                return;
+            capacity = Math.max(capacity, times.length * 2);
+            times = java.util.Arrays.copyOf(times, capacity);
+            values = java.util.Arrays.copyOf(values, capacity * dimension);
+        }
+
+        /**
+         * Append the given records
+         */
+        void append(long[] t, float[] v, int offset, int length) {
+            ensureCapacity(count + length);
+            System.arraycopy(t, offset, times, count, length);
+            System.arraycopy(v, offset * dimension, values, count * dimension, length * dimension);
+            count += length;
+        }
+    }
+
+    //
+    // Locks held while a sensor file is written, assigned to the sensor ID
+    //
+    private static final Map<Integer, Object> fileLocks = new HashMap<Integer, Object>();
+
+    //
+    // Synchronization policies for the written files
+    //
+    public static final int FSYNC_EVERY_BATCH = 0;
+    public static final int FSYNC_INTERVAL = 1;
+    public static final int FSYNC_NEVER = 2;
+
+    //
+    // Flush metrics
+    //
+    private static final AtomicLong flushCount = new AtomicLong(0);
+    private static final AtomicLong flushedBytes = new AtomicLong(0);
+    private static final AtomicLong flushNanos = new AtomicLong(0);
+    private static volatile long lastFlushNanos = 0;
+    private static volatile long lastFlushBytes = 0;
+
+    //
+    // Monitor the runner waits on for new jobs. The runner is never
+    // interrupted, since an interrupt closes the file channel it is writing
+    // to and the data of the batch would be lost.
+    //
+    private static final Object wakeup = new Object();
+
+    //
+    // Sensors whose files have been written but not yet synchronized by the
+    // FSYNC_INTERVAL policy and sensors whose data could not be written and
+    // is retried, both guarded by the wakeup monitor
+    //
+    private static final Set<Integer> unsynced = new LinkedHashSet<Integer>();
+    private static final Set<Integer> failed = new LinkedHashSet<Integer>();
+    private static long lastSync = 0;
+    private static long lastFailure = 0;
+
+    protected static final Thread runner = new Thread("GarmentOS-Serializer") {
         @Override
         public void run() {
+            //
+            // Cut off data that has not been written completely before the
+            // last shutdown, before any new data is appended
+            //
+            SensorFileRecovery.recoverAll();
+
             while (true) {
                 //
                 // Wait until the archiver process has terminated and then
@@ -49,115 +147,376 @@ public class SensorDataSerializer {
                 Properties.FILES_IN_USE.incrementAndGet();
                 Properties.FILE_STATUS_FIELDS_LOCK.unlock();
 
-                RandomAccessFile raf;
-                File file;
-
                 //
-                // As long as we have jobs to be done
+                // As long as we have jobs to be done, coalesce all pending jobs of
+                // all sensors to one batch and write it
                 //
                 while (!jobIDS.isEmpty()) {
-                    int id = jobIDS.remove(0);
-
-                    //
-                    // Synchronize the access to the object
-                    //
-                    synchronized (mSensorData.get(id)) {
-                        Vector<SensorData> data = mSensorData.get(id);
-                        if(data == null || data.size() == 0) {
-                            continue;
-                        }
+                    long batchStart = System.nanoTime();
+                    long batchBytes = 0;
+                    Set<Integer> ids = new LinkedHashSet<Integer>();
+                    synchronized (wakeup) {
+                        ids.addAll(jobIDS);
+                        jobIDS.clear();
+                    }
 
-                        try {
-                            long currentFileLength;
-                            long latestData = 0;
-                            long currentDate = 0;
-
-                            //
-                            // Create a new file object and test whether the file already
-                            // exists. If the file does not already exist we need to create this file
-                            //
-                            file = new java.io.File(Properties.storageDirectory, String.valueOf(id));
-                            if (!file.exists()) {
-                                //
-                                // So we need to create a new file but also to insert the latest data
-                                // date as well as the dimension of the data fields to this file
-                                //
-                                if (!file.createNewFile()) {
-                                    Log.e("GarmentOS", "File does not exist, but creating it tells us it does already exist?");
-                                }
-                                raf = new java.io.RandomAccessFile(file, "rw");
-                                raf.writeLong(0);
-                                raf.writeInt(data.get(0).getData().length);
-                            } else {
-                                raf = new java.io.RandomAccessFile(file, "rw");
-                            }
-
-
-                            //
-                            // Now we need to check whether any of our sensor data has already
-                            // been written to the file. Since we write the time stamp of the
-                            // latest inserted data to the beginning of the file this is quite
-                            // easy
-                            //
-                            raf.seek(0);
-                            currentFileLength = file.length();
-                            if (currentFileLength != 0L) {
-                                latestData = raf.readLong();
-                            }
-
-                            //
-                            // Seek to the end of the file to insert new data
-                            //
-                            raf.seek(currentFileLength);
-
-                            //
-                            // Iterate over the sensor Data set and write the data fields
-                            //
-                            for (SensorData sd : data) {
-                                // The data has already been inserted so we can skip it
-                                if ((currentDate = sd.getLongUnixDate()) < latestData)
-                                    continue;
-
-                                // Otherwise the data has not yet been inserted, so
-                                raf.writeLong(currentDate);
-                                for (float fsd : sd.getData()) {
-                                    raf.writeFloat(fsd);
-                                }
-
-                            }
-
-                            data.clear();
-
-                            //
-                            // Write the latest date to the beginning of the file
-                            //
-                            raf.seek(0);
-                            raf.writeLong(currentDate);
-
-                            //
-                            // Close the file
-                            //
-                            raf.close();
-                        } catch (java.io.IOException ioe) {
-                            Log.e("GarmentOS", "SensorDataSerializer - writing to file failed");
+                    boolean sync = Properties.serializerFsyncPolicy == FSYNC_EVERY_BATCH;
+                    for (int id : ids) {
+                        //
+                        // Take the pending data, new data for this sensor will be
+                        // collected in a new list in the meantime
+                        //
+                        PendingData data;
+                        synchronized (mSensorData) {
+                            data = mSensorData.remove(id);
                         }
+                        batchBytes += writeAll(id, data, sync);
                     }
+
+                    lastFlushNanos = System.nanoTime() - batchStart;
+                    lastFlushBytes = batchBytes;
+                    flushNanos.addAndGet(lastFlushNanos);
+                    flushedBytes.addAndGet(batchBytes);
+                    flushCount.incrementAndGet();
                 }
 
+                //
+                // Synchronize the written files once the interval has passed,
+                // even if no further data arrives
+                //
+                syncIfDue();
+
                 //
                 // Tell we finished processing this file, therefore
                 // decrement the count
                 //
                 Properties.FILES_IN_USE.decrementAndGet();
 
-                try {
-                    Thread.sleep(Long.MAX_VALUE);
-                } catch (InterruptedException ie) {
+                //
+                // Wait for new jobs, the next synchronization or the next
+                // retry of data that could not be written
+                //
+                synchronized (wakeup) {
+                    long now = System.currentTimeMillis();
+                    if (!failed.isEmpty() && now - lastFailure >= Properties.serializerRetryDelay) {
+                        jobIDS.addAll(failed);
+                        failed.clear();
+                    }
+                    if (jobIDS.isEmpty()) {
+                        long timeout = 0;
+                        if (!unsynced.isEmpty())
+                            timeout = Math.max(1, lastSync + Properties.serializerFsyncInterval - now);
+                        if (!failed.isEmpty()) {
+                            long retry = Math.max(1, lastFailure + Properties.serializerRetryDelay - now);
+                            timeout = timeout == 0 ? retry : Math.min(timeout, retry);
+                        }
+                        try {
+                            wakeup.wait(timeout);
+                        } catch (InterruptedException ie) {
+                        }
+                    }
                 }
             }
         }
     };
 
+    /**
+     * Write the pending data of the given sensor. Data that can not be
+     * written is kept and retried later, this is called by the runner only.
+     *
+     * @param id   the sensor id
+     * @param data the newest pending data of the sensor, may be null
+     * @param sync true if the file shall be synchronized with the storage device
+     * @return the number of bytes written
+     */
+    private static long writeAll(int id, PendingData data, boolean sync) {
+        //
+        // Write the older data of other dimensions first
+        //
+        List<PendingData> batches = new java.util.ArrayList<PendingData>();
+        for (PendingData p = data; p != null; p = p.previous)
+            batches.add(0, p);
+
+        long written = 0;
+        for (int i = 0; i != batches.size(); ++i) {
+            PendingData batch = batches.get(i);
+            if (batch.count == 0)
+                continue;
+            try {
+                written += write(id, batch, sync);
+            } catch (java.io.IOException ioe) {
+                Log.e("GarmentOS", "SensorDataSerializer - writing to file failed, retrying later: " + ioe);
+                batch.previous = null;
+                requeue(id, batches.get(batches.size() - 1));
+                return written;
+            }
+        }
+        if (!sync && Properties.serializerFsyncPolicy == FSYNC_INTERVAL && written > 0) {
+            synchronized (wakeup) {
+                unsynced.add(id);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Put the given data back in front of the data that has been added in the
+     * meantime and retry it after {@link Properties#serializerRetryDelay}
+     *
+     * @param id   the sensor id
+     * @param data the newest data to put back, older data is linked to it
+     */
+    private static void requeue(int id, PendingData data) {
+        synchronized (mSensorData) {
+            PendingData newer = mSensorData.get(id);
+            if (newer == null) {
+                mSensorData.put(id, data);
+            } else {
+                while (newer.previous != null)
+                    newer = newer.previous;
+                newer.previous = data;
+            }
+        }
+        synchronized (wakeup) {
+            failed.add(id);
+            lastFailure = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Synchronize the files written since the last synchronization with the
+     * storage device if the interval of the FSYNC_INTERVAL policy has passed
+     */
+    private static void syncIfDue() {
+        Integer[] ids;
+        synchronized (wakeup) {
+            if (unsynced.isEmpty() || System.currentTimeMillis() - lastSync < Properties.serializerFsyncInterval)
+                return;
+            ids = unsynced.toArray(new Integer[unsynced.size()]);
+            unsynced.clear();
+        }
+        for (int id : ids) {
+            synchronized (getFileLock(id)) {
+                File file = new File(Properties.storageDirectory, String.valueOf(id));
+                if (!file.exists())
+                    continue;
+                try {
+                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    try {
+                        raf.getFD().sync();
+                    } finally {
+                        raf.close();
+                    }
+                } catch (java.io.IOException ioe) {
+                    Log.e("GarmentOS", "SensorDataSerializer - synchronizing file failed: " + ioe);
+                }
+            }
+        }
+        synchronized (wakeup) {
+            lastSync = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Append the given data to the file of the given sensor. All records are
+     * encoded into a single buffer that is written with one call.
+     *
+     * @param id   the sensor id
+     * @param data the data to be written
+     * @param sync true if the file shall be synchronized with the storage device
+     * @return the number of bytes written
+     * @throws java.io.IOException if writing the file failed
+     */
+    private static long write(int id, PendingData data, boolean sync) throws java.io.IOException {
+        long latestData = 0;
+        long written = 0;
+        int dimension = data.dimension;
+        int chunkSize = (dimension + 2) * 4;
+
+        //
+        // Hold the file lock so the compactor does not replace the file while
+        // it is being written
+        //
+        synchronized (getFileLock(id)) {
+            //
+            // Create a new file object and test whether the file already
+            // exists. If the file does not already exist we need to create this file
+            // and insert the latest data date as well as the dimension of the data
+            // fields to this file
+            //
+            File file = new java.io.File(Properties.storageDirectory, String.valueOf(id));
+            boolean exists = file.exists();
+            RandomAccessFile raf = new java.io.RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                if (!exists || raf.length() < 12) {
+                    if (Properties.compressedSensorFiles) {
+                        raf.setLength(0);
+                        CompressedSensorFile.create(raf, dimension);
+                    } else {
+                        ByteBuffer header = ByteBuffer.allocate(12);
+                        header.putLong(0, 0);
+                        header.putInt(8, dimension);
+                        writeFully(channel, header, 0);
+                    }
+                }
+
+                //
+                // Data of another dimension can not be appended to the file,
+                // retrying would not help so the data is dropped
+                //
+                int fileDimension;
+                if (CompressedSensorFile.isCompressed(raf)) {
+                    fileDimension = CompressedSensorFile.getDimension(raf);
+                } else {
+                    raf.seek(8);
+                    fileDimension = raf.readInt();
+                }
+                if (fileDimension != dimension) {
+                    Log.e("GarmentOS", "SensorDataSerializer - dropping " + data.count + " records of dimension "
+                            + dimension + ", the file of sensor " + id + " has dimension " + fileDimension);
+                    return 0;
+                }
+
+                //
+                // Files that have been created compressed are continued compressed,
+                // all others in the uncompressed format
+                //
+                if (CompressedSensorFile.isCompressed(raf)) {
+                    written = CompressedSensorFile.append(raf, data.times, data.values, dimension, 0, data.count);
+                    TimeIndex.updateBlocks(id, raf);
+                } else {
+                    //
+                    // Now we need to check whether any of our sensor data has already
+                    // been written to the file. Since we write the time stamp of the
+                    // latest inserted data to the beginning of the file this is quite
+                    // easy
+                    //
+                    raf.seek(0);
+                    latestData = raf.readLong();
+
+                    //
+                    // Encode all records that have not yet been inserted into one buffer
+                    //
+                    ByteBuffer buffer = ByteBuffer.allocate(data.count * chunkSize);
+                    long currentDate = latestData;
+                    for (int i = 0; i != data.count; ++i) {
+                        // The data has already been inserted so we can skip it
+                        if (data.times[i] < latestData)
+                            continue;
+
+                        currentDate = data.times[i];
+                        buffer.putLong(currentDate);
+                        for (int d = 0; d != dimension; ++d) {
+                            buffer.putFloat(data.values[i * dimension + d]);
+                        }
+                    }
+                    buffer.flip();
+
+                    //
+                    // Append the records and write the latest date to the beginning of
+                    // the file
+                    //
+                    long fileLength = channel.size();
+                    written = buffer.remaining();
+                    writeFully(channel, buffer, fileLength);
+                    ByteBuffer latest = ByteBuffer.allocate(8);
+                    latest.putLong(0, currentDate);
+                    writeFully(channel, latest, 0);
+
+                    //
+                    // Index the newly written records
+                    //
+                    TimeIndex.update(id, raf, fileLength + written, chunkSize);
+                }
+
+                if (sync) {
+                    channel.force(false);
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        //
+        // Append the data to the segment store as well so it can
+        // be queried by time without reading the flat file and aggregate it
+        // into the rollup tiers for long range queries. The data is already
+        // in the sensor file, so a failure here must not retry the batch.
+        //
+        try {
+            SegmentStore.getStore(id).append(data.times, data.values, dimension, 0, data.count);
+            RollupStore.getStore(id).append(data.times, data.values, dimension, 0, data.count);
+        } catch (RuntimeException re) {
+            Log.e("GarmentOS", "SensorDataSerializer - updating the stores of sensor " + id + " failed: " + re);
+        }
+        return written;
+    }
+
+    /**
+     * Get the lock that is held while the file of the given sensor is written.
+     * Whoever replaces the file has to hold this lock as well.
+     *
+     * @param id the sensor id
+     * @return the lock object of the sensor file
+     */
+    static Object getFileLock(int id) {
+        synchronized (fileLocks) {
+            Object lock = fileLocks.get(id);
+            if (lock == null) {
+                lock = new Object();
+                fileLocks.put(id, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Write the whole buffer to the channel at the given position
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws java.io.IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * @return the number of batches written so far
+     */
+    public static long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * @return the time in milliseconds it took to write the last batch
+     */
+    public static double getLastFlushLatency() {
+        return lastFlushNanos / 1e6;
+    }
+
+    /**
+     * @return the average time in milliseconds it took to write a batch
+     */
+    public static double getAverageFlushLatency() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : flushNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * @return the number of bytes written by the last batch
+     */
+    public static long getLastFlushBytes() {
+        return lastFlushBytes;
+    }
+
+    /**
+     * @return the average number of bytes written per batch
+     */
+    public static long getAverageFlushBytes() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : flushedBytes.get() / count;
+    }
+
     static {
         runner.start();
     }
@@ -171,17 +530,56 @@ public class SensorDataSerializer {
 	 * @param sensorData
 	 *            the sensor data set to be serialized
 	 */
-	@SuppressWarnings("unchecked")
 	public SensorDataSerializer(int sensorID, List<SensorData> sensorData) {
+        if(sensorData.isEmpty())
+            return;
+        int n = sensorData.size();
+        int dimension = sensorData.get(0).getData().length;
+        long[] times = new long[n];
+        float[] values = new float[n * dimension];
+        for(int i = 0; i != n; ++i) {
+            SensorData sd = sensorData.get(i);
+            times[i] = sd.getLongUnixDate();
+            System.arraycopy(sd.getData(), 0, values, i * dimension, dimension);
+        }
+        enqueue(sensorID, times, values, dimension, 0, n);
+	}
+
+    /**
+     * Create a new serializer for data stored in primitive arrays. The values
+     * are expected in row order, so the values of record i are stored at
+     * values[i * dimension + d].
+     *
+     * @param sensorID  the id of the sensor where from this data sets are coming
+     * @param times     the time stamps
+     * @param values    the values in row order
+     * @param dimension the dimension of the data
+     * @param offset    the first record to be serialized
+     * @param length    the number of records to be serialized
+     */
+    public SensorDataSerializer(int sensorID, long[] times, float[] values, int dimension, int offset, int length) {
+        if(length > 0)
+            enqueue(sensorID, times, values, dimension, offset, length);
+    }
+
+    /**
+     * Add the given records to the pending data of the sensor and wake up the
+     * runner. Pending data of another dimension is kept and written first.
+     */
+    private static void enqueue(int sensorID, long[] times, float[] values, int dimension, int offset, int length) {
         synchronized (mSensorData) {
-            if(!mSensorData.containsKey(sensorID))
-                mSensorData.put(sensorID, new Vector<SensorData>(sensorData));
-            else
-                mSensorData.get(sensorID).addAll(sensorData);
+            PendingData pending = mSensorData.get(sensorID);
+            if(pending == null || pending.dimension != dimension) {
+                PendingData next = new PendingData(dimension, length);
+                next.previous = pending;
+                pending = next;
+                mSensorData.put(sensorID, pending);
+            }
+            pending.append(times, values, offset, length);
         }
-        synchronized (runner) {
+        synchronized (wakeup) {
             jobIDS.add(sensorID);
-            runner.interrupt();
+            wakeup.notify();
         }
-	}
+    }
 }
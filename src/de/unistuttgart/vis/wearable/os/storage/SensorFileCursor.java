@@ -0,0 +1,162 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Pull based reader for the records of a time range of a sensor data file.
+ * Instead of creating a {@link de.unistuttgart.vis.wearable.os.sensors.SensorData}
+ * object per record like the {@link SensorDataDeSerializer}, the records are
+ * copied in batches into primitive arrays provided by the caller. Only a
+ * single block of the file is held in memory at a time, so the memory needed
+ * does not depend on the size of the range.
+ * </p>
+ * <p>
+ * The cursor works on compressed as well as on uncompressed files and has to
+ * be closed after use.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class SensorFileCursor implements java.io.Closeable {
+    private final RandomAccessFile raf;
+    private final int dimension;
+
+    //
+    // Reader for compressed files, null for uncompressed files
+    //
+    private final CompressedSensorFile.RangeReader reader;
+
+    //
+    // State for uncompressed files
+    //
+    private final long begin;
+    private final long end;
+    private final int chunkSize;
+    private long position;
+    private long endPosition;
+    private byte[] buffer = new byte[0];
+
+    private SensorFileCursor(RandomAccessFile raf, TimeIndex index, long begin, long end) throws IOException {
+        this.raf = raf;
+        this.begin = begin;
+        this.end = end;
+        if (CompressedSensorFile.isCompressed(raf)) {
+            this.reader = new CompressedSensorFile.RangeReader(raf, index, begin, end);
+            this.dimension = reader.getDimension();
+            this.chunkSize = 0;
+        } else {
+            this.reader = null;
+            raf.seek(8);
+            this.dimension = raf.readInt();
+            this.chunkSize = (dimension + 2) * 4;
+            long length = raf.length();
+            this.endPosition = 12 + (length - 12) / chunkSize * chunkSize;
+            this.position = 12;
+            if (index != null && endPosition > 12) {
+                long found = index.searchNotOlder(raf, begin, endPosition, chunkSize);
+                this.position = found == 0 ? endPosition : found;
+            }
+        }
+    }
+
+    /**
+     * Open a cursor for the records of the given sensor in the range [begin, end]
+     *
+     * @param sensorID the sensor id
+     * @param begin    the oldest time stamp to read
+     * @param end      the latest time stamp to read
+     * @return the cursor or null if there is no data stored for the sensor
+     * @throws IOException if opening the file failed
+     */
+    public static SensorFileCursor open(int sensorID, long begin, long end) throws IOException {
+        File file = new File(Properties.storageDirectory, String.valueOf(sensorID));
+        return open(file, TimeIndex.load(sensorID), begin, end);
+    }
+
+    /**
+     * Open a cursor for all records of the given sensor data file
+     *
+     * @param file the sensor data file
+     * @return the cursor or null if the file does not exist
+     * @throws IOException if opening the file failed
+     */
+    public static SensorFileCursor open(File file) throws IOException {
+        return open(file, null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private static SensorFileCursor open(File file, TimeIndex index, long begin, long end) throws IOException {
+        if (!file.exists() || file.length() < 12)
+            return null;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new SensorFileCursor(raf, index, begin, end);
+        } catch (IOException ioe) {
+            raf.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * @return the dimension of the records
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Read the next records of the range. The values are stored in row order,
+     * so the values of record i are stored at values[i * dimension + d].
+     *
+     * @param times  array to store the time stamps in
+     * @param values array to store the values in
+     * @param max    the maximum number of records to read, the arrays need to
+     *               be large enough to hold them
+     * @return the number of records read, 0 if the range has been read completely
+     * @throws IOException if reading the file failed
+     */
+    public int read(long[] times, float[] values, int max) throws IOException {
+        if (reader != null)
+            return reader.read(times, values, max);
+
+        int n = 0;
+        while (n < max && position < endPosition) {
+            int records = (int) Math.min(max - n, (endPosition - position) / chunkSize);
+            if (buffer.length < records * chunkSize)
+                buffer = new byte[records * chunkSize];
+            raf.seek(position);
+            raf.readFully(buffer, 0, records * chunkSize);
+            position += (long) records * chunkSize;
+            ByteBuffer bb = ByteBuffer.wrap(buffer, 0, records * chunkSize);
+            for (int i = 0; i != records; ++i) {
+                long time = bb.getLong();
+                if (time > end) {
+                    position = endPosition;
+                    return n;
+                }
+                for (int d = 0; d != dimension; ++d)
+                    values[n * dimension + d] = bb.getFloat();
+                if (time >= begin)
+                    times[n++] = time;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
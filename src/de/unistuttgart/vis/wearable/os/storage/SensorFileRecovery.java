@@ -0,0 +1,123 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Recovery of the sensor data files after a crash. A crash while the
+ * {@link SensorDataSerializer} appends to a file leaves a partially written
+ * record or block at the end of the file, and data appended afterwards would
+ * not be readable any more. Therefore the broken tail of every sensor file is
+ * cut off before the first data is written, and the latest time stamp in the
+ * header is set to the one of the last complete record.
+ *
+ * @author roehrdor
+ */
+public class SensorFileRecovery {
+
+    private SensorFileRecovery() {
+    }
+
+    /**
+     * Recover all sensor files in the storage directory and delete temporary
+     * files left by an interrupted compaction or merge. This waits for a
+     * running compaction, since its temporary file would be deleted otherwise.
+     *
+     * @return the number of bytes cut off
+     */
+    public static long recoverAll() {
+        synchronized (SensorDataCompactor.class) {
+            return recoverFiles();
+        }
+    }
+
+    private static long recoverFiles() {
+        long truncated = 0;
+        File[] files = Properties.storageDirectory.listFiles();
+        if (files == null)
+            return 0;
+        for (File f : files) {
+            if (!f.isFile())
+                continue;
+            String name = f.getName();
+            if (name.endsWith(SensorDataCompactor.TEMPORARY_SUFFIX) || name.endsWith(".tmp")) {
+                if (!f.delete())
+                    Log.w("GarmentOS", "SensorFileRecovery - can not delete " + f);
+                continue;
+            }
+            int id;
+            try {
+                id = Integer.parseInt(name);
+            } catch (NumberFormatException nfe) {
+                continue;
+            }
+            try {
+                truncated += recover(id, f);
+            } catch (IOException ioe) {
+                Log.e("GarmentOS", "SensorFileRecovery - recovering sensor " + id + " failed");
+            }
+        }
+        if (truncated > 0)
+            Log.w("GarmentOS", "SensorFileRecovery - cut off " + truncated + " bytes of incomplete data");
+        return truncated;
+    }
+
+    /**
+     * Recover the file of the given sensor
+     *
+     * @param id   the sensor id
+     * @param file the sensor file
+     * @return the number of bytes cut off
+     * @throws IOException if reading or writing the file failed
+     */
+    private static long recover(int id, File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (CompressedSensorFile.isCompressed(raf)) {
+                long cut = CompressedSensorFile.recover(raf);
+                if (cut > 0)
+                    TimeIndex.drop(id);
+                return cut;
+            }
+
+            //
+            // Uncompressed files consist of records of fixed size, so the
+            // file is cut off after the last complete record
+            //
+            long length = raf.length();
+            if (length < 12)
+                return 0;
+            raf.seek(8);
+            int chunkSize = (raf.readInt() + 2) * 4;
+            long valid = 12 + (length - 12) / chunkSize * chunkSize;
+            if (valid != length) {
+                raf.setLength(valid);
+                TimeIndex.drop(id);
+            }
+            long latest = 0;
+            if (valid > 12) {
+                raf.seek(valid - chunkSize);
+                latest = raf.readLong();
+            }
+            raf.seek(0);
+            if (raf.readLong() != latest) {
+                raf.seek(0);
+                raf.writeLong(latest);
+            }
+            return length - valid;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+
+import de.unistuttgart.vis.wearable.os.privacy.UserApp;
+import de.unistuttgart.vis.wearable.os.sensors.Sensor;
+
+/**
+ * <p>
+ * Binary format of the sensor and the application settings. A settings file
+ * is laid out as follows
+ * </p>
+ * <pre>
+ * [int magic][int version][int count]
+ * count times: [int length][length bytes record]
+ * </pre>
+ * <p>
+ * Every record is written by the {@code writeSettings} function of the
+ * according class and read back by its {@code readSettings} function, which
+ * gets the version of the file passed. Since every record is prefixed with
+ * its length, fields appended by a later version are skipped by older
+ * readers and fields missing in older files keep their default value.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class SettingsCodec {
+    //
+    // "GOSS", written at the begin of every settings file
+    //
+    public static final int MAGIC = 0x474F5353;
+    public static final int VERSION = 1;
+
+    private SettingsCodec() {
+    }
+
+    /**
+     * Check whether the given data starts with the header of this format
+     *
+     * @param data the data
+     * @return true if the data has been written by this codec
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data.length >= 4 && ((data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16 | (data[2] & 0xFF) << 8 | (data[3] & 0xFF)) == MAGIC;
+    }
+
+    /**
+     * Encode the given sensors
+     *
+     * @param sensors the sensors
+     * @return the encoded data
+     * @throws IOException if a sensor can not be encoded
+     */
+    public static byte[] encodeSensors(Collection<Sensor> sensors) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = beginFile(bytes, sensors.size());
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        for (Sensor sensor : sensors) {
+            record.reset();
+            sensor.writeSettings(new DataOutputStream(record));
+            writeRecord(out, record);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode the sensors, the order of the sensors is kept
+     *
+     * @param data the encoded data
+     * @return the sensors mapped by their id
+     * @throws IOException if the data is not valid
+     */
+    public static LinkedHashMap<Integer, Sensor> decodeSensors(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = readHeader(in);
+        int count = in.readInt();
+        LinkedHashMap<Integer, Sensor> ret = new LinkedHashMap<Integer, Sensor>();
+        while (--count >= 0) {
+            Sensor sensor = new Sensor();
+            sensor.readSettings(readRecord(in), version);
+            ret.put(sensor.getSensorID(), sensor);
+        }
+        return ret;
+    }
+
+    /**
+     * Encode the given applications
+     *
+     * @param apps the applications
+     * @return the encoded data
+     * @throws IOException if an application can not be encoded
+     */
+    public static byte[] encodeApps(Collection<UserApp> apps) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = beginFile(bytes, apps.size());
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        for (UserApp app : apps) {
+            record.reset();
+            app.writeSettings(new DataOutputStream(record));
+            writeRecord(out, record);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode a single application record, records of unchanged applications
+     * can be kept and written again by {@link #encodeAppRecords(Collection)}
+     *
+     * @param app the application
+     * @return the encoded record
+     * @throws IOException if the application can not be encoded
+     */
+    public static byte[] encodeApp(UserApp app) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        app.writeSettings(new DataOutputStream(record));
+        return record.toByteArray();
+    }
+
+    /**
+     * Encode an application settings file from records encoded by
+     * {@link #encodeApp(UserApp)}
+     *
+     * @param records the encoded records
+     * @return the encoded data
+     * @throws IOException if the records can not be written
+     */
+    public static byte[] encodeAppRecords(Collection<byte[]> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = beginFile(bytes, records.size());
+        for (byte[] record : records) {
+            out.writeInt(record.length);
+            out.write(record);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode the applications
+     *
+     * @param data the encoded data
+     * @return the applications mapped by their name
+     * @throws IOException if the data is not valid
+     */
+    public static LinkedHashMap<String, UserApp> decodeApps(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = readHeader(in);
+        int count = in.readInt();
+        LinkedHashMap<String, UserApp> ret = new LinkedHashMap<String, UserApp>();
+        while (--count >= 0) {
+            UserApp app = UserApp.readSettings(readRecord(in), version);
+            ret.put(app.getName(), app);
+        }
+        return ret;
+    }
+
+    /**
+     * Write an enumeration value by its name, so reordering the enumeration
+     * does not change the meaning of saved values
+     *
+     * @param out   the output to write to
+     * @param value the value, may be null
+     * @throws IOException if the value can not be written
+     */
+    public static void writeEnum(DataOutput out, Enum<?> value) throws IOException {
+        out.writeUTF(value == null ? "" : value.name());
+    }
+
+    /**
+     * Read an enumeration value written by {@link #writeEnum(DataOutput, Enum)}
+     *
+     * @param in    the input to read from
+     * @param clazz the class of the enumeration
+     * @return the value or null if no value has been written or the value is
+     * no longer known
+     * @throws IOException if the value can not be read
+     */
+    public static <E extends Enum<E>> E readEnum(DataInput in, Class<E> clazz) throws IOException {
+        String name = in.readUTF();
+        if (name.length() == 0)
+            return null;
+        try {
+            return Enum.valueOf(clazz, name);
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    private static DataOutputStream beginFile(ByteArrayOutputStream bytes, int count) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+        return out;
+    }
+
+    private static void writeRecord(DataOutputStream out, ByteArrayOutputStream record) throws IOException {
+        out.writeInt(record.size());
+        record.writeTo(out);
+    }
+
+    private static int readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a settings file");
+        int version = in.readInt();
+        if (version < 1)
+            throw new IOException("Unknown settings version " + version);
+        return version;
+    }
+
+    private static DataInput readRecord(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            throw new IOException("Invalid record length " + length);
+        byte[] record = new byte[length];
+        in.readFully(record);
+        return new DataInputStream(new ByteArrayInputStream(record));
+    }
+}
@@ -9,11 +9,13 @@ package de.unistuttgart.vis.wearable.os.storage;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.util.Log;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.unistuttgart.vis.wearable.os.privacy.UserApp;
 import de.unistuttgart.vis.wearable.os.sensors.Sensor;
@@ -22,6 +24,8 @@ import de.unistuttgart.vis.wearable.os.service.GarmentOSService;
 
 /**
  * This class is used store the sensor properties and the privacy settings.
+ * The settings are written in the format of the {@link SettingsCodec}, files
+ * written with the former java serialization are still read and converted.
  * 
  * @author roehrdor
  */
@@ -30,7 +34,8 @@ public class SettingsStorage {
     public static final String FILE_NAME_APPS = "storageA";
 
     //
-    // Auto update Thread save changes automatically every few seconds
+    // Auto update Thread save changes automatically every few seconds, the
+    // sensors are only written if they have changed
     //
     private static Runnable updater = new Runnable() {
         @Override
@@ -49,87 +54,205 @@ public class SettingsStorage {
         new Thread(updater).start();
     }
 
+    //
+    // Number of bytes written to the settings files
+    //
+    private static final AtomicLong bytesWritten = new AtomicLong(0);
+
+    //
+    // Serialises the writers, the sensors are saved by the auto update thread
+    // and the applications by the privacy writer, both may also be flushed
+    // when the service is shut down
+    //
+    private static final Object writeLock = new Object();
+
     /**
-     * Read the sensor settings. This function will return null if they have not
-     * yet been saved
+     * Read the whole file, the settings files are small
      *
-     * @return the sensor settings
+     * @param file the file to read
+     * @return the content of the file or null if it can not be read
      */
-    public static java.util.HashMap<Integer, Sensor> readSensors() {
-        android.content.Context context = GarmentOSService.getContext();
-        java.io.File file = new java.io.File(context.getFilesDir(), FILE_NAME_SENSOR);
-        java.io.ObjectInputStream ois = null;
-        java.io.FileInputStream fis = null;
-        HashMap<Integer, Sensor> ret = null;
+    private static byte[] readFile(java.io.File file) {
+        if (!file.exists())
+            return null;
+        java.io.DataInputStream dis = null;
+        try {
+            byte[] data = new byte[(int) file.length()];
+            dis = new java.io.DataInputStream(new FileInputStream(file));
+            dis.readFully(data);
+            return data;
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "SettingsStorage - can not read " + file.getName());
+            return null;
+        } finally {
+            try {
+                if(dis != null) dis.close();
+            } catch(IOException ioe) {}
+        }
+    }
 
+    /**
+     * Read an object written with the former java serialization based format
+     *
+     * @param data the content of the file
+     * @return the object or null if it can not be read
+     */
+    private static Object readLegacy(byte[] data) {
+        java.io.ObjectInputStream ois = null;
         try {
-            if (file.exists()) {
-                fis = new java.io.FileInputStream(file);
-                ois = new java.io.ObjectInputStream(fis);
-                ret = (HashMap<Integer, Sensor>)ois.readObject();
-            }
+            ois = new ObjectInputStream(new java.io.ByteArrayInputStream(data));
+            return ois.readObject();
         } catch (java.io.IOException ioe) {
         } catch (java.lang.ClassNotFoundException cnfe) {
         } finally {
             try {
                 if(ois != null) ois.close();
-                if(fis != null) fis.close();
             } catch(IOException ioe) {}
         }
+        return null;
+    }
+
+    /**
+     * Write the given data to the file. The data is written to a temporary
+     * file first that replaces the file afterwards, so the file is never left
+     * partially written. Only one file is written at a time.
+     *
+     * @param file the file to write
+     * @param data the data to write
+     * @return true if the file has been written
+     */
+    private static boolean writeFile(java.io.File file, byte[] data) {
+        synchronized (writeLock) {
+            return writeFileLocked(file, data);
+        }
+    }
+
+    private static boolean writeFileLocked(java.io.File file, byte[] data) {
+        java.io.File tmp = new java.io.File(file.getPath() + ".tmp");
+        java.io.FileOutputStream fos = null;
+        try {
+            fos = new java.io.FileOutputStream(tmp);
+            fos.write(data);
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+            if (!tmp.renameTo(file)) {
+                Log.e("GarmentOS", "SettingsStorage - can not replace " + file.getName());
+                return false;
+            }
+            bytesWritten.addAndGet(data.length);
+            return true;
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "SettingsStorage - can not write " + file.getName());
+            return false;
+        } finally {
+            try {
+                if(fos != null) fos.close();
+            } catch(IOException ioe) {}
+        }
+    }
+
+    /**
+     * Read the sensor settings. This function will return null if they have not
+     * yet been saved. Settings saved in the former format are converted to the
+     * current one.
+     *
+     * @return the sensor settings
+     */
+    public static java.util.HashMap<Integer, Sensor> readSensors() {
+        android.content.Context context = GarmentOSService.getContext();
+        java.io.File file = new java.io.File(context.getFilesDir(), FILE_NAME_SENSOR);
+        byte[] data = readFile(file);
+        HashMap<Integer, Sensor> ret = decodeSensors(data);
+        if(ret != null && !SettingsCodec.isEncoded(data))
+            saveSensors(ret, context);
         return ret;
     }
 
+    /**
+     * Read the sensor settings from the given file in the current or the
+     * former format. This function will return null if the file can not be
+     * read.
+     *
+     * @param file the file to read
+     * @return the sensor settings
+     */
+    public static java.util.HashMap<Integer, Sensor> readSensors(java.io.File file) {
+        return decodeSensors(readFile(file));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static java.util.HashMap<Integer, Sensor> decodeSensors(byte[] data) {
+        if(data == null)
+            return null;
+        if(!SettingsCodec.isEncoded(data))
+            return (HashMap<Integer, Sensor>)readLegacy(data);
+        try {
+            return SettingsCodec.decodeSensors(data);
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "SettingsStorage - invalid sensor settings: " + ioe.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Save the given Map to file for later use
      *
      * @param sensors the map to save
      * @param context the context of the application to choose the right folder
+     * @return true if the settings have been saved
      */
-    private static void saveSensors(java.util.Map<Integer, Sensor> sensors, Context context) {
+    private static boolean saveSensors(java.util.Map<Integer, Sensor> sensors, Context context) {
         java.io.File file = new java.io.File(context.getFilesDir(), FILE_NAME_SENSOR);
-        java.io.ObjectOutputStream oos = null;
-        java.io.FileOutputStream fos = null;
         try {
-            fos = new java.io.FileOutputStream(file);
-            oos = new java.io.ObjectOutputStream(fos);
-            oos.writeObject(sensors);
-
-            oos.close();
-            fos.close();
-
-        } catch (IOException io) {}
+            return writeFile(file, SettingsCodec.encodeSensors(sensors.values()));
+        } catch (IOException io) {
+            return false;
+        }
     }
 
 
     /**
      * Read the Application settings from the file. This function will return
-     * null if they have not yet been saved.
+     * null if they have not yet been saved. Settings saved in the former
+     * format are converted to the current one.
      *
      * @return the application settings
      */
     public static java.util.HashMap<String, UserApp> readApps() {
         android.content.Context context = de.unistuttgart.vis.wearable.os.service.GarmentOSService.getContext();
         java.io.File file = new java.io.File(context.getFilesDir(), FILE_NAME_APPS);
-        java.io.ObjectInputStream ois = null;
-        java.io.FileInputStream fis = null;
-        HashMap<String, UserApp> ret = null;
+        byte[] data = readFile(file);
+        HashMap<String, UserApp> ret = decodeApps(data);
+        if(ret != null && !SettingsCodec.isEncoded(data))
+            saveApps(ret, context);
+        return ret;
+    }
 
-        try {
-            if (file.exists()) {
-                fis = new FileInputStream(file);
-                ois = new ObjectInputStream(fis);
+    /**
+     * Read the application settings from the given file in the current or the
+     * former format. This function will return null if the file can not be
+     * read.
+     *
+     * @param file the file to read
+     * @return the application settings
+     */
+    public static java.util.HashMap<String, UserApp> readApps(java.io.File file) {
+        return decodeApps(readFile(file));
+    }
 
-               ret = (HashMap<String, UserApp>) ois.readObject();
-            }
-        } catch (java.io.IOException ioe) {
-        } catch (java.lang.ClassNotFoundException cnfe) {
-        } finally {
-            try {
-                if(ois != null) ois.close();
-                if(fis != null) fis.close();
-            } catch(IOException ioe) {}
+    @SuppressWarnings("unchecked")
+    private static java.util.HashMap<String, UserApp> decodeApps(byte[] data) {
+        if(data == null)
+            return null;
+        if(!SettingsCodec.isEncoded(data))
+            return (HashMap<String, UserApp>)readLegacy(data);
+        try {
+            return SettingsCodec.decodeApps(data);
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "SettingsStorage - invalid app settings: " + ioe.getMessage());
+            return null;
         }
-        return ret;
     }
 
 
@@ -138,21 +261,39 @@ public class SettingsStorage {
      *
      * @param app     the map to save
      * @param context the context of the application to choose the right folder
+     * @return true if the settings have been saved
      */
-    private static void saveApps(java.util.Map<String, UserApp> app, Context context) {
+    private static boolean saveApps(java.util.Map<String, UserApp> app, Context context) {
         java.io.File file = new java.io.File(context.getFilesDir(), FILE_NAME_APPS);
-        java.io.ObjectOutputStream oos = null;
-        java.io.FileOutputStream fos = null;
         try {
-            fos = new java.io.FileOutputStream(file);
-            oos = new java.io.ObjectOutputStream(fos);
-
-            oos.writeObject(app);
+            return writeFile(file, SettingsCodec.encodeApps(app.values()));
+        } catch (IOException io) {
+            return false;
+        }
+    }
 
-            oos.close();
-            fos.close();
+    /**
+     * Save the application settings from records encoded by
+     * {@link SettingsCodec#encodeApp(UserApp)}
+     *
+     * @param records the encoded records of all applications
+     * @return true if the settings have been saved
+     */
+    public static boolean saveAppRecords(java.util.Collection<byte[]> records) {
+        android.content.Context context = GarmentOSService.getContext();
+        java.io.File file = new java.io.File(context.getFilesDir(), FILE_NAME_APPS);
+        try {
+            return writeFile(file, SettingsCodec.encodeAppRecords(records));
+        } catch (IOException io) {
+            return false;
+        }
+    }
 
-        } catch (IOException io) {}
+    /**
+     * @return the number of bytes written to the settings files so far
+     */
+    public static long getBytesWritten() {
+        return bytesWritten.get();
     }
 
 
@@ -164,17 +305,20 @@ public class SettingsStorage {
 	 *            the sensors settings
 	 * @param privacy
 	 *            the privacy settings
+	 * @return true if all given settings have been saved
 	 */
 	@SuppressLint("UseSparseArrays")
-	public static void saveSensorAndPrivacy(
+	public static boolean saveSensorAndPrivacy(
 			java.util.Map<Integer, Sensor> sensors,
 			java.util.Map<String, UserApp> privacy) {
 		android.content.Context context = de.unistuttgart.vis.wearable.os.service.GarmentOSService.getContext();
+        boolean ret = true;
         if(sensors != null) {
-            saveSensors(sensors, context);
+            ret &= saveSensors(sensors, context);
         }
         if(privacy != null) {
-            saveApps(privacy, context);
+            ret &= saveApps(privacy, context);
         }
+        return ret;
 	}
 }
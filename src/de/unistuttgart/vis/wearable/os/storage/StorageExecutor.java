@@ -0,0 +1,177 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Shared executor for all storage read jobs. The number of worker threads as
+ * well as the number of waiting jobs is bounded by
+ * {@link Properties#storageReadThreads} and
+ * {@link Properties#storageReadQueueSize}. If the queue is full the job is
+ * executed by the submitting thread, so that callers are slowed down instead
+ * of creating more and more threads.
+ * </p>
+ * <p>
+ * Jobs return a {@link Future} that can be waited for or take a
+ * {@link Callback} that is called as soon as the job has finished.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class StorageExecutor {
+
+    /**
+     * Callback that is called after a storage job has finished
+     */
+    public interface Callback {
+        /**
+         * Called from the worker thread as soon as the job has finished
+         */
+        void finished();
+    }
+
+    //
+    // Job metrics
+    //
+    private static final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+    private static final AtomicLong submittedJobs = new AtomicLong(0);
+    private static final AtomicLong callerRunsJobs = new AtomicLong(0);
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            Properties.storageReadThreads, Properties.storageReadThreads, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(Properties.storageReadQueueSize),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread th = new Thread(r, "GarmentOS-StorageRead-" + count.incrementAndGet());
+                    th.setDaemon(true);
+                    return th;
+                }
+            },
+            new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                    callerRunsJobs.incrementAndGet();
+                    if (!e.isShutdown())
+                        r.run();
+                }
+            });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private StorageExecutor() {
+    }
+
+    /**
+     * Submit the given job to the executor
+     *
+     * @param job the job to execute
+     * @return the future of the job
+     */
+    public static Future<?> submit(Runnable job) {
+        submittedJobs.incrementAndGet();
+        Future<?> future = executor.submit(job);
+        int depth = executor.getQueue().size();
+        int max;
+        while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+        }
+        return future;
+    }
+
+    /**
+     * Submit the given job to the executor and call the callback once the job
+     * has finished. The callback is called even if the job failed.
+     *
+     * @param job      the job to execute
+     * @param callback the callback to be called afterwards
+     * @return the future of the job
+     */
+    public static Future<?> submit(final Runnable job, final Callback callback) {
+        return submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    job.run();
+                } finally {
+                    callback.finished();
+                }
+            }
+        });
+    }
+
+    /**
+     * Block until the given job has finished
+     *
+     * @param future the future of the job
+     * @return true if the job finished normally, false otherwise
+     */
+    public static boolean await(Future<?> future) {
+        try {
+            future.get();
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            Log.e("GarmentOS", "StorageExecutor - job failed: " + ee.getCause());
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of jobs currently waiting for execution
+     */
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the maximum number of jobs that have been waiting at the same time
+     */
+    public static int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return the number of jobs currently being executed
+     */
+    public static int getActiveJobs() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of jobs submitted so far
+     */
+    public static long getSubmittedJobs() {
+        return submittedJobs.get();
+    }
+
+    /**
+     * @return the number of jobs executed by the submitting thread since the
+     * queue was full
+     */
+    public static long getCallerRunsJobs() {
+        return callerRunsJobs.get();
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import android.util.Log;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Sparse time index for the sensor data files written by the
+ * {@link SensorDataSerializer}. The index file is stored next to the data file
+ * and contains the time stamp and the file offset of every n-th record, where
+ * n is the stride the index has been created with:
+ * <pre>
+ * [int magic][int stride]
+ * [long time][long offset] * number of indexed records
+ * </pre>
+ * Since the records in the data file are of fixed size and sorted by their
+ * time stamp, a time stamp can be found by a binary search over the index
+ * followed by a binary search inside a single block of the data file. Records
+ * that are not yet covered by the index are searched directly in the data file.
+ * </p>
+ * <p>
+ * For compressed files the index holds the first time stamp and the position
+ * of every block instead, which is marked by a stride of 0. A range read
+ * starts at the block found by a binary search over the index.
+ * </p>
+ * <p>
+ * The index of a sensor is read once and kept in memory, it is extended by
+ * {@link #update(int, RandomAccessFile, long, int)} whenever records are
+ * appended. Index files without a header are rebuilt.
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class TimeIndex {
+    public static final String FILE_SUFFIX = ".idx";
+    private static final int MAGIC = 0x47494458;
+    private static final int INDEX_HEADER_SIZE = 8;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 16;
+    private static final int BLOCKS = 0;
+
+    //
+    // All loaded indices assigned to their sensor ID
+    //
+    private static final Map<Integer, TimeIndex> indices = new HashMap<Integer, TimeIndex>();
+
+    private int stride;
+    private long[] times;
+    private long[] offsets;
+    private int size;
+
+    /**
+     * Create a new index object holding the given entries
+     */
+    private TimeIndex(long[] times, long[] offsets, int size, int stride) {
+        this.times = times;
+        this.offsets = offsets;
+        this.size = size;
+        this.stride = stride;
+    }
+
+    /**
+     * Get the index file for the given sensor
+     *
+     * @param sensorID the sensor id
+     * @return the index file
+     */
+    private static File indexFile(int sensorID) {
+        return new File(Properties.storageDirectory, sensorID + FILE_SUFFIX);
+    }
+
+    /**
+     * Get the index of the given sensor. The index file is only read the
+     * first time, later calls return the index kept in memory. If there is no
+     * index file an empty index will be returned, so that all lookups are done
+     * in the data file.
+     *
+     * @param sensorID the sensor id
+     * @return the loaded index
+     */
+    public static TimeIndex load(int sensorID) {
+        synchronized (indices) {
+            TimeIndex index = indices.get(sensorID);
+            if (index == null) {
+                index = read(sensorID);
+                indices.put(sensorID, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Read the index file of the given sensor
+     */
+    private static TimeIndex read(int sensorID) {
+        File file = indexFile(sensorID);
+        if (file.length() < INDEX_HEADER_SIZE)
+            return new TimeIndex(new long[16], new long[16], 0, Properties.timeIndexStride);
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (dis.readInt() == MAGIC) {
+                    int stride = dis.readInt();
+                    int entries = (int) ((file.length() - INDEX_HEADER_SIZE) / ENTRY_SIZE);
+                    long[] times = new long[Math.max(16, entries)];
+                    long[] offsets = new long[times.length];
+                    for (int i = 0; i != entries; ++i) {
+                        times[i] = dis.readLong();
+                        offsets[i] = dis.readLong();
+                    }
+                    if (stride >= 0)
+                        return new TimeIndex(times, offsets, entries, stride);
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException ioe) {
+            Log.e("GarmentOS", "TimeIndex - reading index of sensor " + sensorID + " failed");
+        }
+
+        //
+        // The index is broken or has been written without a header, it will
+        // be rebuilt by the next update
+        //
+        return new TimeIndex(new long[16], new long[16], 0, Properties.timeIndexStride);
+    }
+
+    /**
+     * Bring the index of the given sensor up to date with its data file. For
+     * every record that should be indexed but is not yet, the time stamp is
+     * read from the data file and appended to the index.
+     *
+     * @param sensorID the sensor id
+     * @param data     the opened data file
+     * @param fileSize the size of the data file
+     * @param chunkSize the size of a single record
+     * @throws IOException if reading or writing failed
+     */
+    public static void update(int sensorID, RandomAccessFile data, long fileSize, int chunkSize) throws IOException {
+        TimeIndex index = load(sensorID);
+        synchronized (index) {
+            if (index.stride == BLOCKS) {
+                index.size = 0;
+                index.stride = Properties.timeIndexStride;
+            }
+            long records = (fileSize - HEADER_SIZE) / chunkSize;
+            int stride = index.stride;
+            long required = (records + stride - 1) / stride;
+            if (index.size >= required)
+                return;
+
+            RandomAccessFile raf = new RandomAccessFile(indexFile(sensorID), "rw");
+            try {
+                if (index.size == 0) {
+                    raf.setLength(0);
+                    raf.writeInt(MAGIC);
+                    raf.writeInt(stride);
+                } else {
+                    // drop a partially written entry first
+                    raf.setLength(INDEX_HEADER_SIZE + (long) index.size * ENTRY_SIZE);
+                    raf.seek(INDEX_HEADER_SIZE + (long) index.size * ENTRY_SIZE);
+                }
+                for (long entry = index.size; entry < required; ++entry) {
+                    long offset = HEADER_SIZE + entry * stride * chunkSize;
+                    data.seek(offset);
+                    long time = data.readLong();
+                    raf.writeLong(time);
+                    raf.writeLong(offset);
+                    index.add(time, offset);
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Bring the block index of the given sensor up to date with its compressed
+     * data file. The first time stamp and the position of every block that is
+     * not yet indexed are appended to the index.
+     *
+     * @param sensorID the sensor id
+     * @param data     the opened compressed data file
+     * @throws IOException if reading or writing failed
+     */
+    public static void updateBlocks(int sensorID, RandomAccessFile data) throws IOException {
+        TimeIndex index = load(sensorID);
+        synchronized (index) {
+            if (index.stride != BLOCKS || (index.size > 0 && index.offsets[index.size - 1] >= data.length())) {
+                index.size = 0;
+                index.stride = BLOCKS;
+            }
+            long[] blocks = CompressedSensorFile.listBlocks(data, index.size == 0 ? 0 : index.offsets[index.size - 1]);
+            // the first listed block is the last indexed one, if any
+            int first = index.size == 0 ? 0 : 2;
+            if (first >= blocks.length)
+                return;
+
+            RandomAccessFile raf = new RandomAccessFile(indexFile(sensorID), "rw");
+            try {
+                if (index.size == 0) {
+                    raf.setLength(0);
+                    raf.writeInt(MAGIC);
+                    raf.writeInt(BLOCKS);
+                } else {
+                    raf.setLength(INDEX_HEADER_SIZE + (long) index.size * ENTRY_SIZE);
+                    raf.seek(INDEX_HEADER_SIZE + (long) index.size * ENTRY_SIZE);
+                }
+                for (int i = first; i < blocks.length; i += 2) {
+                    raf.writeLong(blocks[i]);
+                    raf.writeLong(blocks[i + 1]);
+                    index.add(blocks[i], blocks[i + 1]);
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Search the position of the block a range read has to start at to find
+     * the oldest record whose time stamp is not older than the given one.
+     * This is the last indexed block starting before the given time.
+     *
+     * @param value    the time to search for
+     * @param fileSize the size of the compressed data file
+     * @return the block position or 0 if the search has to start at the first block
+     */
+    synchronized long searchBlock(long value, long fileSize) {
+        if (stride != BLOCKS)
+            return 0;
+        int entry = lowerBound(value);
+        while (entry > 0 && offsets[entry - 1] >= fileSize)
+            --entry;
+        return entry == 0 ? 0 : offsets[entry - 1];
+    }
+
+    /**
+     * @return the number of indexed blocks of a compressed data file
+     */
+    synchronized int getBlockCount() {
+        return stride == BLOCKS ? size : 0;
+    }
+
+    /**
+     * @return the position of the given indexed block of a compressed data file
+     */
+    synchronized long getBlockPosition(int block) {
+        return offsets[block];
+    }
+
+    /**
+     * Add an entry to the index kept in memory
+     */
+    private void add(long time, long offset) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        times[size] = time;
+        offsets[size] = offset;
+        ++size;
+    }
+
+    /**
+     * Delete the index of the given sensor. This needs to be done whenever the
+     * data file has been rewritten, e.g. by merging an archive into it.
+     *
+     * @param sensorID the sensor id
+     */
+    public static void drop(int sensorID) {
+        synchronized (indices) {
+            indices.remove(sensorID);
+        }
+        File file = indexFile(sensorID);
+        if (file.exists() && !file.delete())
+            Log.w("GarmentOS", "TimeIndex - can not delete index of sensor " + sensorID);
+    }
+
+    /**
+     * Search the file position of the oldest record whose time stamp is not
+     * older than the given one
+     *
+     * @param raf       the data file
+     * @param value     the time to search for
+     * @param fileSize  the size of the data file
+     * @param chunkSize the size of a single record
+     * @return the file position or 0 if there is no such record
+     * @throws IOException if reading the data file failed
+     */
+    public long searchNotOlder(RandomAccessFile raf, long value, long fileSize, int chunkSize) throws IOException {
+        long records = (fileSize - HEADER_SIZE) / chunkSize;
+
+        // the block between the index entries around the first record not
+        // older than the value
+        long lo, hi;
+        synchronized (this) {
+            int entry = lowerBound(value);
+            lo = entry == 0 ? 0 : (offsets[entry - 1] - HEADER_SIZE) / chunkSize;
+            hi = entry < size ? Math.min((offsets[entry] - HEADER_SIZE) / chunkSize, records) : records;
+        }
+        lo = Math.min(lo, hi);
+
+        // binary search within the block
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            raf.seek(HEADER_SIZE + mid * chunkSize);
+            if (raf.readLong() < value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo < records ? HEADER_SIZE + lo * chunkSize : 0;
+    }
+
+    /**
+     * Search the file position of the newest record whose time stamp is not
+     * younger than the given one
+     *
+     * @param raf       the data file
+     * @param value     the time to search for
+     * @param fileSize  the size of the data file
+     * @param chunkSize the size of a single record
+     * @return the file position or 0 if there is no such record
+     * @throws IOException if reading the data file failed
+     */
+    public long searchNotYounger(RandomAccessFile raf, long value, long fileSize, int chunkSize) throws IOException {
+        long records = (fileSize - HEADER_SIZE) / chunkSize;
+
+        // the block between the index entries around the first record
+        // younger than the value
+        long lo, hi;
+        synchronized (this) {
+            int entry = upperBound(value);
+            lo = entry == 0 ? 0 : (offsets[entry - 1] - HEADER_SIZE) / chunkSize;
+            hi = entry < size ? Math.min((offsets[entry] - HEADER_SIZE) / chunkSize, records) : records;
+        }
+        lo = Math.min(lo, hi);
+
+        // binary search within the block for the first younger record
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            raf.seek(HEADER_SIZE + mid * chunkSize);
+            if (raf.readLong() <= value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo > 0 ? HEADER_SIZE + (lo - 1) * chunkSize : 0;
+    }
+
+    /**
+     * @return the first index entry not older than the given time
+     */
+    private int lowerBound(long value) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the first index entry younger than the given time
+     */
+    private int upperBound(long value) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
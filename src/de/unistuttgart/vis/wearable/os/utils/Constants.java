@@ -17,6 +17,7 @@ public class Constants {
 	
 	public static final int CALLBACK = 0x80000000;
 	public static final int CALLBACK_DEBUG_VALUE = 0x80000001;
+	public static final int CALLBACK_VALUES = 0x80000002;
 
     public static final String CRYPTO_ALGORITHM = "AES";
     public static final String CRYPTO_TRANSFORM = "AES";
@@ -0,0 +1,135 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.utils;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Records the phases of the service start up. Every phase is measured from the
+ * moment it is begun until it is ended and logged with its offset to the
+ * service start and its duration. Phases may be run by different threads and
+ * may also be begun lazily long after the service has been started, e.g. when
+ * the sensor settings are needed the first time.
+ * </p>
+ * <p>
+ * Usage:
+ * <pre>
+ * StartupTimeline.Phase phase = StartupTimeline.begin("sensor settings");
+ * try {
+ *     ...
+ * } finally {
+ *     phase.end();
+ * }
+ * </pre>
+ * </p>
+ *
+ * @author roehrdor
+ */
+public class StartupTimeline {
+
+    //
+    // Time the service has been started at, phases are recorded relative to it
+    //
+    private static volatile long origin = System.nanoTime();
+
+    private static final List<Phase> phases = new ArrayList<Phase>();
+
+    /**
+     * A single phase of the start up
+     */
+    public static class Phase {
+        private final String name;
+        private final String thread;
+        private final long begin;
+        private long duration = -1;
+
+        private Phase(String name) {
+            this.name = name;
+            this.thread = Thread.currentThread().getName();
+            this.begin = System.nanoTime();
+        }
+
+        /**
+         * End the phase and log its duration. Ending a phase more than once
+         * has no effect.
+         */
+        public void end() {
+            synchronized (phases) {
+                if (duration >= 0)
+                    return;
+                duration = System.nanoTime() - begin;
+                phases.add(this);
+            }
+            Log.i("GarmentOS", "StartupTimeline - " + this);
+        }
+
+        /**
+         * @return the name of the phase
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the offset of the begin of the phase to the service start in
+         * milliseconds
+         */
+        public long getOffset() {
+            return (begin - origin) / 1000000L;
+        }
+
+        /**
+         * @return the duration of the phase in milliseconds or -1 if the phase
+         * has not ended yet
+         */
+        public long getDuration() {
+            return duration < 0 ? -1 : duration / 1000000L;
+        }
+
+        @Override
+        public String toString() {
+            return name + " [" + thread + "] +" + getOffset() + "ms took " + getDuration() + "ms";
+        }
+    }
+
+    private StartupTimeline() {
+    }
+
+    /**
+     * Mark the start of the service, all phases recorded so far are dropped
+     */
+    public static void start() {
+        synchronized (phases) {
+            phases.clear();
+            origin = System.nanoTime();
+        }
+    }
+
+    /**
+     * Begin a new phase, the phase is recorded as soon as it is ended
+     *
+     * @param name the name of the phase
+     * @return the phase
+     */
+    public static Phase begin(String name) {
+        return new Phase(name);
+    }
+
+    /**
+     * @return all phases ended so far in the order they have ended
+     */
+    public static List<Phase> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<Phase>(phases);
+        }
+    }
+}
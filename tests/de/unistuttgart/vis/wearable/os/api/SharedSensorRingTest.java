@@ -0,0 +1,211 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the shared memory ring. A mapped temporary file stands in for the
+ * memory shared between the service and an app, the writer and the reader
+ * use mappings of their own like the two processes do.
+ *
+ * @author roehrdor
+ */
+public class SharedSensorRingTest {
+    private static final int DIMENSION = 3;
+    private static final int HEADER_SIZE = 24;
+    private static final int CAPACITY = 64;
+    private static final int BYTES = HEADER_SIZE + CAPACITY * (16 + 4 * DIMENSION);
+
+    private File file;
+    private SharedSensorRing writer;
+    private SharedSensorRing reader;
+
+    private MappedByteBuffer map(FileChannel.MapMode mode) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            return raf.getChannel().map(mode, 0, BYTES);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("garmentos", ".channel");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(BYTES);
+        raf.close();
+        writer = new SharedSensorRing(map(FileChannel.MapMode.READ_WRITE));
+        writer.initialize();
+        reader = new SharedSensorRing(map(FileChannel.MapMode.READ_ONLY));
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static void fill(float[] values, long time) {
+        values[0] = time;
+        values[1] = -time;
+        values[2] = time * 0.25f;
+    }
+
+    private static boolean consistent(long time, float[] values, int offset) {
+        return values[offset] == (float) time && values[offset + 1] == -(float) time
+                && values[offset + 2] == time * 0.25f;
+    }
+
+    @Test
+    public void testWriteAndRead() {
+        assertTrue(reader.isValid());
+        assertEquals(0, reader.read(new long[1], new float[DIMENSION], 1));
+
+        float[] values = new float[DIMENSION];
+        for (int i = 0; i != 10; ++i) {
+            fill(values, i);
+            writer.write(i, values, DIMENSION);
+        }
+        assertEquals(DIMENSION, reader.getDimension());
+        assertEquals(CAPACITY, reader.getCapacity());
+        assertEquals(10, reader.getPublished());
+
+        long[] times = new long[CAPACITY];
+        float[] read = new float[CAPACITY * DIMENSION];
+        assertEquals(4, reader.read(times, read, 4));
+        assertEquals(6, reader.read(times, read, CAPACITY));
+        for (int i = 0; i != 6; ++i) {
+            assertEquals(4 + i, times[i]);
+            assertTrue(consistent(times[i], read, i * DIMENSION));
+        }
+        assertEquals(0, reader.read(times, read, CAPACITY));
+        assertEquals(0, reader.getLost());
+    }
+
+    @Test
+    public void testDimensionIsFixedByTheFirstRecord() {
+        writer.write(1, new float[]{1, 2, 3}, 3);
+        writer.write(2, new float[]{4, 5, 6, 7}, 4);
+        writer.write(3, new float[]{8}, 1);
+
+        long[] times = new long[3];
+        float[] values = new float[3 * DIMENSION];
+        assertEquals(3, reader.read(times, values, 3));
+        assertEquals(4, values[3], 0);
+        assertEquals(6, values[5], 0);
+        assertEquals(8, values[6], 0);
+        assertEquals(0, values[7], 0);
+        assertEquals(0, values[8], 0);
+    }
+
+    @Test
+    public void testOverwrittenRecordsAreCountedAsLost() {
+        float[] values = new float[DIMENSION];
+        for (int i = 0; i != CAPACITY + 36; ++i) {
+            fill(values, i);
+            writer.write(i, values, DIMENSION);
+        }
+
+        long[] times = new long[CAPACITY];
+        float[] read = new float[CAPACITY * DIMENSION];
+        assertEquals(CAPACITY, reader.read(times, read, CAPACITY));
+        assertEquals(36, reader.getLost());
+        assertEquals(36, times[0]);
+        assertEquals(CAPACITY + 35, times[CAPACITY - 1]);
+
+        reader.skipToLatest();
+        assertEquals(CAPACITY + 36, reader.getPosition());
+        assertEquals(0, reader.read(times, read, CAPACITY));
+    }
+
+    @Test
+    public void testConcurrentReader() throws Exception {
+        final int records = 2000000;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                float[] values = new float[DIMENSION];
+                for (int i = 0; i != records; ++i) {
+                    fill(values, i);
+                    writer.write(i, values, DIMENSION);
+                }
+                done.set(true);
+            }
+        };
+        producer.start();
+
+        long[] times = new long[16];
+        float[] values = new float[16 * DIMENSION];
+        long read = 0;
+        long last = -1;
+        int torn = 0;
+        boolean finished = false;
+        while (!finished) {
+            // read once more after the writer has finished
+            finished = done.get();
+            int n;
+            while ((n = reader.read(times, values, times.length)) > 0) {
+                for (int i = 0; i != n; ++i) {
+                    if (!consistent(times[i], values, i * DIMENSION) || times[i] <= last)
+                        ++torn;
+                    last = times[i];
+                }
+                read += n;
+            }
+        }
+        producer.join();
+
+        assertEquals(0, torn);
+        assertEquals(records - 1, last);
+        assertEquals(records, read + reader.getLost());
+    }
+
+    @Test
+    public void testSecondWriterIsRejected() throws Exception {
+        final AtomicBoolean rejected = new AtomicBoolean(false);
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        Thread[] writers = new Thread[2];
+        for (int w = 0; w != writers.length; ++w) {
+            writers[w] = new Thread() {
+                @Override
+                public void run() {
+                    float[] values = new float[DIMENSION];
+                    for (long i = 0; !stop.get(); ++i) {
+                        try {
+                            writer.write(i, values, DIMENSION);
+                        } catch (IllegalStateException ise) {
+                            rejected.set(true);
+                            stop.set(true);
+                        }
+                    }
+                }
+            };
+            writers[w].start();
+        }
+        writers[0].join(10000);
+        stop.set(true);
+        writers[1].join();
+        assertTrue(rejected.get());
+        assertFalse(writers[0].isAlive());
+    }
+}
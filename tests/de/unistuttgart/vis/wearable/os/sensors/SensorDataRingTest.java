@@ -0,0 +1,227 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests of the live data ring buffer, including a stress run of 10 sensors
+ * sampled at 200 Hz while several readers query the rings concurrently.
+ *
+ * @author pfaehlfd
+ */
+public class SensorDataRingTest {
+    private static final int SENSORS = 10;
+    private static final int RATE = 200;
+    private static final int DIMENSION = 3;
+    private static final long DURATION = 3000;
+
+    //
+    // Every record holds its time stamp and values derived from it, so
+    // readers can detect torn records
+    //
+    private static void fill(float[] values, long time) {
+        values[0] = time;
+        values[1] = -time;
+        values[2] = time * 0.5f;
+    }
+
+    private static boolean consistent(long time, float[] values, int offset) {
+        return values[offset] == (float) time && values[offset + 1] == -(float) time
+                && values[offset + 2] == time * 0.5f;
+    }
+
+    @Test
+    public void testLatestAndRange() {
+        SensorDataRing ring = new SensorDataRing(10);
+        float[] values = new float[DIMENSION];
+        for (int i = 0; i != 25; ++i) {
+            fill(values, i * 10);
+            ring.add(i * 10, values, 0, DIMENSION);
+        }
+
+        assertEquals(25, ring.getWritten());
+        assertEquals(10, ring.size());
+        assertEquals(DIMENSION, ring.getDimension());
+
+        Vector<SensorData> latest = ring.latest(4).toSensorDataList();
+        assertEquals(4, latest.size());
+        assertEquals(210, latest.get(0).getLongUnixDate());
+        assertEquals(240, latest.get(3).getLongUnixDate());
+
+        Vector<SensorData> range = ring.range(150, 220).toSensorDataList();
+        assertEquals(8, range.size());
+        assertEquals(150, range.get(0).getLongUnixDate());
+        assertEquals(220, range.get(7).getLongUnixDate());
+
+        // records that have already been overwritten are left out
+        assertEquals(10, ring.since(0).toSensorDataList().size());
+    }
+
+    @Test
+    public void testSnapshotDropsOverwrittenRecords() {
+        SensorDataRing ring = new SensorDataRing(8);
+        float[] values = new float[DIMENSION];
+        for (int i = 0; i != 8; ++i) {
+            fill(values, i);
+            ring.add(i, values, 0, DIMENSION);
+        }
+
+        SensorDataRing.Snapshot snapshot = ring.since(0);
+        assertEquals(8, snapshot.size());
+
+        // overwrite the first three records before the snapshot is read
+        for (int i = 8; i != 11; ++i) {
+            fill(values, i);
+            ring.add(i, values, 0, DIMENSION);
+        }
+
+        long[] times = new long[8];
+        float[] read = new float[8 * DIMENSION];
+        int n = snapshot.read(times, read, 0, 8);
+        assertEquals(5, n);
+        for (int i = 0; i != n; ++i) {
+            assertEquals(i + 3, times[i]);
+            assertTrue(consistent(times[i], read, i * DIMENSION));
+        }
+        assertEquals(8, snapshot.getEndSequence());
+    }
+
+    @Test
+    public void testStress200HzTenSensors() throws Exception {
+        final SensorDataRing[] rings = new SensorDataRing[SENSORS];
+        final AtomicLong[] produced = new AtomicLong[SENSORS];
+        final long[][] stored = new long[SENSORS][(int) (RATE * DURATION / 1000 * 4)];
+        final int[] storedCount = new int[SENSORS];
+        final long[] firstUnsaved = new long[SENSORS];
+        for (int i = 0; i != SENSORS; ++i) {
+            rings[i] = new SensorDataRing(2 * RATE);
+            produced[i] = new AtomicLong();
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicLong torn = new AtomicLong();
+        final AtomicLong unordered = new AtomicLong();
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        //
+        // One producer per sensor at 200 Hz, like the sensor callbacks
+        //
+        ScheduledExecutorService producers = Executors.newScheduledThreadPool(SENSORS);
+        for (int i = 0; i != SENSORS; ++i) {
+            final int sensor = i;
+            producers.scheduleAtFixedRate(new Runnable() {
+                private final float[] values = new float[DIMENSION];
+
+                @Override
+                public void run() {
+                    long time = produced[sensor].get();
+                    fill(values, time);
+                    rings[sensor].add(time, values, 0, DIMENSION);
+                    produced[sensor].incrementAndGet();
+                }
+            }, 0, 1000000 / RATE, TimeUnit.MICROSECONDS);
+        }
+
+        //
+        // Readers querying the latest records and time ranges
+        //
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r != readers.length; ++r) {
+            final int seed = r;
+            readers[r] = new Thread() {
+                @Override
+                public void run() {
+                    long[] times = new long[64];
+                    float[] values = new float[64 * DIMENSION];
+                    int k = seed;
+                    while (!stop.get()) {
+                        SensorDataRing ring = rings[k++ % SENSORS];
+                        long written = ring.getWritten();
+                        SensorDataRing.Snapshot snapshot = (k & 1) == 0 ? ring.latest(100)
+                                : ring.range(written - 150, written - 50);
+                        long last = -1;
+                        int n;
+                        while ((n = snapshot.read(times, values, 0, 64)) > 0) {
+                            for (int i = 0; i != n; ++i) {
+                                if (!consistent(times[i], values, i * DIMENSION))
+                                    torn.incrementAndGet();
+                                if (times[i] <= last)
+                                    unordered.incrementAndGet();
+                                last = times[i];
+                            }
+                        }
+                        reads.incrementAndGet();
+                    }
+                }
+            };
+            readers[r].setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                    failed.incrementAndGet();
+                }
+            });
+            readers[r].start();
+        }
+
+        //
+        // The storage hand over taking all records since the last one saved
+        //
+        Runnable saver = new Runnable() {
+            private final long[] times = new long[2 * RATE];
+            private final float[] values = new float[2 * RATE * DIMENSION];
+
+            @Override
+            public void run() {
+                for (int i = 0; i != SENSORS; ++i) {
+                    SensorDataRing.Snapshot unsaved = rings[i].since(firstUnsaved[i]);
+                    int n;
+                    while ((n = unsaved.read(times, values, 0, times.length)) > 0) {
+                        System.arraycopy(times, 0, stored[i], storedCount[i], n);
+                        storedCount[i] += n;
+                    }
+                    firstUnsaved[i] = unsaved.getEndSequence();
+                }
+            }
+        };
+        ScheduledExecutorService saving = Executors.newSingleThreadScheduledExecutor();
+        saving.scheduleAtFixedRate(saver, 100, 100, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(DURATION);
+        producers.shutdown();
+        assertTrue(producers.awaitTermination(10, TimeUnit.SECONDS));
+        saving.shutdown();
+        assertTrue(saving.awaitTermination(10, TimeUnit.SECONDS));
+        stop.set(true);
+        for (Thread reader : readers)
+            reader.join();
+        saver.run();
+
+        assertEquals(0, failed.get());
+        assertEquals(0, torn.get());
+        assertEquals(0, unordered.get());
+        assertTrue(reads.get() > 0);
+        for (int i = 0; i != SENSORS; ++i) {
+            assertTrue(produced[i].get() > RATE);
+            assertEquals("dropped samples of sensor " + i, produced[i].get(), storedCount[i]);
+            for (int j = 0; j != storedCount[i]; ++j)
+                assertEquals(j, stored[i][j]);
+        }
+    }
+}
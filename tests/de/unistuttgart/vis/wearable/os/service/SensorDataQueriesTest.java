@@ -0,0 +1,192 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unistuttgart.vis.wearable.os.api.PSensorData;
+import de.unistuttgart.vis.wearable.os.api.PSensorDataPage;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.sensors.Sensor;
+
+/**
+ * Tests of the paged sensor data queries and a benchmark comparing them to
+ * transferring the whole result at once. The Binder transaction itself is not
+ * available on the JVM, so the benchmark compares the preparation of the data
+ * in the service for both protocols.
+ *
+ * @author roehrdor
+ */
+public class SensorDataQueriesTest {
+    private static final String APP = "de.unistuttgart.vis.wearable.os.test";
+    private static final int DIMENSION = 3;
+    private static final int RECORDS = 200000;
+    private static final int RUNS = 5;
+
+    private File storageDirectory;
+    private int liveDataCapacity;
+    private int maxOpenQueries;
+    private File directory;
+    private Sensor sensor;
+
+    @Before
+    public void setUp() throws IOException {
+        storageDirectory = Properties.storageDirectory;
+        liveDataCapacity = Properties.liveDataCapacity;
+        maxOpenQueries = Properties.maxOpenQueries;
+        directory = File.createTempFile("garmentos", "");
+        directory.delete();
+        directory.mkdir();
+        Properties.storageDirectory = directory;
+
+        //
+        // Keep all records in memory, so nothing is handed over to the storage
+        //
+        Properties.liveDataCapacity = 4 * RECORDS;
+        sensor = new Sensor();
+        sensor.setSavePeriod(2 * RECORDS);
+        sensor.setEnabled(true);
+        float[] values = new float[DIMENSION];
+        for (int i = 0; i != RECORDS; ++i) {
+            values[0] = i;
+            values[1] = -i;
+            values[2] = i * 0.5f;
+            sensor.addRawData(1000 + i, values, DIMENSION);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        directory.delete();
+        Properties.storageDirectory = storageDirectory;
+        Properties.liveDataCapacity = liveDataCapacity;
+        Properties.maxOpenQueries = maxOpenQueries;
+    }
+
+    /**
+     * Fetch all pages of a new query over the whole data of the sensor
+     *
+     * @return the number of records fetched
+     */
+    private int fetchAll(boolean check) {
+        int handle = SensorDataQueries.open(APP, sensor, new Date(0), new Date(Long.MAX_VALUE));
+        assertTrue(handle > 0);
+        int records = 0;
+        long token = 0;
+        while (token != PSensorDataPage.NO_MORE_PAGES) {
+            PSensorDataPage page = SensorDataQueries.fetch(APP, handle, token);
+            assertNotNull(page);
+            if (check) {
+                assertTrue(page.size() * (8 + 4 * DIMENSION) <= Properties.queryPageBytes);
+                for (int i = 0; i != page.size(); ++i)
+                    assertEquals(1000 + records + i, page.getTime(i));
+            }
+            records += page.size();
+            token = page.getNextToken();
+        }
+        SensorDataQueries.close(APP, handle);
+        return records;
+    }
+
+    @Test
+    public void testPagesCoverTheWholeRange() {
+        assertEquals(RECORDS, fetchAll(true));
+    }
+
+    @Test
+    public void testQueryBelongsToItsApp() {
+        int handle = SensorDataQueries.open(APP, sensor, new Date(0), new Date(Long.MAX_VALUE));
+        assertNull(SensorDataQueries.fetch("another.app", handle, 0));
+
+        PSensorDataPage first = SensorDataQueries.fetch(APP, handle, 0);
+        assertNotNull(first);
+
+        // a retried page is served from the cache
+        PSensorDataPage retried = SensorDataQueries.fetch(APP, handle, 0);
+        assertNotNull(retried);
+        assertEquals(first.size(), retried.size());
+        assertEquals(first.getTime(0), retried.getTime(0));
+        SensorDataQueries.close(APP, handle);
+    }
+
+    @Test
+    public void testRetryOfTheLastPage() {
+        int handle = SensorDataQueries.open(APP, sensor, new Date(0), new Date(Long.MAX_VALUE));
+        long token = 0, lastToken = 0;
+        PSensorDataPage last = null;
+        while (token != PSensorDataPage.NO_MORE_PAGES) {
+            last = SensorDataQueries.fetch(APP, handle, token);
+            lastToken = token;
+            token = last.getNextToken();
+        }
+
+        // the last page is answered again until the query is closed
+        PSensorDataPage retried = SensorDataQueries.fetch(APP, handle, lastToken);
+        assertNotNull(retried);
+        assertEquals(last.size(), retried.size());
+        assertEquals(PSensorDataPage.NO_MORE_PAGES, retried.getNextToken());
+        assertNull(SensorDataQueries.fetch(APP, handle, lastToken + 1));
+
+        SensorDataQueries.close(APP, handle);
+        assertNull(SensorDataQueries.fetch(APP, handle, lastToken));
+    }
+
+    @Test
+    public void testFinishedQueriesMakeRoom() {
+        Properties.maxOpenQueries = 1;
+        int handle = SensorDataQueries.open(APP, sensor, new Date(1000), new Date(1010));
+        PSensorDataPage page = SensorDataQueries.fetch(APP, handle, 0);
+        assertEquals(PSensorDataPage.NO_MORE_PAGES, page.getNextToken());
+
+        // the finished query is dropped to open a new one, a running one is not
+        int next = SensorDataQueries.open(APP, sensor, new Date(1000), new Date(1010));
+        assertTrue(next > 0);
+        assertNull(SensorDataQueries.fetch(APP, handle, 0));
+        assertEquals(-1, SensorDataQueries.open(APP, sensor, new Date(1000), new Date(1010)));
+        SensorDataQueries.close(APP, next);
+    }
+
+    @Test
+    public void testThroughput() {
+        // warm up both paths
+        new PSensorData(sensor.openCursor(new Date(0), new Date(Long.MAX_VALUE)));
+        fetchAll(false);
+
+        long whole = Long.MAX_VALUE;
+        long paged = Long.MAX_VALUE;
+        for (int run = 0; run != RUNS; ++run) {
+            long start = System.nanoTime();
+            PSensorData data = new PSensorData(sensor.openCursor(new Date(0), new Date(Long.MAX_VALUE)));
+            whole = Math.min(whole, System.nanoTime() - start);
+            assertEquals(DIMENSION, data.getDimension());
+
+            start = System.nanoTime();
+            assertEquals(RECORDS, fetchAll(false));
+            paged = Math.min(paged, System.nanoTime() - start);
+        }
+
+        long bytes = (long) RECORDS * (8 + 4 * DIMENSION);
+        System.out.println("SensorDataQueriesTest - " + RECORDS + " records, " + bytes / 1024 + " KiB");
+        System.out.println("  whole result: " + RECORDS * 1000000000L / Math.max(1, whole) + " records/s"
+                + " (a single transaction of " + bytes / 1024 + " KiB)");
+        System.out.println("  paged result: " + RECORDS * 1000000000L / Math.max(1, paged) + " records/s"
+                + " (" + (bytes + Properties.queryPageBytes - 1) / Properties.queryPageBytes + " transactions of at most "
+                + Properties.queryPageBytes / 1024 + " KiB)");
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import de.unistuttgart.vis.wearable.os.api.BaseCallbackObject;
+import de.unistuttgart.vis.wearable.os.api.IGarmentCallback;
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.sensors.Sensor;
+
+/**
+ * Tests of the ring between the sensors and the dispatching thread, including
+ * regression tests of the allocation rate of publishing and taking events and
+ * of adding a value to a sensor, which publishes it through
+ * {@link GarmentOSService#valueChanged(int, long, float[], int)}. The handler
+ * of the service does not dispatch on the JVM, so the tests take the events
+ * from the ring of the service themselves.
+ *
+ * @author roehrdor
+ */
+public class ValueEventRingTest {
+    private static final int DIMENSION = 3;
+    private static final int PRODUCERS = 4;
+    private static final int EVENTS = 200000;
+    private static final int SAMPLES = 50000;
+
+    //
+    // External sensors are numbered from 100 on, this id is above the cache
+    // of boxed integers
+    //
+    private static final int EXTERNAL_SENSOR = 1000;
+
+    @Test
+    public void testPublishAndPoll() {
+        ValueEventRing ring = new ValueEventRing(4, DIMENSION);
+        ValueEventRing.Event event = new ValueEventRing.Event(ring);
+
+        // only the first event wakes up the taking thread
+        assertTrue(ring.publish(1, 10, new float[]{1, 2, 3}, DIMENSION));
+        for (int i = 1; i != 4; ++i)
+            assertFalse(ring.publish(1, 10 + i, new float[]{i, i, i}, DIMENSION));
+
+        // the ring is full
+        assertFalse(ring.publish(2, 14, new float[]{0, 0, 0}, DIMENSION));
+        // too many values
+        assertFalse(ring.publish(3, 15, new float[]{0, 0, 0, 0}, DIMENSION + 1));
+        assertEquals(2, ring.getDropped());
+        assertEquals(0, ring.getDropped(1));
+        assertEquals(1, ring.getDropped(2));
+        assertEquals(1, ring.getDropped(3));
+
+        for (int i = 0; i != 4; ++i) {
+            assertTrue(ring.poll(event));
+            assertEquals(1, event.sensorID);
+            assertEquals(10 + i, event.time);
+            assertEquals(DIMENSION, event.dimension);
+        }
+        assertEquals(3.0f, event.values[0], 0);
+        assertFalse(ring.poll(event));
+        assertEquals(4, ring.getPublished());
+
+        // the taking thread found the ring empty, so it has to be woken again
+        assertTrue(ring.publish(1, 20, new float[]{1}, 1));
+        assertTrue(ring.poll(event));
+        assertEquals(1, event.dimension);
+    }
+
+    /**
+     * Several sensor threads publish while the taking thread is only woken
+     * up as told by the ring. No event may be lost, reordered or torn.
+     */
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final ValueEventRing ring = new ValueEventRing(256, DIMENSION);
+        final Semaphore wakeUp = new Semaphore(0);
+        final AtomicLong rejected = new AtomicLong();
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p != PRODUCERS; ++p) {
+            final int sensorID = p;
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    float[] values = new float[DIMENSION];
+                    for (int i = 0; i != EVENTS; ++i) {
+                        values[0] = i;
+                        values[1] = sensorID;
+                        values[2] = -i;
+                        long dropped = ring.getDropped(sensorID);
+                        if (ring.publish(sensorID, i, values, DIMENSION))
+                            wakeUp.release();
+                        else if (ring.getDropped(sensorID) != dropped)
+                            rejected.incrementAndGet();
+                    }
+                }
+            };
+        }
+        for (Thread producer : producers)
+            producer.start();
+
+        long[] last = new long[PRODUCERS];
+        java.util.Arrays.fill(last, -1);
+        long taken = 0;
+        long torn = 0;
+        long unordered = 0;
+        ValueEventRing.Event event = new ValueEventRing.Event(ring);
+        while (true) {
+            boolean done = true;
+            for (Thread producer : producers)
+                done &= !producer.isAlive();
+            if (!wakeUp.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if (done)
+                    break;
+                continue;
+            }
+            while (ring.poll(event)) {
+                ++taken;
+                if (event.values[0] != event.time || event.values[1] != event.sensorID
+                        || event.values[2] != -event.time)
+                    ++torn;
+                if (event.time <= last[event.sensorID])
+                    ++unordered;
+                last[event.sensorID] = event.time;
+            }
+        }
+
+        assertEquals(0, torn);
+        assertEquals(0, unordered);
+        assertEquals(ring.getPublished(), taken);
+        assertEquals(PRODUCERS * (long) EVENTS, taken + ring.getDropped());
+        assertEquals(rejected.get(), ring.getDropped());
+        long dropped = 0;
+        for (int p = 0; p != PRODUCERS; ++p)
+            dropped += ring.getDropped(p);
+        assertEquals(ring.getDropped(), dropped);
+
+        // every event published has woken up the taking thread
+        assertFalse(ring.poll(event));
+    }
+
+    /**
+     * Publishing and taking events must not allocate any object, so the
+     * sensors do not cause garbage collections at high sample rates
+     */
+    @Test
+    public void testNoAllocation() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        ValueEventRing ring = new ValueEventRing(1024, DIMENSION);
+        ValueEventRing.Event event = new ValueEventRing.Event(ring);
+        float[] values = new float[DIMENSION];
+        long id = Thread.currentThread().getId();
+
+        // warm up, so the loop is compiled
+        run(ring, event, values, EVENTS);
+
+        long before = threads.getThreadAllocatedBytes(id);
+        long taken = run(ring, event, values, 10 * EVENTS);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+        System.out.println("ValueEventRingTest - " + 10 * EVENTS + " events, " + allocated + " bytes allocated");
+        assertEquals(10 * EVENTS, taken);
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    /**
+     * Adding a value to a sensor must not allocate any object either, whether
+     * an application subscribed to the sensor or not
+     */
+    @Test
+    public void testSensorPathNoAllocation() throws IOException {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        File storageDirectory = Properties.storageDirectory;
+        int liveDataCapacity = Properties.liveDataCapacity;
+        File directory = File.createTempFile("garmentos", "");
+        directory.delete();
+        directory.mkdir();
+        Properties.storageDirectory = directory;
+
+        //
+        // Keep all values in memory, so the storage is not involved
+        //
+        Properties.liveDataCapacity = 16 * SAMPLES;
+        IGarmentCallback handle = new IGarmentCallback.Stub() {
+            @Override
+            public void callback(BaseCallbackObject value) {
+            }
+        };
+        Sensor sensor = new Sensor();
+        try {
+            sensor.setSavePeriod(8 * SAMPLES);
+            sensor.setEnabled(true);
+            ValueEventRing.Event event = new ValueEventRing.Event(GarmentOSService.mValueEvents);
+            float[] values = new float[DIMENSION];
+            long id = Thread.currentThread().getId();
+
+            // nobody is interested in the values, so they stop at the service
+            add(sensor, event, values, 0, SAMPLES);
+            long before = threads.getThreadAllocatedBytes(id);
+            long taken = add(sensor, event, values, SAMPLES, SAMPLES);
+            long allocated = threads.getThreadAllocatedBytes(id) - before;
+            System.out.println("ValueEventRingTest - " + SAMPLES + " sensor values without subscribers, "
+                    + allocated + " bytes allocated");
+            assertEquals(0, taken);
+            assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+
+            // every value is published into the ring of the service
+            GarmentOSService.mCallbacks.subscribe(new ValueSubscription(new CallbackNode(0, 0, handle), null,
+                    sensor.getSensorID(), 0, 0));
+            add(sensor, event, values, 2 * SAMPLES, SAMPLES);
+            before = threads.getThreadAllocatedBytes(id);
+            taken = add(sensor, event, values, 3 * SAMPLES, SAMPLES);
+            allocated = threads.getThreadAllocatedBytes(id) - before;
+            System.out.println("ValueEventRingTest - " + SAMPLES + " sensor values with a subscriber, "
+                    + allocated + " bytes allocated");
+            assertEquals(SAMPLES, taken);
+            assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+        } finally {
+            GarmentOSService.mCallbacks.unsubscribe(handle.asBinder(), sensor.getSensorID());
+            directory.delete();
+            Properties.storageDirectory = storageDirectory;
+            Properties.liveDataCapacity = liveDataCapacity;
+        }
+    }
+
+    /**
+     * The service must not allocate for the values of sensors with any id
+     */
+    @Test
+    public void testServiceNoAllocation() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        IGarmentCallback handle = new IGarmentCallback.Stub() {
+            @Override
+            public void callback(BaseCallbackObject value) {
+            }
+        };
+        GarmentOSService.mCallbacks.subscribe(new ValueSubscription(new CallbackNode(0, 0, handle), null,
+                EXTERNAL_SENSOR, 0, 0));
+        try {
+            ValueEventRing ring = GarmentOSService.mValueEvents;
+            ValueEventRing.Event event = new ValueEventRing.Event(ring);
+            float[] values = new float[DIMENSION];
+            long id = Thread.currentThread().getId();
+
+            // values of a sensor nobody subscribed to and of the subscribed one
+            changed(EXTERNAL_SENSOR + 1, event, values, SAMPLES);
+            changed(EXTERNAL_SENSOR, event, values, SAMPLES);
+            long before = threads.getThreadAllocatedBytes(id);
+            long taken = changed(EXTERNAL_SENSOR + 1, event, values, SAMPLES)
+                    + changed(EXTERNAL_SENSOR, event, values, SAMPLES);
+            long allocated = threads.getThreadAllocatedBytes(id) - before;
+            System.out.println("ValueEventRingTest - " + 2 * SAMPLES + " values of external sensors, "
+                    + allocated + " bytes allocated");
+            assertEquals(SAMPLES, taken);
+            assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+        } finally {
+            GarmentOSService.mCallbacks.unsubscribe(handle.asBinder(), EXTERNAL_SENSOR);
+        }
+    }
+
+    /**
+     * Hand values of the given sensor to the service and take the published
+     * events from its ring in bursts like the dispatching thread
+     *
+     * @return the number of events taken
+     */
+    private static long changed(int sensorID, ValueEventRing.Event event, float[] values, int samples) {
+        ValueEventRing ring = GarmentOSService.mValueEvents;
+        long taken = 0;
+        for (int i = 0; i != samples; ++i) {
+            values[0] = i;
+            GarmentOSService.valueChanged(sensorID, i, values, DIMENSION);
+            if (i % 100 == 99)
+                while (ring.poll(event))
+                    ++taken;
+        }
+        while (ring.poll(event))
+            ++taken;
+        return taken;
+    }
+
+    /**
+     * @return the counter of the memory allocated by a thread, the test is
+     * skipped if the JVM does not provide it
+     */
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        return threads;
+    }
+
+    /**
+     * Add values to the sensor and take the published events from the ring
+     * of the service in bursts like the dispatching thread
+     *
+     * @return the number of events taken
+     */
+    private static long add(Sensor sensor, ValueEventRing.Event event, float[] values, int first, int samples) {
+        ValueEventRing ring = GarmentOSService.mValueEvents;
+        long taken = 0;
+        for (int i = first; i != first + samples; ++i) {
+            values[0] = i;
+            sensor.addRawData(i, values, DIMENSION);
+            if (i % 100 == 99)
+                while (ring.poll(event))
+                    ++taken;
+        }
+        while (ring.poll(event))
+            ++taken;
+        return taken;
+    }
+
+    /**
+     * Publish events of several sensors in bursts and take them afterwards
+     *
+     * @return the number of events taken
+     */
+    private static long run(ValueEventRing ring, ValueEventRing.Event event, float[] values, int events) {
+        long taken = 0;
+        for (int i = 0; i != events; ++i) {
+            values[0] = i;
+            ring.publish(i % 10, i, values, DIMENSION);
+            if (i % 100 == 99)
+                while (ring.poll(event))
+                    ++taken;
+        }
+        while (ring.poll(event))
+            ++taken;
+        return taken;
+    }
+}
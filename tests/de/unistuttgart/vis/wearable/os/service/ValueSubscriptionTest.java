@@ -0,0 +1,169 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import de.unistuttgart.vis.wearable.os.api.ValueBatchCallback;
+import de.unistuttgart.vis.wearable.os.api.ValueChangedCallback;
+import de.unistuttgart.vis.wearable.os.privacy.UserApp;
+import de.unistuttgart.vis.wearable.os.storage.SettingsCodec;
+
+/**
+ * Tests of the value subscriptions and a benchmark comparing the delivery of
+ * single values to the delivery in batches. The Binder transaction itself is
+ * not available on the JVM, so the benchmark measures the work done in the
+ * service per value and counts the calls to the application.
+ *
+ * @author roehrdor
+ */
+public class ValueSubscriptionTest {
+    private static final int SENSOR = 100;
+    private static final int PROHIBITED = 101;
+    private static final int DIMENSION = 3;
+    private static final int SAMPLES = 1000000;
+    private static final int BATCH = 64;
+
+    /**
+     * @return an application that may read all sensors but {@link #PROHIBITED}
+     */
+    private static UserApp app() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SettingsCodec.MAGIC);
+        out.writeInt(SettingsCodec.VERSION);
+        out.writeInt(1);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream app = new DataOutputStream(record);
+        app.writeInt(1);
+        app.writeUTF("de.unistuttgart.vis.wearable.os.test");
+        app.writeInt(0);
+        app.writeBoolean(false);
+        app.writeInt(1);
+        app.writeInt(PROHIBITED);
+        app.writeInt(0);
+        out.writeInt(record.size());
+        out.write(record.toByteArray());
+        return SettingsCodec.decodeApps(bytes.toByteArray()).values().iterator().next();
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        ValueSubscription subscription = new ValueSubscription(null, app(), SENSOR, 10, 1.0f);
+        assertTrue(subscription.accept(0, new float[]{0, 0, 0}, DIMENSION));
+        // too early
+        assertFalse(subscription.accept(5, new float[]{5, 0, 0}, DIMENSION));
+        // not changed enough
+        assertFalse(subscription.accept(20, new float[]{0.5f, 0, 0}, DIMENSION));
+        assertTrue(subscription.accept(30, new float[]{0, 0, -1}, DIMENSION));
+        assertEquals(2, subscription.getDelivered());
+        assertEquals(2, subscription.getDropped());
+
+        ValueSubscription prohibited = new ValueSubscription(null, app(), PROHIBITED, 0, 0);
+        assertFalse(prohibited.accept(0, new float[]{0, 0, 0}, DIMENSION));
+        assertEquals(1, prohibited.getDropped());
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        ValueSubscription subscription = new ValueSubscription(null, app(), SENSOR, 0, 0, 4, 50);
+        assertTrue(subscription.isBatched());
+        assertNull(subscription.takeBatch());
+
+        float[] values = new float[DIMENSION];
+        for (int i = 0; i != 4; ++i) {
+            values[0] = i;
+            assertTrue(subscription.accept(i, values, DIMENSION));
+            assertEquals(i + 1, subscription.addToBatch(i, values, DIMENSION, 1000 + i));
+        }
+        assertTrue(subscription.isBatchFull());
+        // the deadline is set by the first value of the batch
+        assertEquals(1050, subscription.getBatchDeadline());
+
+        ValueBatchCallback batch = subscription.takeBatch();
+        assertEquals(4, batch.size());
+        assertEquals(DIMENSION, batch.dimension);
+        assertEquals(3, batch.times[3]);
+        assertEquals(3.0f, batch.values[3 * DIMENSION], 0);
+        assertFalse(subscription.isBatchFull());
+        assertNull(subscription.takeBatch());
+
+        // a value of another dimension drops the batch
+        subscription.addToBatch(4, values, DIMENSION, 2000);
+        subscription.addToBatch(5, new float[]{1}, 1, 2001);
+        assertEquals(1, subscription.takeBatch().size());
+        assertEquals(3, subscription.getDelivered());
+        assertEquals(1, subscription.getDropped());
+    }
+
+    /**
+     * Deliver the samples like the callback handler does and return the CPU
+     * time used in ns
+     */
+    private static long deliver(ValueSubscription subscription, float[] values) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long start = threads.getCurrentThreadCpuTime();
+        long delivered = 0;
+        for (int i = 0; i != SAMPLES; ++i) {
+            values[0] = i;
+            if (!subscription.accept(i, values, DIMENSION))
+                continue;
+            if (!subscription.isBatched()) {
+                ValueChangedCallback callback = new ValueChangedCallback(SENSOR, i, values.clone());
+                delivered += callback.data.length / DIMENSION;
+                subscription.called();
+            } else if (subscription.addToBatch(i, values, DIMENSION, i) >= BATCH) {
+                ValueBatchCallback callback = subscription.takeBatch();
+                delivered += callback.size();
+                subscription.called();
+            }
+        }
+        assertEquals(SAMPLES, delivered);
+        return threads.getCurrentThreadCpuTime() - start;
+    }
+
+    @Test
+    public void testBenchmark() throws IOException {
+        float[] values = new float[DIMENSION];
+        // warm up both paths
+        deliver(new ValueSubscription(null, app(), SENSOR, 0, 0), values);
+        deliver(new ValueSubscription(null, app(), SENSOR, 0, 0, BATCH, 1000), values);
+
+        ValueSubscription single = new ValueSubscription(null, app(), SENSOR, 0, 0);
+        long wall = System.nanoTime();
+        long cpu = deliver(single, values);
+        wall = System.nanoTime() - wall;
+
+        ValueSubscription batched = new ValueSubscription(null, app(), SENSOR, 0, 0, BATCH, 1000);
+        long batchedWall = System.nanoTime();
+        long batchedCpu = deliver(batched, values);
+        batchedWall = System.nanoTime() - batchedWall;
+
+        System.out.println("ValueSubscriptionTest - " + SAMPLES + " samples");
+        System.out.println("  single:  " + SAMPLES * 1000000000L / Math.max(1, wall) + " samples/s, "
+                + cpu / SAMPLES + " ns CPU per sample, " + single.getCalls() + " calls");
+        System.out.println("  batched: " + SAMPLES * 1000000000L / Math.max(1, batchedWall) + " samples/s, "
+                + batchedCpu / SAMPLES + " ns CPU per sample, " + batched.getCalls() + " calls");
+
+        assertEquals(SAMPLES, single.getDelivered());
+        assertEquals(SAMPLES, batched.getDelivered());
+        assertEquals(SAMPLES, single.getCalls());
+        assertEquals(SAMPLES / BATCH, batched.getCalls());
+    }
+}
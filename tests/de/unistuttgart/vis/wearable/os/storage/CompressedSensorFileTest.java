@@ -0,0 +1,280 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+import de.unistuttgart.vis.wearable.os.sensors.SensorData;
+
+/**
+ * Tests of the compressed block format of the sensor data files
+ *
+ * @author roehrdor
+ */
+public class CompressedSensorFileTest {
+    private static final int DIMENSION = 3;
+
+    private File file;
+    private int blockRecords;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("garmentos", ".sensor");
+        blockRecords = Properties.compressedBlockRecords;
+        Properties.compressedBlockRecords = 64;
+    }
+
+    @After
+    public void tearDown() {
+        Properties.compressedBlockRecords = blockRecords;
+        file.delete();
+    }
+
+    /**
+     * Create the file and append the given records in batches of the given size
+     */
+    private void write(long[] times, float[] values, int batch) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            CompressedSensorFile.create(raf, DIMENSION);
+            for (int i = 0; i < times.length; i += batch)
+                CompressedSensorFile.append(raf, times, values, DIMENSION, i, Math.min(batch, times.length - i));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private List<SensorData> readAll() throws IOException {
+        List<SensorData> data = new ArrayList<SensorData>();
+        assertEquals(DIMENSION, CompressedSensorFile.readAll(file, data));
+        return data;
+    }
+
+    /**
+     * Check that the given records equal the first records written, bit by
+     * bit for the values
+     */
+    private static void assertPrefix(long[] times, float[] values, List<SensorData> data) {
+        for (int i = 0; i != data.size(); ++i) {
+            assertEquals(times[i], data.get(i).getLongUnixDate());
+            float[] v = data.get(i).getData();
+            for (int d = 0; d != DIMENSION; ++d)
+                assertEquals(Float.floatToRawIntBits(values[i * DIMENSION + d]), Float.floatToRawIntBits(v[d]));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Random random = new Random(7);
+        int n = 1000;
+        long[] times = new long[n];
+        float[] values = new float[n * DIMENSION];
+        long time = 1420070400000L;
+        for (int i = 0; i != n; ++i) {
+            // mostly regular intervals with some jitter and gaps
+            time += i % 100 == 0 ? random.nextInt(1000000) : 20 + random.nextInt(3);
+            times[i] = time;
+            values[i * DIMENSION] = 9.81f + random.nextFloat();
+            values[i * DIMENSION + 1] = i % 10 == 0 ? values[(i - i % 10) * DIMENSION + 1] : random.nextFloat() * 100;
+            values[i * DIMENSION + 2] = i % 7;
+        }
+        values[5] = Float.NaN;
+        values[6] = Float.NEGATIVE_INFINITY;
+        values[7] = -0.0f;
+        values[8] = Float.MIN_VALUE;
+
+        write(times, values, 150);
+        List<SensorData> data = readAll();
+        assertEquals(n, data.size());
+        assertPrefix(times, values, data);
+    }
+
+    @Test
+    public void testReadRangeAndLatest() throws IOException {
+        int n = 500;
+        long[] times = new long[n];
+        float[] values = new float[n * DIMENSION];
+        for (int i = 0; i != n; ++i) {
+            times[i] = 1000 + i * 10;
+            values[i * DIMENSION] = i;
+        }
+        write(times, values, 100);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            List<SensorData> range = new ArrayList<SensorData>();
+            CompressedSensorFile.readRange(raf, null, 2000, 2990, 0, range);
+            assertEquals(100, range.size());
+            assertEquals(2000, range.get(0).getLongUnixDate());
+            assertEquals(2990, range.get(99).getLongUnixDate());
+
+            List<SensorData> latest = new ArrayList<SensorData>();
+            CompressedSensorFile.readLatest(raf, null, 70, latest);
+            assertEquals(70, latest.size());
+            assertEquals(times[n - 70], latest.get(0).getLongUnixDate());
+            assertEquals(times[n - 1], latest.get(69).getLongUnixDate());
+            assertEquals(times[n - 1], CompressedSensorFile.getLatest(raf));
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testAppendSkipsOlderRecords() throws IOException {
+        long[] times = {10, 20, 30, 5, 25, 40};
+        float[] values = new float[times.length * DIMENSION];
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            CompressedSensorFile.create(raf, DIMENSION);
+            CompressedSensorFile.append(raf, times, values, DIMENSION, 0, 3);
+            assertEquals(0, CompressedSensorFile.append(raf, times, values, DIMENSION, 3, 1));
+            CompressedSensorFile.append(raf, times, values, DIMENSION, 4, 2);
+        } finally {
+            raf.close();
+        }
+        List<SensorData> data = readAll();
+        assertEquals(4, data.size());
+        assertEquals(30, data.get(2).getLongUnixDate());
+        assertEquals(40, data.get(3).getLongUnixDate());
+    }
+
+    /**
+     * Write a file, then simulate crashes by cutting it off at random byte
+     * offsets and filling the rest with garbage. Recovery has to keep every
+     * block that has been written completely and nothing else.
+     */
+    @Test
+    public void testRecoveryAfterTornWrites() throws IOException {
+        Random random = new Random(42);
+        int n = 2000;
+        long[] times = new long[n];
+        float[] values = new float[n * DIMENSION];
+        for (int i = 0; i != n; ++i) {
+            times[i] = 1000 + i * 20 + random.nextInt(5);
+            for (int d = 0; d != DIMENSION; ++d)
+                values[i * DIMENSION + d] = random.nextFloat() * 20 - 10;
+        }
+        write(times, values, 100);
+
+        //
+        // The end of every block and the number of records up to it
+        //
+        byte[] original = readBytes(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        long[] blocks;
+        try {
+            blocks = CompressedSensorFile.listBlocks(raf, 0);
+        } finally {
+            raf.close();
+        }
+        int count = blocks.length / 2;
+        long[] ends = new long[count + 1];
+        int[] records = new int[count + 1];
+        ends[0] = blocks[1];
+        for (int b = 0; b != count; ++b) {
+            ends[b + 1] = b + 1 < count ? blocks[2 * b + 3] : original.length;
+            records[b + 1] = b + 1 < count ? Arrays.binarySearch(times, blocks[2 * b + 2]) : n;
+        }
+        assertEquals(n, records[count]);
+
+        for (int run = 0; run != 300; ++run) {
+            int cut = (int) ends[0] + random.nextInt(original.length - (int) ends[0] + 1);
+            byte[] torn = Arrays.copyOf(original, cut + (run % 2 == 0 ? 0 : random.nextInt(64)));
+            for (int i = cut; i != torn.length; ++i)
+                torn[i] = (byte) random.nextInt();
+            writeBytes(file, torn);
+
+            int complete = 0;
+            while (complete < count && ends[complete + 1] <= cut)
+                ++complete;
+
+            raf = new RandomAccessFile(file, "rw");
+            try {
+                CompressedSensorFile.recover(raf);
+                assertEquals(ends[complete], raf.length());
+                assertEquals(complete == 0 ? 0 : times[records[complete] - 1], CompressedSensorFile.getLatest(raf));
+            } finally {
+                raf.close();
+            }
+            List<SensorData> data = readAll();
+            assertEquals("records lost after cutting at " + cut, records[complete], data.size());
+            assertPrefix(times, values, data);
+        }
+    }
+
+    /**
+     * Flipping a single bit within a block has to be detected by the
+     * checksum, so the block and all following ones are cut off
+     */
+    @Test
+    public void testRecoveryDropsCorruptBlock() throws IOException {
+        int n = 640;
+        long[] times = new long[n];
+        float[] values = new float[n * DIMENSION];
+        for (int i = 0; i != n; ++i) {
+            times[i] = i;
+            values[i * DIMENSION] = i;
+        }
+        write(times, values, n);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long[] blocks = CompressedSensorFile.listBlocks(raf, 0);
+            assertEquals(10, blocks.length / 2);
+            long position = blocks[2 * 7 + 1] + 30;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x10);
+
+            assertTrue(CompressedSensorFile.recover(raf) > 0);
+            assertEquals(blocks[2 * 7 + 1], raf.length());
+            assertEquals(7 * 64 - 1, CompressedSensorFile.getLatest(raf));
+        } finally {
+            raf.close();
+        }
+        List<SensorData> data = readAll();
+        assertEquals(7 * 64, data.size());
+        assertPrefix(times, values, data);
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeBytes(File file, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of the CRC-32C checksum against the check values of the standard
+ *
+ * @author roehrdor
+ */
+public class Crc32cTest {
+
+    private static long crc(byte[] data) {
+        Crc32c crc = new Crc32c();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    @Test
+    public void testCheckValue() {
+        assertEquals(0xE3069283L, crc("123456789".getBytes()));
+    }
+
+    @Test
+    public void testKnownVectors() {
+        // test vectors of RFC 3720, appendix B.4
+        assertEquals(0x8A9136AAL, crc(new byte[32]));
+        byte[] ones = new byte[32];
+        java.util.Arrays.fill(ones, (byte) 0xFF);
+        assertEquals(0x62A8AB43L, crc(ones));
+        byte[] ascending = new byte[32];
+        for (int i = 0; i != 32; ++i)
+            ascending[i] = (byte) i;
+        assertEquals(0x46DD794EL, crc(ascending));
+    }
+
+    @Test
+    public void testUpdateAndReset() {
+        byte[] data = "GarmentOS sensor block".getBytes();
+        Crc32c crc = new Crc32c();
+        for (byte b : data)
+            crc.update(b);
+        assertEquals(crc(data), crc.getValue());
+
+        crc.reset();
+        crc.update(data, 3, 5);
+        assertEquals(crc(java.util.Arrays.copyOfRange(data, 3, 8)), crc.getValue());
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+/**
+ * Tests of the column oriented segment store
+ *
+ * @author roehrdor
+ */
+public class SegmentStoreTest {
+    private static final int SENSOR = 4711;
+    private static final int DIMENSION = 2;
+    private static final int CAPACITY = 100;
+
+    private File storageDirectory;
+    private int segmentCapacity;
+    private long segmentStoreMaxBytes;
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        storageDirectory = Properties.storageDirectory;
+        segmentCapacity = Properties.segmentCapacity;
+        segmentStoreMaxBytes = Properties.segmentStoreMaxBytes;
+        directory = File.createTempFile("garmentos", "");
+        directory.delete();
+        directory.mkdir();
+        Properties.storageDirectory = directory;
+        Properties.segmentCapacity = CAPACITY;
+        Properties.segmentStoreMaxBytes = Long.MAX_VALUE;
+    }
+
+    @After
+    public void tearDown() {
+        SegmentStore.drop(SENSOR);
+        directory.delete();
+        Properties.storageDirectory = storageDirectory;
+        Properties.segmentCapacity = segmentCapacity;
+        Properties.segmentStoreMaxBytes = segmentStoreMaxBytes;
+    }
+
+    /**
+     * Append the records with the time stamps [from, to) in steps of 10, the
+     * values are derived from the time stamps
+     */
+    private static void append(SegmentStore store, int from, int to) {
+        int n = (to - from) / 10;
+        long[] times = new long[n];
+        float[] values = new float[n * DIMENSION];
+        for (int i = 0; i != n; ++i) {
+            times[i] = from + i * 10;
+            values[i * DIMENSION] = times[i];
+            values[i * DIMENSION + 1] = -times[i];
+        }
+        store.append(times, values, DIMENSION, 0, n);
+    }
+
+    /**
+     * Read the whole range [begin, end] and check that it holds the given
+     * number of records starting at the given time stamp
+     */
+    private static void assertRecords(SegmentStore store, long begin, long end, long first, int count) {
+        assertEquals(DIMENSION, store.getDimension());
+        assertEquals(count, store.count(begin, end));
+        long[] times = new long[count + 1];
+        float[] values = new float[(count + 1) * DIMENSION];
+        assertEquals(count, store.read(begin, end, times, values, 1, count));
+        for (int i = 0; i != count; ++i) {
+            long time = first + i * 10;
+            assertEquals(time, times[i + 1]);
+            assertEquals((float) time, values[(i + 1) * DIMENSION], 0);
+            assertEquals(-(float) time, values[(i + 1) * DIMENSION + 1], 0);
+        }
+    }
+
+    @Test
+    public void testReadAcrossSegments() {
+        SegmentStore store = SegmentStore.getStore(SENSOR);
+        append(store, 0, 2500);
+        assertEquals(0, store.getFirstTime());
+        assertEquals(2490, store.getLastTime());
+        assertEquals(3 * (16 + CAPACITY * (8 + 4 * DIMENSION)), store.getSize());
+
+        assertRecords(store, 500, 1500, 500, 101);
+        assertEquals(0, store.read(3000, 4000, new long[1], new float[DIMENSION], 0, 1));
+    }
+
+    @Test
+    public void testReadLimitedAcrossSegments() {
+        SegmentStore store = SegmentStore.getStore(SENSOR);
+        append(store, 0, 2500);
+
+        // continue after the last time stamp read until the range is done
+        long[] times = new long[70];
+        float[] values = new float[70 * DIMENSION];
+        long begin = 500;
+        int total = 0, n;
+        while ((n = store.read(begin, 1500, times, values, 0, times.length)) != 0) {
+            for (int i = 0; i != n; ++i) {
+                assertEquals(500 + (total + i) * 10, times[i]);
+                assertEquals(-(float) times[i], values[i * DIMENSION + 1], 0);
+            }
+            total += n;
+            begin = times[n - 1] + 1;
+        }
+        assertEquals(101, total);
+    }
+
+    @Test
+    public void testAppendSkipsWrittenRecords() {
+        SegmentStore store = SegmentStore.getStore(SENSOR);
+        append(store, 0, 1000);
+        append(store, 500, 1500);
+
+        assertRecords(store, Long.MIN_VALUE, Long.MAX_VALUE, 0, 150);
+    }
+
+    @Test
+    public void testTrimAndDrop() {
+        SegmentStore store = SegmentStore.getStore(SENSOR);
+        append(store, 0, 5000);
+        long segment = 16 + CAPACITY * (8 + 4 * DIMENSION);
+        assertEquals(5 * segment, store.getSize());
+
+        assertEquals(2 * segment, store.dropBefore(2000));
+        assertEquals(2000, store.getFirstTime());
+
+        assertEquals(segment, store.trimToSize(2 * segment));
+        assertEquals(3000, store.getFirstTime());
+
+        // the segment still being written is always kept
+        store.trimToSize(0);
+        assertEquals(segment, store.getSize());
+        assertRecords(store, Long.MIN_VALUE, Long.MAX_VALUE, 4000, CAPACITY);
+    }
+
+    @Test
+    public void testDropDeletesSegments() {
+        SegmentStore store = SegmentStore.getStore(SENSOR);
+        append(store, 0, 1500);
+        store.force();
+        File segments = new File(directory, SENSOR + SegmentStore.DIRECTORY_SUFFIX);
+        assertTrue(segments.isDirectory());
+
+        SegmentStore.drop(SENSOR);
+        assertTrue(!segments.exists());
+        assertEquals(Long.MAX_VALUE, SegmentStore.getStore(SENSOR).getFirstTime());
+    }
+}
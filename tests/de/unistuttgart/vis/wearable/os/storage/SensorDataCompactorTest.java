@@ -0,0 +1,193 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unistuttgart.vis.wearable.os.properties.Properties;
+
+/**
+ * Tests of the retention policies applied by the compactor
+ *
+ * @author roehrdor
+ */
+public class SensorDataCompactorTest {
+    private static final int SENSOR = 4712;
+    private static final int DIMENSION = 2;
+    private static final int RECORD_SIZE = 8 + 4 * DIMENSION;
+    private static final long HOUR = 60L * 60 * 1000;
+
+    private File storageDirectory;
+    private boolean compressedSensorFiles;
+    private File directory;
+    private File file;
+    private long now;
+
+    @Before
+    public void setUp() throws IOException {
+        storageDirectory = Properties.storageDirectory;
+        compressedSensorFiles = Properties.compressedSensorFiles;
+        directory = File.createTempFile("garmentos", "");
+        directory.delete();
+        directory.mkdir();
+        Properties.storageDirectory = directory;
+        file = new File(directory, String.valueOf(SENSOR));
+        now = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() {
+        SensorDataCompactor.setPolicy(SENSOR, null);
+        SegmentStore.drop(SENSOR);
+        RollupStore.drop(SENSOR);
+        TimeIndex.drop(SENSOR);
+        delete(directory);
+        Properties.storageDirectory = storageDirectory;
+        Properties.compressedSensorFiles = compressedSensorFiles;
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        f.delete();
+    }
+
+    /**
+     * Write an uncompressed sensor file holding one record per hour of the
+     * last given number of hours and aggregate the records into the rollups
+     */
+    private void write(int hours) throws IOException {
+        long[] times = new long[hours];
+        float[] values = new float[hours * DIMENSION];
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeLong(now);
+            raf.writeInt(DIMENSION);
+            for (int i = 0; i != hours; ++i) {
+                times[i] = now - (hours - 1 - i) * HOUR;
+                values[i * DIMENSION] = i;
+                values[i * DIMENSION + 1] = -i;
+                raf.writeLong(times[i]);
+                raf.writeFloat(values[i * DIMENSION]);
+                raf.writeFloat(values[i * DIMENSION + 1]);
+            }
+        } finally {
+            raf.close();
+        }
+        RollupStore.getStore(SENSOR).append(times, values, DIMENSION, 0, hours);
+    }
+
+    /**
+     * @return the time stamp of the oldest record of the uncompressed file
+     */
+    private long firstTime() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(12);
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private boolean isCompressed() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return CompressedSensorFile.isCompressed(raf);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testDefaultPolicyKeepsEverything() throws IOException {
+        write(48);
+        long size = file.length();
+        assertTrue(SensorDataCompactor.getPolicy(SENSOR).isUnlimited());
+
+        SensorDataCompactor.compactAll();
+        assertEquals(size, file.length());
+        assertFalse(isCompressed());
+    }
+
+    @Test
+    public void testRawRetentionKeepsRollups() throws IOException {
+        Properties.compressedSensorFiles = false;
+        write(48);
+        RollupStore rollups = RollupStore.getStore(SENSOR);
+        long rollupSize = rollups.getSize();
+
+        SensorDataCompactor.setPolicy(SENSOR, new RetentionPolicy(24 * HOUR, 0, 0));
+        SensorDataCompactor.compactAll();
+
+        // the file is kept uncompressed and only holds the last day
+        assertFalse(isCompressed());
+        assertEquals(12 + 24 * RECORD_SIZE, file.length());
+        assertEquals(now - 23 * HOUR, firstTime());
+        assertEquals(rollupSize, rollups.getSize());
+        assertEquals(now - 47 * HOUR, rollups.getFirstCovered());
+    }
+
+    @Test
+    public void testRollupRetention() throws IOException {
+        write(48);
+        RollupStore rollups = RollupStore.getStore(SENSOR);
+        long rollupSize = rollups.getSize();
+
+        SensorDataCompactor.setPolicy(SENSOR, new RetentionPolicy(0, 12 * HOUR, 0));
+        SensorDataCompactor.compactAll();
+
+        assertEquals(12 + 48 * RECORD_SIZE, file.length());
+        assertTrue(rollups.getSize() < rollupSize);
+    }
+
+    @Test
+    public void testSizeLimitOfUncompressedFile() throws IOException {
+        Properties.compressedSensorFiles = false;
+        write(100);
+
+        long maxBytes = 2 * (12 + 10 * RECORD_SIZE);
+        SensorDataCompactor.setPolicy(SENSOR, new RetentionPolicy(0, 0, maxBytes));
+        SensorDataCompactor.compactAll();
+
+        assertFalse(isCompressed());
+        assertTrue(file.length() <= maxBytes / 2 + RECORD_SIZE);
+        assertTrue(file.length() + RollupStore.getStore(SENSOR).getSize() <= maxBytes);
+        assertEquals((file.length() - 12) / RECORD_SIZE, (now - firstTime()) / HOUR + 1);
+    }
+
+    @Test
+    public void testConversionToCompressedFormat() throws IOException {
+        Properties.compressedSensorFiles = true;
+        write(48);
+
+        SensorDataCompactor.setPolicy(SENSOR, new RetentionPolicy(24 * HOUR, 0, 0));
+        SensorDataCompactor.compactAll();
+
+        assertTrue(isCompressed());
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            assertEquals(now - 23 * HOUR, CompressedSensorFile.getFirstTime(raf));
+            assertEquals(now, CompressedSensorFile.getLatest(raf));
+        } finally {
+            raf.close();
+        }
+    }
+}
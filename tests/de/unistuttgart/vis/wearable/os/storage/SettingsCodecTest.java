@@ -0,0 +1,291 @@
+/*
+ * This file is part of the Garment OS Project. For any details concerning use
+ * of this project in source or binary form please refer to the provided license
+ * file.
+ *
+ * (c) 2014-2015 GarmentOS
+ */
+package de.unistuttgart.vis.wearable.os.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import de.unistuttgart.vis.wearable.os.graph.GraphType;
+import de.unistuttgart.vis.wearable.os.privacy.UserApp;
+import de.unistuttgart.vis.wearable.os.sensors.MeasurementSystems;
+import de.unistuttgart.vis.wearable.os.sensors.MeasurementUnits;
+import de.unistuttgart.vis.wearable.os.sensors.Sensor;
+import de.unistuttgart.vis.wearable.os.sensors.SensorType;
+
+/**
+ * Tests of the binary settings format, the migration of settings written
+ * with java serialization and a benchmark comparing both formats
+ *
+ * @author roehrdor
+ */
+public class SettingsCodecTest {
+    private static final int RUNS = 2000;
+
+    //
+    // The records are built field by field, so any change of the format that
+    // breaks reading existing files makes these tests fail
+    //
+    private static byte[] sensorRecord(int id, String name, boolean enabled) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBoolean(id < 100);
+        out.writeBoolean(enabled);
+        out.writeInt(id);
+        out.writeUTF(id < 100 ? "" : "00:11:22:33:44:" + id);
+        out.writeInt(50);
+        out.writeFloat(0.25f);
+        out.writeInt(500);
+        out.writeUTF(name);
+        out.writeUTF(SensorType.values()[id % SensorType.values().length].name());
+        out.writeUTF(GraphType.values()[0].name());
+        out.writeUTF(MeasurementUnits.values()[0].name());
+        out.writeUTF(MeasurementSystems.values()[0].name());
+        out.writeUTF("");
+        out.writeUTF(MeasurementSystems.values()[0].name());
+        return bytes.toByteArray();
+    }
+
+    private static byte[] appRecord(int id, String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(id);
+        out.writeUTF(name);
+        out.writeInt(0x5);
+        out.writeBoolean(true);
+        out.writeInt(2);
+        out.writeInt(100);
+        out.writeInt(101);
+        out.writeInt(1);
+        out.writeUTF(SensorType.values()[0].name());
+        out.writeInt(7);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] file(int version, List<byte[]> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SettingsCodec.MAGIC);
+        out.writeInt(version);
+        out.writeInt(records.size());
+        for (byte[] record : records) {
+            out.writeInt(record.length);
+            out.write(record);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] sensorFile(int count) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        for (int i = 0; i != count; ++i)
+            records.add(sensorRecord(i < count / 2 ? i : 100 + i, "Sensor " + i, i % 3 != 0));
+        return file(SettingsCodec.VERSION, records);
+    }
+
+    private static byte[] appFile(int count) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        for (int i = 0; i != count; ++i)
+            records.add(appRecord(("app" + i).hashCode(), "de.example.app" + i));
+        return file(SettingsCodec.VERSION, records);
+    }
+
+    private static void assertSameSensor(Sensor expected, Sensor actual) {
+        assertEquals(expected.getSensorID(), actual.getSensorID());
+        assertEquals(expected.isInternalSensor(), actual.isInternalSensor());
+        assertEquals(expected.isEnabled(), actual.isEnabled());
+        assertEquals(expected.getBluetoothID(), actual.getBluetoothID());
+        assertEquals(expected.getSampleRate(), actual.getSampleRate());
+        assertEquals(expected.getSmoothness(), actual.getSmoothness(), 0);
+        assertEquals(expected.getSavePeriod(), actual.getSavePeriod());
+        assertEquals(expected.getDisplayedSensorName(), actual.getDisplayedSensorName());
+        assertEquals(expected.getSensorType(), actual.getSensorType());
+        assertEquals(expected.getGraphType(), actual.getGraphType());
+        assertEquals(expected.getDisplayedMeasurementUnit(), actual.getDisplayedMeasurementUnit());
+        assertEquals(expected.getDisplayedMeasurementSystem(), actual.getDisplayedMeasurementSystem());
+    }
+
+    private static void assertSameApp(UserApp expected, UserApp actual) {
+        assertEquals(expected.getID(), actual.getID());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.activityRecognitionGranted(), actual.activityRecognitionGranted());
+        assertEquals(expected.sensorProhibited(100), actual.sensorProhibited(100));
+        assertEquals(expected.sensorProhibited(102), actual.sensorProhibited(102));
+        assertEquals(expected.sensorTypeGranted(0x4), actual.sensorTypeGranted(0x4));
+        assertEquals(expected.getDefaultSensor(SensorType.values()[0]), actual.getDefaultSensor(SensorType.values()[0]));
+    }
+
+    @Test
+    public void testSensorRoundTrip() throws IOException {
+        byte[] data = sensorFile(10);
+        assertTrue(SettingsCodec.isEncoded(data));
+
+        LinkedHashMap<Integer, Sensor> sensors = SettingsCodec.decodeSensors(data);
+        assertEquals(10, sensors.size());
+        Sensor first = sensors.values().iterator().next();
+        assertEquals(0, first.getSensorID());
+        assertTrue(first.isInternalSensor());
+        assertEquals("Sensor 0", first.getDisplayedSensorName());
+        assertEquals(0.25f, first.getSmoothness(), 0);
+        assertEquals(null, first.getDisplayedMeasurementUnit());
+
+        // encoding the decoded sensors yields the same bytes
+        assertArrayEquals(data, SettingsCodec.encodeSensors(sensors.values()));
+    }
+
+    @Test
+    public void testAppRoundTrip() throws IOException {
+        byte[] data = appFile(5);
+        LinkedHashMap<String, UserApp> apps = SettingsCodec.decodeApps(data);
+        assertEquals(5, apps.size());
+        UserApp app = apps.get("de.example.app3");
+        assertEquals("app3".hashCode(), app.getID());
+        assertTrue(app.activityRecognitionGranted());
+        assertTrue(app.sensorProhibited(101));
+        assertFalse(app.sensorProhibited(102));
+        assertEquals(7, app.getDefaultSensor(SensorType.values()[0]));
+
+        assertArrayEquals(data, SettingsCodec.encodeApps(apps.values()));
+
+        // records encoded one by one form the same file
+        List<byte[]> records = new ArrayList<byte[]>();
+        for (UserApp ua : apps.values())
+            records.add(SettingsCodec.encodeApp(ua));
+        assertArrayEquals(data, SettingsCodec.encodeAppRecords(records));
+    }
+
+    @Test
+    public void testFieldsOfLaterVersionsAreSkipped() throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        for (int i = 0; i != 3; ++i) {
+            byte[] record = appRecord(i, "app" + i);
+            byte[] extended = java.util.Arrays.copyOf(record, record.length + 12);
+            extended[record.length] = 42;
+            records.add(extended);
+        }
+        LinkedHashMap<String, UserApp> apps = SettingsCodec.decodeApps(file(SettingsCodec.VERSION + 1, records));
+        assertEquals(3, apps.size());
+        assertEquals(2, apps.get("app2").getID());
+        assertTrue(apps.get("app2").sensorProhibited(100));
+    }
+
+    @Test
+    public void testInvalidDataIsRejected() throws IOException {
+        assertFalse(SettingsCodec.isEncoded(new byte[]{1, 2}));
+        try {
+            SettingsCodec.decodeApps(new byte[]{0x47, 0x4F, 0x53, 0x53, 0, 0, 0, 0});
+            fail("version 0 accepted");
+        } catch (IOException ioe) {
+        }
+        byte[] truncated = appFile(3);
+        try {
+            SettingsCodec.decodeApps(java.util.Arrays.copyOf(truncated, truncated.length - 5));
+            fail("truncated file accepted");
+        } catch (IOException ioe) {
+        }
+    }
+
+    @Test
+    public void testLegacyFilesAreMigrated() throws IOException {
+        HashMap<Integer, Sensor> sensors = new HashMap<Integer, Sensor>(SettingsCodec.decodeSensors(sensorFile(6)));
+        HashMap<String, UserApp> apps = new HashMap<String, UserApp>(SettingsCodec.decodeApps(appFile(4)));
+
+        File sensorFile = File.createTempFile("garmentos", "S");
+        File appFile = File.createTempFile("garmentos", "A");
+        try {
+            writeLegacy(sensorFile, sensors);
+            writeLegacy(appFile, apps);
+
+            Map<Integer, Sensor> readSensors = SettingsStorage.readSensors(sensorFile);
+            assertEquals(sensors.size(), readSensors.size());
+            for (Sensor sensor : sensors.values())
+                assertSameSensor(sensor, readSensors.get(sensor.getSensorID()));
+
+            Map<String, UserApp> readApps = SettingsStorage.readApps(appFile);
+            assertEquals(apps.size(), readApps.size());
+            for (UserApp app : apps.values())
+                assertSameApp(app, readApps.get(app.getName()));
+        } finally {
+            sensorFile.delete();
+            appFile.delete();
+        }
+    }
+
+    private static void writeLegacy(File file, Object object) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file));
+        try {
+            oos.writeObject(object);
+        } finally {
+            oos.close();
+        }
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(object);
+        oos.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        LinkedHashMap<Integer, Sensor> sensors = SettingsCodec.decodeSensors(sensorFile(20));
+        HashMap<Integer, Sensor> legacy = new HashMap<Integer, Sensor>(sensors);
+
+        long saveLegacy = 0, loadLegacy = 0, save = 0, load = 0;
+        byte[] legacyData = null;
+        byte[] data = null;
+        for (int run = 0; run != RUNS; ++run) {
+            long start = System.nanoTime();
+            legacyData = serialize(legacy);
+            saveLegacy += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            new ObjectInputStream(new java.io.ByteArrayInputStream(legacyData)).readObject();
+            loadLegacy += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            data = SettingsCodec.encodeSensors(sensors.values());
+            save += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            SettingsCodec.decodeSensors(data);
+            load += System.nanoTime() - start;
+        }
+
+        //
+        // The former format rewrote the sensor file every 10 seconds, now it
+        // is only written after a change, e.g. once per hour
+        //
+        long legacyPerHour = legacyData.length * 360L;
+        long perHour = data.length;
+        System.out.println("SettingsCodecTest - 20 sensors");
+        System.out.println("  java serialization: " + legacyData.length + " bytes, save " + saveLegacy / RUNS / 1000
+                + " us, load " + loadLegacy / RUNS / 1000 + " us, " + legacyPerHour + " bytes per hour");
+        System.out.println("  settings codec:     " + data.length + " bytes, save " + save / RUNS / 1000
+                + " us, load " + load / RUNS / 1000 + " us, " + perHour + " bytes per hour");
+        assertTrue(data.length < legacyData.length);
+    }
+}